@@ -8,6 +8,7 @@ import com.netease.nim.camellia.core.model.operation.ResourceOperation;
 import com.netease.nim.camellia.core.model.operation.ResourceReadOperation;
 import com.netease.nim.camellia.core.model.operation.ResourceWriteOperation;
 import com.netease.nim.camellia.core.util.CheckUtil;
+import com.netease.nim.camellia.core.util.ResourceRoutingPlan;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.MethodProxy;
 
@@ -21,8 +22,13 @@ import java.util.concurrent.*;
  */
 public class OperationCallback<T> implements MethodInterceptor {
 
-    private ResourceOperation resourceOperation;
-    private Map<Resource, T> clientMap;
+    //预先解析好的读写资源和对应的client
+    private final ResourceRoutingPlan.Route route;
+    private final Resource[] readResources;
+    private final Object[] readClients;
+    private final boolean readRandom;
+    private final Resource[] writeResources;
+    private final Object[] writeClients;
     private String className;
     private ProxyEnv env = ProxyEnv.defaultProxyEnv();
 
@@ -41,14 +47,26 @@ public class OperationCallback<T> implements MethodInterceptor {
             operationType(method);
             getMethodName(method);
         }
-        this.resourceOperation = resourceOperation;
-        this.clientMap = clientMap;
+        this.route = new ResourceRoutingPlan.Route(resourceOperation);
+        this.readResources = route.getAllReadResources();
+        this.readClients = toClients(readResources, clientMap);
+        this.readRandom = route.getReadType() == ResourceRoutingPlan.Route.ReadType.RANDOM;
+        this.writeResources = route.getAllWriteResources();
+        this.writeClients = toClients(writeResources, clientMap);
         this.className = clazz.getName();
         if (env != null) {
             this.env = env;
         }
     }
 
+    private static <T> Object[] toClients(Resource[] resources, Map<Resource, T> clientMap) {
+        Object[] clients = new Object[resources.length];
+        for (int i = 0; i < resources.length; i++) {
+            clients[i] = clientMap.get(resources[i]);
+        }
+        return clients;
+    }
+
     private static final byte WRITE = 1;
     private static final byte READ = 2;
     private static final byte UNKNOWN = 3;
@@ -85,111 +103,58 @@ public class OperationCallback<T> implements MethodInterceptor {
     }
 
     private Object write(final Object[] objects, final Method method) throws Throwable {
-        ResourceOperation.Type type = resourceOperation.getType();
-        switch (type) {
-            case SIMPLE:
-                Resource resource1 = resourceOperation.getResource();
-                T client = clientMap.get(resource1);
-                incrWrite(resource1, method);
-                return method.invoke(client, objects);
-            case RW_SEPARATE:
-                ResourceWriteOperation writeOperation = resourceOperation.getWriteOperation();
-                switch (writeOperation.getType()) {
-                    case SIMPLE:
-                        Resource resource2 = writeOperation.getWriteResource();
-                        T client1 = clientMap.get(resource2);
-                        incrWrite(resource2, method);
-                        return method.invoke(client1, objects);
-                    case MULTI:
-                        if (env.isMultiWriteConcurrentEnable()) {
-                            List<Future> futureList = new ArrayList<>();
-                            for (final Resource resource : writeOperation.getWriteResources()) {
-                                final T client2 = clientMap.get(resource);
-                                Future<Object> future = env.getMultiWriteConcurrentExec().submit(new Callable<Object>() {
-                                    @Override
-                                    public Object call() throws Exception {
-                                        incrWrite(resource, method);
-                                        return method.invoke(client2, objects);
-                                    }
-                                });
-                                futureList.add(future);
-                            }
-                            Object ret = null;
-                            boolean isRetSet = false;
-                            for (Future future : futureList) {
-                                Object ret1 = future.get();
-                                if (!isRetSet) {
-                                    ret = ret1;
-                                    isRetSet = true;
-                                }
-                            }
-                            return ret;
-                        } else {
-                            Object ret = null;
-                            boolean isRetSet = false;
-                            for (Resource resource : writeOperation.getWriteResources()) {
-                                T client2 = clientMap.get(resource);
-                                incrWrite(resource, method);
-                                Object ret1 = method.invoke(client2, objects);
-                                if (!isRetSet) {
-                                    ret = ret1;
-                                    isRetSet = true;
-                                }
-                            }
-                            return ret;
-                        }
-                    default:
-                        throw new RuntimeException("unknown operation write type");
+        if (writeClients.length == 1) {
+            incrWrite(writeResources[0], method);
+            return method.invoke(writeClients[0], objects);
+        }
+        if (env.isMultiWriteConcurrentEnable()) {
+            Future[] futures = new Future[writeClients.length];
+            for (int i = 0; i < writeClients.length; i++) {
+                final Resource resource = writeResources[i];
+                final Object client = writeClients[i];
+                futures[i] = env.getMultiWriteConcurrentExec().submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        incrWrite(resource, method);
+                        return method.invoke(client, objects);
+                    }
+                });
+            }
+            Object ret = futures[0].get();
+            for (int i = 1; i < futures.length; i++) {
+                futures[i].get();
+            }
+            return ret;
+        } else {
+            Object ret = null;
+            for (int i = 0; i < writeClients.length; i++) {
+                incrWrite(writeResources[i], method);
+                Object ret1 = method.invoke(writeClients[i], objects);
+                if (i == 0) {
+                    ret = ret1;
                 }
-            default:
-                throw new IllegalArgumentException("unknown operation type");
+            }
+            return ret;
         }
     }
 
     private Object read(Object[] objects, Method method) throws Throwable {
-        ResourceOperation.Type type = resourceOperation.getType();
-        switch (type) {
-            case SIMPLE:
-                Resource resource1 = resourceOperation.getResource();
-                T client = clientMap.get(resource1);
-                incrRead(resource1, method);
-                return method.invoke(client, objects);
-            case RW_SEPARATE:
-                ResourceReadOperation readOperation = resourceOperation.getReadOperation();
-                switch (readOperation.getType()) {
-                    case SIMPLE:
-                        Resource resource2 = readOperation.getReadResource();
-                        T client1 = clientMap.get(resource2);
-                        incrRead(resource2, method);
-                        return method.invoke(client1, objects);
-                    case ORDER:
-                        Throwable ex = null;
-                        for (Resource resource : readOperation.getReadResources()) {
-                            T client2 = clientMap.get(resource);
-                            try {
-                                incrRead(resource, method);
-                                return method.invoke(client2, objects);
-                            } catch (Throwable throwable) {
-                                ex = throwable;
-                            }
-                        }
-                        if (ex != null) {
-                            throw ex;
-                        }
-                        throw new RuntimeException("no reachable read client");
-                    case RANDOM:
-                        List<Resource> list = readOperation.getReadResources();
-                        int index = ThreadLocalRandom.current().nextInt(list.size());
-                        Resource resource = list.get(index);
-                        T client3 = clientMap.get(resource);
-                        incrRead(resource, method);
-                        return method.invoke(client3, objects);
-                    default:
-                        throw new RuntimeException("unknown operation read type");
-                }
-            default:
-                throw new IllegalArgumentException("unknown operation type");
+        if (readRandom || readClients.length == 1) {
+            int index = route.chooseReadIndex();
+            incrRead(readResources[index], method);
+            return method.invoke(readClients[index], objects);
+        }
+        //ORDER，按顺序读，前一个失败了则读下一个
+        Throwable ex = null;
+        for (int i = 0; i < readClients.length; i++) {
+            try {
+                incrRead(readResources[i], method);
+                return method.invoke(readClients[i], objects);
+            } catch (Throwable throwable) {
+                ex = throwable;
+            }
         }
+        throw ex;
     }
 
     private Map<Method, String> fullNameCache = new HashMap<>();
@@ -0,0 +1,13 @@
+package com.netease.nim.camellia.core.client.env;
+
+/**
+ * 直接计算bucket的分片函数，用于一致性hash类的分片算法（bucketSize变化时只有少量key需要迁移）
+ * 若分片函数实现了该接口，则不再使用shadingCode取余的方式计算bucket
+ */
+public interface BucketShadingFunc extends ShadingFunc {
+
+    /**
+     * should return [0, bucketSize)
+     */
+    int bucket(int bucketSize, byte[]... data);
+}
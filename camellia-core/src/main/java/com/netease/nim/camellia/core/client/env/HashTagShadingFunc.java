@@ -0,0 +1,41 @@
+package com.netease.nim.camellia.core.client.env;
+
+import com.netease.nim.camellia.core.util.HashTagUtil;
+import com.netease.nim.camellia.core.util.MathUtil;
+
+/**
+ * 支持hashtag的分片函数，先提取key中的{hashtag}，再交给实际的分片函数计算
+ */
+public class HashTagShadingFunc implements BucketShadingFunc {
+
+    private final ShadingFunc shadingFunc;
+
+    public HashTagShadingFunc(ShadingFunc shadingFunc) {
+        if (shadingFunc == null) {
+            throw new IllegalArgumentException("shadingFunc is null");
+        }
+        this.shadingFunc = shadingFunc;
+    }
+
+    @Override
+    public int shadingCode(byte[]... data) {
+        return shadingFunc.shadingCode(HashTagUtil.hashTag(data));
+    }
+
+    @Override
+    public int bucket(int bucketSize, byte[]... data) {
+        byte[][] tags = HashTagUtil.hashTag(data);
+        if (shadingFunc instanceof BucketShadingFunc) {
+            return ((BucketShadingFunc) shadingFunc).bucket(bucketSize, tags);
+        }
+        int code = shadingFunc.shadingCode(tags);
+        if (code < 0) {
+            code = -code;
+        }
+        return MathUtil.mod(MathUtil.is2Power(bucketSize), code, bucketSize);
+    }
+
+    public ShadingFunc getShadingFunc() {
+        return shadingFunc;
+    }
+}
@@ -0,0 +1,44 @@
+package com.netease.nim.camellia.core.client.env;
+
+/**
+ * 基于jump consistent hash的分片函数
+ * bucketSize从n扩容到m时，只有(m-n)/m的key会迁移，且只会迁移到新增的bucket上
+ * see https://arxiv.org/abs/1406.2294
+ */
+public class JumpShadingFunc implements BucketShadingFunc {
+
+    @Override
+    public int shadingCode(byte[]... data) {
+        return (int) (hash(data) & Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int bucket(int bucketSize, byte[]... data) {
+        return jumpConsistentHash(hash(data), bucketSize);
+    }
+
+    public static int jumpConsistentHash(long key, int bucketSize) {
+        long b = -1;
+        long j = 0;
+        while (j < bucketSize) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    //FNV-1a 64位
+    static long hash(byte[]... data) {
+        long h = 0xcbf29ce484222325L;
+        if (data == null) return h;
+        for (byte[] d : data) {
+            if (d == null) continue;
+            for (byte b : d) {
+                h ^= (b & 0xff);
+                h *= 0x100000001b3L;
+            }
+        }
+        return h;
+    }
+}
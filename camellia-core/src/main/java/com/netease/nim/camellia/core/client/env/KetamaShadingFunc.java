@@ -0,0 +1,111 @@
+package com.netease.nim.camellia.core.client.env;
+
+import com.netease.nim.camellia.core.util.MD5Util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于虚拟节点的一致性hash环（ketama）的分片函数
+ * 每个bucket在环上有若干个虚拟节点，bucketSize变化时只有新增/删除的bucket附近的key会迁移
+ */
+public class KetamaShadingFunc implements BucketShadingFunc {
+
+    //每个bucket的虚拟节点数，每次md5生成4个节点
+    private static final int VIRTUAL_NODES = 160;
+
+    //环只和bucketSize有关，所有实例共享，避免每个分片函数实例各自构建
+    private static final ConcurrentHashMap<Integer, Ring> ringMap = new ConcurrentHashMap<>();
+
+    /**
+     * 预先构建bucketSize对应的环，加载分片表时调用，避免在请求线程上构建
+     */
+    public static void prepare(int bucketSize) {
+        ring(bucketSize);
+    }
+
+    @Override
+    public int shadingCode(byte[]... data) {
+        return (int) (hash(data) & Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int bucket(int bucketSize, byte[]... data) {
+        return ring(bucketSize).bucket(hash(data));
+    }
+
+    private static Ring ring(int bucketSize) {
+        Ring ring = ringMap.get(bucketSize);
+        if (ring == null) {
+            ring = new Ring(bucketSize);
+            Ring old = ringMap.putIfAbsent(bucketSize, ring);
+            if (old != null) {
+                ring = old;
+            }
+        }
+        return ring;
+    }
+
+    //FNV-1a 32位，再经过murmur3的fmix打散
+    private static long hash(byte[]... data) {
+        int h = 0x811c9dc5;
+        if (data != null) {
+            for (byte[] d : data) {
+                if (d == null) continue;
+                for (byte b : d) {
+                    h ^= (b & 0xff);
+                    h *= 0x01000193;
+                }
+            }
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & 0xffffffffL;
+    }
+
+    private static class Ring {
+        private final long[] points;
+        private final int[] buckets;
+
+        Ring(int bucketSize) {
+            int size = bucketSize * VIRTUAL_NODES;
+            long[] nodes = new long[size];
+            int index = 0;
+            for (int bucket = 0; bucket < bucketSize; bucket++) {
+                for (int i = 0; i < VIRTUAL_NODES / 4; i++) {
+                    byte[] digest = MD5Util.md5(("shading-" + bucket + "-" + i).getBytes(StandardCharsets.UTF_8));
+                    for (int k = 0; k < 4; k++) {
+                        long point = ((long) (digest[3 + k * 4] & 0xff) << 24)
+                                | ((long) (digest[2 + k * 4] & 0xff) << 16)
+                                | ((long) (digest[1 + k * 4] & 0xff) << 8)
+                                | (digest[k * 4] & 0xff);
+                        //高位存放节点位置，低31位存放bucket，排序后相同位置的节点顺序也是确定的
+                        nodes[index++] = (point << 31) | bucket;
+                    }
+                }
+            }
+            Arrays.sort(nodes);
+            this.points = new long[size];
+            this.buckets = new int[size];
+            for (int i = 0; i < size; i++) {
+                points[i] = nodes[i] >>> 31;
+                buckets[i] = (int) (nodes[i] & Integer.MAX_VALUE);
+            }
+        }
+
+        int bucket(long hash) {
+            int index = Arrays.binarySearch(points, hash);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            if (index >= points.length) {
+                index = 0;
+            }
+            return buckets[index];
+        }
+    }
+}
@@ -2,7 +2,9 @@ package com.netease.nim.camellia.core.client.hub;
 
 
 import com.netease.nim.camellia.core.client.env.ProxyEnv;
+import com.netease.nim.camellia.core.client.env.ShadingFunc;
 import com.netease.nim.camellia.core.util.MathUtil;
+import com.netease.nim.camellia.core.util.ShadingFuncUtil;
 
 import java.util.Map;
 
@@ -15,13 +17,20 @@ public class ShadingProxyHub<T> implements IProxyHub<T> {
     private int bucketSize;
     private Object[] proxyArray;
     private boolean is2Power;
-    private ProxyEnv env;
+    private ShadingFunc shadingFunc;
 
     public ShadingProxyHub(int bucketSize, Map<Integer, T> proxyMap, ProxyEnv env) {
+        this(bucketSize, proxyMap, env, null);
+    }
+
+    public ShadingProxyHub(int bucketSize, Map<Integer, T> proxyMap, ProxyEnv env, ShadingFunc shadingFunc) {
         if (env == null) {
             throw new IllegalArgumentException("env is null");
         }
-        if (env.getShadingFunc() == null) {
+        if (shadingFunc == null) {
+            shadingFunc = env.getShadingFunc();
+        }
+        if (shadingFunc == null) {
             throw new IllegalArgumentException("shadingFunc is null");
         }
         if (proxyMap == null) {
@@ -40,16 +49,12 @@ public class ShadingProxyHub<T> implements IProxyHub<T> {
         }
         this.bucketSize = bucketSize;
         this.is2Power = MathUtil.is2Power(bucketSize);
-        this.env = env;
+        this.shadingFunc = shadingFunc;
     }
 
     @Override
     public T chooseProxy(byte[]... key) {
-        int code = env.getShadingFunc().shadingCode(key);
-        if (code < 0) {
-            code = -code;
-        }
-        int index = MathUtil.mod(is2Power, code, bucketSize);
+        int index = ShadingFuncUtil.bucket(shadingFunc, is2Power, bucketSize, key);
         return (T) proxyArray[index];
     }
 
@@ -3,6 +3,7 @@ package com.netease.nim.camellia.core.client.hub.standard;
 import com.netease.nim.camellia.core.client.callback.OperationCallback;
 import com.netease.nim.camellia.core.client.callback.ProxyClientFactory;
 import com.netease.nim.camellia.core.client.env.ProxyEnv;
+import com.netease.nim.camellia.core.client.env.ShadingFunc;
 import com.netease.nim.camellia.core.client.hub.IProxyHub;
 import com.netease.nim.camellia.core.client.hub.ShadingProxyHub;
 import com.netease.nim.camellia.core.model.Resource;
@@ -10,6 +11,7 @@ import com.netease.nim.camellia.core.model.ResourceTable;
 import com.netease.nim.camellia.core.model.operation.ResourceOperation;
 import com.netease.nim.camellia.core.util.CheckUtil;
 import com.netease.nim.camellia.core.util.ResourceUtil;
+import com.netease.nim.camellia.core.util.ShadingFuncUtil;
 
 import java.util.*;
 
@@ -54,7 +56,8 @@ public class StandardShadingProxyHub<T> implements IProxyHub<T> {
                 map.put(resourceOperation, proxy);
             }
             int bucketSize = shadingTable.getBucketSize();
-            this.shadingProxyHub = new ShadingProxyHub<>(bucketSize, proxyMap, env);
+            ShadingFunc shadingFunc = ShadingFuncUtil.resolve(shadingTable, env == null ? null : env.getShadingFunc());
+            this.shadingProxyHub = new ShadingProxyHub<>(bucketSize, proxyMap, env, shadingFunc);
         } catch (Exception e) {
             throw new IllegalArgumentException(e);
         }
@@ -61,6 +61,10 @@ public class ResourceTable {
     public static class ShadingTable {
         private int bucketSize;
         private Map<Integer, ResourceOperation> resourceOperationMap = new HashMap<>();
+        //分片函数，可以是default/jump/ketama，或者ShadingFunc的实现类的全类名，为null则使用ProxyEnv中的分片函数
+        private String shadingFunc;
+        //是否开启hashTag，开启后key中{xxx}部分相同的key会落在同一个bucket上
+        private boolean hashTag;
 
         public int getBucketSize() {
             return bucketSize;
@@ -77,6 +81,22 @@ public class ResourceTable {
         public void setResourceOperationMap(Map<Integer, ResourceOperation> resourceOperationMap) {
             this.resourceOperationMap = resourceOperationMap;
         }
+
+        public String getShadingFunc() {
+            return shadingFunc;
+        }
+
+        public void setShadingFunc(String shadingFunc) {
+            this.shadingFunc = shadingFunc;
+        }
+
+        public boolean isHashTag() {
+            return hashTag;
+        }
+
+        public void setHashTag(boolean hashTag) {
+            this.hashTag = hashTag;
+        }
     }
 
     public static class SimpleTable {
@@ -43,6 +43,13 @@ public class CheckUtil {
         if (map == null) return false;
         if (bucketSize <= 0) return false;
         if (map.size() != bucketSize) return false;
+        if (table.getShadingFunc() != null) {
+            try {
+                ShadingFuncUtil.forName(table.getShadingFunc());
+            } catch (Exception e) {
+                return false;
+            }
+        }
         for (int i=0; i<bucketSize; i++) {
             ResourceOperation operation = map.get(i);
             boolean checkResourceOperation = checkResourceOperation(operation);
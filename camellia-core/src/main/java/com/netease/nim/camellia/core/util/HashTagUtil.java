@@ -0,0 +1,46 @@
+package com.netease.nim.camellia.core.util;
+
+import java.util.Arrays;
+
+/**
+ * redis-cluster风格的hashtag，若key中包含{xxx}，则只使用xxx计算分片，从而让相关的key落在同一个分片上
+ */
+public class HashTagUtil {
+
+    /**
+     * 取第一个{和其后第一个}之间的内容，若不存在或者为空，则返回原key
+     */
+    public static byte[] hashTag(byte[] key) {
+        if (key == null) return null;
+        int start = -1;
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] == '{') {
+                start = i;
+                break;
+            }
+        }
+        if (start < 0) return key;
+        for (int i = start + 1; i < key.length; i++) {
+            if (key[i] == '}') {
+                if (i == start + 1) return key;
+                return Arrays.copyOfRange(key, start + 1, i);
+            }
+        }
+        return key;
+    }
+
+    public static byte[][] hashTag(byte[]... data) {
+        if (data == null) return null;
+        byte[][] ret = data;
+        for (int i = 0; i < data.length; i++) {
+            byte[] tag = hashTag(data[i]);
+            if (tag != data[i]) {
+                if (ret == data) {
+                    ret = data.clone();
+                }
+                ret[i] = tag;
+            }
+        }
+        return ret;
+    }
+}
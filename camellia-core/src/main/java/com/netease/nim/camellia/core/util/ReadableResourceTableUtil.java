@@ -44,6 +44,9 @@ public class ReadableResourceTableUtil {
             ResourceTable.ShadingTable shadingTable = new ResourceTable.ShadingTable();
             JSONObject operation = jsonObject.getJSONObject("operation");
             shadingTable.setBucketSize(operation.getInteger("bucketSize"));
+            shadingTable.setShadingFunc(operation.getString("shadingFunc"));
+            Boolean hashTag = operation.getBoolean("hashTag");
+            shadingTable.setHashTag(hashTag != null && hashTag);
             JSONObject operationMap = operation.getJSONObject("operationMap");
             Map<Integer, ResourceOperation> map = new HashMap<>();
             for (Map.Entry<String, Object> entry : operationMap.entrySet()) {
@@ -80,6 +83,12 @@ public class ReadableResourceTableUtil {
             ResourceTable.ShadingTable shadingTable = resourceTable.getShadingTable();
             JSONObject shadingJson = new JSONObject();
             shadingJson.put("bucketSize", shadingTable.getBucketSize());
+            if (shadingTable.getShadingFunc() != null) {
+                shadingJson.put("shadingFunc", shadingTable.getShadingFunc());
+            }
+            if (shadingTable.isHashTag()) {
+                shadingJson.put("hashTag", true);
+            }
             Map<ResourceOperation, List<Integer>> map = new HashMap<>();
             for (Map.Entry<Integer, ResourceOperation> entry : shadingTable.getResourceOperationMap().entrySet()) {
                 List<Integer> list = map.get(entry.getValue());
@@ -0,0 +1,179 @@
+package com.netease.nim.camellia.core.util;
+
+import com.netease.nim.camellia.core.client.env.ShadingFunc;
+import com.netease.nim.camellia.core.model.Resource;
+import com.netease.nim.camellia.core.model.ResourceTable;
+import com.netease.nim.camellia.core.model.operation.ResourceOperation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分片表扩缩容的规划，新增/删除资源时，计算出需要迁移的最少的bucket
+ * bucketSize保持不变，每个资源分到的bucket数量相差不超过1，未被删除且没有超出配额的bucket保持不动
+ */
+public class ReshardingPlanner {
+
+    public static Plan planByResources(ResourceTable.ShadingTable current, List<Resource> targets) {
+        List<ResourceOperation> operations = new ArrayList<>();
+        for (Resource resource : targets) {
+            operations.add(new ResourceOperation(resource));
+        }
+        return plan(current, operations);
+    }
+
+    public static Plan plan(ResourceTable.ShadingTable current, List<ResourceOperation> targets) {
+        if (!CheckUtil.checkShadingTable(current)) {
+            throw new IllegalArgumentException("shadingTable check fail");
+        }
+        if (targets == null || targets.isEmpty()) {
+            throw new IllegalArgumentException("targets is empty");
+        }
+        int bucketSize = current.getBucketSize();
+        Map<Integer, ResourceOperation> operationMap = current.getResourceOperationMap();
+
+        //目标资源当前已有的bucket数
+        final Map<ResourceOperation, Integer> ownedMap = new LinkedHashMap<>();
+        for (ResourceOperation target : targets) {
+            if (ownedMap.containsKey(target)) {
+                throw new IllegalArgumentException("duplicate target " + ReadableResourceTableUtil.readableResourceOperation(target));
+            }
+            ownedMap.put(target, 0);
+        }
+        for (int i = 0; i < bucketSize; i++) {
+            ResourceOperation operation = operationMap.get(i);
+            Integer owned = ownedMap.get(operation);
+            if (owned != null) {
+                ownedMap.put(operation, owned + 1);
+            }
+        }
+
+        //每个资源的配额，除不尽的部分优先给当前bucket最多的资源，从而减少迁移
+        int base = bucketSize / targets.size();
+        int extra = bucketSize % targets.size();
+        List<ResourceOperation> sorted = new ArrayList<>(targets);
+        Collections.sort(sorted, new Comparator<ResourceOperation>() {
+            @Override
+            public int compare(ResourceOperation o1, ResourceOperation o2) {
+                return Integer.compare(ownedMap.get(o2), ownedMap.get(o1));
+            }
+        });
+        Map<ResourceOperation, Integer> quotaMap = new HashMap<>();
+        for (int i = 0; i < sorted.size(); i++) {
+            quotaMap.put(sorted.get(i), base + (i < extra ? 1 : 0));
+        }
+
+        //保留未超出配额的bucket，其余的bucket放入待分配列表
+        Map<Integer, ResourceOperation> newOperationMap = new HashMap<>();
+        Map<ResourceOperation, Integer> keptMap = new HashMap<>();
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < bucketSize; i++) {
+            ResourceOperation operation = operationMap.get(i);
+            Integer quota = quotaMap.get(operation);
+            Integer kept = keptMap.get(operation);
+            if (kept == null) {
+                kept = 0;
+            }
+            if (quota != null && kept < quota) {
+                newOperationMap.put(i, operation);
+                keptMap.put(operation, kept + 1);
+            } else {
+                pending.add(i);
+            }
+        }
+
+        List<BucketMove> moves = new ArrayList<>();
+        int index = 0;
+        for (ResourceOperation target : targets) {
+            Integer kept = keptMap.get(target);
+            if (kept == null) {
+                kept = 0;
+            }
+            int quota = quotaMap.get(target);
+            for (int i = kept; i < quota; i++) {
+                int bucket = pending.get(index++);
+                newOperationMap.put(bucket, target);
+                moves.add(new BucketMove(bucket, operationMap.get(bucket), target));
+            }
+        }
+
+        ResourceTable.ShadingTable shadingTable = new ResourceTable.ShadingTable();
+        shadingTable.setBucketSize(bucketSize);
+        shadingTable.setShadingFunc(current.getShadingFunc());
+        shadingTable.setHashTag(current.isHashTag());
+        shadingTable.setResourceOperationMap(newOperationMap);
+        return new Plan(shadingTable, moves);
+    }
+
+    /**
+     * key在两个分片表下是否落在不同的资源上，两个分片表的bucketSize可以不同
+     * 配合jump/ketama等一致性hash的分片函数，bucketSize变化时也只有少量key需要迁移
+     */
+    public static boolean isMoved(ShadingFunc shadingFunc, ResourceTable.ShadingTable from, ResourceTable.ShadingTable to, byte[]... key) {
+        int fromBucket = ShadingFuncUtil.bucket(shadingFunc, from.getBucketSize(), key);
+        int toBucket = ShadingFuncUtil.bucket(shadingFunc, to.getBucketSize(), key);
+        ResourceOperation fromOperation = from.getResourceOperationMap().get(fromBucket);
+        ResourceOperation toOperation = to.getResourceOperationMap().get(toBucket);
+        return fromOperation == null ? toOperation != null : !fromOperation.equals(toOperation);
+    }
+
+    public static class Plan {
+        private final ResourceTable.ShadingTable shadingTable;
+        private final List<BucketMove> moves;
+
+        public Plan(ResourceTable.ShadingTable shadingTable, List<BucketMove> moves) {
+            this.shadingTable = shadingTable;
+            this.moves = moves;
+        }
+
+        //规划后的分片表
+        public ResourceTable.ShadingTable getShadingTable() {
+            return shadingTable;
+        }
+
+        //需要迁移的bucket
+        public List<BucketMove> getMoves() {
+            return moves;
+        }
+
+        //需要迁移的数据比例
+        public double getMovedRatio() {
+            return moves.size() / (double) shadingTable.getBucketSize();
+        }
+    }
+
+    public static class BucketMove {
+        private final int bucket;
+        private final ResourceOperation from;
+        private final ResourceOperation to;
+
+        public BucketMove(int bucket, ResourceOperation from, ResourceOperation to) {
+            this.bucket = bucket;
+            this.from = from;
+            this.to = to;
+        }
+
+        public int getBucket() {
+            return bucket;
+        }
+
+        public ResourceOperation getFrom() {
+            return from;
+        }
+
+        public ResourceOperation getTo() {
+            return to;
+        }
+
+        @Override
+        public String toString() {
+            return bucket + ":" + ReadableResourceTableUtil.readableResourceOperation(from)
+                    + "->" + ReadableResourceTableUtil.readableResourceOperation(to);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.netease.nim.camellia.core.util;
+
+import com.netease.nim.camellia.core.client.env.ShadingFunc;
+import com.netease.nim.camellia.core.model.Resource;
+import com.netease.nim.camellia.core.model.ResourceTable;
+import com.netease.nim.camellia.core.model.operation.ResourceOperation;
+import com.netease.nim.camellia.core.model.operation.ResourceReadOperation;
+import com.netease.nim.camellia.core.model.operation.ResourceWriteOperation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ResourceTable编译后的不可变的路由计划，加载ResourceTable时生成一次
+ * 分片表编译为以bucket为下标的数组，每个bucket的读写资源都已经预先解析好，路由时没有装箱的map查找，也不会分配新的list
+ * 返回的list均不可修改
+ */
+public class ResourceRoutingPlan {
+
+    private final ResourceTable.Type type;
+    private final Route simpleRoute;
+    private final Route[] bucketRoutes;
+    private final int bucketSize;
+    private final boolean bucketSizeIs2Power;
+    private final ShadingFunc shadingFunc;
+
+    public ResourceRoutingPlan(ResourceTable resourceTable, ShadingFunc defaultShadingFunc) {
+        this.type = resourceTable.getType();
+        if (type == ResourceTable.Type.SHADING) {
+            ResourceTable.ShadingTable shadingTable = resourceTable.getShadingTable();
+            this.bucketSize = shadingTable.getBucketSize();
+            this.bucketSizeIs2Power = MathUtil.is2Power(bucketSize);
+            this.shadingFunc = ShadingFuncUtil.resolve(shadingTable, defaultShadingFunc);
+            this.bucketRoutes = new Route[bucketSize];
+            //相同的ResourceOperation共用一个Route
+            Map<ResourceOperation, Route> routeMap = new HashMap<>();
+            Map<Integer, ResourceOperation> operationMap = shadingTable.getResourceOperationMap();
+            for (int i = 0; i < bucketSize; i++) {
+                ResourceOperation operation = operationMap.get(i);
+                Route route = routeMap.get(operation);
+                if (route == null) {
+                    route = new Route(operation);
+                    routeMap.put(operation, route);
+                }
+                bucketRoutes[i] = route;
+            }
+            this.simpleRoute = null;
+        } else {
+            this.simpleRoute = new Route(resourceTable.getSimpleTable().getResourceOperation());
+            this.bucketRoutes = null;
+            this.bucketSize = 0;
+            this.bucketSizeIs2Power = false;
+            this.shadingFunc = null;
+        }
+    }
+
+    public ResourceTable.Type getType() {
+        return type;
+    }
+
+    /**
+     * 所有不同的Route，分片表按bucket顺序
+     */
+    public List<Route> getRoutes() {
+        if (simpleRoute != null) {
+            return Collections.singletonList(simpleRoute);
+        }
+        List<Route> routes = new ArrayList<>();
+        Set<Route> set = new HashSet<>();
+        for (Route route : bucketRoutes) {
+            if (set.add(route)) {
+                routes.add(route);
+            }
+        }
+        return routes;
+    }
+
+    public Route getRoute(byte[]... shadingParam) {
+        if (simpleRoute != null) {
+            return simpleRoute;
+        }
+        return bucketRoutes[ShadingFuncUtil.bucket(shadingFunc, bucketSizeIs2Power, bucketSize, shadingParam)];
+    }
+
+    /**
+     * 一个ResourceOperation编译后的读写路由
+     */
+    public static class Route {
+
+        public static enum ReadType {
+            //只有一个读资源，或者有序的多个读资源
+            FIXED,
+            //随机选择一个读资源
+            RANDOM,
+            ;
+        }
+
+        private final ReadType readType;
+        private final Resource[] readResources;
+        private final List<Resource> readResourceList;
+        private final List<List<Resource>> randomReadResourceLists;
+        private final Resource[] writeResources;
+        private final List<Resource> writeResourceList;
+
+        public Route(ResourceOperation operation) {
+            List<Resource> reads;
+            List<Resource> writes;
+            boolean random = false;
+            if (operation.getType() == ResourceOperation.Type.SIMPLE) {
+                reads = Collections.singletonList(operation.getResource());
+                writes = reads;
+            } else if (operation.getType() == ResourceOperation.Type.RW_SEPARATE) {
+                ResourceReadOperation readOperation = operation.getReadOperation();
+                if (readOperation.getType() == ResourceReadOperation.Type.SIMPLE) {
+                    reads = Collections.singletonList(readOperation.getReadResource());
+                } else if (readOperation.getType() == ResourceReadOperation.Type.ORDER) {
+                    reads = Collections.unmodifiableList(new ArrayList<>(readOperation.getReadResources()));
+                } else if (readOperation.getType() == ResourceReadOperation.Type.RANDOM) {
+                    reads = Collections.unmodifiableList(new ArrayList<>(readOperation.getReadResources()));
+                    random = reads.size() > 1;
+                } else {
+                    throw new IllegalArgumentException("unknown operation read type");
+                }
+                ResourceWriteOperation writeOperation = operation.getWriteOperation();
+                if (writeOperation.getType() == ResourceWriteOperation.Type.SIMPLE) {
+                    writes = Collections.singletonList(writeOperation.getWriteResource());
+                } else if (writeOperation.getType() == ResourceWriteOperation.Type.MULTI) {
+                    writes = Collections.unmodifiableList(new ArrayList<>(writeOperation.getWriteResources()));
+                } else {
+                    throw new IllegalArgumentException("unknown operation write type");
+                }
+            } else {
+                throw new IllegalArgumentException("unknown operation type");
+            }
+            this.readType = random ? ReadType.RANDOM : ReadType.FIXED;
+            this.readResources = reads.toArray(new Resource[0]);
+            this.readResourceList = reads;
+            this.writeResources = writes.toArray(new Resource[0]);
+            this.writeResourceList = writes;
+            if (random) {
+                this.randomReadResourceLists = new ArrayList<>(readResources.length);
+                for (Resource readResource : readResources) {
+                    randomReadResourceLists.add(Collections.singletonList(readResource));
+                }
+            } else {
+                this.randomReadResourceLists = null;
+            }
+        }
+
+        public ReadType getReadType() {
+            return readType;
+        }
+
+        /**
+         * 读资源，RANDOM时为随机选中的一个，否则为全部读资源（按顺序）
+         */
+        public List<Resource> getReadResources() {
+            if (readType == ReadType.RANDOM) {
+                return randomReadResourceLists.get(ThreadLocalRandom.current().nextInt(randomReadResourceLists.size()));
+            }
+            return readResourceList;
+        }
+
+        /**
+         * 随机或者第一个读资源的下标
+         */
+        public int chooseReadIndex() {
+            if (readType == ReadType.RANDOM) {
+                return ThreadLocalRandom.current().nextInt(readResources.length);
+            }
+            return 0;
+        }
+
+        public Resource[] getAllReadResources() {
+            return readResources;
+        }
+
+        public List<Resource> getWriteResources() {
+            return writeResourceList;
+        }
+
+        public Resource[] getAllWriteResources() {
+            return writeResources;
+        }
+    }
+}
@@ -40,6 +40,8 @@ public class ResourceTransferUtil {
             ResourceTable.ShadingTable shadingTable = resourceTable.getShadingTable();
             ResourceTable.ShadingTable newShadingTable = new ResourceTable.ShadingTable();
             newShadingTable.setBucketSize(shadingTable.getBucketSize());
+            newShadingTable.setShadingFunc(shadingTable.getShadingFunc());
+            newShadingTable.setHashTag(shadingTable.isHashTag());
             Map<Integer, ResourceOperation> map = new HashMap<>();
             for (Map.Entry<Integer, ResourceOperation> entry : shadingTable.getResourceOperationMap().entrySet()) {
                 Integer key = entry.getKey();
@@ -1,6 +1,12 @@
 package com.netease.nim.camellia.core.util;
 
+import com.netease.nim.camellia.core.client.env.BucketShadingFunc;
+import com.netease.nim.camellia.core.client.env.DefaultShadingFunc;
+import com.netease.nim.camellia.core.client.env.HashTagShadingFunc;
+import com.netease.nim.camellia.core.client.env.JumpShadingFunc;
+import com.netease.nim.camellia.core.client.env.KetamaShadingFunc;
 import com.netease.nim.camellia.core.client.env.ShadingFunc;
+import com.netease.nim.camellia.core.model.ResourceTable;
 
 /**
  *
@@ -8,7 +14,23 @@ import com.netease.nim.camellia.core.client.env.ShadingFunc;
  */
 public class ShadingFuncUtil {
 
+    //内置分片函数的别名
+    public static final String DEFAULT = "default";
+    public static final String JUMP = "jump";
+    public static final String KETAMA = "ketama";
+
+    //内置的一致性hash分片函数无状态，共享同一个实例
+    private static final JumpShadingFunc jumpShadingFunc = new JumpShadingFunc();
+    private static final KetamaShadingFunc ketamaShadingFunc = new KetamaShadingFunc();
+
     public static ShadingFunc forName(String className) {
+        if (DEFAULT.equalsIgnoreCase(className)) {
+            return new DefaultShadingFunc();
+        } else if (JUMP.equalsIgnoreCase(className)) {
+            return jumpShadingFunc;
+        } else if (KETAMA.equalsIgnoreCase(className)) {
+            return ketamaShadingFunc;
+        }
         try {
             Class<?> aClass = Class.forName(className);
             Object shadingFuncObj = aClass.newInstance();
@@ -23,4 +45,40 @@ public class ShadingFuncUtil {
             throw new IllegalArgumentException(e);
         }
     }
+
+    /**
+     * 分片表上配置了shadingFunc则使用分片表的，否则使用默认的
+     * 分片表开启了hashTag，则使用HashTagShadingFunc包装
+     */
+    public static ShadingFunc resolve(ResourceTable.ShadingTable shadingTable, ShadingFunc defaultShadingFunc) {
+        ShadingFunc shadingFunc = defaultShadingFunc;
+        if (shadingTable != null && shadingTable.getShadingFunc() != null) {
+            shadingFunc = forName(shadingTable.getShadingFunc());
+        }
+        if (shadingTable != null && shadingFunc instanceof KetamaShadingFunc) {
+            KetamaShadingFunc.prepare(shadingTable.getBucketSize());
+        }
+        if (shadingTable != null && shadingTable.isHashTag() && shadingFunc != null) {
+            return new HashTagShadingFunc(shadingFunc);
+        }
+        return shadingFunc;
+    }
+
+    /**
+     * 计算key所在的bucket
+     */
+    public static int bucket(ShadingFunc shadingFunc, boolean bucketSizeIs2Power, int bucketSize, byte[]... data) {
+        if (shadingFunc instanceof BucketShadingFunc) {
+            return ((BucketShadingFunc) shadingFunc).bucket(bucketSize, data);
+        }
+        int code = shadingFunc.shadingCode(data);
+        if (code < 0) {
+            code = -code;
+        }
+        return MathUtil.mod(bucketSizeIs2Power, code, bucketSize);
+    }
+
+    public static int bucket(ShadingFunc shadingFunc, int bucketSize, byte[]... data) {
+        return bucket(shadingFunc, MathUtil.is2Power(bucketSize), bucketSize, data);
+    }
 }
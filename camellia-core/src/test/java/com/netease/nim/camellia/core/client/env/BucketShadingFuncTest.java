@@ -0,0 +1,86 @@
+package com.netease.nim.camellia.core.client.env;
+
+import com.netease.nim.camellia.core.util.ShadingFuncUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * jump/ketama分片函数的分布和扩容迁移比例
+ */
+public class BucketShadingFuncTest {
+
+    private static final int KEYS = 100000;
+
+    @Test
+    public void jumpDistribution() {
+        assertDistribution(new JumpShadingFunc(), 16, 0.1);
+    }
+
+    @Test
+    public void ketamaDistribution() {
+        assertDistribution(new KetamaShadingFunc(), 16, 0.25);
+    }
+
+    @Test
+    public void jumpResizeOnlyMovesToNewBucket() {
+        JumpShadingFunc func = new JumpShadingFunc();
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            byte[] key = key(i);
+            int before = func.bucket(10, key);
+            int after = func.bucket(11, key);
+            if (before != after) {
+                Assert.assertEquals(10, after);
+                moved++;
+            }
+        }
+        assertRatio(moved, 1.0 / 11, 0.1);
+    }
+
+    @Test
+    public void ketamaResizeMovesFewKeys() {
+        KetamaShadingFunc func = new KetamaShadingFunc();
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            byte[] key = key(i);
+            int before = func.bucket(10, key);
+            int after = func.bucket(11, key);
+            if (before != after) {
+                Assert.assertEquals(10, after);
+                moved++;
+            }
+        }
+        assertRatio(moved, 1.0 / 11, 0.3);
+    }
+
+    @Test
+    public void builtinFuncResolvedByName() {
+        Assert.assertSame(ShadingFuncUtil.forName(ShadingFuncUtil.JUMP), ShadingFuncUtil.forName("JUMP"));
+        Assert.assertSame(ShadingFuncUtil.forName(ShadingFuncUtil.KETAMA), ShadingFuncUtil.forName("ketama"));
+        byte[] key = key(1);
+        Assert.assertEquals(new KetamaShadingFunc().bucket(7, key), ShadingFuncUtil.bucket(ShadingFuncUtil.forName("ketama"), 7, key));
+    }
+
+    private static void assertDistribution(BucketShadingFunc func, int bucketSize, double tolerance) {
+        int[] counts = new int[bucketSize];
+        for (int i = 0; i < KEYS; i++) {
+            int bucket = func.bucket(bucketSize, key(i));
+            Assert.assertTrue(bucket >= 0 && bucket < bucketSize);
+            counts[bucket]++;
+        }
+        for (int count : counts) {
+            assertRatio(count, 1.0 / bucketSize, tolerance);
+        }
+    }
+
+    private static void assertRatio(int count, double expectRatio, double tolerance) {
+        double expect = KEYS * expectRatio;
+        Assert.assertTrue("count = " + count + ", expect = " + expect, Math.abs(count - expect) <= expect * tolerance);
+    }
+
+    private static byte[] key(int i) {
+        return ("key:" + i).getBytes(StandardCharsets.UTF_8);
+    }
+}
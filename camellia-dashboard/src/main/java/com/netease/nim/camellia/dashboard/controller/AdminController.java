@@ -4,6 +4,7 @@ import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.netease.nim.camellia.core.api.CamelliaApiCode;
 import com.netease.nim.camellia.core.client.env.DefaultShadingFunc;
+import com.netease.nim.camellia.core.client.env.ShadingFunc;
 import com.netease.nim.camellia.core.model.ResourceTable;
 import com.netease.nim.camellia.core.model.operation.ResourceOperation;
 import com.netease.nim.camellia.core.util.CheckUtil;
@@ -18,6 +19,7 @@ import com.netease.nim.camellia.dashboard.service.TableRefService;
 import com.netease.nim.camellia.dashboard.service.TableService;
 import com.netease.nim.camellia.dashboard.util.LogBean;
 import com.netease.nim.camellia.core.util.ReadableResourceTableUtil;
+import com.netease.nim.camellia.core.util.ShadingFuncUtil;
 import com.netease.nim.camellia.dashboard.model.RwStats;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
@@ -247,9 +249,8 @@ public class AdminController {
         } else if (type == ResourceTable.Type.SHADING) {
             ResourceTable.ShadingTable shadingTable = resourceTable.getShadingTable();
             int bucketSize = shadingTable.getBucketSize();
-            DefaultShadingFunc shadingFunc = new DefaultShadingFunc();
-            int shadingCode = shadingFunc.shadingCode(key.getBytes("utf-8"));
-            int index = shadingCode % bucketSize;
+            ShadingFunc shadingFunc = ShadingFuncUtil.resolve(shadingTable, new DefaultShadingFunc());
+            int index = ShadingFuncUtil.bucket(shadingFunc, bucketSize, key.getBytes("utf-8"));
             ResourceOperation resourceOperation = shadingTable.getResourceOperationMap().get(index);
             Object ret = ReadableResourceTableUtil.readableResourceOperation(resourceOperation);
             LogBean.get().addProps("ret", ret);
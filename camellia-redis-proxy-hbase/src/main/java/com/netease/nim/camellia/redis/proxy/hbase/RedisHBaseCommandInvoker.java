@@ -4,6 +4,7 @@ import com.netease.nim.camellia.hbase.CamelliaHBaseTemplate;
 import com.netease.nim.camellia.redis.CamelliaRedisTemplate;
 import com.netease.nim.camellia.redis.proxy.command.Command;
 import com.netease.nim.camellia.redis.proxy.command.CommandInvoker;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
 import com.netease.nim.camellia.redis.proxy.netty.ChannelInfo;
 import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
 import com.netease.nim.camellia.redis.proxy.reply.Reply;
@@ -12,8 +13,7 @@ import io.netty.channel.ChannelHandlerContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Method;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 
@@ -25,13 +25,13 @@ public class RedisHBaseCommandInvoker implements CommandInvoker {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisHBaseCommandInvoker.class);
 
-    private Map<String, Method> methodMap = new HashMap<>();
+    private Map<RedisCommand, CommandHandler> handlerMap = new EnumMap<>(RedisCommand.class);
     private RedisHBaseCommandProcessor processor;
 
     public RedisHBaseCommandInvoker(CamelliaRedisTemplate redisTemplate, CamelliaHBaseTemplate hBaseTemplate) {
         processor = new RedisHBaseCommandProcessor(redisTemplate, hBaseTemplate);
         Class<? extends IRedisHBaseCommandProcessor> clazz = IRedisHBaseCommandProcessor.class;
-        CommandMethodUtil.initCommandFinderMethods(clazz, methodMap);
+        CommandHandlerUtil.initCommandHandlers(clazz, handlerMap);
     }
 
     @Override
@@ -39,14 +39,14 @@ public class RedisHBaseCommandInvoker implements CommandInvoker {
         if (commands.isEmpty()) return;
         for (Command command : commands) {
             try {
-                Method method = methodMap.get(command.getName());
-                if (method == null) {
+                CommandHandler handler = CommandHandlerUtil.getCommandHandler(handlerMap, command);
+                if (handler == null) {
                     logger.warn("only support zset relevant commands, return NOT_SUPPORT, command = {}, consid = {}", command.getName(), channelInfo.getConsid());
                     ctx.writeAndFlush(ErrorReply.NOT_SUPPORT);
                     debugLog(ErrorReply.NOT_SUPPORT, channelInfo);
                     return;
                 }
-                Reply reply = (Reply) CommandInvokerUtil.invoke(method, command, processor);
+                Reply reply = (Reply) handler.invoke(processor, command);
                 ctx.writeAndFlush(reply);
                 debugLog(reply, channelInfo);
             } catch (Throwable e) {
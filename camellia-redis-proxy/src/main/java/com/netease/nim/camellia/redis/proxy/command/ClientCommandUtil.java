@@ -1,6 +1,7 @@
 package com.netease.nim.camellia.redis.proxy.command;
 
 import com.netease.nim.camellia.redis.proxy.ProxyUtil;
+import com.netease.nim.camellia.redis.proxy.command.async.tracking.TrackingSession;
 import com.netease.nim.camellia.redis.proxy.enums.RedisKeyword;
 import com.netease.nim.camellia.redis.proxy.netty.ChannelInfo;
 import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
@@ -24,6 +25,9 @@ public class ClientCommandUtil {
 
     public static Reply invokeClientCommand(ChannelInfo channelInfo, Command client) {
         byte[][] objects = client.getObjects();
+        if (objects.length >= 3 && channelInfo != null && Utils.checkStringIgnoreCase(objects[1], RedisKeyword.TRACKING.name())) {
+            return TrackingSession.tracking(channelInfo, objects);
+        }
         if (objects.length == 2) {
             boolean getname = Utils.checkStringIgnoreCase(objects[1], RedisKeyword.GETNAME.name());
             if (getname) {
@@ -58,6 +62,17 @@ public class ClientCommandUtil {
         return ErrorReply.SYNTAX_ERROR;
     }
 
+    /**
+     * AUTH使用租户的密码时设置连接的bid/bgroup，以密码对应的租户为准
+     */
+    public static void setTenant(ChannelInfo channelInfo, long bid, String bgroup) {
+        channelInfo.setKV(BID, bid);
+        channelInfo.setKV(BGROUP, bgroup);
+        if (logger.isDebugEnabled()) {
+            logger.debug("channel auth with bid/bgroup = {}/{}, consid = {}", bid, bgroup, channelInfo.getConsid());
+        }
+    }
+
     public static Long getBid(ChannelInfo channelInfo) {
         return (Long) channelInfo.getKV(BID);
     }
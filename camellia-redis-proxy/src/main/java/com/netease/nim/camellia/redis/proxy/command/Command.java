@@ -1,12 +1,15 @@
 package com.netease.nim.camellia.redis.proxy.command;
 
 
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
 import com.netease.nim.camellia.redis.proxy.util.Utils;
 
 public class Command {
 
     private byte[][] objects;
     private String name;
+    private RedisCommand redisCommand;
+    private boolean redisCommandResolved = false;
 
     public Command(byte[][] objects) {
         this.objects = objects;
@@ -21,6 +24,14 @@ public class Command {
         return name;
     }
 
+    public RedisCommand getRedisCommand() {
+        if (!redisCommandResolved) {
+            redisCommand = RedisCommand.getRedisCommand(name);
+            redisCommandResolved = true;
+        }
+        return redisCommand;
+    }
+
     public byte[][] getObjects() {
         return objects;
     }
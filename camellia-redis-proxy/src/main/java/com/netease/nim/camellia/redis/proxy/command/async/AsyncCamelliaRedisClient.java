@@ -2,6 +2,7 @@ package com.netease.nim.camellia.redis.proxy.command.async;
 
 import com.netease.nim.camellia.redis.exception.CamelliaRedisException;
 import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.netty.TenantEventLoopGroups;
 import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
 import com.netease.nim.camellia.redis.proxy.reply.Reply;
 import com.netease.nim.camellia.redis.proxy.util.ErrorLogCollector;
@@ -27,12 +28,26 @@ public class AsyncCamelliaRedisClient implements AsyncClient {
     }
 
     public void sendCommand(List<Command> commands, List<CompletableFuture<Reply>> completableFutureList) {
-        CompletableFuture<RedisClient> future = RedisClientHub.getAsync(redisResource.getHost(), redisResource.getPort(), redisResource.getPassword());
-        future.thenAccept(client -> {
+        sendCommand(commands, completableFutureList, null);
+    }
+
+    @Override
+    public boolean isDegraded() {
+        RedisClient client = RedisClientHub.peek(redisResource.getHost(), redisResource.getPort(), redisResource.getPassword());
+        return client != null && client.isDegraded();
+    }
+
+    @Override
+    public void sendCommand(List<Command> commands, List<CompletableFuture<Reply>> completableFutureList, String tenant) {
+        //配置了独占线程的租户使用独占的后端连接
+        String group = TenantEventLoopGroups.dedicatedGroup(tenant);
+        CompletableFuture<RedisClient> future = RedisClientHub.getAsync(redisResource.getHost(), redisResource.getPort(), redisResource.getPassword(), group);
+        future.whenComplete((client, e) -> {
             if (client != null) {
-                client.sendCommand(commands, completableFutureList);
+                client.sendCommand(commands, completableFutureList, tenant);
             } else {
-                String log = "RedisClient[" + redisResource.getUrl() + "] is null, command return NOT_AVAILABLE";
+                String log = e == null ? "RedisClient[" + redisResource.getUrl() + "] is null, command return NOT_AVAILABLE"
+                        : "RedisClient[" + redisResource.getUrl() + "] connect rejected, command return NOT_AVAILABLE";
                 for (CompletableFuture<Reply> completableFuture : completableFutureList) {
                     completableFuture.complete(ErrorReply.NOT_AVAILABLE);
                     ErrorLogCollector.collect(AsyncCamelliaRedisClient.class, log);
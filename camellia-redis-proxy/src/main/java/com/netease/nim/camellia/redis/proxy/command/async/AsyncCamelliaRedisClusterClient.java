@@ -3,6 +3,7 @@ package com.netease.nim.camellia.redis.proxy.command.async;
 import com.netease.nim.camellia.redis.exception.CamelliaRedisException;
 import com.netease.nim.camellia.redis.proxy.command.Command;
 import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.netty.TenantEventLoopGroups;
 import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
 import com.netease.nim.camellia.redis.proxy.reply.MultiBulkReply;
 import com.netease.nim.camellia.redis.proxy.reply.Reply;
@@ -40,54 +41,94 @@ public class AsyncCamelliaRedisClusterClient implements AsyncClient {
     }
 
     public void sendCommand(List<Command> commands, List<CompletableFuture<Reply>> futureList) {
+        sendCommand(commands, futureList, null);
+    }
+
+    @Override
+    public void sendCommand(List<Command> commands, List<CompletableFuture<Reply>> futureList, String tenant) {
         if (commands.isEmpty()) return;
-        CommandFlusher commandFlusher = new CommandFlusher();
+        CommandFlusher commandFlusher = new CommandFlusher(tenant);
+        //配置了独占线程的租户使用独占的后端连接
+        String group = TenantEventLoopGroups.dedicatedGroup(tenant);
         for (int i=0; i<commands.size(); i++) {
             Command command = commands.get(i);
             CompletableFuture<Reply> future = futureList.get(i);
 
             if (command.getName().equalsIgnoreCase(RedisCommand.EXISTS.name())) {
                 if (command.getObjects().length > 2) {
-                    simpleIntegerReplyMerge(command, commandFlusher, future);
+                    simpleIntegerReplyMerge(command, commandFlusher, future, group);
                     continue;
                 }
             } else if (command.getName().equalsIgnoreCase(RedisCommand.DEL.name())) {
                 if (command.getObjects().length > 2) {
-                    simpleIntegerReplyMerge(command, commandFlusher, future);
+                    simpleIntegerReplyMerge(command, commandFlusher, future, group);
                     continue;
                 }
             } else if (command.getName().equalsIgnoreCase(RedisCommand.MSET.name())) {
                 if (command.getObjects().length > 3) {
-                    mset(command, commandFlusher, future);
+                    mset(command, commandFlusher, future, group);
                     continue;
                 }
             } else if (command.getName().equalsIgnoreCase(RedisCommand.MGET.name())) {
                 if (command.getObjects().length > 2) {
-                    mget(command, commandFlusher, future);
+                    mget(command, commandFlusher, future, group);
                     continue;
                 }
             }
 
             byte[][] args = command.getObjects();
             byte[] key = args[1];
+            if (isScriptCommand(command) && args.length > 3 && !Utils.checkStringIgnoreCase(args[2], "0")) {
+                //EVAL/EVALSHA按第一个key路由
+                key = args[3];
+            }
             int slot = JedisClusterCRC16.getSlot(key);
 
-            RedisClient client = getClient(slot);
+            RedisClient client = getClient(slot, group);
             if (logger.isDebugEnabled()) {
                 logger.debug("sendCommand, command = {}, key = {}, slot = {}", command.getName(), SafeEncoder.encode(key), slot);
             }
-            CompletableFutureWrapper futureWrapper = new CompletableFutureWrapper(this, future, command);
+            CompletableFutureWrapper futureWrapper = new CompletableFutureWrapper(this, future, command, group);
             commandFlusher.sendCommand(client, command, futureWrapper);
         }
         commandFlusher.flush();
     }
 
-    private RedisClient getClient(int slot) {
+    private static boolean isScriptCommand(Command command) {
+        return command.getName().equalsIgnoreCase(RedisCommand.EVAL.name()) || command.getName().equalsIgnoreCase(RedisCommand.EVALSHA.name());
+    }
+
+    /**
+     * 所有master节点的client，不可用的节点为null，会阻塞建立连接
+     */
+    public List<RedisClient> getMasterClients() {
+        return clusterSlotInfo.getMasterClients();
+    }
+
+    public int getMasterCount() {
+        return clusterSlotInfo.getMasterCount();
+    }
+
+    /**
+     * 第index个master节点的client，不阻塞，不可用时返回null
+     */
+    public RedisClient getMasterClient(int index) {
+        return clusterSlotInfo.getMasterClient(index);
+    }
+
+    /**
+     * key所在slot的master节点的client
+     */
+    public RedisClient getClient(byte[] key) {
+        return getClient(JedisClusterCRC16.getSlot(key), null);
+    }
+
+    private RedisClient getClient(int slot, String group) {
         RedisClient client = null;
         int attempts = 0;
         while (attempts < maxAttempts) {
             attempts ++;
-            client = clusterSlotInfo.getClient(slot);
+            client = clusterSlotInfo.getClient(slot, group);
             if (client != null && client.isValid()) {
                 break;
             } else {
@@ -102,12 +143,14 @@ public class AsyncCamelliaRedisClusterClient implements AsyncClient {
         private final AsyncCamelliaRedisClusterClient clusterClient;
         private final CompletableFuture<Reply> future;
         private final Command command;
+        private final String group;
         private int attempts = 0;
 
-        CompletableFutureWrapper(AsyncCamelliaRedisClusterClient clusterClient, CompletableFuture<Reply> future, Command command) {
+        CompletableFutureWrapper(AsyncCamelliaRedisClusterClient clusterClient, CompletableFuture<Reply> future, Command command, String group) {
             this.clusterClient = clusterClient;
             this.future = future;
             this.command = command;
+            this.group = group;
         }
 
         public boolean complete(Reply reply) {
@@ -121,7 +164,7 @@ public class AsyncCamelliaRedisClusterClient implements AsyncClient {
                             ErrorLogCollector.collect(AsyncCamelliaRedisClusterClient.class, log);
                             clusterClient.clusterSlotInfo.renew();
                             String[] strings = parseTargetHostAndSlot(error);
-                            RedisClient redisClient = RedisClientHub.get(strings[1], Integer.parseInt(strings[2]), clusterClient.redisClusterResource.getPassword());
+                            RedisClient redisClient = RedisClientHub.get(strings[1], Integer.parseInt(strings[2]), clusterClient.redisClusterResource.getPassword(), group);
                             if (redisClient != null) {
                                 redisClient.sendCommand(Collections.singletonList(command), Collections.singletonList(this));
                                 return true;
@@ -133,7 +176,7 @@ public class AsyncCamelliaRedisClusterClient implements AsyncClient {
                             String log = "ASK, command = " + command.getName() + ", attempts = " + attempts;
                             ErrorLogCollector.collect(AsyncCamelliaRedisClusterClient.class, log);
                             String[] strings = parseTargetHostAndSlot(error);
-                            RedisClient redisClient = RedisClientHub.get(strings[1], Integer.parseInt(strings[2]), clusterClient.redisClusterResource.getPassword());
+                            RedisClient redisClient = RedisClientHub.get(strings[1], Integer.parseInt(strings[2]), clusterClient.redisClusterResource.getPassword(), group);
                             if (redisClient != null) {
                                 redisClient.sendCommand(Arrays.asList(ASKING, command), Arrays.asList(new CompletableFuture<>(), this));
                                 return true;
@@ -169,17 +212,17 @@ public class AsyncCamelliaRedisClusterClient implements AsyncClient {
         }
     }
 
-    private void mget(Command command, CommandFlusher commandFlusher, CompletableFuture<Reply> future) {
+    private void mget(Command command, CommandFlusher commandFlusher, CompletableFuture<Reply> future, String group) {
         byte[][] args = command.getObjects();
         List<CompletableFuture<Reply>> futureList = new ArrayList<>();
         for (int i=1; i<args.length; i++) {
             byte[] key = args[i];
             int slot = JedisClusterCRC16.getSlot(key);
-            RedisClient client = getClient(slot);
+            RedisClient client = getClient(slot, group);
             Command subCommand = new Command(new byte[][]{RedisCommand.GET.raw(), key});
 
             CompletableFuture<Reply> subFuture = new CompletableFuture<>();
-            CompletableFutureWrapper futureWrapper = new CompletableFutureWrapper(this, subFuture, subCommand);
+            CompletableFutureWrapper futureWrapper = new CompletableFutureWrapper(this, subFuture, subCommand, group);
             commandFlusher.sendCommand(client, subCommand, futureWrapper);
             futureList.add(subFuture);
         }
@@ -207,18 +250,18 @@ public class AsyncCamelliaRedisClusterClient implements AsyncClient {
         });
     }
 
-    private void mset(Command command, CommandFlusher commandFlusher, CompletableFuture<Reply> future) {
+    private void mset(Command command, CommandFlusher commandFlusher, CompletableFuture<Reply> future, String group) {
         byte[][] args = command.getObjects();
         List<CompletableFuture<Reply>> futureList = new ArrayList<>();
         for (int i=1; i<args.length; i++, i++) {
             byte[] key = args[i];
             byte[] value = args[i+1];
             int slot = JedisClusterCRC16.getSlot(key);
-            RedisClient client = getClient(slot);
+            RedisClient client = getClient(slot, group);
             Command subCommand = new Command(new byte[][]{RedisCommand.SET.raw(), key, value});
 
             CompletableFuture<Reply> subFuture = new CompletableFuture<>();
-            CompletableFutureWrapper futureWrapper = new CompletableFutureWrapper(this, subFuture, subCommand);
+            CompletableFutureWrapper futureWrapper = new CompletableFutureWrapper(this, subFuture, subCommand, group);
             commandFlusher.sendCommand(client, subCommand, futureWrapper);
             futureList.add(subFuture);
         }
@@ -230,17 +273,17 @@ public class AsyncCamelliaRedisClusterClient implements AsyncClient {
         AsyncUtils.allOf(futureList).thenAccept(replies -> future.complete(Utils.mergeStatusReply(replies)));
     }
 
-    private void simpleIntegerReplyMerge(Command command, CommandFlusher commandFlusher, CompletableFuture<Reply> future) {
+    private void simpleIntegerReplyMerge(Command command, CommandFlusher commandFlusher, CompletableFuture<Reply> future, String group) {
         byte[][] args = command.getObjects();
         List<CompletableFuture<Reply>> futureList = new ArrayList<>();
         for (int i=1; i<args.length; i++) {
             byte[] key = args[i];
             int slot = JedisClusterCRC16.getSlot(key);
-            RedisClient client = getClient(slot);
+            RedisClient client = getClient(slot, group);
             Command subCommand = new Command(new byte[][]{args[0], key});
 
             CompletableFuture<Reply> subFuture = new CompletableFuture<>();
-            CompletableFutureWrapper futureWrapper = new CompletableFutureWrapper(this, subFuture, subCommand);
+            CompletableFutureWrapper futureWrapper = new CompletableFutureWrapper(this, subFuture, subCommand, group);
             commandFlusher.sendCommand(client, subCommand, futureWrapper);
             futureList.add(subFuture);
         }
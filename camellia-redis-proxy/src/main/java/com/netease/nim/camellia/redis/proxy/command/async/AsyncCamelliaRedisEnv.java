@@ -1,6 +1,7 @@
 package com.netease.nim.camellia.redis.proxy.command.async;
 
 import com.netease.nim.camellia.core.client.env.ProxyEnv;
+import com.netease.nim.camellia.redis.proxy.conf.Constants;
 
 /**
  *
@@ -12,12 +13,16 @@ public class AsyncCamelliaRedisEnv {
 
     private ProxyEnv proxyEnv = ProxyEnv.defaultProxyEnv();
 
+    //加载分片表时后端预热的超时时间
+    private long warmUpTimeoutMillis = Constants.Async.warmUpTimeoutMillis;
+
     private AsyncCamelliaRedisEnv() {
     }
 
-    private AsyncCamelliaRedisEnv(AsyncNettyClientFactory clientFactory, ProxyEnv proxyEnv) {
+    private AsyncCamelliaRedisEnv(AsyncNettyClientFactory clientFactory, ProxyEnv proxyEnv, long warmUpTimeoutMillis) {
         this.clientFactory = clientFactory;
         this.proxyEnv = proxyEnv;
+        this.warmUpTimeoutMillis = warmUpTimeoutMillis;
     }
 
     public static AsyncCamelliaRedisEnv defaultRedisEnv() {
@@ -32,6 +37,10 @@ public class AsyncCamelliaRedisEnv {
         return proxyEnv;
     }
 
+    public long getWarmUpTimeoutMillis() {
+        return warmUpTimeoutMillis;
+    }
+
     public static class Builder {
         private final AsyncCamelliaRedisEnv redisEnv;
         public Builder() {
@@ -39,7 +48,7 @@ public class AsyncCamelliaRedisEnv {
         }
 
         public Builder(AsyncCamelliaRedisEnv redisEnv) {
-            this.redisEnv = new AsyncCamelliaRedisEnv(redisEnv.clientFactory, redisEnv.proxyEnv);
+            this.redisEnv = new AsyncCamelliaRedisEnv(redisEnv.clientFactory, redisEnv.proxyEnv, redisEnv.warmUpTimeoutMillis);
         }
 
         public Builder clientFactory(AsyncNettyClientFactory clientFactory) {
@@ -56,6 +65,13 @@ public class AsyncCamelliaRedisEnv {
             return this;
         }
 
+        public Builder warmUpTimeoutMillis(long warmUpTimeoutMillis) {
+            if (warmUpTimeoutMillis > 0) {
+                redisEnv.warmUpTimeoutMillis = warmUpTimeoutMillis;
+            }
+            return this;
+        }
+
         public AsyncCamelliaRedisEnv build() {
             return redisEnv;
         }
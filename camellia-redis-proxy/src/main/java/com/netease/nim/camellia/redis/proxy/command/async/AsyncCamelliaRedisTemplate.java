@@ -5,18 +5,37 @@ import com.netease.nim.camellia.core.client.env.Monitor;
 import com.netease.nim.camellia.core.client.env.ProxyEnv;
 import com.netease.nim.camellia.core.model.Resource;
 import com.netease.nim.camellia.core.model.ResourceTable;
+import com.netease.nim.camellia.core.model.operation.ResourceOperation;
 import com.netease.nim.camellia.core.util.CamelliaThreadFactory;
 import com.netease.nim.camellia.core.util.ReadableResourceTableUtil;
 import com.netease.nim.camellia.core.util.ResourceChooser;
+import com.netease.nim.camellia.core.util.ResourceRoutingPlan;
 import com.netease.nim.camellia.core.util.ResourceUtil;
+import com.netease.nim.camellia.core.util.ShadingFuncUtil;
 import com.netease.nim.camellia.redis.exception.CamelliaRedisException;
 import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.command.async.blocking.BlockingConnectionPool;
+import com.netease.nim.camellia.redis.proxy.command.async.counter.CounterCoalescer;
+import com.netease.nim.camellia.redis.proxy.command.async.migrate.BucketMigration;
+import com.netease.nim.camellia.redis.proxy.command.async.migrate.BucketMigrationManager;
+import com.netease.nim.camellia.redis.proxy.command.async.migrate.BucketMigrationRouter;
+import com.netease.nim.camellia.redis.proxy.command.async.pubsub.PubSubSession;
+import com.netease.nim.camellia.redis.proxy.command.async.route.RoutingRuleMatcher;
+import com.netease.nim.camellia.redis.proxy.command.async.scatter.ScatterGatherCommand;
+import com.netease.nim.camellia.redis.proxy.command.async.scatter.ShardSender;
+import com.netease.nim.camellia.redis.proxy.conf.CamelliaTranspondProperties;
 import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.monitor.RedisMonitor;
+import com.netease.nim.camellia.redis.proxy.netty.ChannelInfo;
 import com.netease.nim.camellia.redis.proxy.reply.*;
+import com.netease.nim.camellia.redis.proxy.util.ErrorLogCollector;
 import com.netease.nim.camellia.redis.proxy.util.RedisKey;
 import com.netease.nim.camellia.redis.proxy.util.Utils;
+import com.netease.nim.camellia.redis.resource.RedisResource;
+import com.netease.nim.camellia.redis.resource.RedisResourceUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import redis.clients.util.JedisClusterCRC16;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
@@ -41,8 +60,20 @@ public class AsyncCamelliaRedisTemplate implements IAsyncCamelliaRedisTemplate {
 
     private final long bid;
     private final String bgroup;
+    //共享的后端连接按租户公平调度
+    private final String tenant;
     private AsyncCamelliaRedisEnv env;
+    private ResourceTable resourceTable;
     private ResourceChooser resourceChooser;
+    //正在迁移的bucket，若为null表示没有迁移
+    private volatile BucketMigrationRouter migrationRouter;
+    //SCAN遍历的后端，加载分片表时构建
+    private volatile ScanBackends scanBackends;
+    //路由规则，命中的请求转发给规则对应的template，规则的下标和routingTemplates一一对应
+    private RoutingRuleMatcher routingRuleMatcher;
+    private AsyncCamelliaRedisTemplate[] routingTemplates;
+    //计数器写合并，租户未开启时为null
+    private final CounterCoalescer counterCoalescer;
 
     public AsyncCamelliaRedisTemplate(ResourceTable resourceTable) {
         this(AsyncCamelliaRedisEnv.defaultRedisEnv(), resourceTable);
@@ -52,12 +83,35 @@ public class AsyncCamelliaRedisTemplate implements IAsyncCamelliaRedisTemplate {
         this(env, new LocalCamelliaApi(resourceTable), defaultBid, defaultBgroup, defaultMonitorEnable, defaultCheckIntervalMillis);
     }
 
+    /**
+     * 带路由规则的本地配置，每个规则的resourceTable单独创建一个template，bgroup为local-rule-规则下标
+     */
+    public AsyncCamelliaRedisTemplate(AsyncCamelliaRedisEnv env, ResourceTable resourceTable,
+                                      List<CamelliaTranspondProperties.LocalProperties.RoutingRule> routingRules) {
+        this(env, resourceTable);
+        if (routingRules == null || routingRules.isEmpty()) return;
+        AsyncCamelliaRedisTemplate[] routingTemplates = new AsyncCamelliaRedisTemplate[routingRules.size()];
+        for (int i=0; i<routingRules.size(); i++) {
+            ResourceTable ruleResourceTable = routingRules.get(i).getResourceTable();
+            if (ruleResourceTable == null) {
+                throw new IllegalArgumentException("routing rule resourceTable is null, index = " + i);
+            }
+            routingTemplates[i] = new AsyncCamelliaRedisTemplate(env, new LocalCamelliaApi(ruleResourceTable), defaultBid,
+                    defaultBgroup + "-rule-" + i, defaultMonitorEnable, defaultCheckIntervalMillis);
+        }
+        this.routingRuleMatcher = new RoutingRuleMatcher(routingRules);
+        this.routingTemplates = routingTemplates;
+        logger.info("AsyncCamelliaRedisTemplate routing rules init success, size = {}", routingRules.size());
+    }
+
     public AsyncCamelliaRedisTemplate(AsyncCamelliaRedisEnv env, CamelliaApi service, long bid, String bgroup,
                                         boolean monitorEnable, long checkIntervalMillis) {
         this.env = env;
         this.bid = bid;
         this.bgroup = bgroup;
+        this.tenant = bid > 0 ? bid + "|" + bgroup : FairCommandQueue.DEFAULT_TENANT;
         this.factory = env.getClientFactory();
+        this.counterCoalescer = CounterCoalescer.create(this, bid, bgroup);
         CamelliaApiResponse response = service.getResourceTable(bid, bgroup, null);
         String md5 = response.getMd5();
         if (response.getResourceTable() == null) {
@@ -67,6 +121,11 @@ public class AsyncCamelliaRedisTemplate implements IAsyncCamelliaRedisTemplate {
             logger.info("AsyncCamelliaRedisTemplate init success, bid = {}, bgroup = {}, md5 = {}, resourceTable = {}", bid, bgroup, md5,
                     ReadableResourceTableUtil.readableResourceTable(response.getResourceTable()));
         }
+        //启动时预热失败只打印日志，不可用的后端由后续请求重连
+        List<String> failUrls = warmUp(response.getResourceTable());
+        if (!failUrls.isEmpty()) {
+            logger.error("AsyncCamelliaRedisTemplate warm up fail, bid = {}, bgroup = {}, urls = {}", bid, bgroup, failUrls);
+        }
         this.init(response.getResourceTable());
 
         if (bid > 0) {
@@ -79,12 +138,22 @@ public class AsyncCamelliaRedisTemplate implements IAsyncCamelliaRedisTemplate {
                 this.env = new AsyncCamelliaRedisEnv.Builder(env).proxyEnv(proxyEnv).build();
             }
         }
+        BucketMigrationManager.register(bid, bgroup, this);
+    }
+
+    public CounterCoalescer getCounterCoalescer() {
+        return counterCoalescer;
     }
 
     public List<CompletableFuture<Reply>> sendCommand(List<Command> commands) {
         List<CompletableFuture<Reply>> futureList = new ArrayList<>(commands.size());
 
-        CommandFlusher commandFlusher = new CommandFlusher();
+        CommandFlusher commandFlusher = new CommandFlusher(tenant);
+        BucketMigrationRouter migrationRouter = this.migrationRouter;
+        if (migrationRouter != null && !migrationRouter.getMigration().isActive()) {
+            migrationRouter = null;
+        }
+        RoutedCommands[] routedCommands = null;
         for (Command command : commands) {
             RedisCommand redisCommand = RedisCommand.getSupportRedisCommand(command);
             if (redisCommand == null || !redisCommand.isSupport()) {
@@ -101,8 +170,71 @@ public class AsyncCamelliaRedisTemplate implements IAsyncCamelliaRedisTemplate {
                 continue;
             }
 
+            if (command.getName().equalsIgnoreCase(RedisCommand.SCAN.name())) {
+                futureList.add(scan(command, commandFlusher));
+                continue;
+            }
+
+            if (redisCommand == RedisCommand.EVAL || redisCommand == RedisCommand.EVALSHA) {
+                futureList.add(eval(command, commandFlusher, migrationRouter));
+                continue;
+            }
+            if (redisCommand == RedisCommand.SCRIPT) {
+                futureList.add(script(command, commandFlusher));
+                continue;
+            }
+            if (PubSubSession.isPubSubCommand(redisCommand) || isBlockingCommand(redisCommand)) {
+                //订阅类命令和阻塞命令需要客户端连接的上下文，由AsyncCommandInvoker处理
+                futureList.add(completedFuture(ErrorReply.NOT_SUPPORT));
+                continue;
+            }
+            if (redisCommand == RedisCommand.PUBLISH) {
+                //channel不是key，不走迁移的路由，和SUBSCRIBE一样按路由计划选择后端
+                futureList.add(sendCommand(redisCommand.getType(), command, commandFlusher, null));
+                continue;
+            }
+
+            if (routingRuleMatcher != null) {
+                //路由规则在分片之前匹配
+                int index = routingRuleMatcher.match(redisCommand, command);
+                if (index == RoutingRuleMatcher.CROSS_RULE) {
+                    futureList.add(completedFuture(RoutingRuleMatcher.CROSS_RULE_ERROR));
+                    continue;
+                }
+                if (index >= 0) {
+                    if (routedCommands == null) {
+                        routedCommands = new RoutedCommands[routingTemplates.length];
+                    }
+                    if (routedCommands[index] == null) {
+                        routedCommands[index] = new RoutedCommands();
+                    }
+                    CompletableFuture<Reply> future = new CompletableFuture<>();
+                    routedCommands[index].add(command, future);
+                    futureList.add(future);
+                    continue;
+                }
+            }
+
             //特殊处理多key的命令
             if (resourceChooser.getType() == ResourceTable.Type.SHADING) {
+                if (migrationRouter != null && isMultiKeyCommand(command) && containsMigrationKey(command, migrationRouter)) {
+                    //涉及迁移中的bucket，拆成单key的命令分别处理
+                    CompletableFuture<Reply> future = splitByKey(command, commandFlusher, migrationRouter);
+                    futureList.add(future);
+                    continue;
+                }
+                if (isMultiKeyCommand(command) && isSingleRoute(command)) {
+                    //所有key都落在同一个分片上（如使用了相同的hashtag），则不拆分，直接转发
+                    futureList.add(sendCommand(redisCommand.getType(), command, commandFlusher, migrationRouter));
+                    continue;
+                }
+                ScatterGatherCommand scatterGatherCommand = ScatterGatherCommand.get(command);
+                if (scatterGatherCommand != null) {
+                    //其他跨分片的多key命令
+                    ShardSender shardSender = new TemplateShardSender(resourceChooser, commandFlusher, migrationRouter);
+                    futureList.add(scatterGatherCommand.execute(command, shardSender));
+                    continue;
+                }
                 if (command.getName().equalsIgnoreCase(RedisCommand.MGET.name())) {
                     if (command.getObjects().length > 2) {
                         CompletableFuture<Reply> future = mget(command, commandFlusher);
@@ -130,30 +262,292 @@ public class AsyncCamelliaRedisTemplate implements IAsyncCamelliaRedisTemplate {
                 }
             }
 
-            RedisCommand.Type type = redisCommand.getType();
-            if (type == RedisCommand.Type.READ) {
-                Resource resource = getReadResource(command);
+            futureList.add(sendCommand(redisCommand.getType(), command, commandFlusher, migrationRouter));
+        }
+        commandFlusher.flush();
+        if (routedCommands != null) {
+            for (int i=0; i<routedCommands.length; i++) {
+                if (routedCommands[i] != null) {
+                    routedCommands[i].send(routingTemplates[i]);
+                }
+            }
+        }
+        return futureList;
+    }
+
+    //命中同一个路由规则的命令，按原来的顺序一次性交给规则对应的template
+    private static class RoutedCommands {
+        private final List<Command> commands = new ArrayList<>();
+        private final List<CompletableFuture<Reply>> futures = new ArrayList<>();
+
+        void add(Command command, CompletableFuture<Reply> future) {
+            commands.add(command);
+            futures.add(future);
+        }
+
+        void send(AsyncCamelliaRedisTemplate template) {
+            List<CompletableFuture<Reply>> replies = template.sendCommand(commands);
+            for (int i=0; i<replies.size(); i++) {
+                replies.get(i).thenAccept(futures.get(i)::complete);
+            }
+        }
+    }
+
+    private CompletableFuture<Reply> sendCommand(RedisCommand.Type type, Command command, CommandFlusher commandFlusher,
+                                                 BucketMigrationRouter migrationRouter) {
+        return sendCommand(type, command, command.getObjects()[1], commandFlusher, migrationRouter);
+    }
+
+    private CompletableFuture<Reply> sendCommand(RedisCommand.Type type, Command command, byte[] key, CommandFlusher commandFlusher,
+                                                 BucketMigrationRouter migrationRouter) {
+        if (migrationRouter != null) {
+            if (migrationRouter.contains(key)) {
+                String url = migrationRouter.getMigration().getToUrl();
+                if (type == RedisCommand.Type.READ) {
+                    incrRead(url, command);
+                    return migrationRouter.read(command, key, commandFlusher);
+                } else if (type == RedisCommand.Type.WRITE) {
+                    incrWrite(url, command);
+                    return migrationRouter.write(command, key, commandFlusher);
+                }
+            }
+        }
+        if (type == RedisCommand.Type.READ) {
+            Resource resource = getReadResource(key);
+            AsyncClient client = factory.get(resource.getUrl());
+            if (client.isDegraded()) {
+                //后端降级时，如果有其他可用的读资源，则改投
+                Resource alternative = getAlternativeReadResource(key, resource);
+                if (alternative != null) {
+                    resource = alternative;
+                    client = factory.get(alternative.getUrl());
+                }
+            }
+            CompletableFuture<Reply> future = commandFlusher.sendCommand(client, command);
+            incrRead(resource, command);
+            return future;
+        } else if (type == RedisCommand.Type.WRITE) {
+            List<Resource> writeResources = getWriteResources(key);
+            CompletableFuture<Reply> ret = null;
+            for (int i=0; i<writeResources.size(); i++) {
+                Resource resource = writeResources.get(i);
                 AsyncClient client = factory.get(resource.getUrl());
                 CompletableFuture<Reply> future = commandFlusher.sendCommand(client, command);
-                incrRead(resource, command);
-                futureList.add(future);
-            } else if (type == RedisCommand.Type.WRITE) {
-                List<Resource> writeResources = getWriteResources(command);
-                for (int i=0; i<writeResources.size(); i++) {
-                    Resource resource = writeResources.get(i);
-                    AsyncClient client = factory.get(resource.getUrl());
-                    CompletableFuture<Reply> future = commandFlusher.sendCommand(client, command);
-                    incrWrite(resource, command);
-                    if (i == 0) {
-                        futureList.add(future);
-                    }
+                incrWrite(resource, command);
+                if (i == 0) {
+                    ret = future;
                 }
-            } else {
-                throw new CamelliaRedisException("not support RedisCommand.Type");
             }
+            return ret;
+        } else {
+            throw new CamelliaRedisException("not support RedisCommand.Type");
         }
-        commandFlusher.flush();
-        return futureList;
+    }
+
+    /**
+     * 按分片投递scatter-gather的子命令
+     * 迁移中的bucket的key每个key单独一组，从而可以走迁移的读写路由
+     */
+    private class TemplateShardSender implements ShardSender {
+
+        private final ResourceRoutingPlan routingPlan;
+        private final CommandFlusher commandFlusher;
+        private final BucketMigrationRouter migrationRouter;
+        private final ResourceChooser resourceChooser;
+
+        TemplateShardSender(ResourceChooser resourceChooser, CommandFlusher commandFlusher, BucketMigrationRouter migrationRouter) {
+            this.resourceChooser = resourceChooser;
+            this.routingPlan = resourceChooser.getRoutingPlan();
+            this.commandFlusher = commandFlusher;
+            this.migrationRouter = migrationRouter;
+        }
+
+        @Override
+        public Object shard(byte[] key) {
+            if (migrationRouter != null && migrationRouter.contains(key)) {
+                return new RedisKey(key);
+            }
+            return routingPlan.getRoute(key);
+        }
+
+        @Override
+        public CompletableFuture<Reply> send(byte[] routeKey, Command command) {
+            RedisCommand redisCommand = RedisCommand.getRedisCommand(command.getName());
+            return sendCommand(redisCommand.getType(), command, routeKey, commandFlusher, migrationRouter);
+        }
+
+        @Override
+        public void flush() {
+            commandFlusher.flush();
+        }
+
+        @Override
+        public ShardSender next() {
+            return new TemplateShardSender(resourceChooser, new CommandFlusher(tenant), migrationRouter);
+        }
+    }
+
+    private boolean isMultiKeyCommand(Command command) {
+        String name = command.getName();
+        return name.equalsIgnoreCase(RedisCommand.MGET.name()) || name.equalsIgnoreCase(RedisCommand.DEL.name())
+                || name.equalsIgnoreCase(RedisCommand.EXISTS.name()) || name.equalsIgnoreCase(RedisCommand.MSET.name());
+    }
+
+    private boolean containsMigrationKey(Command command, BucketMigrationRouter migrationRouter) {
+        byte[][] args = command.getObjects();
+        int step = command.getName().equalsIgnoreCase(RedisCommand.MSET.name()) ? 2 : 1;
+        for (int i=1; i<args.length; i+=step) {
+            if (migrationRouter.contains(args[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //多key命令的所有key是否路由到同一个分片
+    private boolean isSingleRoute(Command command) {
+        byte[][] args = command.getObjects();
+        int step = 1;
+        if (command.getName().equalsIgnoreCase(RedisCommand.MSET.name())) {
+            if (args.length < 3 || (args.length - 1) % 2 != 0) {
+                return false;
+            }
+            step = 2;
+        }
+        if (args.length < 2) {
+            return false;
+        }
+        ResourceRoutingPlan routingPlan = resourceChooser.getRoutingPlan();
+        ResourceRoutingPlan.Route route = routingPlan.getRoute(args[1]);
+        for (int i=1+step; i<args.length; i+=step) {
+            if (routingPlan.getRoute(args[i]) != route) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private CompletableFuture<Reply> splitByKey(Command command, CommandFlusher commandFlusher, BucketMigrationRouter migrationRouter) {
+        byte[][] args = command.getObjects();
+        String name = command.getName();
+        List<CompletableFuture<Reply>> futures = new ArrayList<>();
+        if (name.equalsIgnoreCase(RedisCommand.MSET.name())) {
+            if ((args.length - 1) % 2 != 0) {
+                CompletableFuture<Reply> future = new CompletableFuture<>();
+                future.complete(new ErrorReply("wrong number of arguments for 'mset' command"));
+                return future;
+            }
+            for (int i=1; i<args.length; i+=2) {
+                Command subCommand = new Command(new byte[][]{RedisCommand.SET.raw(), args[i], args[i+1]});
+                futures.add(sendCommand(RedisCommand.Type.WRITE, subCommand, commandFlusher, migrationRouter));
+            }
+            CompletableFuture<Reply> future = new CompletableFuture<>();
+            AsyncUtils.allOf(futures).thenAccept(replies -> future.complete(Utils.mergeStatusReply(replies)));
+            return future;
+        }
+        boolean mget = name.equalsIgnoreCase(RedisCommand.MGET.name());
+        RedisCommand subRedisCommand = mget ? RedisCommand.GET : RedisCommand.getRedisCommand(name.toLowerCase());
+        for (int i=1; i<args.length; i++) {
+            Command subCommand = new Command(new byte[][]{subRedisCommand.raw(), args[i]});
+            futures.add(sendCommand(subRedisCommand.getType(), subCommand, commandFlusher, migrationRouter));
+        }
+        CompletableFuture<Reply> future = new CompletableFuture<>();
+        if (mget) {
+            AsyncUtils.allOf(futures).thenAccept(replies -> {
+                for (Reply reply : replies) {
+                    if (reply instanceof ErrorReply) {
+                        future.complete(reply);
+                        return;
+                    }
+                }
+                future.complete(new MultiBulkReply(replies.toArray(new Reply[0])));
+            });
+        } else {
+            AsyncUtils.allOf(futures).thenAccept(replies -> future.complete(Utils.mergeIntegerReply(replies)));
+        }
+        return future;
+    }
+
+    /**
+     * 开始迁移一个bucket，只支持分片表中单个资源的bucket，且源资源需要是redis://的单点redis（需要SCAN）
+     * 切换后的分片表只在本地生效，dashboard没有写回分片表的接口，因此只支持本地配置
+     */
+    public synchronized BucketMigrationRouter startMigration(int bucket, String toUrl) {
+        if (bid > 0) {
+            throw new IllegalArgumentException("only support migrate local resourceTable, resourceTable of bid = " + bid + " is managed by dashboard");
+        }
+        BucketMigrationRouter current = this.migrationRouter;
+        if (current != null && current.getMigration().isActive()) {
+            throw new IllegalArgumentException("bucket = " + current.getMigration().getBucket() + " is migrating");
+        }
+        ResourceTable resourceTable = this.resourceTable;
+        if (resourceTable.getType() != ResourceTable.Type.SHADING) {
+            throw new IllegalArgumentException("resourceTable is not shading");
+        }
+        ResourceTable.ShadingTable shadingTable = resourceTable.getShadingTable();
+        if (bucket < 0 || bucket >= shadingTable.getBucketSize()) {
+            throw new IllegalArgumentException("bucket out of range");
+        }
+        ResourceOperation operation = shadingTable.getResourceOperationMap().get(bucket);
+        if (operation.getType() != ResourceOperation.Type.SIMPLE) {
+            throw new IllegalArgumentException("only support bucket with simple resource operation");
+        }
+        String fromUrl = operation.getResource().getUrl();
+        if (!(RedisResourceUtil.parseResourceByUrl(new Resource(fromUrl)) instanceof RedisResource)) {
+            throw new IllegalArgumentException("only support migrate from redis://");
+        }
+        if (fromUrl.equals(toUrl)) {
+            throw new IllegalArgumentException("from/to resource is same");
+        }
+        AsyncClient fromClient = factory.get(fromUrl);
+        AsyncClient toClient = factory.get(toUrl);
+        BucketMigration migration = new BucketMigration(bid, bgroup, bucket, fromUrl, toUrl,
+                ShadingFuncUtil.resolve(shadingTable, env.getProxyEnv().getShadingFunc()), shadingTable.getBucketSize());
+        BucketMigrationRouter router = new BucketMigrationRouter(migration, fromClient, toClient, tenant);
+        this.migrationRouter = router;
+        logger.info("bucket migration start, bid = {}, bgroup = {}, bucket = {}, from = {}, to = {}", bid, bgroup, bucket, fromUrl, toUrl);
+        return router;
+    }
+
+    /**
+     * 迁移完成，将bucket切换到新资源
+     */
+    public synchronized void cutOver(BucketMigration migration) {
+        BucketMigrationRouter router = this.migrationRouter;
+        if (router == null || router.getMigration() != migration || !migration.isActive()) {
+            return;
+        }
+        ResourceTable.ShadingTable shadingTable = this.resourceTable.getShadingTable();
+        ResourceTable.ShadingTable newShadingTable = new ResourceTable.ShadingTable();
+        newShadingTable.setBucketSize(shadingTable.getBucketSize());
+        newShadingTable.setShadingFunc(shadingTable.getShadingFunc());
+        newShadingTable.setHashTag(shadingTable.isHashTag());
+        Map<Integer, ResourceOperation> map = new HashMap<>(shadingTable.getResourceOperationMap());
+        map.put(migration.getBucket(), new ResourceOperation(new Resource(migration.getToUrl())));
+        newShadingTable.setResourceOperationMap(map);
+        ResourceTable newResourceTable = new ResourceTable(newShadingTable);
+        init(newResourceTable);
+        migration.cutOver();
+        this.migrationRouter = null;
+        //只在内存中生效，需要把新的分片表同步更新到本地配置文件，否则重启后会回到旧的分片表
+        logger.info("bucket migration cut over, bid = {}, bgroup = {}, bucket = {}, resourceTable = {}", bid, bgroup, migration.getBucket(),
+                ReadableResourceTableUtil.readableResourceTable(newResourceTable));
+    }
+
+    private synchronized void reload(ResourceTable resourceTable) {
+        //新的分片表的后端全部预热成功才切换，否则保留原来的分片表，下次检查时重试
+        List<String> failUrls = warmUp(resourceTable);
+        if (!failUrls.isEmpty()) {
+            throw new CamelliaRedisException("warm up fail, urls = " + failUrls);
+        }
+        BucketMigrationRouter router = this.migrationRouter;
+        if (router != null && router.getMigration().isActive()) {
+            //分片表被外部修改了，迁移无法继续
+            router.getMigration().fail("resourceTable reload");
+            this.migrationRouter = null;
+            logger.warn("bucket migration abort by resourceTable reload, bid = {}, bgroup = {}, bucket = {}", bid, bgroup, router.getMigration().getBucket());
+        }
+        init(resourceTable);
     }
 
     private CompletableFuture<Reply> mset(Command command, CommandFlusher commandFlusher) {
@@ -352,13 +746,348 @@ public class AsyncCamelliaRedisTemplate implements IAsyncCamelliaRedisTemplate {
         return future;
     }
 
+    private List<String> warmUp(ResourceTable resourceTable) {
+        return BackendWarmUp.warmUp(factory, ResourceUtil.getAllResources(resourceTable), env.getWarmUpTimeoutMillis());
+    }
+
     private void init(ResourceTable resourceTable) {
-        Set<Resource> allResources = ResourceUtil.getAllResources(resourceTable);
-        for (Resource resource : allResources) {
-            //初始化一下
-            factory.get(resource.getUrl());
+        ResourceChooser resourceChooser = new ResourceChooser(resourceTable, env.getProxyEnv());
+        //SCAN遍历每个分片的第一个写资源（双写的其他资源是副本）
+        Set<String> scanUrls = new LinkedHashSet<>();
+        for (ResourceRoutingPlan.Route route : resourceChooser.getRoutingPlan().getRoutes()) {
+            scanUrls.add(route.getAllWriteResources()[0].getUrl());
+        }
+        ScanBackends scanBackends = new ScanBackends(new ArrayList<>(scanUrls), factory);
+        if (scanBackends.count() > ScanCursor.maxBackends) {
+            logger.warn("backend count = {} exceed {}, SCAN will not be supported, bid = {}, bgroup = {}",
+                    scanBackends.count(), ScanCursor.maxBackends, bid, bgroup);
+        }
+        this.scanBackends = scanBackends;
+        this.resourceChooser = resourceChooser;
+        this.resourceTable = resourceTable;
+    }
+
+    /**
+     * SUBSCRIBE的channel所在的后端，分片表按channel的hash路由，和PUBLISH一致
+     */
+    public String pubSubUrl(byte[] channel) {
+        return resourceChooser.getWriteResources(channel).get(0).getUrl();
+    }
+
+    /**
+     * PSUBSCRIBE需要订阅的所有后端，每个分片的第一个写资源
+     */
+    public List<String> pubSubUrls() {
+        return scanBackends.urls;
+    }
+
+    /**
+     * 所有的后端节点，每个分片的第一个写资源，redis-cluster展开为各个master节点（master节点列表在slot信息刷新时构建）
+     * 后端列表在加载分片表时构建，请求线程上只做下标查找，不阻塞也不分配
+     */
+    private static class ScanBackends {
+        private final List<String> urls;
+        private final AsyncClient[] clients;
+
+        ScanBackends(List<String> urls, AsyncNettyClientFactory factory) {
+            this.urls = urls;
+            this.clients = new AsyncClient[urls.size()];
+            for (int i=0; i<urls.size(); i++) {
+                clients[i] = factory.get(urls.get(i));
+            }
+        }
+
+        int count() {
+            int count = 0;
+            for (AsyncClient client : clients) {
+                count += client instanceof AsyncCamelliaRedisClusterClient ? ((AsyncCamelliaRedisClusterClient) client).getMasterCount() : 1;
+            }
+            return count;
+        }
+
+        /**
+         * 第index个后端节点所在的url的下标，越界返回-1
+         */
+        int urlIndex(int index) {
+            for (int i=0; i<clients.length; i++) {
+                int size = clients[i] instanceof AsyncCamelliaRedisClusterClient ? ((AsyncCamelliaRedisClusterClient) clients[i]).getMasterCount() : 1;
+                if (index < size) return i;
+                index -= size;
+            }
+            return -1;
+        }
+
+        /**
+         * 第index个后端节点，节点不可用（如redis-cluster的节点连接断开）时返回null
+         */
+        AsyncClient client(int urlIndex, int index) {
+            AsyncClient client = clients[urlIndex];
+            if (client instanceof AsyncCamelliaRedisClusterClient) {
+                for (int i=0; i<urlIndex; i++) {
+                    index -= clients[i] instanceof AsyncCamelliaRedisClusterClient ? ((AsyncCamelliaRedisClusterClient) clients[i]).getMasterCount() : 1;
+                }
+                return ((AsyncCamelliaRedisClusterClient) client).getMasterClient(index);
+            }
+            return client;
+        }
+    }
+
+    /**
+     * EVAL/EVALSHA，按KEYS路由，所有key需要在同一个分片上
+     * EVALSHA返回NOSCRIPT时，若本地注册表中有该脚本，则改为EVAL重试，从而把脚本加载到该后端上
+     */
+    private CompletableFuture<Reply> eval(Command command, CommandFlusher commandFlusher, BucketMigrationRouter migrationRouter) {
+        byte[][] args = command.getObjects();
+        if (args.length < 3) {
+            return completedFuture(new ErrorReply("ERR wrong number of arguments for '" + command.getName() + "' command"));
+        }
+        long numKeys;
+        try {
+            numKeys = Utils.bytesToNum(args[2]);
+        } catch (IllegalArgumentException e) {
+            return completedFuture(new ErrorReply("ERR value is not an integer or out of range"));
+        }
+        if (numKeys < 0) {
+            return completedFuture(new ErrorReply("ERR Number of keys can't be negative"));
+        }
+        if (numKeys > args.length - 3) {
+            return completedFuture(new ErrorReply("ERR Number of keys can't be greater than number of args"));
+        }
+        boolean evalsha = command.getName().equalsIgnoreCase(RedisCommand.EVALSHA.name());
+        String sha = evalsha ? Utils.bytesToString(args[1]).toLowerCase() : ScriptRegistry.register(args[1]);
+        ResourceChooser resourceChooser = this.resourceChooser;
+        byte[] routeKey;
+        if (numKeys == 0) {
+            if (resourceChooser.getType() == ResourceTable.Type.SHADING) {
+                return completedFuture(new ErrorReply("ERR " + command.getName() + " without keys is not supported in sharding mode"));
+            }
+            routeKey = args[1];
+        } else {
+            routeKey = args[3];
+            if (resourceChooser.getType() == ResourceTable.Type.SHADING) {
+                ResourceRoutingPlan routingPlan = resourceChooser.getRoutingPlan();
+                ResourceRoutingPlan.Route route = routingPlan.getRoute(routeKey);
+                for (int i=3; i<3+numKeys; i++) {
+                    if (migrationRouter != null && migrationRouter.contains(args[i])) {
+                        return completedFuture(new ErrorReply("TRYAGAIN Keys in migrating bucket"));
+                    }
+                    if (routingPlan.getRoute(args[i]) != route) {
+                        return completedFuture(ScatterGatherCommand.CROSS_SHARD);
+                    }
+                }
+            }
         }
-        this.resourceChooser = new ResourceChooser(resourceTable, env.getProxyEnv());
+        long startNanos = System.nanoTime();
+        List<Resource> writeResources = resourceChooser.getWriteResources(routeKey);
+        CompletableFuture<Reply> ret = null;
+        for (int i=0; i<writeResources.size(); i++) {
+            Resource resource = writeResources.get(i);
+            AsyncClient client = factory.get(resource.getUrl());
+            CompletableFuture<Reply> future = commandFlusher.sendCommand(client, command);
+            if (evalsha) {
+                future = future.thenCompose(reply -> retryNoScript(client, command, sha, reply));
+            }
+            incrWrite(resource, command);
+            if (i == 0) {
+                ret = future;
+            }
+        }
+        ret.thenAccept(reply -> RedisMonitor.incrScriptSpend(sha, System.nanoTime() - startNanos));
+        return ret;
+    }
+
+    private CompletableFuture<Reply> retryNoScript(AsyncClient client, Command command, String sha, Reply reply) {
+        if (!(reply instanceof ErrorReply) || !((ErrorReply) reply).getError().startsWith("NOSCRIPT")) {
+            return completedFuture(reply);
+        }
+        byte[] script = ScriptRegistry.get(sha);
+        if (script == null) {
+            return completedFuture(reply);
+        }
+        byte[][] args = command.getObjects().clone();
+        args[0] = RedisCommand.EVAL.raw();
+        args[1] = script;
+        CompletableFuture<Reply> future = new CompletableFuture<>();
+        client.sendCommand(Collections.singletonList(new Command(args)), Collections.singletonList(future));
+        return future;
+    }
+
+    /**
+     * SCRIPT LOAD注册到本地并加载到所有后端节点上，SCRIPT EXISTS查询本地注册表，其他子命令不支持
+     */
+    private CompletableFuture<Reply> script(Command command, CommandFlusher commandFlusher) {
+        byte[][] args = command.getObjects();
+        if (args.length < 2) {
+            return completedFuture(new ErrorReply("ERR wrong number of arguments for 'script' command"));
+        }
+        if (Utils.checkStringIgnoreCase(args[1], "load")) {
+            if (args.length != 3) {
+                return completedFuture(new ErrorReply("ERR wrong number of arguments for 'script|load' command"));
+            }
+            String sha = ScriptRegistry.register(args[2]);
+            ScanBackends scanBackends = this.scanBackends;
+            int count = scanBackends.count();
+            List<CompletableFuture<Reply>> futures = new ArrayList<>(count);
+            for (int i=0; i<count; i++) {
+                int urlIndex = scanBackends.urlIndex(i);
+                AsyncClient client = urlIndex < 0 ? null : scanBackends.client(urlIndex, i);
+                if (client == null) {
+                    //不可用的节点跳过，之后EVALSHA返回NOSCRIPT时会使用EVAL重试
+                    ErrorLogCollector.collect(AsyncCamelliaRedisTemplate.class, "script load skip unavailable backend, index = " + i);
+                    continue;
+                }
+                futures.add(commandFlusher.sendCommand(client, command));
+                incrWrite(scanBackends.urls.get(urlIndex), command);
+            }
+            return AsyncUtils.allOf(futures).thenApply(replies -> {
+                for (Reply reply : replies) {
+                    if (reply instanceof ErrorReply) {
+                        return reply;
+                    }
+                }
+                return new BulkReply(sha.getBytes(Utils.utf8Charset));
+            });
+        } else if (Utils.checkStringIgnoreCase(args[1], "exists")) {
+            Reply[] replies = new Reply[args.length - 2];
+            for (int i=2; i<args.length; i++) {
+                replies[i - 2] = ScriptRegistry.contains(Utils.bytesToString(args[i])) ? IntegerReply.REPLY_1 : IntegerReply.REPLY_0;
+            }
+            return completedFuture(new MultiBulkReply(replies));
+        }
+        return completedFuture(ErrorReply.NOT_SUPPORT);
+    }
+
+    public static boolean isBlockingCommand(RedisCommand redisCommand) {
+        return redisCommand == RedisCommand.BLPOP || redisCommand == RedisCommand.BRPOP || redisCommand == RedisCommand.BRPOPLPUSH;
+    }
+
+    /**
+     * BLPOP/BRPOP/BRPOPLPUSH，不走多路复用的RedisClient，从BlockingConnectionPool租用专用连接执行
+     * 所有key需要在同一个分片上，只在第一个写资源上执行（弹出操作不做双写）
+     */
+    public CompletableFuture<Reply> sendBlockingCommand(Command command, ChannelInfo channelInfo) {
+        byte[][] args = command.getObjects();
+        RedisCommand redisCommand = RedisCommand.getSupportRedisCommand(command);
+        if (redisCommand == RedisCommand.BRPOPLPUSH ? args.length != 4 : args.length < 3) {
+            return completedFuture(new ErrorReply("ERR wrong number of arguments for '" + command.getName() + "' command"));
+        }
+        double timeoutSeconds;
+        try {
+            timeoutSeconds = Utils.bytesToDouble(args[args.length - 1]);
+        } catch (IllegalArgumentException e) {
+            return completedFuture(new ErrorReply("ERR timeout is not a float or out of range"));
+        }
+        if (timeoutSeconds < 0) {
+            return completedFuture(new ErrorReply("ERR timeout is negative"));
+        }
+        ResourceChooser resourceChooser = this.resourceChooser;
+        BucketMigrationRouter migrationRouter = this.migrationRouter;
+        if (migrationRouter != null && !migrationRouter.getMigration().isActive()) {
+            migrationRouter = null;
+        }
+        byte[] routeKey = args[1];
+        if (resourceChooser.getType() == ResourceTable.Type.SHADING) {
+            ResourceRoutingPlan routingPlan = resourceChooser.getRoutingPlan();
+            ResourceRoutingPlan.Route route = routingPlan.getRoute(routeKey);
+            for (int i=1; i<args.length-1; i++) {
+                if (migrationRouter != null && migrationRouter.contains(args[i])) {
+                    return completedFuture(new ErrorReply("TRYAGAIN Keys in migrating bucket"));
+                }
+                if (routingPlan.getRoute(args[i]) != route) {
+                    return completedFuture(ScatterGatherCommand.CROSS_SHARD);
+                }
+            }
+        }
+        Resource resource = resourceChooser.getWriteResources(routeKey).get(0);
+        AsyncClient client = factory.get(resource.getUrl());
+        String host;
+        int port;
+        String password;
+        if (client instanceof AsyncCamelliaRedisClusterClient) {
+            int slot = JedisClusterCRC16.getSlot(routeKey);
+            for (int i=2; i<args.length-1; i++) {
+                if (JedisClusterCRC16.getSlot(args[i]) != slot) {
+                    return completedFuture(new ErrorReply("CROSSSLOT Keys in request don't hash to the same slot"));
+                }
+            }
+            RedisClient redisClient = ((AsyncCamelliaRedisClusterClient) client).getClient(routeKey);
+            if (redisClient == null) {
+                return completedFuture(ErrorReply.NOT_AVAILABLE);
+            }
+            host = redisClient.getHost();
+            port = redisClient.getPort();
+            password = redisClient.getPassword();
+        } else {
+            RedisResource redisResource = (RedisResource) RedisResourceUtil.parseResourceByUrl(resource);
+            host = redisResource.getHost();
+            port = redisResource.getPort();
+            password = redisResource.getPassword();
+        }
+        incrWrite(resource, command);
+        return BlockingConnectionPool.get(host, port, password)
+                .execute(command, (long) (timeoutSeconds * 1000), channelInfo.getCtx().channel());
+    }
+
+    private static CompletableFuture<Reply> completedFuture(Reply reply) {
+        CompletableFuture<Reply> future = new CompletableFuture<>();
+        future.complete(reply);
+        return future;
+    }
+
+    /**
+     * 跨后端的SCAN，游标的低10位为后端的下标，其余位为该后端的游标，see @ScanCursor
+     * 后端按分片表的bucket顺序排列，redis-cluster展开为各个master节点，每次SCAN只访问一个后端节点
+     * MATCH/COUNT/TYPE等参数原样透传
+     */
+    private CompletableFuture<Reply> scan(Command command, CommandFlusher commandFlusher) {
+        byte[][] args = command.getObjects();
+        if (args.length < 2) {
+            CompletableFuture<Reply> future = new CompletableFuture<>();
+            future.complete(new ErrorReply("ERR wrong number of arguments for 'scan' command"));
+            return future;
+        }
+        long cursor;
+        try {
+            cursor = Long.parseUnsignedLong(Utils.bytesToString(args[1]));
+        } catch (NumberFormatException e) {
+            CompletableFuture<Reply> future = new CompletableFuture<>();
+            future.complete(new ErrorReply("ERR invalid cursor"));
+            return future;
+        }
+        ScanBackends scanBackends = this.scanBackends;
+        final int backendCount = scanBackends.count();
+        if (backendCount > ScanCursor.maxBackends) {
+            return completedFuture(new ErrorReply("ERR scan not support more than " + ScanCursor.maxBackends + " backends"));
+        }
+        int index = ScanCursor.index(cursor);
+        long backendCursor = ScanCursor.backendCursor(cursor);
+        int urlIndex = index < backendCount ? scanBackends.urlIndex(index) : -1;
+        if (urlIndex < 0) {
+            CompletableFuture<Reply> future = new CompletableFuture<>();
+            future.complete(new MultiBulkReply(new Reply[]{new BulkReply(Utils.numToBytes(0, false)), MultiBulkReply.EMPTY}));
+            return future;
+        }
+        AsyncClient client = scanBackends.client(urlIndex, index);
+        if (client == null) {
+            ErrorLogCollector.collect(AsyncCamelliaRedisTemplate.class, "scan backend not available, url = " + scanBackends.urls.get(urlIndex) + ", index = " + index);
+            return completedFuture(ErrorReply.NOT_AVAILABLE);
+        }
+        byte[][] subArgs = args.clone();
+        subArgs[1] = Long.toUnsignedString(backendCursor).getBytes(Utils.utf8Charset);
+        CompletableFuture<Reply> subFuture = commandFlusher.sendCommand(client, new Command(subArgs));
+        incrRead(scanBackends.urls.get(urlIndex), command);
+        return subFuture.thenApply(reply -> {
+            if (!(reply instanceof MultiBulkReply) || ((MultiBulkReply) reply).getReplies().length != 2) {
+                return reply;
+            }
+            Reply[] replies = ((MultiBulkReply) reply).getReplies();
+            long nextBackendCursor = Long.parseUnsignedLong(Utils.bytesToString(((BulkReply) replies[0]).getRaw()));
+            if (ScanCursor.overflow(nextBackendCursor)) {
+                return new ErrorReply("ERR scan cursor overflow");
+            }
+            long nextCursor = ScanCursor.next(index, nextBackendCursor, backendCount);
+            return new MultiBulkReply(new Reply[]{new BulkReply(Long.toUnsignedString(nextCursor).getBytes(Utils.utf8Charset)), replies[1]});
+        });
     }
 
     private static class ReloadTask implements Runnable {
@@ -390,7 +1119,7 @@ public class AsyncCamelliaRedisTemplate implements IAsyncCamelliaRedisTemplate {
                         }
                         return;
                     }
-                    template.init(response.getResourceTable());
+                    template.reload(response.getResourceTable());
                     this.md5 = response.getMd5();
                     if (logger.isInfoEnabled()) {
                         logger.info("reload success, bid = {}, bgroup = {}, md5 = {}, resourceTable = {}", bid, bgroup, md5,
@@ -411,17 +1140,19 @@ public class AsyncCamelliaRedisTemplate implements IAsyncCamelliaRedisTemplate {
         return resourceChooser.getReadResources(key).get(0);
     }
 
-    private List<Resource> getWriteResources(byte[] key) {
-        return resourceChooser.getWriteResources(key);
-    }
-
-    private Resource getReadResource(Command command) {
-        byte[] key = command.getObjects()[1];
-        return resourceChooser.getReadResources(key).get(0);
+    private Resource getAlternativeReadResource(byte[] key, Resource current) {
+        Resource[] readResources = resourceChooser.getRoutingPlan().getRoute(key).getAllReadResources();
+        if (readResources.length <= 1) return null;
+        for (Resource resource : readResources) {
+            if (resource.getUrl().equals(current.getUrl())) continue;
+            if (!factory.get(resource.getUrl()).isDegraded()) {
+                return resource;
+            }
+        }
+        return null;
     }
 
-    private List<Resource> getWriteResources(Command command) {
-        byte[] key = command.getObjects()[1];
+    private List<Resource> getWriteResources(byte[] key) {
         return resourceChooser.getWriteResources(key);
     }
 
@@ -5,18 +5,28 @@ import com.netease.nim.camellia.core.api.CamelliaApiUtil;
 import com.netease.nim.camellia.core.client.env.ProxyEnv;
 import com.netease.nim.camellia.core.client.env.ShadingFunc;
 import com.netease.nim.camellia.core.model.ResourceTable;
+import com.netease.nim.camellia.core.util.CamelliaThreadFactory;
 import com.netease.nim.camellia.core.util.ShadingFuncUtil;
 import com.netease.nim.camellia.redis.proxy.command.ClientCommandUtil;
+import com.netease.nim.camellia.redis.proxy.command.async.blocking.BlockingConnectionPool;
+import com.netease.nim.camellia.redis.proxy.command.async.counter.CounterCoalescer;
+import com.netease.nim.camellia.redis.proxy.command.async.pubsub.PubSubSession;
+import com.netease.nim.camellia.redis.proxy.command.async.pubsub.PubSubUpstream;
 import com.netease.nim.camellia.redis.proxy.conf.CamelliaTranspondProperties;
+import com.netease.nim.camellia.redis.proxy.conf.Constants;
 import com.netease.nim.camellia.redis.proxy.netty.ChannelInfo;
+import com.netease.nim.camellia.redis.proxy.netty.ServerStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.*;
 
 /**
- *
+ * bid/bgroup对应的template在第一次使用时异步创建（需要请求dashboard并连接所有后端），不阻塞netty的work线程
+ * 创建期间该连接的命令由PendingBatchQueue按顺序缓存，创建完成后再发送
  * Created by caojiajun on 2019/12/12.
  */
 public class AsyncCamelliaRedisTemplateChooser {
@@ -27,17 +37,34 @@ public class AsyncCamelliaRedisTemplateChooser {
     private AsyncCamelliaRedisEnv env;
     private CamelliaApi apiService;
 
-    private final Object lock = new Object();
+    private static final CompletableFuture<AsyncCamelliaRedisTemplate> NULL_FUTURE = CompletableFuture.completedFuture(null);
+    private static final ExecutorService initExec = new ThreadPoolExecutor(4, 4, 0, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(10000), new CamelliaThreadFactory("async-template-init"));
+    private static final ScheduledExecutorService preloadRetryExec = Executors.newSingleThreadScheduledExecutor(new CamelliaThreadFactory("async-template-preload-retry"));
+
     private AsyncCamelliaRedisTemplate remoteInstance;
     private AsyncCamelliaRedisTemplate localInstance;
-    private final Map<String, AsyncCamelliaRedisTemplate> remoteInstanceMap = new HashMap<>();
+    private CompletableFuture<AsyncCamelliaRedisTemplate> remoteInstanceFuture = NULL_FUTURE;
+    private CompletableFuture<AsyncCamelliaRedisTemplate> localInstanceFuture = NULL_FUTURE;
+    //value为template创建的future，创建完成后一直复用这个已完成的future
+    private final ConcurrentHashMap<String, CompletableFuture<AsyncCamelliaRedisTemplate>> remoteInstanceMap = new ConcurrentHashMap<>();
 
     public AsyncCamelliaRedisTemplateChooser(CamelliaTranspondProperties properties) {
         this.properties = properties;
         init();
     }
 
+    /**
+     * 同步获取template，如果需要创建则等待创建完成
+     */
     public AsyncCamelliaRedisTemplate choose(ChannelInfo channelInfo) {
+        return chooseAsync(channelInfo).join();
+    }
+
+    /**
+     * 异步获取template，已经创建好的template返回已完成的future，创建失败时future的结果为null
+     */
+    public CompletableFuture<AsyncCamelliaRedisTemplate> chooseAsync(ChannelInfo channelInfo) {
         //根据bid和bgroup选择不同的processor实例
         Long bid = null;
         String bgroup = null;
@@ -47,32 +74,32 @@ public class AsyncCamelliaRedisTemplateChooser {
         }
         CamelliaTranspondProperties.Type type = properties.getType();
         if (type == CamelliaTranspondProperties.Type.LOCAL) {
-            return localInstance;
+            return localInstanceFuture;
         } else if (type == CamelliaTranspondProperties.Type.REMOTE) {
             CamelliaTranspondProperties.RemoteProperties remote = properties.getRemote();
             if (!remote.isDynamic()) {
                 if (logger.isTraceEnabled()) {
                     logger.trace("async, not dynamic, return default remoteInstance");
                 }
-                return remoteInstance;
+                return remoteInstanceFuture;
             }
             if (bid == null || bid <= 0 || bgroup == null) {
                 if (logger.isTraceEnabled()) {
                     logger.trace("async, not dynamic, return default remoteInstance");
                 }
-                return remoteInstance;
+                return remoteInstanceFuture;
             }
-            return initOrCreateRemoteInstance(bid, bgroup);
+            return getOrCreateRemoteInstanceAsync(bid, bgroup);
         } else if (type == CamelliaTranspondProperties.Type.AUTO) {
             if (bid == null || bid <= 0 || bgroup == null) {
-                if (localInstance != null) return localInstance;
-                if (remoteInstance != null) return remoteInstance;
+                if (localInstance != null) return localInstanceFuture;
+                if (remoteInstance != null) return remoteInstanceFuture;
                 logger.warn("async, no bid/bgroup, return null");
-                return null;
+                return NULL_FUTURE;
             }
-            return initOrCreateRemoteInstance(bid, bgroup);
+            return getOrCreateRemoteInstanceAsync(bid, bgroup);
         }
-        return null;
+        return NULL_FUTURE;
     }
 
     private void init() {
@@ -117,7 +144,54 @@ public class AsyncCamelliaRedisTemplateChooser {
         logger.info("async.Remote dynamic = {}", dynamic);
         if (remote.getBid() > 0 && remote.getBgroup() != null) {
             remoteInstance = initOrCreateRemoteInstance(remote.getBid(), remote.getBgroup());
+            remoteInstanceFuture = CompletableFuture.completedFuture(remoteInstance);
+        }
+        preload(remote.getPreloadBidBgroups());
+    }
+
+    //启动时异步预热的bid/bgroup，格式为bid|bgroup,bid|bgroup，全部创建成功之后console的/check才返回成功，创建失败的定时重试
+    private void preload(String preloadBidBgroups) {
+        if (preloadBidBgroups == null) return;
+        List<String> items = new ArrayList<>();
+        for (String item : preloadBidBgroups.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) continue;
+            int index = item.indexOf('|');
+            if (index <= 0 || index == item.length() - 1) {
+                throw new IllegalArgumentException("illegal preloadBidBgroups, item = " + item);
+            }
+            items.add(item);
         }
+        if (items.isEmpty()) return;
+        ServerStatus.setReady(false);
+        preload(items);
+    }
+
+    private void preload(List<String> items) {
+        List<CompletableFuture<AsyncCamelliaRedisTemplate>> futures = new ArrayList<>(items.size());
+        for (String item : items) {
+            int index = item.indexOf('|');
+            long bid = Long.parseLong(item.substring(0, index));
+            String bgroup = item.substring(index + 1);
+            logger.info("AsyncCamelliaRedisTemplate preload, bid = {}, bgroup = {}", bid, bgroup);
+            futures.add(getOrCreateRemoteInstanceAsync(bid, bgroup));
+        }
+        AsyncUtils.allOf(futures).thenAccept(templates -> {
+            List<String> failItems = new ArrayList<>();
+            for (int i = 0; i < templates.size(); i++) {
+                if (templates.get(i) == null) {
+                    failItems.add(items.get(i));
+                }
+            }
+            if (failItems.isEmpty()) {
+                ServerStatus.setReady(true);
+                logger.info("AsyncCamelliaRedisTemplate preload finish, size = {}", templates.size());
+                return;
+            }
+            //创建失败的future已经从remoteInstanceMap中移除，重试时会重新创建
+            logger.warn("AsyncCamelliaRedisTemplate preload fail, retry after {}ms, items = {}", Constants.Async.preloadRetryIntervalMillis, failItems);
+            preloadRetryExec.schedule(() -> preload(failItems), Constants.Async.preloadRetryIntervalMillis, TimeUnit.MILLISECONDS);
+        });
     }
 
     private void initLocal(boolean throwError) {
@@ -137,25 +211,59 @@ public class AsyncCamelliaRedisTemplateChooser {
                 return;
             }
         }
-        localInstance = new AsyncCamelliaRedisTemplate(env, resourceTable);
+        localInstance = new AsyncCamelliaRedisTemplate(env, resourceTable, local.getRoutingRules());
+        localInstanceFuture = CompletableFuture.completedFuture(localInstance);
     }
 
+    //启动时同步创建默认的template
     private AsyncCamelliaRedisTemplate initOrCreateRemoteInstance(long bid, String bgroup) {
         if (apiService == null) return null;
         String key = bid + "|" + bgroup;
-        AsyncCamelliaRedisTemplate template = remoteInstanceMap.get(key);
-        if (template == null) {
-            synchronized (lock) {
-                template = remoteInstanceMap.get(key);
-                if (template == null) {
-                    boolean monitorEnable = properties.getRemote().isMonitorEnable();
-                    long checkIntervalMillis = properties.getRemote().getCheckIntervalMillis();
-                    template = new AsyncCamelliaRedisTemplate(env, apiService, bid, bgroup, monitorEnable, checkIntervalMillis);
-                    remoteInstanceMap.put(key, template);
-                    logger.info("AsyncCamelliaRedisTemplate init, bid = {}, bgroup = {}", bid, bgroup);
+        CompletableFuture<AsyncCamelliaRedisTemplate> future = remoteInstanceMap.get(key);
+        if (future != null) {
+            return future.join();
+        }
+        AsyncCamelliaRedisTemplate template = createRemoteInstance(bid, bgroup);
+        remoteInstanceMap.put(key, CompletableFuture.completedFuture(template));
+        return template;
+    }
+
+    private CompletableFuture<AsyncCamelliaRedisTemplate> getOrCreateRemoteInstanceAsync(long bid, String bgroup) {
+        if (apiService == null) return NULL_FUTURE;
+        String key = bid + "|" + bgroup;
+        CompletableFuture<AsyncCamelliaRedisTemplate> future = remoteInstanceMap.get(key);
+        if (future != null) {
+            return future;
+        }
+        CompletableFuture<AsyncCamelliaRedisTemplate> newFuture = new CompletableFuture<>();
+        future = remoteInstanceMap.putIfAbsent(key, newFuture);
+        if (future != null) {
+            return future;
+        }
+        try {
+            initExec.submit(() -> {
+                try {
+                    newFuture.complete(createRemoteInstance(bid, bgroup));
+                } catch (Throwable e) {
+                    logger.error("AsyncCamelliaRedisTemplate init error, bid = {}, bgroup = {}", bid, bgroup, e);
+                    //创建失败，移除后下一个请求会重新创建
+                    remoteInstanceMap.remove(key, newFuture);
+                    newFuture.complete(null);
                 }
-            }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.error("AsyncCamelliaRedisTemplate init submit error, bid = {}, bgroup = {}", bid, bgroup, e);
+            remoteInstanceMap.remove(key, newFuture);
+            newFuture.complete(null);
         }
+        return newFuture;
+    }
+
+    private AsyncCamelliaRedisTemplate createRemoteInstance(long bid, String bgroup) {
+        boolean monitorEnable = properties.getRemote().isMonitorEnable();
+        long checkIntervalMillis = properties.getRemote().getCheckIntervalMillis();
+        AsyncCamelliaRedisTemplate template = new AsyncCamelliaRedisTemplate(env, apiService, bid, bgroup, monitorEnable, checkIntervalMillis);
+        logger.info("AsyncCamelliaRedisTemplate init, bid = {}, bgroup = {}", bid, bgroup);
         return template;
     }
 
@@ -168,8 +276,42 @@ public class AsyncCamelliaRedisTemplateChooser {
         RedisClientHub.heartbeatTimeoutMillis = redisConf.getNetty().getHeartbeatTimeoutMillis();
         RedisClientHub.commandPipelineFlushThreshold = redisConf.getNetty().getCommandPipelineFlushThreshold();
         RedisClientHub.connectTimeoutMillis = redisConf.getNetty().getConnectTimeoutMillis();
-        logger.info("RedisClient heartbeatIntervalSeconds = {}, heartbeatTimeoutMillis = {}, commandPipelineFlushThreshold = {}, connectTimeoutMillis = {}",
-                RedisClientHub.heartbeatIntervalSeconds, RedisClientHub.heartbeatTimeoutMillis, RedisClientHub.commandPipelineFlushThreshold, RedisClientHub.connectTimeoutMillis);
+        RedisClientHub.commandPipelineFlushDelayMicros = redisConf.getNetty().getCommandPipelineFlushDelayMicros();
+        logger.info("RedisClient heartbeatIntervalSeconds = {}, heartbeatTimeoutMillis = {}, commandPipelineFlushThreshold = {}, connectTimeoutMillis = {}, commandPipelineFlushDelayMicros = {}",
+                RedisClientHub.heartbeatIntervalSeconds, RedisClientHub.heartbeatTimeoutMillis, RedisClientHub.commandPipelineFlushThreshold,
+                RedisClientHub.connectTimeoutMillis, RedisClientHub.commandPipelineFlushDelayMicros);
+
+        PubSubUpstream.heartbeatIntervalSeconds = redisConf.getNetty().getHeartbeatIntervalSeconds();
+        PubSubUpstream.heartbeatTimeoutMillis = redisConf.getNetty().getHeartbeatTimeoutMillis();
+        logger.info("PubSubUpstream heartbeatIntervalSeconds = {}, heartbeatTimeoutMillis = {}, PubSubSession maxPendingBytes = {}",
+                PubSubUpstream.heartbeatIntervalSeconds, PubSubUpstream.heartbeatTimeoutMillis, PubSubSession.maxPendingBytes);
+
+        if (redisConf.getNetty().getTenantWeights() != null) {
+            FairCommandQueue.tenantWeights = new HashMap<>(redisConf.getNetty().getTenantWeights());
+        }
+        FairCommandQueue.maxCommandsPerTenant = redisConf.getNetty().getTenantQueueMaxCommands();
+        logger.info("FairCommandQueue tenantWeights = {}, maxCommandsPerTenant = {}", FairCommandQueue.tenantWeights, FairCommandQueue.maxCommandsPerTenant);
+        BackendHealth.maxInflight = redisConf.getNetty().getBackendMaxInflight();
+        BackendHealth.maxQueueMillis = redisConf.getNetty().getBackendMaxQueueMillis();
+        BackendHealth.slowThresholdMillis = redisConf.getNetty().getOutlierSlowThresholdMillis();
+        BackendHealth.ejectMillis = redisConf.getNetty().getOutlierEjectMillis();
+        logger.info("BackendHealth maxInflight = {}, maxQueueMillis = {}, slowThresholdMillis = {}, ejectMillis = {}",
+                BackendHealth.maxInflight, BackendHealth.maxQueueMillis, BackendHealth.slowThresholdMillis, BackendHealth.ejectMillis);
+        logger.info("BackendWarmUp timeoutMillis = {}", redisConf.getNetty().getWarmUpTimeoutMillis());
+        if (redisConf.getNetty().getCounterCoalescePrefixes() != null) {
+            CounterCoalescer.tenantPrefixes = new HashMap<>(redisConf.getNetty().getCounterCoalescePrefixes());
+        }
+        CounterCoalescer.windowMillis = redisConf.getNetty().getCounterCoalesceWindowMillis();
+        if (redisConf.getNetty().getCounterCoalesceConsistency() != null) {
+            CounterCoalescer.consistency = redisConf.getNetty().getCounterCoalesceConsistency();
+        }
+        logger.info("CounterCoalescer tenantPrefixes = {}, windowMillis = {}, consistency = {}",
+                CounterCoalescer.tenantPrefixes, CounterCoalescer.windowMillis, CounterCoalescer.consistency);
+        BlockingConnectionPool.maxConnectionsPerBackend = redisConf.getNetty().getBlockingMaxConnectionsPerBackend();
+        BlockingConnectionPool.maxIdlePerBackend = redisConf.getNetty().getBlockingMaxIdlePerBackend();
+        BlockingConnectionPool.connectTimeoutMillis = redisConf.getNetty().getConnectTimeoutMillis();
+        logger.info("BlockingConnectionPool maxConnectionsPerBackend = {}, maxIdlePerBackend = {}",
+                BlockingConnectionPool.maxConnectionsPerBackend, BlockingConnectionPool.maxIdlePerBackend);
 
         ProxyEnv.Builder builder = new ProxyEnv.Builder()
                 .multiWriteConcurrentExecPoolSize(redisConf.getMultiWriteConcurrentExecPoolSize())
@@ -188,6 +330,7 @@ public class AsyncCamelliaRedisTemplateChooser {
         env = new AsyncCamelliaRedisEnv.Builder()
                 .proxyEnv(proxyEnv)
                 .clientFactory(clientFactory)
+                .warmUpTimeoutMillis(redisConf.getNetty().getWarmUpTimeoutMillis())
                 .build();
     }
 }
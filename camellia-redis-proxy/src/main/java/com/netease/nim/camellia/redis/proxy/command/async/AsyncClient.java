@@ -13,4 +13,18 @@ import java.util.concurrent.CompletableFuture;
 public interface AsyncClient {
 
     void sendCommand(List<Command> commands, List<CompletableFuture<Reply>> futureList);
+
+    /**
+     * 带租户标识发送，共享的后端连接按租户公平调度，tenant为null表示默认租户
+     */
+    default void sendCommand(List<Command> commands, List<CompletableFuture<Reply>> futureList, String tenant) {
+        sendCommand(commands, futureList);
+    }
+
+    /**
+     * 后端是否处于降级状态（被剔除或者在途命令已满），读命令可以据此改投其他读资源
+     */
+    default boolean isDegraded() {
+        return false;
+    }
 }
@@ -3,8 +3,13 @@ package com.netease.nim.camellia.redis.proxy.command.async;
 import com.netease.nim.camellia.redis.proxy.command.ClientCommandUtil;
 import com.netease.nim.camellia.redis.proxy.command.Command;
 import com.netease.nim.camellia.redis.proxy.command.CommandInvoker;
+import com.netease.nim.camellia.redis.proxy.command.async.counter.CounterCoalescer;
+import com.netease.nim.camellia.redis.proxy.command.async.pubsub.PubSubSession;
+import com.netease.nim.camellia.redis.proxy.command.async.tracking.TrackingTable;
 import com.netease.nim.camellia.redis.proxy.conf.CamelliaTranspondProperties;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
 import com.netease.nim.camellia.redis.proxy.netty.ChannelInfo;
+import com.netease.nim.camellia.redis.proxy.netty.MemoryBudget;
 import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
 import com.netease.nim.camellia.redis.proxy.reply.Reply;
 import io.netty.channel.ChannelFutureListener;
@@ -13,6 +18,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
@@ -29,6 +35,7 @@ public class AsyncCommandInvoker implements CommandInvoker {
 
     public AsyncCommandInvoker(CamelliaTranspondProperties transpondProperties) {
         chooser = new AsyncCamelliaRedisTemplateChooser(transpondProperties);
+        TrackingTable.setSupport(true);
     }
 
     @Override
@@ -47,25 +54,74 @@ public class AsyncCommandInvoker implements CommandInvoker {
             }
 
             List<AsyncTask> tasks = new ArrayList<>(commands.size());
+            //超过内存预算的命令直接回复错误，不再转发给后端
+            List<Command> admittedCommands = commands;
+            List<AsyncTask> admittedTasks = tasks;
+            List<AsyncTask> shedTasks = null;
 
             for (int i=0; i<commands.size(); i++) {
-                AsyncTask task = new AsyncTask(taskQueue);
+                Command command = commands.get(i);
+                long commandBytes = MemoryBudget.estimate(command);
+                boolean admitted = MemoryBudget.tryAcquire(commandBytes);
+                AsyncTask task = AsyncTask.newInstance(taskQueue, admitted ? commandBytes : 0L);
                 boolean add = taskQueue.add(task);
                 if (!add) {
+                    task.release();
                     taskQueue.clear();
                     logger.warn("AsyncTaskQueue full, client connect will be disconnect, consid = {}", channelInfo.getConsid());
                     ctx.writeAndFlush(ErrorReply.TOO_BUSY).addListener((ChannelFutureListener) future -> ctx.close());
                     return;
                 }
                 tasks.add(task);
+                if (!admitted) {
+                    if (shedTasks == null) {
+                        shedTasks = new ArrayList<>();
+                        admittedCommands = new ArrayList<>(commands.subList(0, i));
+                        admittedTasks = new ArrayList<>(tasks.subList(0, i));
+                    }
+                    shedTasks.add(task);
+                } else if (shedTasks != null) {
+                    admittedCommands.add(command);
+                    admittedTasks.add(task);
+                }
+            }
+            if (shedTasks != null) {
+                for (AsyncTask task : shedTasks) {
+                    task.replyCompleted(ErrorReply.MEMORY_LIMIT);
+                }
+                if (admittedCommands.isEmpty()) return;
+                commands = admittedCommands;
+                tasks = admittedTasks;
             }
-            AsyncCamelliaRedisTemplate template = null;
+            CompletableFuture<AsyncCamelliaRedisTemplate> templateFuture;
             try {
-                template = chooser.choose(channelInfo);
+                templateFuture = chooser.chooseAsync(channelInfo);
             } catch (Exception e) {
                 logger.error("AsyncCamelliaRedisTemplateChooser choose error, bid = {}, bgroup = {}",
                         ClientCommandUtil.getBid(channelInfo), ClientCommandUtil.getBgroup(channelInfo), e);
+                templateFuture = CompletableFuture.completedFuture(null);
             }
+            PendingBatchQueue pendingBatchQueue = channelInfo.getPendingBatchQueue();
+            if (pendingBatchQueue == null) {
+                if (templateFuture.isDone()) {
+                    dispatch(ctx, channelInfo, templateFuture.getNow(null), commands, tasks);
+                    return;
+                }
+                //template还在创建中，该连接之后的命令都经过PendingBatchQueue，保证顺序
+                pendingBatchQueue = new PendingBatchQueue((template, pendingCommands, pendingTasks) ->
+                        dispatch(ctx, channelInfo, template, pendingCommands, pendingTasks));
+                channelInfo.setPendingBatchQueue(pendingBatchQueue);
+            }
+            pendingBatchQueue.submit(templateFuture, commands, tasks);
+        } catch (Exception e) {
+            ctx.close();
+            logger.error("AsyncCommandInvoker error", e);
+        }
+    }
+
+    private void dispatch(ChannelHandlerContext ctx, ChannelInfo channelInfo, AsyncCamelliaRedisTemplate template,
+                          List<Command> commands, List<AsyncTask> tasks) {
+        try {
             if (template == null) {
                 for (int i = 0; i < commands.size(); i++) {
                     Command command = commands.get(i);
@@ -74,17 +130,93 @@ public class AsyncCommandInvoker implements CommandInvoker {
                     AsyncTask task = tasks.get(i);
                     task.replyCompleted(ErrorReply.NOT_AVAILABLE);
                 }
-            } else {
-                List<CompletableFuture<Reply>> futureList = template.sendCommand(commands);
-                for (int i = 0; i < commands.size(); i++) {
-                    AsyncTask task = tasks.get(i);
-                    CompletableFuture<Reply> completableFuture = futureList.get(i);
-                    completableFuture.thenAccept(task::replyCompleted);
+                return;
+            }
+            boolean tracking = TrackingTable.isActive();
+            if (tracking) {
+                //读命令在转发之前记录跟踪的key
+                for (Command command : commands) {
+                    TrackingTable.track(channelInfo, RedisCommand.getSupportRedisCommand(command), command);
                 }
             }
+            boolean resp3 = channelInfo.getProtocol() == ChannelInfo.RESP3;
+            List<CompletableFuture<Reply>> futureList = sendCommand(template, channelInfo, commands);
+            for (int i = 0; i < commands.size(); i++) {
+                AsyncTask task = tasks.get(i);
+                CompletableFuture<Reply> completableFuture = futureList.get(i);
+                if (tracking || resp3) {
+                    Command command = commands.get(i);
+                    RedisCommand redisCommand = RedisCommand.getSupportRedisCommand(command);
+                    if (tracking && TrackingTable.isWrite(redisCommand)) {
+                        completableFuture = completableFuture.thenApply(reply -> {
+                            TrackingTable.invalidate(channelInfo, redisCommand, command, reply);
+                            return reply;
+                        });
+                    }
+                    if (resp3) {
+                        completableFuture = completableFuture.thenApply(reply -> Resp3Converter.convert(redisCommand, reply));
+                    }
+                }
+                completableFuture.thenAccept(task);
+            }
         } catch (Exception e) {
             ctx.close();
-            logger.error("AsyncCommandInvoker error", e);
+            logger.error("AsyncCommandInvoker dispatch error", e);
+        }
+    }
+
+    //订阅类命令和阻塞命令需要客户端连接的上下文，在这里处理，开启了写合并的计数命令交给CounterCoalescer，其他命令批量交给template
+    private List<CompletableFuture<Reply>> sendCommand(AsyncCamelliaRedisTemplate template, ChannelInfo channelInfo, List<Command> commands) {
+        CounterCoalescer counterCoalescer = template.getCounterCoalescer();
+        boolean hasChannelCommand = false;
+        List<CompletableFuture<Reply>> coalescedFutureList = null;
+        for (int i = 0; i < commands.size(); i++) {
+            Command command = commands.get(i);
+            RedisCommand redisCommand = RedisCommand.getSupportRedisCommand(command);
+            if (isChannelCommand(redisCommand)) {
+                hasChannelCommand = true;
+            } else if (counterCoalescer != null && CounterCoalescer.isCounterCommand(redisCommand)) {
+                CompletableFuture<Reply> future = counterCoalescer.offer(redisCommand, command);
+                if (future != null) {
+                    if (coalescedFutureList == null) {
+                        coalescedFutureList = new ArrayList<>(Collections.nCopies(commands.size(), null));
+                    }
+                    coalescedFutureList.set(i, future);
+                }
+            }
         }
+        if (!hasChannelCommand && coalescedFutureList == null) {
+            return template.sendCommand(commands);
+        }
+        List<Command> otherCommands = new ArrayList<>(commands.size());
+        for (int i = 0; i < commands.size(); i++) {
+            Command command = commands.get(i);
+            if (!isChannelCommand(RedisCommand.getSupportRedisCommand(command))
+                    && (coalescedFutureList == null || coalescedFutureList.get(i) == null)) {
+                otherCommands.add(command);
+            }
+        }
+        List<CompletableFuture<Reply>> otherFutureList = otherCommands.isEmpty() ? null : template.sendCommand(otherCommands);
+        List<CompletableFuture<Reply>> futureList = new ArrayList<>(commands.size());
+        int index = 0;
+        for (int i = 0; i < commands.size(); i++) {
+            Command command = commands.get(i);
+            RedisCommand redisCommand = RedisCommand.getSupportRedisCommand(command);
+            if (coalescedFutureList != null && coalescedFutureList.get(i) != null) {
+                futureList.add(coalescedFutureList.get(i));
+            } else if (redisCommand != null && PubSubSession.isPubSubCommand(redisCommand)) {
+                Reply reply = PubSubSession.get(channelInfo).execute(redisCommand, command, template);
+                futureList.add(CompletableFuture.completedFuture(reply));
+            } else if (redisCommand != null && AsyncCamelliaRedisTemplate.isBlockingCommand(redisCommand)) {
+                futureList.add(template.sendBlockingCommand(command, channelInfo));
+            } else {
+                futureList.add(otherFutureList.get(index++));
+            }
+        }
+        return futureList;
+    }
+
+    private static boolean isChannelCommand(RedisCommand redisCommand) {
+        return redisCommand != null && (PubSubSession.isPubSubCommand(redisCommand) || AsyncCamelliaRedisTemplate.isBlockingCommand(redisCommand));
     }
 }
@@ -7,8 +7,7 @@ import com.netease.nim.camellia.redis.resource.RedisClusterResource;
 import com.netease.nim.camellia.redis.resource.RedisResource;
 import com.netease.nim.camellia.redis.resource.RedisResourceUtil;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
@@ -22,8 +21,9 @@ public interface AsyncNettyClientFactory {
 
     public static class Default implements AsyncNettyClientFactory {
 
-        private final Object lock = new Object();
-        private Map<String, AsyncClient> map = new HashMap<>();
+        //按url加锁，不同资源的client可以并行初始化
+        private final ConcurrentHashMap<String, Object> lockMap = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, AsyncClient> map = new ConcurrentHashMap<>();
         private int maxAttempts = Constants.Async.redisClusterMaxAttempts;
 
         public Default() {
@@ -55,7 +55,7 @@ public interface AsyncNettyClientFactory {
         public AsyncClient get(String url) {
             AsyncClient client = map.get(url);
             if (client == null) {
-                synchronized (lock) {
+                synchronized (lockMap.computeIfAbsent(url, k -> new Object())) {
                     client = map.get(url);
                     if (client == null) {
                         Resource resource = RedisResourceUtil.parseResourceByUrl(new Resource(url));
@@ -2,7 +2,10 @@ package com.netease.nim.camellia.redis.proxy.command.async;
 
 import com.netease.nim.camellia.core.util.CamelliaThreadFactory;
 import com.netease.nim.camellia.core.util.SysUtils;
+import com.netease.nim.camellia.redis.proxy.netty.MemoryBudget;
 import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import io.netty.channel.ChannelFuture;
+import io.netty.util.Recycler;
 import io.netty.util.concurrent.EventExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,29 +14,74 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
- *
+ * 每个命令一个AsyncTask，通过Recycler池化复用（按线程缓存，创建在work线程，因此相当于每个EventLoop一个池）
+ * AsyncTask本身是AsyncTaskQueue的链表节点，并作为回包的回调，从而入队和等待回包不需要额外的对象
  * Created by caojiajun on 2019/12/12.
  */
-public class AsyncTask {
+public class AsyncTask implements Consumer<Reply> {
 
     private static final Logger logger = LoggerFactory.getLogger(AsyncTask.class);
 
     private static final ExecutorService asyncTaskExec = new ThreadPoolExecutor(SysUtils.getCpuNum(),
             SysUtils.getCpuNum(), 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>(1000000), new CamelliaThreadFactory(AsyncTask.class));
 
-    private final AsyncTaskQueue taskQueue;
-    private Reply reply;
+    private static final Recycler<AsyncTask> recycler = new Recycler<AsyncTask>() {
+        @Override
+        protected AsyncTask newObject(Handle<AsyncTask> handle) {
+            return new AsyncTask(handle);
+        }
+    };
+
+    private final Recycler.Handle<AsyncTask> handle;
+    private AsyncTaskQueue taskQueue;
+    private volatile Reply reply;
+    private long commandBytes;
+    private long replyBytes;
+    private boolean released;
+    AsyncTask next;//AsyncTaskQueue的链表指针，由AsyncTaskQueue维护
 
-    public AsyncTask(AsyncTaskQueue taskQueue) {
-        this.taskQueue = taskQueue;
+    private AsyncTask(Recycler.Handle<AsyncTask> handle) {
+        this.handle = handle;
+    }
+
+    public static AsyncTask newInstance(AsyncTaskQueue taskQueue) {
+        return newInstance(taskQueue, 0L);
+    }
+
+    public static AsyncTask newInstance(AsyncTaskQueue taskQueue, long commandBytes) {
+        AsyncTask task = recycler.get();
+        task.taskQueue = taskQueue;
+        task.commandBytes = commandBytes;
+        task.replyBytes = 0L;
+        task.released = false;
+        task.reply = null;
+        task.next = null;
+        return task;
+    }
+
+    @Override
+    public void accept(Reply reply) {
+        replyCompleted(reply);
     }
 
     public void replyCompleted(Reply reply) {
+        //设置reply之后，task可能已经被其他线程写出并回收复用，因此之后只能使用局部变量
+        AsyncTaskQueue taskQueue = this.taskQueue;
         if (logger.isDebugEnabled()) {
             logger.debug("AsyncTask replyCompleted, reply = {}, consid = {}", reply.getClass().getSimpleName(), taskQueue.getChannelInfo().getConsid());
         }
+        if (MemoryBudget.isEnable()) {
+            synchronized (this) {
+                //连接已经关闭的情况下，回包不会再写出，也就不需要再计入内存预算
+                if (!released) {
+                    replyBytes = MemoryBudget.estimate(reply);
+                    MemoryBudget.forceAcquire(replyBytes);
+                }
+            }
+        }
         this.reply = reply;
         EventExecutor executor = taskQueue.getChannelInfo().getCtx().executor();
         if (executor.inEventLoop()) {
@@ -48,4 +96,41 @@ public class AsyncTask {
     public Reply getReply() {
         return reply;
     }
+
+    /**
+     * 回包写出之后归还命令和回包占用的内存预算
+     */
+    void releaseOnWrite(ChannelFuture future) {
+        if (!MemoryBudget.isEnable()) return;
+        long bytes;
+        synchronized (this) {
+            if (released) return;
+            released = true;
+            bytes = commandBytes + replyBytes;
+        }
+        MemoryBudget.releaseOnWrite(future, bytes);
+    }
+
+    /**
+     * 连接关闭后，归还命令和回包占用的内存预算
+     */
+    public void release() {
+        if (!MemoryBudget.isEnable()) return;
+        synchronized (this) {
+            if (released) return;
+            released = true;
+            MemoryBudget.release(commandBytes + replyBytes);
+        }
+    }
+
+    /**
+     * 回包写出之后归还到池中，只能由从AsyncTaskQueue中成功取出该task的线程调用
+     * 连接关闭时清理掉的task可能还有未返回的回调，不回收，交给gc
+     */
+    void recycle() {
+        taskQueue = null;
+        reply = null;
+        next = null;
+        handle.recycle(this);
+    }
 }
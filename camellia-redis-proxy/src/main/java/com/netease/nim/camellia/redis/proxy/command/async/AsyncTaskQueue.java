@@ -1,24 +1,30 @@
 package com.netease.nim.camellia.redis.proxy.command.async;
 
 import com.netease.nim.camellia.redis.proxy.netty.ChannelInfo;
+import com.netease.nim.camellia.redis.proxy.netty.TenantEventLoopGroups;
 import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import io.netty.channel.ChannelFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- *
+ * 一个连接上等待回包的命令，按命令到达的顺序回包
+ * 使用AsyncTask自身作为链表节点（侵入式链表），入队不需要额外分配节点对象
  * Created by caojiajun on 2019/12/12.
  */
 public class AsyncTaskQueue {
 
     private static final Logger logger = LoggerFactory.getLogger(AsyncTaskQueue.class);
 
+    private static final int maxSize = 1000000;
+
     private final ChannelInfo channelInfo;
-    private final LinkedBlockingQueue<AsyncTask> queue = new LinkedBlockingQueue<>(1000000);
     private final AtomicBoolean callbacking = new AtomicBoolean(false);
+    private AsyncTask head;
+    private AsyncTask tail;
+    private int size;
 
     public AsyncTaskQueue(ChannelInfo channelInfo) {
         this.channelInfo = channelInfo;
@@ -29,40 +35,86 @@ public class AsyncTaskQueue {
     }
 
     public boolean add(AsyncTask task) {
-        boolean offer = queue.offer(task);
-        if (!offer) {
-            logger.warn("AsyncTaskQueue full, consid = {}", channelInfo.getConsid());
+        synchronized (this) {
+            if (size < maxSize) {
+                task.next = null;
+                if (tail == null) {
+                    head = task;
+                } else {
+                    tail.next = task;
+                }
+                tail = task;
+                size ++;
+                return true;
+            }
         }
-        return offer;
+        logger.warn("AsyncTaskQueue full, consid = {}", channelInfo.getConsid());
+        return false;
     }
 
     public void clear() {
-        queue.clear();
+        AsyncTask task;
+        while ((task = poll(null)) != null) {
+            task.release();
+        }
+    }
+
+    public synchronized int size() {
+        return size;
     }
 
     public void callback() {
-        if (callbacking.compareAndSet(false, true)) {
+        while (callbacking.compareAndSet(false, true)) {
             try {
-                if (queue.isEmpty()) {
-                    return;
-                }
-                do {
-                    AsyncTask task = queue.peek();
+                AsyncTask task;
+                while ((task = peek()) != null) {
                     Reply reply = task.getReply();
-                    if (reply != null) {
-                        if (logger.isDebugEnabled()) {
-                            logger.debug("AsyncTaskQueue callback, reply = {}, consid = {}",
-                                    reply.getClass().getSimpleName(), channelInfo.getConsid());
-                        }
-                        channelInfo.getCtx().writeAndFlush(reply);
-                        queue.poll();
-                    } else {
+                    if (reply == null) {
                         break;
                     }
-                } while (!queue.isEmpty());
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("AsyncTaskQueue callback, reply = {}, consid = {}",
+                                reply.getClass().getSimpleName(), channelInfo.getConsid());
+                    }
+                    ChannelFuture future = channelInfo.getCtx().writeAndFlush(reply);
+                    //连接关闭时clear可能已经取走了这个task，此时由clear负责释放
+                    if (poll(task) == task) {
+                        task.releaseOnWrite(future);
+                        task.recycle();
+                    }
+                }
             } finally {
-                callbacking.compareAndSet(true, false);
+                callbacking.set(false);
+            }
+            //其他线程可能在本线程检查之后设置了回包，但因为没有抢到callbacking而直接返回了，这里需要再检查一次
+            AsyncTask task = peek();
+            if (task == null) {
+                //最后一个在途的命令已经回包，连接可以迁移EventLoop了
+                TenantEventLoopGroups.onIdle(channelInfo);
+                return;
+            }
+            if (task.getReply() == null) {
+                return;
             }
         }
     }
+
+    private synchronized AsyncTask peek() {
+        return head;
+    }
+
+    //expect不为null时，只有队头是expect才出队
+    private synchronized AsyncTask poll(AsyncTask expect) {
+        AsyncTask task = head;
+        if (task == null || (expect != null && task != expect)) {
+            return null;
+        }
+        head = task.next;
+        if (head == null) {
+            tail = null;
+        }
+        task.next = null;
+        size --;
+        return task;
+    }
 }
@@ -0,0 +1,139 @@
+package com.netease.nim.camellia.redis.proxy.command.async;
+
+import com.netease.nim.camellia.redis.proxy.conf.Constants;
+import com.netease.nim.camellia.redis.proxy.netty.ServerStatus;
+import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 一个后端节点（RedisClient）的舱壁和异常检测
+ * 舱壁：限制在途命令数和命令在发送队列中的等待时间，超过则直接回复错误，避免一个慢节点占满AsyncTaskQueue，拖慢访问其他节点的客户端
+ * 异常检测：按秒统计一个滑动窗口内的延迟采样，慢请求比例超过阈值（或者采样的请求一直没有返回）则剔除该节点，
+ * 剔除期间该节点的命令直接回复错误（有其他读资源的读命令会改投），到期后自动恢复，连续被剔除时剔除时间逐次加长
+ */
+public class BackendHealth {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackendHealth.class);
+
+    //在途命令数上限（已发送未返回+排队中）
+    public static int maxInflight = Constants.Async.backendMaxInflight;
+    //命令在发送队列中的最大等待时间，小于等于0表示不限制
+    public static long maxQueueMillis = Constants.Async.backendMaxQueueMillis;
+    //超过该延迟的请求记为慢请求
+    public static long slowThresholdMillis = Constants.Async.outlierSlowThresholdMillis;
+    //剔除时间，小于等于0表示不开启异常检测
+    public static long ejectMillis = Constants.Async.outlierEjectMillis;
+
+    private static final int windowSeconds = 10;
+    private static final int minSamples = 5;
+    private static final double slowRatio = 0.5;
+    private static final int maxEjectMultiple = 10;
+    //采样的请求超过slowThresholdMillis*stallMultiple还没有返回，认为节点卡住了
+    private static final int stallMultiple = 5;
+
+    private final String addr;
+    private final ErrorReply busyReply;
+    private final ErrorReply ejectedReply;
+
+    private final long[] bucketSeconds = new long[windowSeconds];
+    private final int[] totalCounts = new int[windowSeconds];
+    private final int[] slowCounts = new int[windowSeconds];
+    private volatile long ejectUntil;
+    private int ejectCount;
+
+    public BackendHealth(String host, int port) {
+        this.addr = host + ":" + port;
+        this.busyReply = new ErrorReply("ERR proxy backend busy, addr = " + addr);
+        this.ejectedReply = new ErrorReply("ERR proxy backend ejected, addr = " + addr);
+    }
+
+    /**
+     * 是否处于剔除期
+     */
+    public boolean isEjected() {
+        long ejectUntil = this.ejectUntil;
+        return ejectUntil > 0 && ServerStatus.getCurrentTimeMillis() < ejectUntil;
+    }
+
+    /**
+     * 准入检查，返回null表示允许发送，否则返回需要回复的错误
+     */
+    public ErrorReply admit(int inflight, int count) {
+        if (isEjected()) {
+            return ejectedReply;
+        }
+        if (inflight + count > maxInflight) {
+            return busyReply;
+        }
+        return null;
+    }
+
+    public boolean isQueueTimeout(long enqueueNanos, long nowNanos) {
+        return maxQueueMillis > 0 && nowNanos - enqueueNanos > maxQueueMillis * 1000000L;
+    }
+
+    public ErrorReply getBusyReply() {
+        return busyReply;
+    }
+
+    /**
+     * 记录一次请求延迟
+     */
+    public synchronized void record(long latencyMillis) {
+        if (ejectMillis <= 0) return;
+        long now = ServerStatus.getCurrentTimeMillis();
+        long second = now / 1000;
+        int index = (int) (second % windowSeconds);
+        if (bucketSeconds[index] != second) {
+            bucketSeconds[index] = second;
+            totalCounts[index] = 0;
+            slowCounts[index] = 0;
+        }
+        totalCounts[index]++;
+        boolean slow = latencyMillis >= slowThresholdMillis;
+        if (slow) {
+            slowCounts[index]++;
+        }
+        if (ejectCount > 0 && now - ejectUntil > windowSeconds * 1000L) {
+            //恢复后一个窗口内没有再被剔除，重置剔除次数
+            ejectCount = 0;
+        }
+        if (!slow || isEjected()) return;
+        int total = 0;
+        int slowTotal = 0;
+        for (int i = 0; i < windowSeconds; i++) {
+            if (second - bucketSeconds[i] < windowSeconds) {
+                total += totalCounts[i];
+                slowTotal += slowCounts[i];
+            }
+        }
+        if (total >= minSamples && slowTotal >= total * slowRatio) {
+            eject("slow " + slowTotal + "/" + total + " in " + windowSeconds + "s");
+        }
+    }
+
+    /**
+     * 检查采样的请求是否卡住
+     */
+    public void checkStall(long outstandingMillis) {
+        if (ejectMillis <= 0 || outstandingMillis < slowThresholdMillis * stallMultiple) return;
+        synchronized (this) {
+            if (!isEjected()) {
+                eject("stall " + outstandingMillis + "ms");
+            }
+        }
+    }
+
+    private void eject(String reason) {
+        ejectCount = Math.min(ejectCount + 1, maxEjectMultiple);
+        long ejectTime = ejectMillis * ejectCount;
+        ejectUntil = ServerStatus.getCurrentTimeMillis() + ejectTime;
+        for (int i = 0; i < windowSeconds; i++) {
+            bucketSeconds[i] = 0;
+            totalCounts[i] = 0;
+            slowCounts[i] = 0;
+        }
+        logger.warn("backend {} ejected for {}ms, reason = {}, ejectCount = {}", addr, ejectTime, reason, ejectCount);
+    }
+}
@@ -0,0 +1,98 @@
+package com.netease.nim.camellia.redis.proxy.command.async;
+
+import com.netease.nim.camellia.core.model.Resource;
+import com.netease.nim.camellia.core.util.CamelliaThreadFactory;
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.conf.Constants;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.reply.StatusReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 后端预热，并行地初始化一组资源的client（redis-cluster会先获取slot信息并连接所有master节点），再对每个后端节点发送PING
+ * 返回预热失败或者超时的资源，由调用方决定是否切换分片表：重新加载时有失败则保留原来的分片表，启动时只打印日志
+ */
+public class BackendWarmUp {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackendWarmUp.class);
+
+    //队列满了由调用方线程执行，退化为串行预热
+    private static final ExecutorService exec = new ThreadPoolExecutor(Constants.Async.warmUpParallelism, Constants.Async.warmUpParallelism,
+            0, TimeUnit.SECONDS, new LinkedBlockingQueue<>(10000), new CamelliaThreadFactory(BackendWarmUp.class), new ThreadPoolExecutor.CallerRunsPolicy());
+
+    public static List<String> warmUp(AsyncNettyClientFactory factory, Collection<Resource> resources, long timeoutMillis) {
+        long start = System.currentTimeMillis();
+        Map<String, CompletableFuture<Boolean>> futureMap = new LinkedHashMap<>();
+        for (Resource resource : resources) {
+            String url = resource.getUrl();
+            CompletableFuture<Boolean> future = new CompletableFuture<>();
+            futureMap.put(url, future);
+            exec.submit(() -> {
+                try {
+                    ping(factory.get(url)).whenComplete((success, e) -> {
+                        if (e != null) {
+                            logger.error("warm up error, url = {}", url, e);
+                        }
+                        future.complete(e == null && success);
+                    });
+                } catch (Throwable e) {
+                    logger.error("warm up error, url = {}", url, e);
+                    future.complete(false);
+                }
+            });
+        }
+        //所有资源共用一个超时时间
+        long deadline = start + timeoutMillis;
+        List<String> failUrls = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<Boolean>> entry : futureMap.entrySet()) {
+            try {
+                long remaining = Math.max(deadline - System.currentTimeMillis(), 0);
+                if (!entry.getValue().get(remaining, TimeUnit.MILLISECONDS)) {
+                    failUrls.add(entry.getKey());
+                }
+            } catch (TimeoutException e) {
+                logger.error("warm up timeout, url = {}, timeoutMillis = {}", entry.getKey(), timeoutMillis);
+                failUrls.add(entry.getKey());
+            } catch (Exception e) {
+                logger.error("warm up error, url = {}", entry.getKey(), e);
+                failUrls.add(entry.getKey());
+            }
+        }
+        if (failUrls.isEmpty()) {
+            logger.info("warm up success, resources = {}, spendMs = {}", futureMap.size(), System.currentTimeMillis() - start);
+        }
+        return failUrls;
+    }
+
+    //redis-cluster对所有master节点发送PING，其他直接通过client发送PING
+    private static CompletableFuture<Boolean> ping(AsyncClient client) {
+        List<CompletableFuture<Reply>> futures = new ArrayList<>();
+        if (client instanceof AsyncCamelliaRedisClusterClient) {
+            for (RedisClient redisClient : ((AsyncCamelliaRedisClusterClient) client).getMasterClients()) {
+                if (redisClient == null) {
+                    return CompletableFuture.completedFuture(false);
+                }
+                futures.add(redisClient.sendCommand(RedisCommand.PING.raw()));
+            }
+        } else {
+            CompletableFuture<Reply> future = new CompletableFuture<>();
+            client.sendCommand(Collections.singletonList(new Command(new byte[][]{RedisCommand.PING.raw()})),
+                    Collections.singletonList(future));
+            futures.add(future);
+        }
+        return AsyncUtils.allOf(futures).thenApply(replies -> {
+            for (Reply reply : replies) {
+                if (!(reply instanceof StatusReply) || !((StatusReply) reply).getStatus().equalsIgnoreCase(StatusReply.PONG.getStatus())) {
+                    logger.error("warm up ping fail, reply = {}", reply);
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+}
@@ -12,19 +12,43 @@ import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 /**
- *
+ * 一批命令按后端分组，flush时每个后端一次性提交
+ * 绝大多数批次只涉及一个后端，第一个后端的分组直接用字段保存，涉及多个后端时才创建map
  * Created by caojiajun on 2019/12/19.
  */
 public class CommandFlusher {
 
-    private final Map<AsyncClient, List<Command>> commandMap = new HashMap<>();
-    private final Map<AsyncClient, List<CompletableFuture<Reply>>> futureMap = new HashMap<>();
+    private final String tenant;
+    private Batch first;
+    private Map<AsyncClient, Batch> others;
+
+    public CommandFlusher() {
+        this(null);
+    }
+
+    public CommandFlusher(String tenant) {
+        this.tenant = tenant;
+    }
 
     public void sendCommand(AsyncClient client, Command command, CompletableFuture<Reply> future) {
-        List<Command> commands = commandMap.computeIfAbsent(client, k -> new ArrayList<>());
-        commands.add(command);
-        List<CompletableFuture<Reply>> futures = futureMap.computeIfAbsent(client, k -> new ArrayList<>());
-        futures.add(future);
+        Batch batch;
+        if (first == null) {
+            first = new Batch(client);
+            batch = first;
+        } else if (first.client == client) {
+            batch = first;
+        } else {
+            if (others == null) {
+                others = new HashMap<>();
+            }
+            batch = others.get(client);
+            if (batch == null) {
+                batch = new Batch(client);
+                others.put(client, batch);
+            }
+        }
+        batch.commands.add(command);
+        batch.futures.add(future);
     }
 
     public CompletableFuture<Reply> sendCommand(AsyncClient client, Command command) {
@@ -34,18 +58,37 @@ public class CommandFlusher {
     }
 
     public void flush() {
-        for (Map.Entry<AsyncClient, List<Command>> entry : commandMap.entrySet()) {
-            AsyncClient nettyClient = entry.getKey();
-            List<Command> commands = entry.getValue();
-            List<CompletableFuture<Reply>> futureList = futureMap.get(nettyClient);
-            if (nettyClient == null) {
-                for (CompletableFuture<Reply> future : futureList) {
-                    future.complete(ErrorReply.NOT_AVAILABLE);
-                    ErrorLogCollector.collect(CommandFlusher.class, "AsyncClient is null, return NOT_AVAILABLE");
-                }
-            } else {
-                nettyClient.sendCommand(commands, futureList);
+        if (first == null) return;
+        flush(first);
+        if (others != null) {
+            for (Batch batch : others.values()) {
+                flush(batch);
             }
         }
+        //flush之后清空，避免重复flush时重复发送
+        first = null;
+        others = null;
+    }
+
+    private void flush(Batch batch) {
+        AsyncClient nettyClient = batch.client;
+        if (nettyClient == null) {
+            for (CompletableFuture<Reply> future : batch.futures) {
+                future.complete(ErrorReply.NOT_AVAILABLE);
+                ErrorLogCollector.collect(CommandFlusher.class, "AsyncClient is null, return NOT_AVAILABLE");
+            }
+        } else {
+            nettyClient.sendCommand(batch.commands, batch.futures, tenant);
+        }
+    }
+
+    private static class Batch {
+        private final AsyncClient client;
+        private final List<Command> commands = new ArrayList<>(4);
+        private final List<CompletableFuture<Reply>> futures = new ArrayList<>(4);
+
+        Batch(AsyncClient client) {
+            this.client = client;
+        }
     }
 }
@@ -0,0 +1,111 @@
+package com.netease.nim.camellia.redis.proxy.command.async;
+
+import com.netease.nim.camellia.redis.proxy.conf.Constants;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * RedisClient的发送队列，按租户（bid|bgroup）分别排队，flush时按deficit-round-robin从各个租户的队列中取命令
+ * 每轮每个租户可以发送quantum*weight条命令，避免一个租户的大pipeline把其他租户的小请求压在队尾
+ * 只有一个租户时退化为FIFO
+ */
+public class FairCommandQueue {
+
+    public static final String DEFAULT_TENANT = "default";
+
+    //租户权重，key为bid|bgroup，未配置的租户权重为1
+    public static Map<String, Integer> tenantWeights = Collections.emptyMap();
+    //每个租户排队的最大命令数
+    public static int maxCommandsPerTenant = Constants.Async.tenantQueueMaxCommands;
+    //每轮每单位权重可以发送的命令数
+    public static int quantum = Constants.Async.tenantQuantum;
+
+    private final Map<String, Tenant> tenants = new HashMap<>();
+    private final ArrayDeque<Tenant> active = new ArrayDeque<>();
+    private int size;
+
+    public synchronized boolean offer(String tenantKey, RedisClient.CommandWrapper wrapper) {
+        if (tenantKey == null) {
+            tenantKey = DEFAULT_TENANT;
+        }
+        Tenant tenant = tenants.get(tenantKey);
+        if (tenant == null) {
+            tenant = new Tenant(weight(tenantKey));
+            tenants.put(tenantKey, tenant);
+        }
+        int cost = cost(wrapper);
+        if (tenant.size + cost > maxCommandsPerTenant) {
+            return false;
+        }
+        if (tenant.queue.isEmpty()) {
+            //新进入调度的租户直接带上一轮的额度
+            tenant.deficit = (long) quantum * tenant.weight;
+            active.offerLast(tenant);
+        }
+        tenant.queue.offerLast(wrapper);
+        tenant.size += cost;
+        size += cost;
+        return true;
+    }
+
+    public synchronized RedisClient.CommandWrapper poll() {
+        while (!active.isEmpty()) {
+            Tenant tenant = active.peekFirst();
+            RedisClient.CommandWrapper wrapper = tenant.queue.peekFirst();
+            int cost = cost(wrapper);
+            if (tenant.deficit >= cost) {
+                tenant.queue.pollFirst();
+                tenant.deficit -= cost;
+                tenant.size -= cost;
+                size -= cost;
+                if (tenant.queue.isEmpty()) {
+                    active.pollFirst();
+                    tenant.deficit = 0;
+                }
+                return wrapper;
+            }
+            //本轮额度不够，补充额度后排到队尾
+            active.pollFirst();
+            tenant.deficit += (long) quantum * tenant.weight;
+            active.offerLast(tenant);
+        }
+        return null;
+    }
+
+    /**
+     * 排队的命令总数
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    private static int cost(RedisClient.CommandWrapper wrapper) {
+        return Math.max(1, wrapper.commands.size());
+    }
+
+    private static int weight(String tenantKey) {
+        Integer weight = tenantWeights.get(tenantKey);
+        if (weight == null || weight <= 0) {
+            return 1;
+        }
+        return weight;
+    }
+
+    private static class Tenant {
+        private final ArrayDeque<RedisClient.CommandWrapper> queue = new ArrayDeque<>();
+        private final int weight;
+        private long deficit;
+        private int size;
+
+        Tenant(int weight) {
+            this.weight = weight;
+        }
+    }
+}
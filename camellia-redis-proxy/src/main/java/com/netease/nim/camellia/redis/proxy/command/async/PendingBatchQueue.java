@@ -0,0 +1,70 @@
+package com.netease.nim.camellia.redis.proxy.command.async;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 一个连接上等待template创建完成的命令批次，template就绪后按到达顺序发送
+ * 只有出现过等待的连接才会创建，之后该连接的所有批次都经过这里，保证前面的批次先发送
+ */
+public class PendingBatchQueue {
+
+    public interface Dispatcher {
+        void dispatch(AsyncCamelliaRedisTemplate template, List<Command> commands, List<AsyncTask> tasks);
+    }
+
+    private final ArrayDeque<Batch> batches = new ArrayDeque<>();
+    private final Dispatcher dispatcher;
+
+    public PendingBatchQueue(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    public synchronized void submit(CompletableFuture<AsyncCamelliaRedisTemplate> templateFuture, List<Command> commands, List<AsyncTask> tasks) {
+        if (batches.isEmpty() && templateFuture.isDone()) {
+            dispatcher.dispatch(getNow(templateFuture), commands, tasks);
+            return;
+        }
+        batches.offerLast(new Batch(templateFuture, commands, tasks));
+        templateFuture.whenComplete((template, throwable) -> drain());
+    }
+
+    public synchronized boolean isEmpty() {
+        return batches.isEmpty();
+    }
+
+    private synchronized void drain() {
+        Batch batch;
+        while ((batch = batches.peekFirst()) != null && batch.templateFuture.isDone()) {
+            //发送完再出队，避免并发的submit看到空队列后插队
+            try {
+                dispatcher.dispatch(getNow(batch.templateFuture), batch.commands, batch.tasks);
+            } finally {
+                batches.pollFirst();
+            }
+        }
+    }
+
+    private static AsyncCamelliaRedisTemplate getNow(CompletableFuture<AsyncCamelliaRedisTemplate> future) {
+        try {
+            return future.getNow(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static class Batch {
+        private final CompletableFuture<AsyncCamelliaRedisTemplate> templateFuture;
+        private final List<Command> commands;
+        private final List<AsyncTask> tasks;
+
+        Batch(CompletableFuture<AsyncCamelliaRedisTemplate> templateFuture, List<Command> commands, List<AsyncTask> tasks) {
+            this.templateFuture = templateFuture;
+            this.commands = commands;
+            this.tasks = tasks;
+        }
+    }
+}
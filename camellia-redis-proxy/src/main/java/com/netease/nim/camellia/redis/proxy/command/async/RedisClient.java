@@ -14,7 +14,6 @@ import com.netease.nim.camellia.redis.proxy.util.CommandsEncodeUtil;
 import com.netease.nim.camellia.redis.proxy.util.ErrorLogCollector;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
@@ -23,15 +22,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.util.SafeEncoder;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- *
+ * 命令先进入commandQueue（按租户公平调度），再由连接所在的EventLoop合并编码后批量写出（不再使用独立的flush线程）
+ * 默认在EventLoop的下一轮任务中flush，也可以配置一个很小的等待时间来攒批，命令数或者字节数达到阈值时立即flush
  * Created by caojiajun on 2019/12/17.
  */
 public class RedisClient implements AsyncClient {
@@ -49,16 +49,30 @@ public class RedisClient implements AsyncClient {
     private volatile boolean valid = true;
     private ScheduledFuture<?> scheduledFuture;
     private final LinkedBlockingQueue<CompletableFuture<Reply>> queue = new LinkedBlockingQueue<>(100000);
-    private final LinkedBlockingQueue<CommandWrapper> commandQueue = new LinkedBlockingQueue<>(100000);
+    private final FairCommandQueue commandQueue = new FairCommandQueue();
     private final int heartbeatIntervalSeconds;
     private final long heartbeatTimeoutMillis;
     private final int commandPipelineFlushThreshold;
     private final int connectTimeoutMillis;
+    private final long commandPipelineFlushDelayMicros;
     private final String clientName;
     private final Object lock = new Object();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean immediateFlushScheduled = new AtomicBoolean(false);
+    private final Runnable flushTask = this::flush;
+    private final BackendHealth health;
+    //正在采样延迟的请求的发送时间，0表示当前没有采样
+    private volatile long sampleStartNanos;
 
     public RedisClient(String host, int port, String password,
                        int heartbeatIntervalSeconds, long heartbeatTimeoutMillis, int commandPipelineFlushThreshold, int connectTimeoutMillis) {
+        this(host, port, password, heartbeatIntervalSeconds, heartbeatTimeoutMillis, commandPipelineFlushThreshold, connectTimeoutMillis,
+                Constants.Async.commandPipelineFlushDelayMicros);
+    }
+
+    public RedisClient(String host, int port, String password,
+                       int heartbeatIntervalSeconds, long heartbeatTimeoutMillis, int commandPipelineFlushThreshold, int connectTimeoutMillis,
+                       long commandPipelineFlushDelayMicros) {
         this.host = host;
         this.port = port;
         this.password = password;
@@ -66,6 +80,8 @@ public class RedisClient implements AsyncClient {
         this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
         this.commandPipelineFlushThreshold = commandPipelineFlushThreshold;
         this.connectTimeoutMillis = connectTimeoutMillis;
+        this.commandPipelineFlushDelayMicros = commandPipelineFlushDelayMicros;
+        this.health = new BackendHealth(host, port);
         this.clientName = "RedisClient[" + (password == null ? "" : password) + "@" + host + ":" + port + "][id=" + id.incrementAndGet() + "]";
     }
 
@@ -85,7 +101,7 @@ public class RedisClient implements AsyncClient {
                         protected void initChannel(Channel channel) throws Exception {
                             ChannelPipeline pipeline = channel.pipeline();
                             pipeline.addLast(new ReplyDecoder());
-                            pipeline.addLast(new ClientHandler(queue, clientName));
+                            pipeline.addLast(new ClientHandler(queue, clientName, RedisClient.this::scheduleFlush));
                         }
                     });
             logger.info("{} try connect...", clientName);
@@ -93,7 +109,6 @@ public class RedisClient implements AsyncClient {
             this.channel = channelFuture.channel();
             logger.info("{} connect success", clientName);
             valid = true;
-            startFlushThread();
             if (password != null) {
                 logger.info("{} need password, try auth", clientName);
                 boolean authSuccess = false;
@@ -183,20 +198,7 @@ public class RedisClient implements AsyncClient {
                 } catch (Exception e) {
                     logger.error("{}, heart-beat schedule cancel error", clientName, e);
                 }
-                while (!queue.isEmpty()) {
-                    CompletableFuture<Reply> completableFuture = queue.poll();
-                    if (completableFuture != null) {
-                        completableFuture.complete(ErrorReply.NOT_AVAILABLE);
-                    }
-                }
-                while (!commandQueue.isEmpty()) {
-                    CommandWrapper wrapper = commandQueue.poll();
-                    if (wrapper != null) {
-                        for (CompletableFuture<Reply> future : wrapper.completableFutureList) {
-                            future.complete(ErrorReply.NOT_AVAILABLE);
-                        }
-                    }
-                }
+                failAll();
             } catch (Exception e) {
                 logger.error("{} stop error", clientName, e);
             }
@@ -207,17 +209,46 @@ public class RedisClient implements AsyncClient {
         return valid;
     }
 
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
     public String getClientName() {
         return clientName;
     }
 
     public CompletableFuture<Reply> sendCommand(byte[]... args) {
         CompletableFuture<Reply> completableFuture = new CompletableFuture<>();
-        sendCommand(Collections.singletonList(new Command(args)), Collections.singletonList(completableFuture));
+        //AUTH/PING/CLUSTER SLOTS等内部命令不受舱壁限制，剔除期间心跳仍然可以发送
+        sendCommand(Collections.singletonList(new Command(args)), Collections.singletonList(completableFuture), null, false);
         return completableFuture;
     }
 
     public void sendCommand(List<Command> commands, List<CompletableFuture<Reply>> completableFutureList) {
+        sendCommand(commands, completableFutureList, null);
+    }
+
+    @Override
+    public void sendCommand(List<Command> commands, List<CompletableFuture<Reply>> completableFutureList, String tenant) {
+        sendCommand(commands, completableFutureList, tenant, true);
+    }
+
+    /**
+     * 节点被剔除或者在途命令已满
+     */
+    public boolean isDegraded() {
+        return !valid || health.isEjected() || queue.size() + commandQueue.size() >= BackendHealth.maxInflight;
+    }
+
+    private void sendCommand(List<Command> commands, List<CompletableFuture<Reply>> completableFutureList, String tenant, boolean bulkhead) {
         if (!valid) {
             String log = clientName + " is not valid, command return NOT_AVAILABLE";
             for (CompletableFuture<Reply> future : completableFutureList) {
@@ -226,106 +257,191 @@ public class RedisClient implements AsyncClient {
             }
             return;
         }
+        if (bulkhead) {
+            ErrorReply error = health.admit(queue.size() + commandQueue.size(), commands.size());
+            if (error != null) {
+                String log = clientName + " bulkhead reject, reply = " + error.getError();
+                for (CompletableFuture<Reply> future : completableFutureList) {
+                    future.complete(error);
+                    ErrorLogCollector.collect(RedisClient.class, log);
+                }
+                return;
+            }
+        }
         CommandWrapper wrapper = new CommandWrapper();
         wrapper.commands = commands;
         wrapper.completableFutureList = completableFutureList;
+        wrapper.enqueueNanos = System.nanoTime();
 
-        boolean offer = commandQueue.offer(wrapper);
+        boolean offer = commandQueue.offer(tenant, wrapper);
         if (logger.isDebugEnabled()) {
             logger.debug("{} sendCommands to commandQueue, commands.size = {}", clientName, commands.size());
         }
         if (!offer) {
-            String log = clientName + ", commandQueue is full, command return NOT_AVAILABLE";
+            String log = clientName + ", commandQueue is full, tenant = " + tenant + ", command return NOT_AVAILABLE";
             for (CompletableFuture<Reply> future : completableFutureList) {
                 future.complete(ErrorReply.NOT_AVAILABLE);
                 ErrorLogCollector.collect(RedisClient.class, log);
             }
+            return;
+        }
+        if (!valid) {
+            //offer的同时被stop了，stop可能已经清理过commandQueue，这里兜底一下
+            failAll();
+            return;
         }
+        scheduleFlush();
     }
 
-    private static class CommandWrapper {
-        private List<Command> commands;
-        private List<CompletableFuture<Reply>> completableFutureList;
+    private void failAll() {
+        CompletableFuture<Reply> completableFuture;
+        while ((completableFuture = queue.poll()) != null) {
+            completableFuture.complete(ErrorReply.NOT_AVAILABLE);
+        }
+        CommandWrapper wrapper;
+        while ((wrapper = commandQueue.poll()) != null) {
+            for (CompletableFuture<Reply> future : wrapper.completableFutureList) {
+                future.complete(ErrorReply.NOT_AVAILABLE);
+            }
+        }
     }
-    private void startFlushThread() {
-        new Thread(() -> {
-            List<CommandWrapper> buffer = new ArrayList<>();
-            List<Command> flushCommands = new ArrayList<>(commandPipelineFlushThreshold);
-            while (valid) {
-                try {
-                    if (buffer.isEmpty()) {
-                        //第一个CommandWrapper需要阻塞功能
-                        CommandWrapper wrapper = commandQueue.poll(10, TimeUnit.SECONDS);
-                        if (wrapper == null) {
-                            continue;
-                        }
-                        buffer.add(wrapper);
-                        continue;
-                    } else {
-                        //之后的不需要阻塞
-                        //使用drainTo减少循环次数
-                        commandQueue.drainTo(buffer, commandPipelineFlushThreshold);
-                    }
-                    if (!valid) continue;
-                    boolean fail = false;
-                    for (CommandWrapper wrapper : buffer) {
-                        if (fail) {
-                            for (CompletableFuture<Reply> future : wrapper.completableFutureList) {
-                                future.complete(ErrorReply.NOT_AVAILABLE);
-                            }
-                            continue;
-                        }
-                        flushCommands.addAll(wrapper.commands);
-                        for (CompletableFuture<Reply> future : wrapper.completableFutureList) {
-                            if (fail) {
-                                String log = clientName + " queue full, command return NOT_AVAILABLE";
-                                ErrorLogCollector.collect(RedisClient.class, log);
-                                future.complete(ErrorReply.NOT_AVAILABLE);
-                                continue;
-                            }
-                            boolean offer = queue.offer(future);
-                            if (!offer) {
-                                String log = clientName + " queue full, command return NOT_AVAILABLE";
-                                ErrorLogCollector.collect(RedisClient.class, log);
-                                stop();
-                                fail = true;
-                                future.complete(ErrorReply.NOT_AVAILABLE);
-                            }
-                        }
+
+    //同一时刻最多只有一个待执行的flush任务，delay大于0时，如果积压的命令数达到阈值，则额外提交一个立即执行的flush任务
+    private void scheduleFlush() {
+        Channel channel = this.channel;
+        if (channel == null) return;
+        try {
+            if (flushScheduled.compareAndSet(false, true)) {
+                if (commandPipelineFlushDelayMicros > 0) {
+                    channel.eventLoop().schedule(flushTask, commandPipelineFlushDelayMicros, TimeUnit.MICROSECONDS);
+                } else {
+                    channel.eventLoop().execute(flushTask);
+                }
+            } else if (commandPipelineFlushDelayMicros > 0 && commandQueue.size() >= commandPipelineFlushThreshold
+                    && immediateFlushScheduled.compareAndSet(false, true)) {
+                channel.eventLoop().execute(flushTask);
+            }
+        } catch (RejectedExecutionException e) {
+            //EventLoop已经关闭
+            flushScheduled.set(false);
+            immediateFlushScheduled.set(false);
+            stop();
+        }
+    }
+
+    //在EventLoop线程中执行
+    private void flush() {
+        flushScheduled.set(false);
+        immediateFlushScheduled.set(false);
+        Channel channel = this.channel;
+        if (!valid || channel == null) {
+            failAll();
+            return;
+        }
+        if (!channel.isWritable()) {
+            //写缓冲区超过了高水位，命令先积压在commandQueue中，等channelWritabilityChanged之后再flush
+            return;
+        }
+        long now = System.nanoTime();
+        long sampleStart = sampleStartNanos;
+        if (sampleStart != 0) {
+            health.checkStall((now - sampleStart) / 1000000L);
+        }
+        ByteBuf buf = null;
+        int count = 0;
+        try {
+            CommandWrapper wrapper;
+            while ((wrapper = commandQueue.poll()) != null) {
+                if (health.isQueueTimeout(wrapper.enqueueNanos, now)) {
+                    //在发送队列中等待太久，不再发送
+                    ErrorLogCollector.collect(RedisClient.class, clientName + " queue timeout, reply = " + health.getBusyReply().getError());
+                    for (CompletableFuture<Reply> future : wrapper.completableFutureList) {
+                        future.complete(health.getBusyReply());
                     }
-                    buffer.clear();
+                    continue;
+                }
+                boolean fail = false;
+                for (CompletableFuture<Reply> future : wrapper.completableFutureList) {
                     if (fail) {
+                        future.complete(ErrorReply.NOT_AVAILABLE);
                         continue;
                     }
-                    ByteBufAllocator allocator = channel.alloc();
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("ByteBufAllocator = {}", allocator.getClass().getName());
+                    boolean offer = queue.offer(future);
+                    if (!offer) {
+                        String log = clientName + " queue full, command return NOT_AVAILABLE";
+                        ErrorLogCollector.collect(RedisClient.class, log);
+                        fail = true;
+                        future.complete(ErrorReply.NOT_AVAILABLE);
                     }
-                    ByteBuf buf = CommandsEncodeUtil.encode(allocator, flushCommands);
-                    try {
-                        channel.writeAndFlush(buf);
-                    } catch (Exception e) {
+                }
+                if (fail) {
+                    if (buf != null) {
                         buf.release();
-                        throw e;
+                        buf = null;
                     }
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("{} flush commands, commands.size = {}", clientName, flushCommands.size());
-                    }
-                    flushCommands.clear();
-                } catch (Exception e) {
-                    logger.error("{}, flush error", clientName, e);
                     stop();
+                    return;
                 }
-            }
-            if (!buffer.isEmpty()) {
-                String log = clientName + " stopping, command return NOT_AVAILABLE";
-                for (CommandWrapper wrapper : buffer) {
-                    for (CompletableFuture<Reply> future : wrapper.completableFutureList) {
-                        future.complete(ErrorReply.NOT_AVAILABLE);
-                        ErrorLogCollector.collect(RedisClient.class, log);
+                if (sampleStartNanos == 0 && BackendHealth.ejectMillis > 0 && !wrapper.completableFutureList.isEmpty()) {
+                    sample(wrapper.completableFutureList.get(0), now);
+                }
+                if (buf == null) {
+                    buf = channel.alloc().directBuffer();
+                }
+                for (Command command : wrapper.commands) {
+                    CommandsEncodeUtil.encode(buf, command);
+                }
+                count += wrapper.commands.size();
+                if (count >= commandPipelineFlushThreshold || buf.readableBytes() >= Constants.Async.commandPipelineFlushBytesThreshold) {
+                    ByteBuf flushBuf = buf;
+                    buf = null;
+                    writeAndFlush(channel, flushBuf, count);
+                    count = 0;
+                    if (!channel.isWritable()) {
+                        //剩下的等channelWritabilityChanged之后再flush
+                        break;
                     }
                 }
             }
-        }, "redis-commands-flush-" + clientName).start();
+            if (buf != null) {
+                ByteBuf flushBuf = buf;
+                buf = null;
+                writeAndFlush(channel, flushBuf, count);
+            }
+        } catch (Exception e) {
+            if (buf != null) {
+                buf.release();
+            }
+            logger.error("{}, flush error", clientName, e);
+            stop();
+        }
+        if (!valid) {
+            //flush的同时被stop了，已经放入queue的future可能没有被stop清理到
+            failAll();
+        }
+    }
+
+    //同一时刻只采样一个请求，从发送到返回的耗时交给BackendHealth统计
+    private void sample(CompletableFuture<Reply> future, long startNanos) {
+        sampleStartNanos = startNanos;
+        future.whenComplete((reply, throwable) -> {
+            sampleStartNanos = 0;
+            if (reply != ErrorReply.NOT_AVAILABLE) {
+                health.record((System.nanoTime() - startNanos) / 1000000L);
+            }
+        });
+    }
+
+    private void writeAndFlush(Channel channel, ByteBuf buf, int count) {
+        channel.writeAndFlush(buf);
+        if (logger.isDebugEnabled()) {
+            logger.debug("{} flush commands, commands.size = {}", clientName, count);
+        }
+    }
+
+    static class CommandWrapper {
+        List<Command> commands;
+        List<CompletableFuture<Reply>> completableFutureList;
+        long enqueueNanos;
     }
 }
@@ -23,7 +23,8 @@ public class RedisClientHub {
     private static final ExecutorService exec = new ThreadPoolExecutor(SysUtils.getCpuNum(), SysUtils.getCpuNum(), 0, TimeUnit.SECONDS,
             new LinkedBlockingQueue<>(1024), new CamelliaThreadFactory(RedisClientHub.class));
 
-    private static final Object lock = new Object();
+    //按后端节点加锁，不同节点的连接可以并行建立，建立完成后移除，避免下线的节点一直占用
+    private static final ConcurrentHashMap<String, Object> lockMap = new ConcurrentHashMap<>();
 
     public static int heartbeatIntervalSeconds = Constants.Async.heartbeatIntervalSeconds;
     public static long heartbeatTimeoutMillis = Constants.Async.heartbeatTimeoutMillis;
@@ -31,9 +32,27 @@ public class RedisClientHub {
     public static int connectTimeoutMillis = Constants.Async.connectTimeoutMillis;
     public static int failCountThreshold = Constants.Async.failCountThreshold;
     public static long failBanMillis = Constants.Async.failBanMillis;
+    public static long commandPipelineFlushDelayMicros = Constants.Async.commandPipelineFlushDelayMicros;
 
+    /**
+     * 获取已经存在的RedisClient，不存在时不创建
+     */
+    public static RedisClient peek(String host, int port, String password) {
+        return map.get(key(host, port, password, null));
+    }
+
+    /**
+     * 异步获取RedisClient，建连失败时返回null，建连队列满时以RejectedExecutionException异常结束
+     */
     public static CompletableFuture<RedisClient> getAsync(String host, int port, String password) {
-        String key = (password == null ? "" : password) + "@" + host + ":" + port;
+        return getAsync(host, port, password, null);
+    }
+
+    /**
+     * @param group 租户独占的连接所属的group，为null时使用共享的连接，see TenantEventLoopGroups.dedicatedGroup
+     */
+    public static CompletableFuture<RedisClient> getAsync(String host, int port, String password, String group) {
+        String key = key(host, port, password, group);
         RedisClient client = map.get(key);
         CompletableFuture<RedisClient> future = new CompletableFuture<>();
         if (client != null && client.isValid()) {
@@ -41,11 +60,16 @@ public class RedisClientHub {
         } else {
             try {
                 exec.submit(() -> {
-                    RedisClient redisClient = get(host, port, password);
+                    RedisClient redisClient = get(host, port, password, group);
                     future.complete(redisClient);
                 });
+            } catch (RejectedExecutionException e) {
+                //建连队列满了，以RejectedExecutionException异常结束，和建连失败（返回null）区分开，由调用方决定是否同步建连
+                String log = "submit exec rejected, queue full, key = " + key;
+                ErrorLogCollector.collect(RedisClientHub.class, log);
+                future.completeExceptionally(e);
             } catch (Exception e) {
-                String log = "submit exec error, key = " + key;
+                String log = "submit exec error, key = " + key + ", e = " + e;
                 ErrorLogCollector.collect(RedisClientHub.class, log);
                 future.complete(null);
             }
@@ -54,26 +78,35 @@ public class RedisClientHub {
     }
 
     public static RedisClient get(String host, int port, String password) {
-        String key = (password == null ? "" : password) + "@" + host + ":" + port;
+        return get(host, port, password, null);
+    }
+
+    public static RedisClient get(String host, int port, String password, String group) {
+        String key = key(host, port, password, group);
         RedisClient client = map.get(key);
         if (client == null) {
-            synchronized (lock) {
-                client = map.get(key);
-                if (client == null) {
-                    client = new RedisClient(host, port, password,
-                            heartbeatIntervalSeconds, heartbeatTimeoutMillis, commandPipelineFlushThreshold, connectTimeoutMillis);
-                    client.start();
-                    if (client.isValid()) {
-                        RedisClient oldClient = map.put(key, client);
-                        if (oldClient != null) {
-                            oldClient.stop();
+            Object lock = lock(key);
+            try {
+                synchronized (lock) {
+                    client = map.get(key);
+                    if (client == null) {
+                        client = new RedisClient(host, port, password,
+                                heartbeatIntervalSeconds, heartbeatTimeoutMillis, commandPipelineFlushThreshold, connectTimeoutMillis, commandPipelineFlushDelayMicros);
+                        client.start();
+                        if (client.isValid()) {
+                            RedisClient oldClient = map.put(key, client);
+                            if (oldClient != null) {
+                                oldClient.stop();
+                            }
+                            resetFail(key);//如果client初始化成功，则重置计数器和错误时间戳
+                        } else {
+                            incrFail(key);//client初始化失败，递增错误计数器
+                            client.stop();
                         }
-                        resetFail(key);//如果client初始化成功，则重置计数器和错误时间戳
-                    } else {
-                        incrFail(key);//client初始化失败，递增错误计数器
-                        client.stop();
                     }
                 }
+            } finally {
+                lockMap.remove(key, lock);
             }
         }
         if (client.isValid()) {
@@ -99,28 +132,34 @@ public class RedisClientHub {
                 ErrorLogCollector.collect(RedisClientHub.class, log);
                 return null;
             }
-            synchronized (lock) {
-                client = map.get(key);
-                if (client != null && client.isValid()) {
-                    return client;
-                }
-                if (client != null && !client.isValid()) {
-                    client.stop();
-                }
-                client = new RedisClient(host, port, password,
-                        heartbeatIntervalSeconds, heartbeatTimeoutMillis, commandPipelineFlushThreshold, connectTimeoutMillis);
-                client.start();
-                if (client.isValid()) {
-                    RedisClient oldClient = map.put(key, client);
-                    if (oldClient != null) {
-                        oldClient.stop();
+            Object lock = lock(key);
+            try {
+                synchronized (lock) {
+                    client = map.get(key);
+                    if (client != null && client.isValid()) {
+                        return client;
+                    }
+                    if (client != null && !client.isValid()) {
+                        client.stop();
+                    }
+                    client = new RedisClient(host, port, password,
+                            heartbeatIntervalSeconds, heartbeatTimeoutMillis, commandPipelineFlushThreshold, connectTimeoutMillis, commandPipelineFlushDelayMicros);
+                    client.start();
+                    if (client.isValid()) {
+                        RedisClient oldClient = map.put(key, client);
+                        if (oldClient != null) {
+                            oldClient.stop();
+                        }
+                        resetFail(key);//如果client初始化成功，则重置计数器和错误时间戳
+                        return client;
+                    } else {
+                        incrFail(key);//client初始化失败，递增错误计数器
+                        client.stop();
                     }
-                    resetFail(key);//如果client初始化成功，则重置计数器和错误时间戳
-                    return client;
-                } else {
-                    incrFail(key);//client初始化失败，递增错误计数器
-                    client.stop();
                 }
+            } finally {
+                //等待同一把锁的线程拿到锁之后会再检查一次map，移除后新建的锁最多导致一次重复建连
+                lockMap.remove(key, lock);
             }
         }
         String log = "get RedisClient fail, key = " + key;
@@ -128,6 +167,19 @@ public class RedisClientHub {
         return null;
     }
 
+    private static String key(String host, int port, String password, String group) {
+        String key = (password == null ? "" : password) + "@" + host + ":" + port;
+        return group == null ? key : group + "#" + key;
+    }
+
+    private static Object lock(String key) {
+        Object lock = lockMap.get(key);
+        if (lock == null) {
+            lock = lockMap.computeIfAbsent(key, k -> new Object());
+        }
+        return lock;
+    }
+
     private static long getFailTimestamp(String key) {
         AtomicLong failTimestamp = failTimestampMap.computeIfAbsent(key, k -> new AtomicLong(0L));
         return failTimestamp.get();
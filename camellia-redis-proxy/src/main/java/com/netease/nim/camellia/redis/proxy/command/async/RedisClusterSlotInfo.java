@@ -12,6 +12,8 @@ import redis.clients.util.SafeEncoder;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
@@ -32,6 +34,8 @@ public class RedisClusterSlotInfo {
     //slot -> master redis node
     private Map<Integer, Node> slotMap = new HashMap<>();
     private Set<Node> nodeSet = new HashSet<>();
+    //所有master节点，按host:port排序，刷新slot信息时重建，用于SCAN等需要遍历所有节点的命令
+    private volatile List<Node> masterNodes = Collections.emptyList();
 
     private final RedisClusterResource redisClusterResource;
     private final String password;
@@ -49,15 +53,58 @@ public class RedisClusterSlotInfo {
      * @return client
      */
     public RedisClient getClient(int slot) {
+        return getClient(slot, null);
+    }
+
+    /**
+     * @param group 租户独占的连接所属的group，为null时使用共享的连接
+     */
+    public RedisClient getClient(int slot, String group) {
         r.lock();
         try {
             Node node = slotMap.get(slot);
-            return RedisClientHub.get(node.getHost(), node.getPort(), redisClusterResource.getPassword());
+            return RedisClientHub.get(node.getHost(), node.getPort(), redisClusterResource.getPassword(), group);
         } finally {
             r.unlock();
         }
     }
 
+    /**
+     * 获取所有master节点的client，按host:port排序，不可用的节点为null
+     * 连接不存在时会阻塞建立连接，不能在work线程中调用
+     * @return clients
+     */
+    public List<RedisClient> getMasterClients() {
+        List<Node> nodes = this.masterNodes;
+        List<RedisClient> clients = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            clients.add(RedisClientHub.get(node.getHost(), node.getPort(), password));
+        }
+        return clients;
+    }
+
+    /**
+     * master节点数
+     */
+    public int getMasterCount() {
+        return masterNodes.size();
+    }
+
+    /**
+     * 第index个master节点的client（按host:port排序），不阻塞，连接不可用时异步重连并返回null
+     */
+    public RedisClient getMasterClient(int index) {
+        List<Node> nodes = this.masterNodes;
+        if (index < 0 || index >= nodes.size()) return null;
+        Node node = nodes.get(index);
+        RedisClient client = RedisClientHub.peek(node.getHost(), node.getPort(), password);
+        if (client != null && client.isValid()) {
+            return client;
+        }
+        RedisClientHub.getAsync(node.getHost(), node.getPort(), password);
+        return null;
+    }
+
     /**
      * 刷新slot信息
      */
@@ -141,9 +188,27 @@ public class RedisClusterSlotInfo {
                 throw new CamelliaRedisException("decode clusterNodes error");
             }
             boolean success = true;
-            for (Node node : nodeSet) {
-                RedisClient client = RedisClientHub.get(node.getHost(), node.getPort(), password);
+            //并行建立到各个master节点的连接
+            List<Node> nodes = new ArrayList<>(nodeSet);
+            List<CompletableFuture<RedisClient>> futures = new ArrayList<>(nodes.size());
+            for (Node node : nodes) {
+                futures.add(RedisClientHub.getAsync(node.getHost(), node.getPort(), password));
+            }
+            for (int i = 0; i < nodes.size(); i++) {
+                Node node = nodes.get(i);
+                RedisClient client;
+                try {
+                    client = futures.get(i).join();
+                } catch (CompletionException e) {
+                    if (!(e.getCause() instanceof RejectedExecutionException)) {
+                        throw e;
+                    }
+                    //建连队列满了，在当前线程同步建连
+                    logger.warn("connect master node rejected, connect in current thread, node = {}", node);
+                    client = RedisClientHub.get(node.getHost(), node.getPort(), password);
+                }
                 if (client == null) {
+                    logger.error("connect master node fail, node = {}", node);
                     success = false;
                 }
             }
@@ -151,8 +216,11 @@ public class RedisClusterSlotInfo {
             if (logger.isDebugEnabled()) {
                 logger.debug("node.size = {}, slotMap.size = {}", nodeSet.size(), slotMap.size());
             }
+            List<Node> masterNodes = new ArrayList<>(nodeSet);
+            masterNodes.sort(Comparator.comparing(Node::toString));
             this.nodeSet = nodeSet;
             this.slotMap = slotMap;
+            this.masterNodes = Collections.unmodifiableList(masterNodes);
             return success;
         } catch (CamelliaRedisException e) {
             throw e;
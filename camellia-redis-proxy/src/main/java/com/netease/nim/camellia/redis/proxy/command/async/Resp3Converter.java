@@ -0,0 +1,47 @@
+package com.netease.nim.camellia.redis.proxy.command.async;
+
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.reply.BulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.DoubleReply;
+import com.netease.nim.camellia.redis.proxy.reply.MapReply;
+import com.netease.nim.camellia.redis.proxy.reply.MultiBulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.reply.SetReply;
+
+/**
+ * 后端连接始终是RESP2，RESP3的客户端连接需要按命令把回包转换成对应的RESP3类型
+ * nil在编码时统一处理（见Reply.writeResp3），这里只处理map/set/double等需要知道命令才能确定的类型
+ */
+public class Resp3Converter {
+
+    public static Reply convert(RedisCommand redisCommand, Reply reply) {
+        if (redisCommand == null) return reply;
+        switch (redisCommand) {
+            case HGETALL:
+                if (reply instanceof MultiBulkReply && isEven(((MultiBulkReply) reply).getReplies())) {
+                    return new MapReply(((MultiBulkReply) reply).getReplies());
+                }
+                return reply;
+            case SMEMBERS:
+            case SUNION:
+            case SINTER:
+            case SDIFF:
+                if (reply instanceof MultiBulkReply && ((MultiBulkReply) reply).getReplies() != null) {
+                    return new SetReply(((MultiBulkReply) reply).getReplies());
+                }
+                return reply;
+            case ZSCORE:
+            case ZINCRBY:
+                if (reply instanceof BulkReply && ((BulkReply) reply).getRaw() != null) {
+                    return new DoubleReply(((BulkReply) reply).getRaw());
+                }
+                return reply;
+            default:
+                return reply;
+        }
+    }
+
+    private static boolean isEven(Reply[] replies) {
+        return replies != null && replies.length % 2 == 0;
+    }
+}
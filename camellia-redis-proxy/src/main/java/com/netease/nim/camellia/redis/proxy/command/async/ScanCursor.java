@@ -0,0 +1,40 @@
+package com.netease.nim.camellia.redis.proxy.command.async;
+
+/**
+ * 跨后端SCAN的游标编码，低10位为后端的下标，其余位为该后端的游标，因此最多支持1024个后端节点
+ * 游标按无符号64位整数处理
+ */
+public class ScanCursor {
+
+    private static final int indexBits = 10;
+    private static final long indexMask = (1L << indexBits) - 1;
+
+    //最多支持的后端节点数
+    public static final int maxBackends = 1 << indexBits;
+
+    public static int index(long cursor) {
+        return (int) (cursor & indexMask);
+    }
+
+    public static long backendCursor(long cursor) {
+        return cursor >>> indexBits;
+    }
+
+    /**
+     * 后端游标超出54位时无法编码
+     */
+    public static boolean overflow(long nextBackendCursor) {
+        return (nextBackendCursor >>> (64 - indexBits)) != 0;
+    }
+
+    /**
+     * 后端返回nextBackendCursor后的下一个游标，当前后端遍历完了则从下一个后端开始，全部遍历完返回0
+     * 调用前需要先检查overflow
+     */
+    public static long next(int index, long nextBackendCursor, int backendCount) {
+        if (nextBackendCursor == 0) {
+            return index + 1 < backendCount ? index + 1 : 0;
+        }
+        return (nextBackendCursor << indexBits) | index;
+    }
+}
@@ -0,0 +1,49 @@
+package com.netease.nim.camellia.redis.proxy.command.async;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * proxy本地的lua脚本注册表，sha1 -> script
+ * EVALSHA在后端返回NOSCRIPT时，用注册表中的脚本改为EVAL重试，从而把脚本加载到该后端上
+ */
+public class ScriptRegistry {
+
+    //最多缓存的脚本数，超过之后不再注册，避免动态拼接的脚本撑爆内存
+    private static final int maxScripts = 10000;
+
+    private static final ConcurrentHashMap<String, byte[]> scriptMap = new ConcurrentHashMap<>();
+
+    public static String register(byte[] script) {
+        String sha = sha1(script);
+        if (scriptMap.size() < maxScripts) {
+            scriptMap.putIfAbsent(sha, script);
+        }
+        return sha;
+    }
+
+    public static byte[] get(String sha) {
+        if (sha == null) return null;
+        return scriptMap.get(sha.toLowerCase());
+    }
+
+    public static boolean contains(String sha) {
+        return get(sha) != null;
+    }
+
+    public static String sha1(byte[] script) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest(script);
+            char[] hex = new char[bytes.length * 2];
+            for (int i=0; i<bytes.length; i++) {
+                hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+                hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
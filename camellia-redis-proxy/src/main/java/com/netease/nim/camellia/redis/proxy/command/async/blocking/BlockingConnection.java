@@ -0,0 +1,151 @@
+package com.netease.nim.camellia.redis.proxy.command.async.blocking;
+
+import com.netease.nim.camellia.core.util.SysUtils;
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.netty.ReplyDecoder;
+import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.reply.StatusReply;
+import com.netease.nim.camellia.redis.proxy.util.CommandsEncodeUtil;
+import com.netease.nim.camellia.redis.proxy.util.ErrorLogCollector;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.ScheduledFuture;
+import redis.clients.util.SafeEncoder;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 阻塞命令专用的后端连接，一次只执行一个阻塞命令，执行期间独占
+ * 和RedisClient不同，不启动独立的线程，所有连接共用一个EventLoopGroup，也不发心跳（心跳会被阻塞命令卡住）
+ */
+public class BlockingConnection {
+
+    private static final EventLoopGroup loopGroup = new NioEventLoopGroup(SysUtils.getCpuNum(), new DefaultThreadFactory("redis-blocking"));
+
+    private final Channel channel;
+    private final ConcurrentLinkedQueue<CompletableFuture<Reply>> queue;
+
+    private BlockingConnection(Channel channel, ConcurrentLinkedQueue<CompletableFuture<Reply>> queue) {
+        this.channel = channel;
+        this.queue = queue;
+    }
+
+    /**
+     * 建立连接，如有密码则先AUTH，失败返回null
+     */
+    public static CompletableFuture<BlockingConnection> connect(String host, int port, String password, int connectTimeoutMillis) {
+        CompletableFuture<BlockingConnection> ret = new CompletableFuture<>();
+        ConcurrentLinkedQueue<CompletableFuture<Reply>> queue = new ConcurrentLinkedQueue<>();
+        Bootstrap bootstrap = new Bootstrap();
+        bootstrap.group(loopGroup)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                .handler(new ChannelInitializer() {
+                    @Override
+                    protected void initChannel(Channel channel) {
+                        ChannelPipeline pipeline = channel.pipeline();
+                        pipeline.addLast(new ReplyDecoder());
+                        pipeline.addLast(new ReplyHandler(queue));
+                    }
+                });
+        bootstrap.connect(host, port).addListener((ChannelFutureListener) future -> {
+            if (!future.isSuccess()) {
+                ErrorLogCollector.collect(BlockingConnection.class, "blocking connection connect fail, addr = " + host + ":" + port);
+                ret.complete(null);
+                return;
+            }
+            BlockingConnection connection = new BlockingConnection(future.channel(), queue);
+            if (password == null) {
+                ret.complete(connection);
+                return;
+            }
+            Command auth = new Command(new byte[][]{RedisCommand.AUTH.raw(), SafeEncoder.encode(password)});
+            connection.send(auth).thenAccept(reply -> {
+                if (reply instanceof StatusReply && ((StatusReply) reply).getStatus().equalsIgnoreCase(StatusReply.OK.getStatus())) {
+                    ret.complete(connection);
+                } else {
+                    ErrorLogCollector.collect(BlockingConnection.class, "blocking connection auth fail, addr = " + host + ":" + port);
+                    connection.close();
+                    ret.complete(null);
+                }
+            });
+        });
+        return ret;
+    }
+
+    public CompletableFuture<Reply> send(Command command) {
+        CompletableFuture<Reply> future = new CompletableFuture<>();
+        queue.offer(future);
+        if (!channel.isActive()) {
+            failAll(queue);
+            return future;
+        }
+        channel.writeAndFlush(CommandsEncodeUtil.encode(channel.alloc(), Collections.singletonList(command)));
+        return future;
+    }
+
+    public boolean isActive() {
+        return channel.isActive();
+    }
+
+    public ChannelFuture closeFuture() {
+        return channel.closeFuture();
+    }
+
+    public ScheduledFuture<?> schedule(Runnable runnable, long delayMillis) {
+        return channel.eventLoop().schedule(runnable, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 关闭连接，未返回的命令回复NOT_AVAILABLE
+     */
+    public void close() {
+        channel.close();
+    }
+
+    private static void failAll(ConcurrentLinkedQueue<CompletableFuture<Reply>> queue) {
+        CompletableFuture<Reply> future;
+        while ((future = queue.poll()) != null) {
+            future.complete(ErrorReply.NOT_AVAILABLE);
+        }
+    }
+
+    private static class ReplyHandler extends SimpleChannelInboundHandler<Reply> {
+
+        private final ConcurrentLinkedQueue<CompletableFuture<Reply>> queue;
+
+        ReplyHandler(ConcurrentLinkedQueue<CompletableFuture<Reply>> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, Reply reply) {
+            CompletableFuture<Reply> future = queue.poll();
+            if (future != null) {
+                future.complete(reply);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            super.channelInactive(ctx);
+            failAll(queue);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ErrorLogCollector.collect(BlockingConnection.class, "blocking connection exception, cause = " + cause);
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.netease.nim.camellia.redis.proxy.command.async.blocking;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.conf.Constants;
+import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 阻塞命令（BLPOP/BRPOP/BRPOPLPUSH）的专用连接池，每个后端节点一个有界的池，和多路复用的RedisClient互不影响
+ * 每次阻塞调用租用一个连接，命令返回后归还；客户端连接断开时，后端连接仍阻塞在命令上，无法复用，直接关闭
+ */
+public class BlockingConnectionPool {
+
+    public static int maxConnectionsPerBackend = Constants.Async.blockingMaxConnectionsPerBackend;
+    public static int maxIdlePerBackend = Constants.Async.blockingMaxIdlePerBackend;
+    public static int connectTimeoutMillis = Constants.Async.connectTimeoutMillis;
+
+    //后端超时之后再等待的时间，超过则认为后端连接异常，关闭连接
+    private static final long timeoutGraceMillis = 5000L;
+
+    public static final ErrorReply LIMIT_EXCEEDED = new ErrorReply("ERR proxy blocking connection limit exceeded");
+
+    private static final ConcurrentHashMap<String, BlockingConnectionPool> poolMap = new ConcurrentHashMap<>();
+
+    private final String host;
+    private final int port;
+    private final String password;
+    private final AtomicInteger total = new AtomicInteger();
+    private final ConcurrentLinkedDeque<BlockingConnection> idle = new ConcurrentLinkedDeque<>();
+
+    private BlockingConnectionPool(String host, int port, String password) {
+        this.host = host;
+        this.port = port;
+        this.password = password;
+    }
+
+    public static BlockingConnectionPool get(String host, int port, String password) {
+        String key = (password == null ? "" : password) + "@" + host + ":" + port;
+        BlockingConnectionPool pool = poolMap.get(key);
+        if (pool == null) {
+            pool = poolMap.computeIfAbsent(key, k -> new BlockingConnectionPool(host, port, password));
+        }
+        return pool;
+    }
+
+    /**
+     * 租用一个连接执行阻塞命令
+     * @param timeoutMillis 命令的超时时间，0表示一直阻塞
+     * @param clientChannel 客户端连接，断开时关闭租用的后端连接
+     */
+    public CompletableFuture<Reply> execute(Command command, long timeoutMillis, Channel clientChannel) {
+        CompletableFuture<BlockingConnection> lease;
+        BlockingConnection idleConnection = pollIdle();
+        if (idleConnection != null) {
+            lease = CompletableFuture.completedFuture(idleConnection);
+        } else if (total.incrementAndGet() > maxConnectionsPerBackend) {
+            total.decrementAndGet();
+            return CompletableFuture.completedFuture(LIMIT_EXCEEDED);
+        } else {
+            lease = create();
+        }
+        CompletableFuture<Reply> ret = new CompletableFuture<>();
+        lease.thenAccept(connection -> {
+            if (connection == null) {
+                ret.complete(ErrorReply.NOT_AVAILABLE);
+                return;
+            }
+            ChannelFutureListener clientCloseListener = future -> connection.close();
+            clientChannel.closeFuture().addListener(clientCloseListener);
+            ScheduledFuture<?> guard = null;
+            if (timeoutMillis > 0) {
+                guard = connection.schedule(connection::close, timeoutMillis + timeoutGraceMillis);
+            }
+            ScheduledFuture<?> timeoutGuard = guard;
+            connection.send(command).thenAccept(reply -> {
+                clientChannel.closeFuture().removeListener(clientCloseListener);
+                if (timeoutGuard != null) {
+                    timeoutGuard.cancel(false);
+                }
+                release(connection);
+                ret.complete(reply);
+            });
+        });
+        return ret;
+    }
+
+    public int getTotal() {
+        return total.get();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    private BlockingConnection pollIdle() {
+        BlockingConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            if (connection.isActive()) {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    //调用前已经占用了total的计数
+    private CompletableFuture<BlockingConnection> create() {
+        return BlockingConnection.connect(host, port, password, connectTimeoutMillis).thenApply(conn -> {
+            if (conn == null) {
+                total.decrementAndGet();
+                return null;
+            }
+            //连接关闭时（主动关闭或者被后端断开）释放计数
+            conn.closeFuture().addListener(future -> {
+                total.decrementAndGet();
+                idle.remove(conn);
+            });
+            return conn;
+        });
+    }
+
+    private void release(BlockingConnection connection) {
+        if (!connection.isActive()) return;
+        if (idle.size() >= maxIdlePerBackend) {
+            connection.close();
+            return;
+        }
+        idle.offerFirst(connection);
+    }
+}
@@ -0,0 +1,425 @@
+package com.netease.nim.camellia.redis.proxy.command.async.counter;
+
+import com.netease.nim.camellia.core.util.CamelliaThreadFactory;
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.command.async.AsyncCamelliaRedisTemplate;
+import com.netease.nim.camellia.redis.proxy.command.async.route.KeyPatternTrie;
+import com.netease.nim.camellia.redis.proxy.conf.CamelliaTranspondProperties;
+import com.netease.nim.camellia.redis.proxy.conf.Constants;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.reply.BulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
+import com.netease.nim.camellia.redis.proxy.reply.IntegerReply;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.util.ErrorLogCollector;
+import redis.clients.util.SafeEncoder;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热点计数器的写合并，开启后租户白名单前缀下的INCR/INCRBY/INCRBYFLOAT/HINCRBY等命令不直接转发，
+ * 而是在内存中按key（hash为key+field）累加增量，每个窗口结束时每个key只发送一条合并后的命令
+ * 回包有两种一致性级别：
+ * FLUSHED，等合并命令返回后，按命令到达的顺序倒推出每条命令执行后的值，和串行执行的结果一致
+ * LOCAL_ESTIMATE，用上一次合并命令返回的值加上本地未生效的增量立即回包，还不知道当前值的key先按FLUSHED处理
+ * 合并后的命令和同一个连接上的其他命令之间不再保证顺序，只适合只要求最终总数正确的计数器
+ */
+public class CounterCoalescer {
+
+    //key为bid|bgroup或者bid，本地配置的template为default，value为逗号分隔的key前缀
+    public static Map<String, String> tenantPrefixes = Collections.emptyMap();
+    public static long windowMillis = Constants.Async.counterCoalesceWindowMillis;
+    public static CamelliaTranspondProperties.RedisConfProperties.CounterConsistency consistency = Constants.Async.counterCoalesceConsistency;
+    //每个租户最多合并的key数，超过则直接转发
+    public static int maxKeys = Constants.Async.counterCoalesceMaxKeys;
+    //连续多少个窗口没有新的增量之后移除该key
+    private static final int maxIdleWindows = 10;
+
+    private static final BigDecimal longMin = BigDecimal.valueOf(Long.MIN_VALUE);
+    private static final BigDecimal longMax = BigDecimal.valueOf(Long.MAX_VALUE);
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new CamelliaThreadFactory(CounterCoalescer.class));
+    private static final List<CounterCoalescer> instances = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final AsyncCamelliaRedisTemplate template;
+    private final KeyPatternTrie trie = new KeyPatternTrie();
+    private final ConcurrentHashMap<CounterKey, Counter> counters = new ConcurrentHashMap<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final AtomicBoolean registered = new AtomicBoolean(false);
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder flushed = new LongAdder();
+
+    private CounterCoalescer(String name, AsyncCamelliaRedisTemplate template, String prefixes) {
+        this.name = name;
+        this.template = template;
+        for (String prefix : prefixes.split(",")) {
+            prefix = prefix.trim();
+            if (prefix.isEmpty()) continue;
+            trie.add(prefix + "*", 0);
+        }
+    }
+
+    /**
+     * 租户没有配置合并的key前缀则返回null
+     */
+    public static CounterCoalescer create(AsyncCamelliaRedisTemplate template, long bid, String bgroup) {
+        if (tenantPrefixes.isEmpty() || windowMillis <= 0) return null;
+        String name;
+        String prefixes;
+        if (bid > 0) {
+            name = bid + "|" + bgroup;
+            prefixes = tenantPrefixes.get(name);
+            if (prefixes == null) {
+                prefixes = tenantPrefixes.get(String.valueOf(bid));
+            }
+        } else {
+            name = "default";
+            prefixes = tenantPrefixes.get(name);
+        }
+        if (prefixes == null || prefixes.trim().isEmpty()) return null;
+        return new CounterCoalescer(name, template, prefixes);
+    }
+
+    public static List<CounterCoalescer> getInstances() {
+        return Collections.unmodifiableList(instances);
+    }
+
+    public static boolean isCounterCommand(RedisCommand redisCommand) {
+        if (redisCommand == null) return false;
+        switch (redisCommand) {
+            case INCR:
+            case DECR:
+            case INCRBY:
+            case DECRBY:
+            case INCRBYFLOAT:
+            case HINCRBY:
+            case HINCRBYFLOAT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 尝试合并一条计数命令，返回null表示不合并（不在白名单、参数不合法或者可能溢出），由调用方直接转发
+     */
+    public CompletableFuture<Reply> offer(RedisCommand redisCommand, Command command) {
+        if (!isCounterCommand(redisCommand)) return null;
+        byte[][] args = command.getObjects();
+        boolean hash = redisCommand == RedisCommand.HINCRBY || redisCommand == RedisCommand.HINCRBYFLOAT;
+        boolean floating = redisCommand == RedisCommand.INCRBYFLOAT || redisCommand == RedisCommand.HINCRBYFLOAT;
+        int expectArgs = redisCommand == RedisCommand.INCR || redisCommand == RedisCommand.DECR ? 2 : (hash ? 4 : 3);
+        if (args.length != expectArgs) return null;
+        if (trie.match(args[1], null) < 0) return null;
+        BigDecimal delta = parseDelta(redisCommand, args);
+        if (delta == null) return null;
+        CounterKey counterKey = new CounterKey(args[1], hash ? args[2] : null, floating);
+        while (true) {
+            Counter counter = counters.get(counterKey);
+            if (counter == null) {
+                if (counters.size() >= maxKeys) return null;
+                counter = new Counter(counterKey);
+                Counter old = counters.putIfAbsent(counterKey, counter);
+                if (old != null) {
+                    counter = old;
+                }
+            }
+            CompletableFuture<Reply> future = counter.add(delta);
+            if (future == Counter.REMOVED) {
+                //并发的flush刚刚移除了这个key，重新创建
+                continue;
+            }
+            if (future != null) {
+                coalesced.increment();
+                schedule();
+            }
+            return future;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getKeys() {
+        return counters.size();
+    }
+
+    /**
+     * 上次调用之后被合并的命令数
+     */
+    public long getAndResetCoalesced() {
+        return coalesced.sumThenReset();
+    }
+
+    /**
+     * 上次调用之后发送给后端的合并命令数
+     */
+    public long getAndResetFlushed() {
+        return flushed.sumThenReset();
+    }
+
+    private void schedule() {
+        if (registered.compareAndSet(false, true)) {
+            instances.add(this);
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                ErrorLogCollector.collect(CounterCoalescer.class, "flush schedule rejected");
+            }
+        }
+    }
+
+    private void flush() {
+        scheduled.set(false);
+        List<Command> commands = new ArrayList<>();
+        List<Counter> flushCounters = new ArrayList<>();
+        List<Counter.Batch> batches = new ArrayList<>();
+        for (Counter counter : counters.values()) {
+            Counter.Batch batch = counter.drain();
+            if (batch == null) {
+                if (counter.tryRemove()) {
+                    counters.remove(counter.counterKey, counter);
+                }
+                continue;
+            }
+            commands.add(batch.command);
+            flushCounters.add(counter);
+            batches.add(batch);
+        }
+        if (!commands.isEmpty()) {
+            flushed.add(commands.size());
+            List<CompletableFuture<Reply>> futures;
+            try {
+                futures = template.sendCommand(commands);
+            } catch (Exception e) {
+                ErrorLogCollector.collect(CounterCoalescer.class, "flush error, tenant = " + name + ", e = " + e);
+                futures = null;
+            }
+            for (int i=0; i<flushCounters.size(); i++) {
+                Counter counter = flushCounters.get(i);
+                Counter.Batch batch = batches.get(i);
+                if (futures == null) {
+                    counter.complete(batch, ErrorReply.NOT_AVAILABLE);
+                } else {
+                    futures.get(i).whenComplete((reply, e) -> {
+                        if (e != null) {
+                            ErrorLogCollector.collect(CounterCoalescer.class, "flush error, tenant = " + name + ", e = " + e);
+                            counter.complete(batch, ErrorReply.NOT_AVAILABLE);
+                        } else {
+                            counter.complete(batch, reply);
+                        }
+                    });
+                }
+            }
+        }
+        //还有key则继续调度，用于回收空闲的key
+        if (!counters.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private static BigDecimal parseDelta(RedisCommand redisCommand, byte[][] args) {
+        try {
+            switch (redisCommand) {
+                case INCR:
+                    return BigDecimal.ONE;
+                case DECR:
+                    return BigDecimal.ONE.negate();
+                case INCRBY:
+                    return BigDecimal.valueOf(Long.parseLong(SafeEncoder.encode(args[2])));
+                case DECRBY:
+                    return BigDecimal.valueOf(Long.parseLong(SafeEncoder.encode(args[2]))).negate();
+                case HINCRBY:
+                    return BigDecimal.valueOf(Long.parseLong(SafeEncoder.encode(args[3])));
+                case INCRBYFLOAT:
+                    return new BigDecimal(SafeEncoder.encode(args[2]));
+                case HINCRBYFLOAT:
+                    return new BigDecimal(SafeEncoder.encode(args[3]));
+                default:
+                    return null;
+            }
+        } catch (NumberFormatException e) {
+            //参数不合法的命令直接转发，由redis返回错误
+            return null;
+        }
+    }
+
+    private static class CounterKey {
+        private final byte[] key;
+        private final byte[] field;
+        private final boolean floating;
+        private final int hashCode;
+
+        CounterKey(byte[] key, byte[] field, boolean floating) {
+            this.key = key;
+            this.field = field;
+            this.floating = floating;
+            int hashCode = Arrays.hashCode(key);
+            hashCode = 31 * hashCode + Arrays.hashCode(field);
+            this.hashCode = 31 * hashCode + (floating ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CounterKey that = (CounterKey) o;
+            return floating == that.floating && Arrays.equals(key, that.key) && Arrays.equals(field, that.field);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static class Counter {
+        private static final CompletableFuture<Reply> REMOVED = new CompletableFuture<>();
+
+        private final CounterKey counterKey;
+        //还未发送的增量
+        private BigDecimal pending = BigDecimal.ZERO;
+        private List<Waiter> waiters = new ArrayList<>();
+        private int pendingCount;
+        //已经发送还未返回的增量
+        private BigDecimal inflight = BigDecimal.ZERO;
+        //最近一次合并命令返回的值，未知时为null
+        private BigDecimal base;
+        private int idleWindows;
+        private boolean removed;
+
+        Counter(CounterKey counterKey) {
+            this.counterKey = counterKey;
+        }
+
+        synchronized CompletableFuture<Reply> add(BigDecimal delta) {
+            if (removed) return REMOVED;
+            BigDecimal sum = pending.add(delta);
+            if (!counterKey.floating) {
+                //合并命令的增量，以及已知的值加上所有未生效的增量，都不能超出long的范围，否则不合并，由redis对这条命令单独判断
+                if (overflow(sum) || overflow(inflight.add(sum))) {
+                    return null;
+                }
+                if (base != null && overflow(base.add(inflight).add(sum))) {
+                    return null;
+                }
+            }
+            pending = sum;
+            pendingCount ++;
+            idleWindows = 0;
+            if (consistency == CamelliaTranspondProperties.RedisConfProperties.CounterConsistency.LOCAL_ESTIMATE && base != null) {
+                return CompletableFuture.completedFuture(toReply(base.add(inflight).add(pending)));
+            }
+            CompletableFuture<Reply> future = new CompletableFuture<>();
+            waiters.add(new Waiter(future, delta));
+            return future;
+        }
+
+        synchronized Batch drain() {
+            if (pendingCount == 0) return null;
+            Batch batch = new Batch(buildCommand(pending), pending, waiters);
+            inflight = inflight.add(pending);
+            pending = BigDecimal.ZERO;
+            pendingCount = 0;
+            waiters = new ArrayList<>();
+            return batch;
+        }
+
+        synchronized boolean tryRemove() {
+            if (inflight.signum() != 0 || ++ idleWindows < maxIdleWindows) return false;
+            removed = true;
+            return true;
+        }
+
+        void complete(Batch batch, Reply reply) {
+            BigDecimal value = parseValue(reply);
+            synchronized (this) {
+                inflight = inflight.subtract(batch.delta);
+                //出错时丢弃已知的值，之后的命令等待下一次合并的结果
+                base = value;
+            }
+            if (value == null) {
+                ErrorLogCollector.collect(CounterCoalescer.class, "flush fail, reply = " + reply);
+            }
+            //按到达顺序倒推每条命令执行后的值
+            List<Waiter> waiters = batch.waiters;
+            BigDecimal current = value;
+            for (int i=waiters.size() - 1; i>=0; i--) {
+                Waiter waiter = waiters.get(i);
+                if (current == null) {
+                    waiter.future.complete(reply);
+                } else {
+                    waiter.future.complete(toReply(current));
+                    current = current.subtract(waiter.delta);
+                }
+            }
+        }
+
+        private static boolean overflow(BigDecimal value) {
+            return value.compareTo(longMin) < 0 || value.compareTo(longMax) > 0;
+        }
+
+        private Command buildCommand(BigDecimal delta) {
+            String deltaStr = counterKey.floating ? delta.toPlainString() : String.valueOf(delta.longValue());
+            RedisCommand redisCommand;
+            if (counterKey.field != null) {
+                redisCommand = counterKey.floating ? RedisCommand.HINCRBYFLOAT : RedisCommand.HINCRBY;
+                return new Command(new byte[][]{redisCommand.raw(), counterKey.key, counterKey.field, SafeEncoder.encode(deltaStr)});
+            }
+            redisCommand = counterKey.floating ? RedisCommand.INCRBYFLOAT : RedisCommand.INCRBY;
+            return new Command(new byte[][]{redisCommand.raw(), counterKey.key, SafeEncoder.encode(deltaStr)});
+        }
+
+        private BigDecimal parseValue(Reply reply) {
+            try {
+                if (reply instanceof IntegerReply && ((IntegerReply) reply).getInteger() != null) {
+                    return BigDecimal.valueOf(((IntegerReply) reply).getInteger());
+                }
+                if (reply instanceof BulkReply && ((BulkReply) reply).getRaw() != null) {
+                    return new BigDecimal(SafeEncoder.encode(((BulkReply) reply).getRaw()));
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return null;
+        }
+
+        private Reply toReply(BigDecimal value) {
+            if (counterKey.floating) {
+                return new BulkReply(SafeEncoder.encode(value.stripTrailingZeros().toPlainString()));
+            }
+            return new IntegerReply(value.longValue());
+        }
+
+        private static class Batch {
+            private final Command command;
+            private final BigDecimal delta;
+            private final List<Waiter> waiters;
+
+            Batch(Command command, BigDecimal delta, List<Waiter> waiters) {
+                this.command = command;
+                this.delta = delta;
+                this.waiters = waiters;
+            }
+        }
+    }
+
+    private static class Waiter {
+        private final CompletableFuture<Reply> future;
+        private final BigDecimal delta;
+
+        Waiter(CompletableFuture<Reply> future, BigDecimal delta) {
+            this.future = future;
+            this.delta = delta;
+        }
+    }
+}
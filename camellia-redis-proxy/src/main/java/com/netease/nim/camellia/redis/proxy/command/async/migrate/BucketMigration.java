@@ -0,0 +1,216 @@
+package com.netease.nim.camellia.redis.proxy.command.async.migrate;
+
+import com.netease.nim.camellia.core.client.env.ShadingFunc;
+import com.netease.nim.camellia.core.util.MathUtil;
+import com.netease.nim.camellia.core.util.ShadingFuncUtil;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.util.RedisKey;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个bucket的迁移，迁移过程中：
+ * 1）写命令发往新资源，写之前会先把该key从旧资源迁移到新资源并从旧资源删除，之后该key只以新资源为准
+ * 2）读命令发往新资源，若未命中，则回退到旧资源读取（已迁移的key在旧资源上已被删除）
+ * 3）后台使用SCAN+DUMP/RESTORE拷贝该bucket的全部key，拷贝完成后进入双读阶段，双读阶段结束后切换分片表
+ */
+public class BucketMigration {
+
+    public static enum Status {
+        //后台拷贝中
+        COPYING,
+        //拷贝完成，读未命中仍回退到旧资源
+        DUAL_READ,
+        //分片表已经切换到新资源，迁移完成
+        CUT_OVER,
+        //迁移失败，分片表保持不变
+        FAILED,
+        ;
+    }
+
+    private final long bid;
+    private final String bgroup;
+    private final int bucket;
+    private final String fromUrl;
+    private final String toUrl;
+    private final ShadingFunc shadingFunc;
+    private final int bucketSize;
+    private final boolean bucketSizeIs2Power;
+
+    private volatile Status status = Status.COPYING;
+    private volatile String errorMsg;
+    private final long startTime = System.currentTimeMillis();
+    private volatile long copyEndTime;
+    private volatile long endTime;
+
+    private final AtomicLong scanKeys = new AtomicLong();
+    private final AtomicLong copyKeys = new AtomicLong();
+    private final AtomicLong copyBytes = new AtomicLong();
+    private final AtomicLong skipKeys = new AtomicLong();
+    private final AtomicLong failKeys = new AtomicLong();
+    private final AtomicLong fallbackReads = new AtomicLong();
+
+    //有命令正在执行的key，同一个key上的命令按顺序执行，key上的命令都完成后移除，因此大小只和在途命令数有关
+    final ConcurrentHashMap<RedisKey, KeyState> touchedKeys = new ConcurrentHashMap<>();
+
+    static class KeyState {
+        //该key上最后一个命令的future
+        final CompletableFuture<Reply> tail;
+        //该key是否已经从旧资源迁移（并从旧资源删除）
+        final boolean moved;
+
+        KeyState(CompletableFuture<Reply> tail, boolean moved) {
+            this.tail = tail;
+            this.moved = moved;
+        }
+    }
+
+    public BucketMigration(long bid, String bgroup, int bucket, String fromUrl, String toUrl, ShadingFunc shadingFunc, int bucketSize) {
+        this.bid = bid;
+        this.bgroup = bgroup;
+        this.bucket = bucket;
+        this.fromUrl = fromUrl;
+        this.toUrl = toUrl;
+        this.shadingFunc = shadingFunc;
+        this.bucketSize = bucketSize;
+        this.bucketSizeIs2Power = MathUtil.is2Power(bucketSize);
+    }
+
+    /**
+     * 迁移是否还在进行中
+     */
+    public boolean isActive() {
+        Status status = this.status;
+        return status == Status.COPYING || status == Status.DUAL_READ;
+    }
+
+    /**
+     * key是否属于正在迁移的bucket
+     */
+    public boolean contains(byte[] key) {
+        return ShadingFuncUtil.bucket(shadingFunc, bucketSizeIs2Power, bucketSize, key) == bucket;
+    }
+
+    /**
+     * key上是否有命令正在执行
+     */
+    public boolean isTouched(RedisKey key) {
+        return touchedKeys.containsKey(key);
+    }
+
+    void copyDone() {
+        this.copyEndTime = System.currentTimeMillis();
+        this.status = Status.DUAL_READ;
+    }
+
+    public void cutOver() {
+        this.endTime = System.currentTimeMillis();
+        this.status = Status.CUT_OVER;
+        touchedKeys.clear();
+    }
+
+    public void fail(String errorMsg) {
+        this.errorMsg = errorMsg;
+        this.endTime = System.currentTimeMillis();
+        this.status = Status.FAILED;
+        touchedKeys.clear();
+    }
+
+    void incrScanKeys(long count) {
+        scanKeys.addAndGet(count);
+    }
+
+    void incrCopyKeys(long bytes) {
+        copyKeys.incrementAndGet();
+        copyBytes.addAndGet(bytes);
+    }
+
+    void incrSkipKeys() {
+        skipKeys.incrementAndGet();
+    }
+
+    void incrFailKeys() {
+        failKeys.incrementAndGet();
+    }
+
+    public void incrFallbackReads() {
+        fallbackReads.incrementAndGet();
+    }
+
+    //拷贝速度，key/s
+    public double getCopyKeysPerSecond() {
+        long end = copyEndTime > 0 ? copyEndTime : System.currentTimeMillis();
+        long spend = Math.max(end - startTime, 1);
+        return copyKeys.get() * 1000.0 / spend;
+    }
+
+    public long getBid() {
+        return bid;
+    }
+
+    public String getBgroup() {
+        return bgroup;
+    }
+
+    public int getBucket() {
+        return bucket;
+    }
+
+    public String getFromUrl() {
+        return fromUrl;
+    }
+
+    public String getToUrl() {
+        return toUrl;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getErrorMsg() {
+        return errorMsg;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getCopyEndTime() {
+        return copyEndTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public long getScanKeys() {
+        return scanKeys.get();
+    }
+
+    public long getCopyKeys() {
+        return copyKeys.get();
+    }
+
+    public long getCopyBytes() {
+        return copyBytes.get();
+    }
+
+    public long getSkipKeys() {
+        return skipKeys.get();
+    }
+
+    public long getFailKeys() {
+        return failKeys.get();
+    }
+
+    public long getFallbackReads() {
+        return fallbackReads.get();
+    }
+
+    public int getTouchedKeys() {
+        return touchedKeys.size();
+    }
+}
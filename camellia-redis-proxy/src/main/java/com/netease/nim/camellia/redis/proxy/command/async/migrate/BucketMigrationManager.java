@@ -0,0 +1,51 @@
+package com.netease.nim.camellia.redis.proxy.command.async.migrate;
+
+import com.netease.nim.camellia.core.util.CamelliaThreadFactory;
+import com.netease.nim.camellia.redis.proxy.command.async.AsyncCamelliaRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 管理所有的bucket迁移任务，通过console触发
+ */
+public class BucketMigrationManager {
+
+    //只保留最近的若干个迁移任务的状态
+    private static final int maxHistory = 100;
+
+    private static final ConcurrentHashMap<String, AsyncCamelliaRedisTemplate> templateMap = new ConcurrentHashMap<>();
+    private static final List<BucketMigration> migrations = new ArrayList<>();
+    private static final ExecutorService exec = Executors.newCachedThreadPool(new CamelliaThreadFactory(BucketMigrator.class));
+
+    public static void register(long bid, String bgroup, AsyncCamelliaRedisTemplate template) {
+        templateMap.put(bid + "|" + bgroup, template);
+    }
+
+    public static BucketMigration start(long bid, String bgroup, int bucket, String toUrl,
+                                        int keysPerSecond, int scanCount, long dualReadMillis) {
+        AsyncCamelliaRedisTemplate template = templateMap.get(bid + "|" + bgroup);
+        if (template == null) {
+            throw new IllegalArgumentException("template not found, bid = " + bid + ", bgroup = " + bgroup);
+        }
+        BucketMigrationRouter router = template.startMigration(bucket, toUrl);
+        BucketMigration migration = router.getMigration();
+        synchronized (migrations) {
+            migrations.add(migration);
+            if (migrations.size() > maxHistory) {
+                migrations.remove(0);
+            }
+        }
+        exec.submit(new BucketMigrator(router, keysPerSecond, scanCount, dualReadMillis, template::cutOver));
+        return migration;
+    }
+
+    public static List<BucketMigration> getMigrations() {
+        synchronized (migrations) {
+            return new ArrayList<>(migrations);
+        }
+    }
+}
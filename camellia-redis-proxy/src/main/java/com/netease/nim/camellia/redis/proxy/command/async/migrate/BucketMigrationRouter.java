@@ -0,0 +1,257 @@
+package com.netease.nim.camellia.redis.proxy.command.async.migrate;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.command.async.AsyncClient;
+import com.netease.nim.camellia.redis.proxy.command.async.CommandFlusher;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.reply.BulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
+import com.netease.nim.camellia.redis.proxy.reply.IntegerReply;
+import com.netease.nim.camellia.redis.proxy.reply.MultiBulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.reply.StatusReply;
+import com.netease.nim.camellia.redis.proxy.util.ErrorLogCollector;
+import com.netease.nim.camellia.redis.proxy.util.RedisKey;
+import com.netease.nim.camellia.redis.proxy.util.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 迁移中的bucket的读写路由，see @BucketMigration
+ * 迁移相关的命令都带上模板的租户标识发送，和业务命令在同一个租户队列中，避免公平调度打乱同一个key上命令的顺序
+ */
+public class BucketMigrationRouter {
+
+    private final BucketMigration migration;
+    private final AsyncClient fromClient;
+    private final AsyncClient toClient;
+    private final String tenant;
+
+    public BucketMigrationRouter(BucketMigration migration, AsyncClient fromClient, AsyncClient toClient, String tenant) {
+        this.migration = migration;
+        this.fromClient = fromClient;
+        this.toClient = toClient;
+        this.tenant = tenant;
+    }
+
+    public BucketMigration getMigration() {
+        return migration;
+    }
+
+    /**
+     * key是否需要走迁移的路由
+     */
+    public boolean contains(byte[] key) {
+        return migration.isActive() && migration.contains(key);
+    }
+
+    public CompletableFuture<Reply> read(Command command, byte[] key, CommandFlusher commandFlusher) {
+        RedisKey redisKey = new RedisKey(key);
+        //读也排进该key的命令链中，之后的写要等读完成（包括回退到旧资源）之后才迁移该key
+        BucketMigration.KeyState newState = migration.touchedKeys.compute(redisKey, (k, state) -> {
+            CompletableFuture<Reply> tail;
+            if (state == null || state.tail.isDone()) {
+                tail = commandFlusher.sendCommand(toClient, command);
+            } else {
+                tail = state.tail.handle((r, e) -> null).thenCompose(v -> sendTo(command));
+            }
+            //已迁移的key只以新资源为准
+            boolean moved = state != null && state.moved;
+            if (!moved) {
+                tail = tail.thenCompose(reply -> fallbackIfMiss(command, key, reply));
+            }
+            return new BucketMigration.KeyState(tail, moved);
+        });
+        release(redisKey, newState);
+        return newState.tail;
+    }
+
+    public CompletableFuture<Reply> write(Command command, byte[] key, CommandFlusher commandFlusher) {
+        RedisKey redisKey = new RedisKey(key);
+        BucketMigration.KeyState newState = migration.touchedKeys.compute(redisKey, (k, state) -> {
+            CompletableFuture<Reply> tail;
+            if (state != null && state.moved) {
+                if (state.tail.isDone()) {
+                    tail = commandFlusher.sendCommand(toClient, command);
+                } else {
+                    tail = state.tail.handle((r, e) -> null).thenCompose(v -> sendTo(command));
+                }
+            } else {
+                //第一次写，先把该key从旧资源迁移过来并从旧资源删除，之后该key以新资源为准
+                CompletableFuture<Reply> move;
+                if (state == null) {
+                    move = moveKey(key, commandFlusher);
+                } else {
+                    move = state.tail.handle((r, e) -> null).thenCompose(v -> moveKey(key, null));
+                }
+                tail = move.handle((r, e) -> null).thenCompose(v -> sendTo(command));
+            }
+            return new BucketMigration.KeyState(tail, true);
+        });
+        release(redisKey, newState);
+        return newState.tail;
+    }
+
+    /**
+     * 后台拷贝前占住key，该key上后续的命令都排在拷贝之后执行
+     * key已经被写命令迁移则返回null；key上有读命令在执行时，拷贝需要等waitFor中的future完成之后再开始
+     */
+    CompletableFuture<Reply> lockForCopy(RedisKey key, List<CompletableFuture<?>> waitFor) {
+        CompletableFuture<Reply> future = new CompletableFuture<>();
+        BucketMigration.KeyState lockState = new BucketMigration.KeyState(future, false);
+        BucketMigration.KeyState newState = migration.touchedKeys.compute(key, (k, state) -> {
+            if (state == null) {
+                return lockState;
+            }
+            if (state.moved) {
+                return state;
+            }
+            if (!state.tail.isDone()) {
+                waitFor.add(state.tail.handle((r, e) -> null));
+            }
+            return lockState;
+        });
+        if (newState != lockState) {
+            return null;
+        }
+        release(key, lockState);
+        return future;
+    }
+
+    //key上最后一个命令完成后移除，不能在compute中注册回调（future可能已经完成，回调会在compute中同步执行）
+    private void release(RedisKey key, BucketMigration.KeyState state) {
+        if (state == null) return;
+        state.tail.whenComplete((r, e) -> migration.touchedKeys.remove(key, state));
+    }
+
+    private CompletableFuture<Reply> moveKey(byte[] key, CommandFlusher commandFlusher) {
+        Command dump = new Command(new byte[][]{RedisCommand.DUMP.raw(), key});
+        Command pttl = new Command(new byte[][]{RedisCommand.PTTL.raw(), key});
+        CompletableFuture<Reply> dumpFuture;
+        CompletableFuture<Reply> pttlFuture;
+        if (commandFlusher != null) {
+            dumpFuture = commandFlusher.sendCommand(fromClient, dump);
+            pttlFuture = commandFlusher.sendCommand(fromClient, pttl);
+        } else {
+            List<CompletableFuture<Reply>> futures = sendFrom(Arrays.asList(dump, pttl));
+            dumpFuture = futures.get(0);
+            pttlFuture = futures.get(1);
+        }
+        return dumpFuture.thenCombine(pttlFuture, (dumpReply, pttlReply) -> {
+            Command restore = restoreCommand(key, dumpReply, pttlReply);
+            if (restore == null) {
+                return CompletableFuture.<Reply>completedFuture(null);
+            }
+            return sendTo(restore).thenCompose(reply -> {
+                if (reply instanceof StatusReply || isBusyKey(reply)) {
+                    //新资源上已经有该key，删除旧资源上的，避免读回退和后台拷贝读到旧值
+                    return sendFrom(new Command(new byte[][]{RedisCommand.DEL.raw(), key}));
+                }
+                migration.incrFailKeys();
+                ErrorLogCollector.collect(BucketMigrationRouter.class, "move key error, reply = " + reply);
+                return CompletableFuture.completedFuture(reply);
+            });
+        }).thenCompose(future -> future);
+    }
+
+    //读未命中时回退到旧资源，旧资源上也未命中说明key不存在
+    //读排在该key之前的命令之后执行，之前的写已经迁移完成，之后的写还没有开始，因此回退时不需要再检查key的状态
+    private CompletableFuture<Reply> fallbackIfMiss(Command command, byte[] key, Reply reply) {
+        if (isZero(reply)) {
+            //0可能表示key不存在（如EXISTS/STRLEN），也可能是key存在但结果为0（如GETBIT/SISMEMBER），需要确认新资源上是否有该key
+            return sendTo(new Command(new byte[][]{RedisCommand.EXISTS.raw(), key})).thenCompose(exists -> {
+                if (isZero(exists)) {
+                    return fallback(command);
+                }
+                return CompletableFuture.completedFuture(reply);
+            });
+        }
+        if (!isMiss(reply)) {
+            return CompletableFuture.completedFuture(reply);
+        }
+        return fallback(command);
+    }
+
+    private CompletableFuture<Reply> fallback(Command command) {
+        migration.incrFallbackReads();
+        return sendFrom(command);
+    }
+
+    CompletableFuture<Reply> sendFrom(Command command) {
+        return send(fromClient, command);
+    }
+
+    CompletableFuture<Reply> sendTo(Command command) {
+        return send(toClient, command);
+    }
+
+    List<CompletableFuture<Reply>> sendFrom(List<Command> commands) {
+        return send(fromClient, commands);
+    }
+
+    List<CompletableFuture<Reply>> sendTo(List<Command> commands) {
+        return send(toClient, commands);
+    }
+
+    private CompletableFuture<Reply> send(AsyncClient client, Command command) {
+        CompletableFuture<Reply> future = new CompletableFuture<>();
+        client.sendCommand(Collections.singletonList(command), Collections.singletonList(future), tenant);
+        return future;
+    }
+
+    private List<CompletableFuture<Reply>> send(AsyncClient client, List<Command> commands) {
+        List<CompletableFuture<Reply>> futures = new ArrayList<>(commands.size());
+        for (int i = 0; i < commands.size(); i++) {
+            futures.add(new CompletableFuture<>());
+        }
+        client.sendCommand(commands, futures, tenant);
+        return futures;
+    }
+
+    /**
+     * 根据DUMP和PTTL的结果构造RESTORE命令，key不存在则返回null
+     * 不带REPLACE参数，新资源上已经存在的key以新资源为准
+     */
+    static Command restoreCommand(byte[] key, Reply dump, Reply pttl) {
+        if (!(dump instanceof BulkReply) || ((BulkReply) dump).getRaw() == null) {
+            return null;
+        }
+        if (!(pttl instanceof IntegerReply) || ((IntegerReply) pttl).getInteger() == null) {
+            return null;
+        }
+        long ttl = ((IntegerReply) pttl).getInteger();
+        if (ttl == -2) {
+            return null;
+        }
+        if (ttl < 0) {
+            ttl = 0;
+        }
+        return new Command(new byte[][]{RedisCommand.RESTORE.raw(), key, Utils.numToBytes(ttl, false), ((BulkReply) dump).getRaw()});
+    }
+
+    static boolean isBusyKey(Reply reply) {
+        return reply instanceof ErrorReply && ((ErrorReply) reply).getError().startsWith("BUSYKEY");
+    }
+
+    //读未命中，nil或者空的集合，或者ttl/pttl返回的-2；返回0的情况见fallbackIfMiss
+    static boolean isMiss(Reply reply) {
+        if (reply instanceof BulkReply) {
+            return ((BulkReply) reply).getRaw() == null;
+        } else if (reply instanceof MultiBulkReply) {
+            Reply[] replies = ((MultiBulkReply) reply).getReplies();
+            return replies == null || replies.length == 0;
+        } else if (reply instanceof IntegerReply) {
+            Long integer = ((IntegerReply) reply).getInteger();
+            return integer == null || integer == -2;
+        }
+        return false;
+    }
+
+    private static boolean isZero(Reply reply) {
+        return reply instanceof IntegerReply && Long.valueOf(0).equals(((IntegerReply) reply).getInteger());
+    }
+}
@@ -0,0 +1,170 @@
+package com.netease.nim.camellia.redis.proxy.command.async.migrate;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.command.async.AsyncUtils;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.reply.BulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.MultiBulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.reply.StatusReply;
+import com.netease.nim.camellia.redis.proxy.util.RedisKey;
+import com.netease.nim.camellia.redis.proxy.util.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * bucket迁移的后台拷贝任务，使用pipeline的SCAN+DUMP/RESTORE拷贝该bucket的key，并按keysPerSecond限速
+ * 拷贝期间占住对应的key，该key上的读写命令排在拷贝之后执行
+ */
+public class BucketMigrator implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(BucketMigrator.class);
+
+    private static final byte[] CURSOR_START = SafeEncoder.encode("0");
+    private static final byte[] COUNT = SafeEncoder.encode("COUNT");
+    private static final long timeoutMillis = 10000L;
+
+    private final BucketMigration migration;
+    private final BucketMigrationRouter router;
+    private final int keysPerSecond;
+    private final int scanCount;
+    private final long dualReadMillis;
+    private final Consumer<BucketMigration> cutOver;
+
+    private long matchKeys;
+    private long startNanos;
+
+    public BucketMigrator(BucketMigrationRouter router, int keysPerSecond, int scanCount, long dualReadMillis,
+                          Consumer<BucketMigration> cutOver) {
+        this.migration = router.getMigration();
+        this.router = router;
+        this.keysPerSecond = keysPerSecond;
+        this.scanCount = scanCount;
+        this.dualReadMillis = dualReadMillis;
+        this.cutOver = cutOver;
+    }
+
+    @Override
+    public void run() {
+        try {
+            startNanos = System.nanoTime();
+            byte[] cursor = CURSOR_START;
+            do {
+                if (!migration.isActive()) return;
+                Command scan = new Command(new byte[][]{RedisCommand.SCAN.raw(), cursor, COUNT, Utils.numToBytes(scanCount, false)});
+                Reply reply = get(router.sendFrom(scan));
+                if (!(reply instanceof MultiBulkReply) || ((MultiBulkReply) reply).getReplies().length != 2) {
+                    throw new IllegalStateException("scan error, reply = " + reply);
+                }
+                Reply[] replies = ((MultiBulkReply) reply).getReplies();
+                cursor = ((BulkReply) replies[0]).getRaw();
+                Reply[] keys = ((MultiBulkReply) replies[1]).getReplies();
+                migration.incrScanKeys(keys.length);
+                copy(keys);
+                throttle();
+            } while (!Arrays.equals(cursor, CURSOR_START));
+            if (migration.getFailKeys() > 0) {
+                //有key拷贝失败，不能切换分片表，否则这些key会丢失
+                logger.error("bucket migration copy fail, bid = {}, bgroup = {}, bucket = {}, failKeys = {}",
+                        migration.getBid(), migration.getBgroup(), migration.getBucket(), migration.getFailKeys());
+                migration.fail("copy fail keys = " + migration.getFailKeys());
+                return;
+            }
+            migration.copyDone();
+            logger.info("bucket migration copy done, bid = {}, bgroup = {}, bucket = {}, copyKeys = {}, skipKeys = {}, failKeys = {}",
+                    migration.getBid(), migration.getBgroup(), migration.getBucket(), migration.getCopyKeys(), migration.getSkipKeys(), migration.getFailKeys());
+            //双读阶段，等待拷贝过程中的在途请求完成
+            TimeUnit.MILLISECONDS.sleep(dualReadMillis);
+            if (migration.isActive()) {
+                cutOver.accept(migration);
+            }
+        } catch (Exception e) {
+            logger.error("bucket migration error, bid = {}, bgroup = {}, bucket = {}", migration.getBid(), migration.getBgroup(), migration.getBucket(), e);
+            migration.fail(e.toString());
+        }
+    }
+
+    private void copy(Reply[] keys) throws Exception {
+        List<byte[]> matched = new ArrayList<>();
+        List<CompletableFuture<Reply>> locks = new ArrayList<>();
+        List<CompletableFuture<?>> waitFor = new ArrayList<>();
+        for (Reply key : keys) {
+            byte[] raw = ((BulkReply) key).getRaw();
+            if (!migration.contains(raw)) continue;
+            //key已经被写命令迁移
+            CompletableFuture<Reply> lock = router.lockForCopy(new RedisKey(raw), waitFor);
+            if (lock == null) {
+                migration.incrSkipKeys();
+                continue;
+            }
+            matched.add(raw);
+            locks.add(lock);
+        }
+        if (matched.isEmpty()) return;
+        matchKeys += matched.size();
+        try {
+            //等key上在执行的读命令完成
+            if (!waitFor.isEmpty()) {
+                get(CompletableFuture.allOf(waitFor.toArray(new CompletableFuture<?>[0])));
+            }
+            List<Command> dumpCommands = new ArrayList<>(matched.size() * 2);
+            for (byte[] key : matched) {
+                dumpCommands.add(new Command(new byte[][]{RedisCommand.DUMP.raw(), key}));
+                dumpCommands.add(new Command(new byte[][]{RedisCommand.PTTL.raw(), key}));
+            }
+            List<Reply> dumpReplies = get(AsyncUtils.allOf(router.sendFrom(dumpCommands)));
+
+            List<Command> restoreCommands = new ArrayList<>();
+            List<Integer> payloadSizes = new ArrayList<>();
+            for (int i = 0; i < matched.size(); i++) {
+                Command restore = BucketMigrationRouter.restoreCommand(matched.get(i), dumpReplies.get(i * 2), dumpReplies.get(i * 2 + 1));
+                if (restore == null) {
+                    //key已经不存在，或者已经被写命令迁移
+                    migration.incrSkipKeys();
+                    continue;
+                }
+                restoreCommands.add(restore);
+                payloadSizes.add(restore.getObjects()[3].length);
+            }
+            if (restoreCommands.isEmpty()) return;
+            List<Reply> restoreReplies = get(AsyncUtils.allOf(router.sendTo(restoreCommands)));
+            for (int i = 0; i < restoreReplies.size(); i++) {
+                Reply reply = restoreReplies.get(i);
+                if (reply instanceof StatusReply) {
+                    migration.incrCopyKeys(payloadSizes.get(i));
+                } else if (BucketMigrationRouter.isBusyKey(reply)) {
+                    //新资源上已经有了，以新资源为准
+                    migration.incrSkipKeys();
+                } else {
+                    migration.incrFailKeys();
+                }
+            }
+        } finally {
+            //拷贝结束（包括失败和超时）后放开key，排在后面的命令继续执行
+            for (CompletableFuture<Reply> lock : locks) {
+                lock.complete(null);
+            }
+        }
+    }
+
+    private void throttle() throws InterruptedException {
+        if (keysPerSecond <= 0) return;
+        long expectMillis = matchKeys * 1000L / keysPerSecond;
+        long spendMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        if (expectMillis > spendMillis) {
+            TimeUnit.MILLISECONDS.sleep(expectMillis - spendMillis);
+        }
+    }
+
+    private static <T> T get(CompletableFuture<T> future) throws Exception {
+        return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+}
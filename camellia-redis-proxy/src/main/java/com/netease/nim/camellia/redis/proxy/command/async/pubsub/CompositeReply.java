@@ -0,0 +1,37 @@
+package com.netease.nim.camellia.redis.proxy.command.async.pubsub;
+
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 一个命令对应多个回复，如SUBSCRIBE多个channel时每个channel各回复一个确认
+ */
+public class CompositeReply implements Reply {
+
+    private final List<Reply> replies;
+
+    public CompositeReply(List<Reply> replies) {
+        this.replies = replies;
+    }
+
+    public List<Reply> getReplies() {
+        return replies;
+    }
+
+    @Override
+    public void write(ByteBuf byteBuf) throws IOException {
+        for (Reply reply : replies) {
+            reply.write(byteBuf);
+        }
+    }
+
+    @Override
+    public void writeResp3(ByteBuf byteBuf) throws IOException {
+        for (Reply reply : replies) {
+            reply.writeResp3(byteBuf);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.netease.nim.camellia.redis.proxy.command.async.pubsub;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 每个后端一个订阅连接，所有的客户端连接共用
+ */
+public class PubSubHub {
+
+    private static final ConcurrentHashMap<String, PubSubUpstream> upstreamMap = new ConcurrentHashMap<>();
+
+    public static PubSubUpstream get(String url) {
+        PubSubUpstream upstream = upstreamMap.get(url);
+        if (upstream == null) {
+            upstream = upstreamMap.computeIfAbsent(url, PubSubUpstream::new);
+        }
+        return upstream;
+    }
+}
@@ -0,0 +1,216 @@
+package com.netease.nim.camellia.redis.proxy.command.async.pubsub;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.command.async.AsyncCamelliaRedisTemplate;
+import com.netease.nim.camellia.redis.proxy.conf.Constants;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.netty.ChannelInfo;
+import com.netease.nim.camellia.redis.proxy.netty.MemoryBudget;
+import com.netease.nim.camellia.redis.proxy.reply.BulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
+import com.netease.nim.camellia.redis.proxy.reply.IntegerReply;
+import com.netease.nim.camellia.redis.proxy.reply.MultiBulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.PushReply;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.util.ErrorLogCollector;
+import com.netease.nim.camellia.redis.proxy.util.RedisKey;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个客户端连接的订阅状态，消息由PubSubUpstream推送过来后直接写给客户端
+ * 订阅的确认回复走AsyncTaskQueue，和前面的命令保持顺序，而消息是直接写的，因此订阅确认之前的消息可能先于确认到达客户端
+ * 还未写出的推送超过maxPendingBytes时断开该客户端连接
+ */
+public class PubSubSession {
+
+    public static long maxPendingBytes = Constants.Async.pubSubMaxPendingBytes;
+
+    private final ChannelInfo channelInfo;
+    private final Map<RedisKey, PubSubUpstream> channels = new LinkedHashMap<>();
+    private final Map<RedisKey, List<PubSubUpstream>> patterns = new LinkedHashMap<>();
+    //已经推送但还没有写到socket的字节数
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private volatile boolean overflow = false;
+
+    private PubSubSession(ChannelInfo channelInfo) {
+        this.channelInfo = channelInfo;
+    }
+
+    public static PubSubSession get(ChannelInfo channelInfo) {
+        synchronized (channelInfo) {
+            PubSubSession session = channelInfo.getPubSubSession();
+            if (session == null) {
+                session = new PubSubSession(channelInfo);
+                channelInfo.setPubSubSession(session);
+            }
+            return session;
+        }
+    }
+
+    public static boolean isPubSubCommand(RedisCommand redisCommand) {
+        return redisCommand == RedisCommand.SUBSCRIBE || redisCommand == RedisCommand.PSUBSCRIBE
+                || redisCommand == RedisCommand.UNSUBSCRIBE || redisCommand == RedisCommand.PUNSUBSCRIBE;
+    }
+
+    public Reply execute(RedisCommand redisCommand, Command command, AsyncCamelliaRedisTemplate template) {
+        byte[][] args = command.getObjects();
+        if ((redisCommand == RedisCommand.SUBSCRIBE || redisCommand == RedisCommand.PSUBSCRIBE) && args.length < 2) {
+            return new ErrorReply("ERR wrong number of arguments for '" + command.getName() + "' command");
+        }
+        switch (redisCommand) {
+            case SUBSCRIBE:
+                return subscribe(args, template);
+            case PSUBSCRIBE:
+                return psubscribe(args, template);
+            case UNSUBSCRIBE:
+                return unsubscribe(args);
+            case PUNSUBSCRIBE:
+                return punsubscribe(args);
+            default:
+                return ErrorReply.NOT_SUPPORT;
+        }
+    }
+
+    private synchronized Reply subscribe(byte[][] args, AsyncCamelliaRedisTemplate template) {
+        List<Reply> replies = new ArrayList<>(args.length - 1);
+        for (int i = 1; i < args.length; i++) {
+            RedisKey channel = new RedisKey(args[i]);
+            if (!channels.containsKey(channel)) {
+                //分片表按channel的hash选择后端，和PUBLISH的路由一致
+                PubSubUpstream upstream = PubSubHub.get(template.pubSubUrl(args[i]));
+                channels.put(channel, upstream);
+                upstream.subscribe(this, args[i]);
+            }
+            replies.add(confirm("subscribe", args[i]));
+        }
+        return new CompositeReply(replies);
+    }
+
+    private synchronized Reply psubscribe(byte[][] args, AsyncCamelliaRedisTemplate template) {
+        List<Reply> replies = new ArrayList<>(args.length - 1);
+        for (int i = 1; i < args.length; i++) {
+            RedisKey pattern = new RedisKey(args[i]);
+            if (!patterns.containsKey(pattern)) {
+                //pattern可能匹配任意分片上的channel，需要在所有后端上订阅
+                List<PubSubUpstream> upstreams = new ArrayList<>();
+                for (String url : template.pubSubUrls()) {
+                    PubSubUpstream upstream = PubSubHub.get(url);
+                    upstreams.add(upstream);
+                    upstream.psubscribe(this, args[i]);
+                }
+                patterns.put(pattern, upstreams);
+            }
+            replies.add(confirm("psubscribe", args[i]));
+        }
+        return new CompositeReply(replies);
+    }
+
+    private synchronized Reply unsubscribe(byte[][] args) {
+        List<byte[]> targets = targets(args, channels);
+        if (targets.isEmpty()) {
+            return confirm("unsubscribe", null);
+        }
+        List<Reply> replies = new ArrayList<>(targets.size());
+        for (byte[] channel : targets) {
+            PubSubUpstream upstream = channels.remove(new RedisKey(channel));
+            if (upstream != null) {
+                upstream.unsubscribe(this, channel);
+            }
+            replies.add(confirm("unsubscribe", channel));
+        }
+        return new CompositeReply(replies);
+    }
+
+    private synchronized Reply punsubscribe(byte[][] args) {
+        List<byte[]> targets = targets(args, patterns);
+        if (targets.isEmpty()) {
+            return confirm("punsubscribe", null);
+        }
+        List<Reply> replies = new ArrayList<>(targets.size());
+        for (byte[] pattern : targets) {
+            List<PubSubUpstream> upstreams = patterns.remove(new RedisKey(pattern));
+            if (upstreams != null) {
+                for (PubSubUpstream upstream : upstreams) {
+                    upstream.punsubscribe(this, pattern);
+                }
+            }
+            replies.add(confirm("punsubscribe", pattern));
+        }
+        return new CompositeReply(replies);
+    }
+
+    /**
+     * 客户端连接断开时退订所有channel/pattern
+     */
+    public synchronized void close() {
+        for (Map.Entry<RedisKey, PubSubUpstream> entry : channels.entrySet()) {
+            entry.getValue().unsubscribe(this, entry.getKey().getKey());
+        }
+        channels.clear();
+        for (Map.Entry<RedisKey, List<PubSubUpstream>> entry : patterns.entrySet()) {
+            for (PubSubUpstream upstream : entry.getValue()) {
+                upstream.punsubscribe(this, entry.getKey().getKey());
+            }
+        }
+        patterns.clear();
+    }
+
+    void push(Reply reply) {
+        ChannelHandlerContext ctx = channelInfo.getCtx();
+        long bytes = MemoryBudget.sizeOf(reply);
+        long pending = pendingBytes.addAndGet(bytes);
+        if (maxPendingBytes > 0 && pending > maxPendingBytes) {
+            //订阅者消费太慢，和redis的client-output-buffer-limit pubsub一样直接断开，避免推送在proxy内无限积压
+            pendingBytes.addAndGet(-bytes);
+            if (!overflow) {
+                overflow = true;
+                ErrorLogCollector.collect(PubSubSession.class, "pub/sub subscriber pending bytes exceed limit, close, consid = "
+                        + channelInfo.getConsid() + ", pendingBytes = " + pending + ", writable = " + ctx.channel().isWritable());
+                ctx.close();
+            }
+            return;
+        }
+        if (channelInfo.getProtocol() == ChannelInfo.RESP3 && reply instanceof MultiBulkReply) {
+            //RESP3下订阅的消息以push类型发送
+            reply = new PushReply(((MultiBulkReply) reply).getReplies());
+        }
+        //推送和命令的回包一样计入内存预算，写出之后归还
+        MemoryBudget.forceAcquire(bytes);
+        ChannelFuture future = ctx.writeAndFlush(reply);
+        MemoryBudget.releaseOnWrite(future, bytes);
+        future.addListener(f -> pendingBytes.addAndGet(-bytes));
+    }
+
+    //不带参数表示退订全部
+    private static List<byte[]> targets(byte[][] args, Map<RedisKey, ?> map) {
+        List<byte[]> targets = new ArrayList<>();
+        if (args.length > 1) {
+            for (int i = 1; i < args.length; i++) {
+                targets.add(args[i]);
+            }
+        } else {
+            for (RedisKey redisKey : map.keySet()) {
+                targets.add(redisKey.getKey());
+            }
+        }
+        return targets;
+    }
+
+    private Reply confirm(String type, byte[] target) {
+        Reply[] replies = new Reply[]{new BulkReply(SafeEncoder.encode(type)),
+                target == null ? BulkReply.NIL_REPLY : new BulkReply(target),
+                new IntegerReply((long) (channels.size() + patterns.size()))};
+        if (channelInfo.getProtocol() == ChannelInfo.RESP3) {
+            return new PushReply(replies);
+        }
+        return new MultiBulkReply(replies);
+    }
+}
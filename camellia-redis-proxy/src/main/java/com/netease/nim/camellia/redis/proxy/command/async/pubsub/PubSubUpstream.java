@@ -0,0 +1,285 @@
+package com.netease.nim.camellia.redis.proxy.command.async.pubsub;
+
+import com.netease.nim.camellia.core.model.Resource;
+import com.netease.nim.camellia.redis.proxy.conf.Constants;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.netty.ReplyDecoder;
+import com.netease.nim.camellia.redis.proxy.reply.BulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
+import com.netease.nim.camellia.redis.proxy.reply.MultiBulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.util.CommandsEncodeUtil;
+import com.netease.nim.camellia.redis.proxy.util.ErrorLogCollector;
+import com.netease.nim.camellia.redis.proxy.util.RedisKey;
+import com.netease.nim.camellia.redis.proxy.util.Utils;
+import com.netease.nim.camellia.redis.resource.RedisClusterResource;
+import com.netease.nim.camellia.redis.resource.RedisResource;
+import com.netease.nim.camellia.redis.resource.RedisResourceUtil;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个后端的订阅连接，该后端上所有被订阅的channel/pattern共用这一个连接
+ * 第一个本地订阅者触发SUBSCRIBE/PSUBSCRIBE，最后一个本地订阅者退订时触发UNSUBSCRIBE/PUNSUBSCRIBE
+ * 连接断开后自动重连，并重新订阅所有channel/pattern；redis-cluster的pub/sub消息会在集群内广播，连任意一个节点即可
+ * 连接空闲时发送PING，超过心跳间隔+超时时间没有收到任何数据则认为连接已经失效，关闭后重连
+ */
+public class PubSubUpstream {
+
+    private static final Logger logger = LoggerFactory.getLogger(PubSubUpstream.class);
+
+    private static final EventLoopGroup loopGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("redis-pubsub"));
+    private static final int connectTimeoutMillis = 2000;
+    private static final long maxReconnectDelayMillis = 10000;
+
+    public static int heartbeatIntervalSeconds = Constants.Async.heartbeatIntervalSeconds;
+    public static long heartbeatTimeoutMillis = Constants.Async.heartbeatTimeoutMillis;
+
+    private final String url;
+    private final List<String[]> nodes = new ArrayList<>();
+    private final String password;
+    private final Map<RedisKey, Set<PubSubSession>> channelMap = new HashMap<>();
+    private final Map<RedisKey, Set<PubSubSession>> patternMap = new HashMap<>();
+    private Channel channel;
+    private int nodeIndex = 0;
+    private long reconnectDelayMillis = 100;
+    private boolean connecting = false;
+
+    public PubSubUpstream(String url) {
+        this.url = url;
+        Resource resource = RedisResourceUtil.parseResourceByUrl(new Resource(url));
+        if (resource instanceof RedisResource) {
+            RedisResource redisResource = (RedisResource) resource;
+            nodes.add(new String[]{redisResource.getHost(), String.valueOf(redisResource.getPort())});
+            this.password = redisResource.getPassword();
+        } else if (resource instanceof RedisClusterResource) {
+            RedisClusterResource clusterResource = (RedisClusterResource) resource;
+            for (RedisClusterResource.Node node : clusterResource.getNodes()) {
+                nodes.add(new String[]{node.getHost(), String.valueOf(node.getPort())});
+            }
+            this.password = clusterResource.getPassword();
+        } else {
+            throw new IllegalArgumentException("not support resource for pub/sub, url = " + url);
+        }
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public synchronized void subscribe(PubSubSession session, byte[] channel) {
+        add(channelMap, RedisCommand.SUBSCRIBE, session, channel);
+    }
+
+    public synchronized void unsubscribe(PubSubSession session, byte[] channel) {
+        remove(channelMap, RedisCommand.UNSUBSCRIBE, session, channel);
+    }
+
+    public synchronized void psubscribe(PubSubSession session, byte[] pattern) {
+        add(patternMap, RedisCommand.PSUBSCRIBE, session, pattern);
+    }
+
+    public synchronized void punsubscribe(PubSubSession session, byte[] pattern) {
+        remove(patternMap, RedisCommand.PUNSUBSCRIBE, session, pattern);
+    }
+
+    public synchronized int channelCount() {
+        return channelMap.size();
+    }
+
+    public synchronized int patternCount() {
+        return patternMap.size();
+    }
+
+    private void add(Map<RedisKey, Set<PubSubSession>> map, RedisCommand command, PubSubSession session, byte[] key) {
+        RedisKey redisKey = new RedisKey(key);
+        Set<PubSubSession> sessions = map.get(redisKey);
+        if (sessions == null) {
+            sessions = new CopyOnWriteArraySet<>();
+            map.put(redisKey, sessions);
+            send(command.raw(), key);
+        }
+        sessions.add(session);
+    }
+
+    private void remove(Map<RedisKey, Set<PubSubSession>> map, RedisCommand command, PubSubSession session, byte[] key) {
+        RedisKey redisKey = new RedisKey(key);
+        Set<PubSubSession> sessions = map.get(redisKey);
+        if (sessions == null) return;
+        sessions.remove(session);
+        if (sessions.isEmpty()) {
+            map.remove(redisKey);
+            send(command.raw(), key);
+        }
+    }
+
+    private void send(byte[]... args) {
+        Channel channel = this.channel;
+        if (channel != null && channel.isActive()) {
+            channel.writeAndFlush(CommandsEncodeUtil.encode(channel.alloc(), args));
+        } else if (!channelMap.isEmpty() || !patternMap.isEmpty()) {
+            //未连接时只记录订阅关系，连接建立后统一订阅
+            connect();
+        }
+    }
+
+    private void connect() {
+        if (connecting) return;
+        connecting = true;
+        String[] node = nodes.get(nodeIndex % nodes.size());
+        Bootstrap bootstrap = new Bootstrap();
+        bootstrap.group(loopGroup)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) {
+                        ChannelPipeline pipeline = channel.pipeline();
+                        if (heartbeatIntervalSeconds > 0 && heartbeatTimeoutMillis > 0) {
+                            long intervalMillis = TimeUnit.SECONDS.toMillis(heartbeatIntervalSeconds);
+                            pipeline.addLast(new IdleStateHandler(intervalMillis + heartbeatTimeoutMillis, 0, intervalMillis, TimeUnit.MILLISECONDS));
+                        }
+                        pipeline.addLast(new ReplyDecoder());
+                        pipeline.addLast(new PushHandler());
+                    }
+                });
+        bootstrap.connect(node[0], Integer.parseInt(node[1])).addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess()) {
+                onConnected(future.channel());
+            } else {
+                ErrorLogCollector.collect(PubSubUpstream.class, "pub/sub upstream connect fail, url = " + url
+                        + ", node = " + node[0] + ":" + node[1]);
+                reconnect();
+            }
+        });
+    }
+
+    private synchronized void onConnected(Channel channel) {
+        logger.info("pub/sub upstream connect success, url = {}, remote = {}", url, channel.remoteAddress());
+        this.channel = channel;
+        this.connecting = false;
+        this.reconnectDelayMillis = 100;
+        channel.closeFuture().addListener(future -> onClosed(channel));
+        if (password != null) {
+            channel.write(CommandsEncodeUtil.encode(channel.alloc(), RedisCommand.AUTH.raw(), SafeEncoder.encode(password)));
+        }
+        //重连后重新订阅
+        resubscribe(channel, RedisCommand.SUBSCRIBE, channelMap);
+        resubscribe(channel, RedisCommand.PSUBSCRIBE, patternMap);
+        channel.flush();
+    }
+
+    private void resubscribe(Channel channel, RedisCommand command, Map<RedisKey, Set<PubSubSession>> map) {
+        if (map.isEmpty()) return;
+        byte[][] args = new byte[map.size() + 1][];
+        args[0] = command.raw();
+        int i = 1;
+        for (RedisKey redisKey : map.keySet()) {
+            args[i++] = redisKey.getKey();
+        }
+        channel.write(CommandsEncodeUtil.encode(channel.alloc(), args));
+    }
+
+    private synchronized void onClosed(Channel channel) {
+        if (this.channel != channel) return;
+        this.channel = null;
+        logger.warn("pub/sub upstream connect close, url = {}", url);
+        reconnect();
+    }
+
+    private synchronized void reconnect() {
+        connecting = false;
+        nodeIndex++;
+        if (channelMap.isEmpty() && patternMap.isEmpty()) {
+            //没有订阅者了，等下一次订阅时再连接
+            return;
+        }
+        long delay = reconnectDelayMillis;
+        reconnectDelayMillis = Math.min(reconnectDelayMillis * 2, maxReconnectDelayMillis);
+        loopGroup.schedule(() -> {
+            synchronized (PubSubUpstream.this) {
+                if (channel == null && (!channelMap.isEmpty() || !patternMap.isEmpty())) {
+                    connect();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void onPush(Reply reply) {
+        if (reply instanceof ErrorReply) {
+            ErrorLogCollector.collect(PubSubUpstream.class, "pub/sub upstream error, url = " + url
+                    + ", reply = " + ((ErrorReply) reply).getError());
+            return;
+        }
+        if (!(reply instanceof MultiBulkReply)) return;
+        Reply[] replies = ((MultiBulkReply) reply).getReplies();
+        if (replies == null || replies.length < 3 || !(replies[0] instanceof BulkReply)) return;
+        byte[] type = ((BulkReply) replies[0]).getRaw();
+        Set<PubSubSession> sessions;
+        if (Utils.checkStringIgnoreCase(type, "message")) {
+            synchronized (this) {
+                sessions = channelMap.get(new RedisKey(((BulkReply) replies[1]).getRaw()));
+            }
+        } else if (replies.length == 4 && Utils.checkStringIgnoreCase(type, "pmessage")) {
+            synchronized (this) {
+                sessions = patternMap.get(new RedisKey(((BulkReply) replies[1]).getRaw()));
+            }
+        } else {
+            //subscribe/unsubscribe等的确认，本地已经回复过了
+            return;
+        }
+        if (sessions == null) return;
+        for (PubSubSession session : sessions) {
+            session.push(reply);
+        }
+    }
+
+    private class PushHandler extends SimpleChannelInboundHandler<Reply> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, Reply reply) {
+            onPush(reply);
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent) {
+                IdleState state = ((IdleStateEvent) evt).state();
+                if (state == IdleState.READER_IDLE) {
+                    //订阅连接上收不到PING的回复，可能是半开连接，关闭后重连并重新订阅
+                    ErrorLogCollector.collect(PubSubUpstream.class, "pub/sub upstream heartbeat timeout, close, url = " + url);
+                    ctx.close();
+                } else if (state == IdleState.ALL_IDLE) {
+                    //订阅模式下redis也会回复PING（[pong, ""]），收到时按订阅确认忽略
+                    ctx.writeAndFlush(CommandsEncodeUtil.encode(ctx.alloc(), RedisCommand.PING.raw()));
+                }
+                return;
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ErrorLogCollector.collect(PubSubUpstream.class, "pub/sub upstream exception, url = " + url + ", cause = " + cause);
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.netease.nim.camellia.redis.proxy.command.async.route;
+
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * key通配符的前缀树，通配符中第一个*或?之前的部分作为前缀插入树中，剩余部分挂在前缀的末端节点上
+ * 匹配时沿着key逐字节下行，只检查经过的节点上挂着的通配符，纯前缀（xxx*）和精确匹配不需要再比较，因此开销和key的长度成正比
+ */
+public class KeyPatternTrie {
+
+    private static final int EXACT = 0;//没有通配符，key需要在该节点结束
+    private static final int PREFIX = 1;//前缀后面只有一个*
+    private static final int GLOB = 2;//前缀后面还有其他通配符
+
+    private final Node root = new Node();
+
+    /**
+     * 添加一个通配符，value为匹配时返回的值（规则的下标）
+     */
+    public void add(String pattern, int value) {
+        byte[] bytes = SafeEncoder.encode(pattern);
+        int prefixLen = 0;
+        while (prefixLen < bytes.length && bytes[prefixLen] != '*' && bytes[prefixLen] != '?') {
+            prefixLen ++;
+        }
+        Node node = root;
+        for (int i=0; i<prefixLen; i++) {
+            int b = bytes[i] & 0xff;
+            if (node.children == null) {
+                node.children = new Node[256];
+            }
+            if (node.children[b] == null) {
+                node.children[b] = new Node();
+            }
+            node = node.children[b];
+        }
+        Entry entry;
+        if (prefixLen == bytes.length) {
+            entry = new Entry(EXACT, null, value);
+        } else if (isAllStar(bytes, prefixLen)) {
+            entry = new Entry(PREFIX, null, value);
+        } else {
+            byte[] tail = new byte[bytes.length - prefixLen];
+            System.arraycopy(bytes, prefixLen, tail, 0, tail.length);
+            entry = new Entry(GLOB, tail, value);
+        }
+        node.entries.add(entry);
+    }
+
+    /**
+     * 返回匹配的通配符中最小的value，没有匹配返回-1
+     * @param filter 只考虑filter中为true的value，为null时不过滤
+     */
+    public int match(byte[] key, boolean[] filter) {
+        int min = -1;
+        Node node = root;
+        int depth = 0;
+        while (node != null) {
+            for (Entry entry : node.entries) {
+                if (min >= 0 && entry.value >= min) continue;
+                if (filter != null && !filter[entry.value]) continue;
+                if (entry.matches(key, depth)) {
+                    min = entry.value;
+                }
+            }
+            if (depth == key.length || node.children == null) {
+                break;
+            }
+            node = node.children[key[depth] & 0xff];
+            depth ++;
+        }
+        return min;
+    }
+
+    private static boolean isAllStar(byte[] bytes, int from) {
+        for (int i=from; i<bytes.length; i++) {
+            if (bytes[i] != '*') return false;
+        }
+        return true;
+    }
+
+    private static class Node {
+        private Node[] children;
+        private final List<Entry> entries = new ArrayList<>(1);
+    }
+
+    private static class Entry {
+        private final int type;
+        private final byte[] tail;
+        private final int value;
+
+        Entry(int type, byte[] tail, int value) {
+            this.type = type;
+            this.tail = tail;
+            this.value = value;
+        }
+
+        boolean matches(byte[] key, int offset) {
+            switch (type) {
+                case EXACT:
+                    return offset == key.length;
+                case PREFIX:
+                    return true;
+                default:
+                    return glob(tail, key, offset);
+            }
+        }
+    }
+
+    //只支持*和?的通配符匹配，*失配时回退到上一个*的位置，不使用正则
+    private static boolean glob(byte[] pattern, byte[] key, int offset) {
+        int p = 0;
+        int k = offset;
+        int starP = -1;
+        int starK = -1;
+        while (k < key.length) {
+            if (p < pattern.length && (pattern[p] == '?' || (pattern[p] != '*' && pattern[p] == key[k]))) {
+                p ++;
+                k ++;
+            } else if (p < pattern.length && pattern[p] == '*') {
+                starP = p ++;
+                starK = k;
+            } else if (starP >= 0) {
+                p = starP + 1;
+                k = ++ starK;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length && pattern[p] == '*') {
+            p ++;
+        }
+        return p == pattern.length;
+    }
+}
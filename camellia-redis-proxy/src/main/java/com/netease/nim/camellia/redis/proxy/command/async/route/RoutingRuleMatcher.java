@@ -0,0 +1,149 @@
+package com.netease.nim.camellia.redis.proxy.command.async.route;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.command.async.scatter.ScatterGatherCommand;
+import com.netease.nim.camellia.redis.proxy.conf.CamelliaTranspondProperties;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 路由规则的匹配，规则按配置顺序编号，返回第一个匹配的规则的下标
+ * 命令的匹配预先展开为每个命令可以命中的规则，key的匹配走KeyPatternTrie，热路径上没有正则
+ * 多key命令的所有key需要命中同一个规则，否则返回CROSS_RULE
+ */
+public class RoutingRuleMatcher {
+
+    public static final int NO_MATCH = -1;
+    public static final int CROSS_RULE = -2;
+
+    public static final ErrorReply CROSS_RULE_ERROR = new ErrorReply("CROSSSLOT Keys in request don't match the same routing rule");
+
+    private static final int commandSize = RedisCommand.values().length;
+
+    private final KeyPatternTrie trie = new KeyPatternTrie();
+    //命令的下标 -> 该命令可以命中的带key通配符的规则
+    private final boolean[][] keyRuleFilter = new boolean[commandSize][];
+    //命令的下标 -> 只按命令匹配的规则中第一个可以命中的
+    private final int[] commandRule = new int[commandSize];
+
+    public RoutingRuleMatcher(List<CamelliaTranspondProperties.LocalProperties.RoutingRule> rules) {
+        Arrays.fill(commandRule, NO_MATCH);
+        for (int i=0; i<rules.size(); i++) {
+            CamelliaTranspondProperties.LocalProperties.RoutingRule rule = rules.get(i);
+            boolean hasKeyPattern = rule.getKeyPatterns() != null && !rule.getKeyPatterns().isEmpty();
+            boolean hasCommand = rule.getCommands() != null && !rule.getCommands().isEmpty();
+            if (!hasKeyPattern && !hasCommand) {
+                throw new IllegalArgumentException("routing rule need keyPatterns or commands, index = " + i);
+            }
+            boolean[] commands = new boolean[commandSize];
+            if (hasCommand) {
+                for (String name : rule.getCommands()) {
+                    mark(commands, name.trim());
+                }
+            } else {
+                Arrays.fill(commands, true);
+            }
+            if (hasKeyPattern) {
+                for (String pattern : rule.getKeyPatterns()) {
+                    trie.add(pattern, i);
+                }
+                for (int j=0; j<commandSize; j++) {
+                    if (!commands[j]) continue;
+                    if (keyRuleFilter[j] == null) {
+                        keyRuleFilter[j] = new boolean[rules.size()];
+                    }
+                    keyRuleFilter[j][i] = true;
+                }
+            } else {
+                for (int j=0; j<commandSize; j++) {
+                    if (commands[j] && commandRule[j] == NO_MATCH) {
+                        commandRule[j] = i;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 规则的下标，没有匹配返回NO_MATCH，多key命令的key命中了不同的规则返回CROSS_RULE
+     */
+    public int match(RedisCommand redisCommand, Command command) {
+        int ordinal = redisCommand.ordinal();
+        boolean[] filter = keyRuleFilter[ordinal];
+        int fallback = commandRule[ordinal];
+        if (filter == null) {
+            //该命令不会命中带key通配符的规则
+            return fallback;
+        }
+        byte[][] args = command.getObjects();
+        if (args.length < 2) {
+            return fallback;
+        }
+        int[] keyIndexes = keyIndexes(redisCommand, command);
+        if (keyIndexes == null) {
+            return match(args[1], filter, fallback);
+        }
+        int index = NO_MATCH;
+        for (int i=0; i<keyIndexes.length; i++) {
+            int ruleIndex = match(args[keyIndexes[i]], filter, fallback);
+            if (i == 0) {
+                index = ruleIndex;
+            } else if (ruleIndex != index) {
+                return CROSS_RULE;
+            }
+        }
+        return index;
+    }
+
+    private int match(byte[] key, boolean[] filter, int fallback) {
+        int index = trie.match(key, filter);
+        if (index == NO_MATCH) return fallback;
+        if (fallback == NO_MATCH) return index;
+        return Math.min(index, fallback);
+    }
+
+    //多key命令的所有key的下标，单key命令返回null
+    private static int[] keyIndexes(RedisCommand redisCommand, Command command) {
+        byte[][] args = command.getObjects();
+        switch (redisCommand) {
+            case MGET:
+            case DEL:
+            case EXISTS:
+                return args.length > 2 ? range(1, args.length, 1) : null;
+            case MSET:
+                return args.length > 3 ? range(1, args.length, 2) : null;
+            default:
+                ScatterGatherCommand scatterGatherCommand = ScatterGatherCommand.get(command);
+                if (scatterGatherCommand == null) return null;
+                return scatterGatherCommand.allKeyIndexes(args);
+        }
+    }
+
+    private static int[] range(int start, int end, int step) {
+        int[] indexes = new int[(end - start + step - 1) / step];
+        for (int i=0; i<indexes.length; i++) {
+            indexes[i] = start + i * step;
+        }
+        return indexes;
+    }
+
+    private static void mark(boolean[] commands, String name) {
+        if (name.equalsIgnoreCase("@read") || name.equalsIgnoreCase("@write")) {
+            RedisCommand.Type type = name.equalsIgnoreCase("@read") ? RedisCommand.Type.READ : RedisCommand.Type.WRITE;
+            for (RedisCommand redisCommand : RedisCommand.values()) {
+                if (redisCommand.getType() == type) {
+                    commands[redisCommand.ordinal()] = true;
+                }
+            }
+            return;
+        }
+        RedisCommand redisCommand = RedisCommand.getRedisCommand(name.toLowerCase());
+        if (redisCommand == null) {
+            throw new IllegalArgumentException("unknown command in routing rule, command = " + name);
+        }
+        commands[redisCommand.ordinal()] = true;
+    }
+}
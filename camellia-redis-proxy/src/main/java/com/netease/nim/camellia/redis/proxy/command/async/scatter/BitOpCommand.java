@@ -0,0 +1,110 @@
+package com.netease.nim.camellia.redis.proxy.command.async.scatter;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.enums.RedisKeyword;
+import com.netease.nim.camellia.redis.proxy.reply.BulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
+import com.netease.nim.camellia.redis.proxy.reply.IntegerReply;
+import com.netease.nim.camellia.redis.proxy.reply.MultiBulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.util.Utils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * BITOP AND|OR|XOR|NOT destkey key [key ...]
+ * 按分片MGET源key，proxy侧计算后在目标key所在分片上SET（结果为空时DEL）
+ */
+public class BitOpCommand extends ScatterGatherCommand {
+
+    public BitOpCommand() {
+        super(RedisCommand.BITOP);
+    }
+
+    @Override
+    protected int[] keyIndexes(byte[][] args) {
+        if (args.length < 4) {
+            return null;
+        }
+        RedisKeyword op = op(args);
+        if (op == RedisKeyword.NOT && args.length != 4) {
+            throw new IllegalArgumentException(Utils.syntaxError);
+        }
+        return range(3, args.length, 1);
+    }
+
+    @Override
+    protected int destKeyIndex(byte[][] args) {
+        return 2;
+    }
+
+    @Override
+    protected Command scatter(byte[][] args, List<Integer> keyIndexes) {
+        return subCommand(RedisCommand.MGET.raw(), args, keyIndexes);
+    }
+
+    @Override
+    protected CompletableFuture<Reply> gather(byte[][] args, List<List<Integer>> groups, List<Reply> replies, ShardSender sender) {
+        byte[][] values = new byte[args.length - 3][];
+        int maxLen = 0;
+        for (int i=0; i<groups.size(); i++) {
+            List<Integer> group = groups.get(i);
+            Reply[] subReplies = ((MultiBulkReply) replies.get(i)).getReplies();
+            for (int j=0; j<group.size(); j++) {
+                byte[] value = ((BulkReply) subReplies[j]).getRaw();
+                if (value == null) {
+                    value = new byte[0];
+                }
+                values[group.get(j) - 3] = value;
+                maxLen = Math.max(maxLen, value.length);
+            }
+        }
+        RedisKeyword op = op(args);
+        byte[] result = new byte[maxLen];
+        for (int i=0; i<maxLen; i++) {
+            int b = byteAt(values[0], i);
+            if (op == RedisKeyword.NOT) {
+                b = ~b;
+            }
+            for (int k=1; k<values.length; k++) {
+                int v = byteAt(values[k], i);
+                if (op == RedisKeyword.AND) {
+                    b &= v;
+                } else if (op == RedisKeyword.OR) {
+                    b |= v;
+                } else {
+                    b ^= v;
+                }
+            }
+            result[i] = (byte) b;
+        }
+        byte[] destKey = args[2];
+        ShardSender next = sender.next();
+        CompletableFuture<Reply> future;
+        if (maxLen == 0) {
+            future = next.send(destKey, new Command(new byte[][]{RedisCommand.DEL.raw(), destKey}));
+        } else {
+            future = next.send(destKey, new Command(new byte[][]{RedisCommand.SET.raw(), destKey, result}));
+        }
+        next.flush();
+        final long size = maxLen;
+        return future.thenApply(reply -> reply instanceof ErrorReply ? reply : new IntegerReply(size));
+    }
+
+    private static int byteAt(byte[] value, int index) {
+        return index < value.length ? value[index] : 0;
+    }
+
+    private static RedisKeyword op(byte[][] args) {
+        String op = Utils.bytesToString(args[1]);
+        if (op != null) {
+            if (op.equalsIgnoreCase(RedisKeyword.AND.name())) return RedisKeyword.AND;
+            if (op.equalsIgnoreCase(RedisKeyword.OR.name())) return RedisKeyword.OR;
+            if (op.equalsIgnoreCase(RedisKeyword.XOR.name())) return RedisKeyword.XOR;
+            if (op.equalsIgnoreCase(RedisKeyword.NOT.name())) return RedisKeyword.NOT;
+        }
+        throw new IllegalArgumentException(Utils.syntaxError);
+    }
+}
@@ -0,0 +1,28 @@
+package com.netease.nim.camellia.redis.proxy.command.async.scatter;
+
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.util.Utils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 返回key的个数的命令，如UNLINK/TOUCH，各个分片的返回求和
+ */
+public class KeysCountCommand extends ScatterGatherCommand {
+
+    public KeysCountCommand(RedisCommand redisCommand) {
+        super(redisCommand);
+    }
+
+    @Override
+    protected int[] keyIndexes(byte[][] args) {
+        return range(1, args.length, 1);
+    }
+
+    @Override
+    protected CompletableFuture<Reply> gather(byte[][] args, List<List<Integer>> groups, List<Reply> replies, ShardSender sender) {
+        return completed(Utils.mergeIntegerReply(replies));
+    }
+}
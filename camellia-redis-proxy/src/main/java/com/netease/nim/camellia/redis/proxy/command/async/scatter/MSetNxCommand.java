@@ -0,0 +1,64 @@
+package com.netease.nim.camellia.redis.proxy.command.async.scatter;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.command.async.AsyncUtils;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.reply.IntegerReply;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.reply.StatusReply;
+import com.netease.nim.camellia.redis.proxy.util.Utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 跨分片的MSETNX，先在各个分片上EXISTS，都不存在时再按分片MSET
+ * 注意跨分片时不是原子的，两步之间被其他客户端写入的key会被覆盖
+ */
+public class MSetNxCommand extends ScatterGatherCommand {
+
+    public MSetNxCommand() {
+        super(RedisCommand.MSETNX);
+    }
+
+    @Override
+    protected int[] keyIndexes(byte[][] args) {
+        if (args.length < 3 || (args.length - 1) % 2 != 0) {
+            return null;
+        }
+        return range(1, args.length, 2);
+    }
+
+    @Override
+    protected Command scatter(byte[][] args, List<Integer> keyIndexes) {
+        return subCommand(RedisCommand.EXISTS.raw(), args, keyIndexes);
+    }
+
+    @Override
+    protected CompletableFuture<Reply> gather(byte[][] args, List<List<Integer>> groups, List<Reply> replies, ShardSender sender) {
+        Reply exists = Utils.mergeIntegerReply(replies);
+        if (!(exists instanceof IntegerReply)) {
+            return completed(exists);
+        }
+        if (((IntegerReply) exists).getInteger() > 0) {
+            return completed(IntegerReply.REPLY_0);
+        }
+        ShardSender next = sender.next();
+        List<CompletableFuture<Reply>> futures = new ArrayList<>(groups.size());
+        for (List<Integer> group : groups) {
+            byte[][] subArgs = new byte[group.size() * 2 + 1][];
+            subArgs[0] = RedisCommand.MSET.raw();
+            for (int i=0; i<group.size(); i++) {
+                subArgs[i * 2 + 1] = args[group.get(i)];
+                subArgs[i * 2 + 2] = args[group.get(i) + 1];
+            }
+            futures.add(next.send(subArgs[1], new Command(subArgs)));
+        }
+        next.flush();
+        return AsyncUtils.allOf(futures).thenApply(msetReplies -> {
+            Reply reply = Utils.mergeStatusReply(msetReplies);
+            return reply == StatusReply.OK ? IntegerReply.REPLY_1 : reply;
+        });
+    }
+}
@@ -0,0 +1,216 @@
+package com.netease.nim.camellia.redis.proxy.command.async.scatter;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.command.async.AsyncUtils;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.util.ErrorLogCollector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 跨分片的多key命令的scatter-gather
+ * 每个命令声明key在参数中的位置、每个分片上投递的子命令、以及如何合并各个分片的返回
+ * 所有key都在同一个分片上时直接转发原命令，否则按分片并行投递子命令，再按分组顺序合并
+ */
+public abstract class ScatterGatherCommand {
+
+    public static final ErrorReply CROSS_SHARD = new ErrorReply("CROSSSLOT Keys in request don't hash to the same slot");
+
+    private static final Map<String, ScatterGatherCommand> commandMap = new HashMap<>();
+
+    static {
+        register(new KeysCountCommand(RedisCommand.UNLINK));
+        register(new KeysCountCommand(RedisCommand.TOUCH));
+        register(new MSetNxCommand());
+        register(new SetOperationCommand(RedisCommand.SUNION, SetOperationCommand.Op.UNION, false));
+        register(new SetOperationCommand(RedisCommand.SINTER, SetOperationCommand.Op.INTER, false));
+        register(new SetOperationCommand(RedisCommand.SDIFF, SetOperationCommand.Op.DIFF, false));
+        register(new SetOperationCommand(RedisCommand.SUNIONSTORE, SetOperationCommand.Op.UNION, true));
+        register(new SetOperationCommand(RedisCommand.SINTERSTORE, SetOperationCommand.Op.INTER, true));
+        register(new SetOperationCommand(RedisCommand.SDIFFSTORE, SetOperationCommand.Op.DIFF, true));
+        register(new ZSetOperationCommand(RedisCommand.ZUNIONSTORE, false));
+        register(new ZSetOperationCommand(RedisCommand.ZINTERSTORE, true));
+        register(new BitOpCommand());
+        register(new SingleShardCommand(RedisCommand.PFCOUNT, false));
+        register(new SingleShardCommand(RedisCommand.PFMERGE, true));
+    }
+
+    private static void register(ScatterGatherCommand command) {
+        commandMap.put(command.getRedisCommand().name().toLowerCase(), command);
+    }
+
+    /**
+     * 根据命令名获取，不需要scatter-gather的命令返回null
+     */
+    public static ScatterGatherCommand get(Command command) {
+        return commandMap.get(command.getName());
+    }
+
+    private final RedisCommand redisCommand;
+
+    protected ScatterGatherCommand(RedisCommand redisCommand) {
+        this.redisCommand = redisCommand;
+    }
+
+    public RedisCommand getRedisCommand() {
+        return redisCommand;
+    }
+
+    /**
+     * 需要scatter的key在参数中的下标，参数个数不对返回null，语法错误抛出IllegalArgumentException
+     * 有目标key的命令可以返回空数组（如PFMERGE destkey），此时只按目标key路由
+     */
+    protected abstract int[] keyIndexes(byte[][] args);
+
+    /**
+     * 目标key（如xxxSTORE命令）在参数中的下标，没有则返回-1，目标key不参与scatter
+     */
+    protected int destKeyIndex(byte[][] args) {
+        return -1;
+    }
+
+    /**
+     * 是否允许跨分片，不允许时只支持所有key都在同一个分片上
+     */
+    protected boolean crossShard() {
+        return true;
+    }
+
+    /**
+     * key的分组，同一个分组的key会放到一个子命令里，默认按分片分组
+     */
+    protected Object group(byte[][] args, int keyIndex, Object shard) {
+        return shard;
+    }
+
+    /**
+     * 一个分组的子命令，keyIndexes为该分组的key的下标，默认是只带该分组的key的原命令
+     */
+    protected Command scatter(byte[][] args, List<Integer> keyIndexes) {
+        return subCommand(args[0], args, keyIndexes);
+    }
+
+    /**
+     * 合并各个分组的返回，replies和groups一一对应，且都不是ErrorReply
+     * 默认不支持在proxy侧合并，返回CROSSSLOT，不允许跨分片的命令不会走到这里
+     */
+    protected CompletableFuture<Reply> gather(byte[][] args, List<List<Integer>> groups, List<Reply> replies, ShardSender sender) {
+        return completed(CROSS_SHARD);
+    }
+
+    /**
+     * 命令涉及的所有key的下标（包括目标key），参数错误返回null
+     */
+    public int[] allKeyIndexes(byte[][] args) {
+        int[] keyIndexes;
+        try {
+            keyIndexes = keyIndexes(args);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (keyIndexes == null) return null;
+        int destKeyIndex = destKeyIndex(args);
+        if (destKeyIndex < 0) return keyIndexes;
+        int[] indexes = new int[keyIndexes.length + 1];
+        indexes[0] = destKeyIndex;
+        System.arraycopy(keyIndexes, 0, indexes, 1, keyIndexes.length);
+        return indexes;
+    }
+
+    public CompletableFuture<Reply> execute(Command command, ShardSender sender) {
+        byte[][] args = command.getObjects();
+        int[] keyIndexes;
+        try {
+            keyIndexes = keyIndexes(args);
+        } catch (IllegalArgumentException e) {
+            return completed(ErrorReply.SYNTAX_ERROR);
+        }
+        int destKeyIndex = destKeyIndex(args);
+        if (keyIndexes == null || (keyIndexes.length == 0 && destKeyIndex < 0)) {
+            return completed(new ErrorReply("ERR wrong number of arguments for '" + command.getName() + "' command"));
+        }
+        byte[] routeKey = destKeyIndex >= 0 ? args[destKeyIndex] : args[keyIndexes[0]];
+        Object routeShard = sender.shard(routeKey);
+        Object[] shards = new Object[keyIndexes.length];
+        boolean singleShard = true;
+        for (int i=0; i<keyIndexes.length; i++) {
+            shards[i] = sender.shard(args[keyIndexes[i]]);
+            if (!shards[i].equals(routeShard)) {
+                singleShard = false;
+            }
+        }
+        if (singleShard) {
+            //所有key都在同一个分片上，直接转发
+            return sender.send(routeKey, command);
+        }
+        if (!crossShard()) {
+            return completed(CROSS_SHARD);
+        }
+        Map<Object, List<Integer>> groupMap = new LinkedHashMap<>();
+        for (int i=0; i<keyIndexes.length; i++) {
+            Object group = group(args, keyIndexes[i], shards[i]);
+            List<Integer> list = groupMap.get(group);
+            if (list == null) {
+                list = new ArrayList<>();
+                groupMap.put(group, list);
+            }
+            list.add(keyIndexes[i]);
+        }
+        List<List<Integer>> groups = new ArrayList<>(groupMap.values());
+        List<CompletableFuture<Reply>> futures = new ArrayList<>(groups.size());
+        for (List<Integer> group : groups) {
+            futures.add(sender.send(args[group.get(0)], scatter(args, group)));
+        }
+        CompletableFuture<Reply> future = new CompletableFuture<>();
+        AsyncUtils.allOf(futures).thenCompose(replies -> {
+            for (Reply reply : replies) {
+                if (reply instanceof ErrorReply) {
+                    return completed(reply);
+                }
+            }
+            return gather(args, groups, replies, sender);
+        }).whenComplete((reply, e) -> {
+            if (e != null) {
+                ErrorLogCollector.collect(ScatterGatherCommand.class, "scatter-gather error, command = " + command.getName() + ", e = " + e);
+                future.complete(ErrorReply.NOT_AVAILABLE);
+            } else {
+                future.complete(reply);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 下标从start开始，间隔step的key
+     */
+    protected static int[] range(int start, int end, int step) {
+        if (end <= start) return null;
+        int[] keyIndexes = new int[(end - start + step - 1) / step];
+        for (int i=0; i<keyIndexes.length; i++) {
+            keyIndexes[i] = start + i * step;
+        }
+        return keyIndexes;
+    }
+
+    protected static Command subCommand(byte[] name, byte[][] args, List<Integer> keyIndexes) {
+        byte[][] subArgs = new byte[keyIndexes.size() + 1][];
+        subArgs[0] = name;
+        for (int i=0; i<keyIndexes.size(); i++) {
+            subArgs[i + 1] = args[keyIndexes.get(i)];
+        }
+        return new Command(subArgs);
+    }
+
+    protected static CompletableFuture<Reply> completed(Reply reply) {
+        CompletableFuture<Reply> future = new CompletableFuture<>();
+        future.complete(reply);
+        return future;
+    }
+}
@@ -0,0 +1,155 @@
+package com.netease.nim.camellia.redis.proxy.command.async.scatter;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.command.async.AsyncUtils;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.reply.BulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
+import com.netease.nim.camellia.redis.proxy.reply.IntegerReply;
+import com.netease.nim.camellia.redis.proxy.reply.MultiBulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.util.RedisKey;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * SUNION/SINTER/SDIFF及对应的STORE命令
+ * 每个分片上先做一次同类的集合运算，proxy侧再合并；SDIFF的第一个key单独一组取SMEMBERS，其余key按分片取SUNION
+ * STORE命令算出结果后，在目标key所在分片上DEL+SADD，跨分片时不是原子的
+ */
+public class SetOperationCommand extends ScatterGatherCommand {
+
+    public static enum Op {
+        UNION,
+        INTER,
+        DIFF,
+        ;
+    }
+
+    private static final Object FIRST_KEY_GROUP = new Object();
+
+    private final Op op;
+    private final boolean store;
+
+    public SetOperationCommand(RedisCommand redisCommand, Op op, boolean store) {
+        super(redisCommand);
+        this.op = op;
+        this.store = store;
+    }
+
+    @Override
+    protected int[] keyIndexes(byte[][] args) {
+        return range(store ? 2 : 1, args.length, 1);
+    }
+
+    @Override
+    protected int destKeyIndex(byte[][] args) {
+        return store ? 1 : -1;
+    }
+
+    @Override
+    protected Object group(byte[][] args, int keyIndex, Object shard) {
+        if (op == Op.DIFF && keyIndex == firstKeyIndex()) {
+            return FIRST_KEY_GROUP;
+        }
+        return shard;
+    }
+
+    @Override
+    protected Command scatter(byte[][] args, List<Integer> keyIndexes) {
+        switch (op) {
+            case UNION:
+                return subCommand(RedisCommand.SUNION.raw(), args, keyIndexes);
+            case INTER:
+                return subCommand(RedisCommand.SINTER.raw(), args, keyIndexes);
+            case DIFF:
+                if (keyIndexes.get(0) == firstKeyIndex()) {
+                    return subCommand(RedisCommand.SMEMBERS.raw(), args, keyIndexes);
+                }
+                return subCommand(RedisCommand.SUNION.raw(), args, keyIndexes);
+            default:
+                throw new IllegalArgumentException("unknown op");
+        }
+    }
+
+    @Override
+    protected CompletableFuture<Reply> gather(byte[][] args, List<List<Integer>> groups, List<Reply> replies, ShardSender sender) {
+        Set<RedisKey> result = null;
+        if (op == Op.DIFF) {
+            for (int i=0; i<groups.size(); i++) {
+                if (groups.get(i).get(0) == firstKeyIndex()) {
+                    result = members(replies.get(i));
+                }
+            }
+            for (int i=0; i<groups.size(); i++) {
+                if (groups.get(i).get(0) != firstKeyIndex()) {
+                    result.removeAll(members(replies.get(i)));
+                }
+            }
+        } else {
+            for (Reply reply : replies) {
+                Set<RedisKey> members = members(reply);
+                if (result == null) {
+                    result = members;
+                } else if (op == Op.UNION) {
+                    result.addAll(members);
+                } else {
+                    result.retainAll(members);
+                }
+            }
+        }
+        if (!store) {
+            Reply[] ret = new Reply[result.size()];
+            int i = 0;
+            for (RedisKey member : result) {
+                ret[i++] = new BulkReply(member.getKey());
+            }
+            return completed(new MultiBulkReply(ret));
+        }
+        byte[] destKey = args[1];
+        ShardSender next = sender.next();
+        List<CompletableFuture<Reply>> futures = new ArrayList<>(2);
+        futures.add(next.send(destKey, new Command(new byte[][]{RedisCommand.DEL.raw(), destKey})));
+        if (!result.isEmpty()) {
+            byte[][] saddArgs = new byte[result.size() + 2][];
+            saddArgs[0] = RedisCommand.SADD.raw();
+            saddArgs[1] = destKey;
+            int i = 2;
+            for (RedisKey member : result) {
+                saddArgs[i++] = member.getKey();
+            }
+            futures.add(next.send(destKey, new Command(saddArgs)));
+        }
+        next.flush();
+        final long size = result.size();
+        return AsyncUtils.allOf(futures).thenApply(storeReplies -> {
+            for (Reply reply : storeReplies) {
+                if (reply instanceof ErrorReply) {
+                    return reply;
+                }
+            }
+            return new IntegerReply(size);
+        });
+    }
+
+    private int firstKeyIndex() {
+        return store ? 2 : 1;
+    }
+
+    private static Set<RedisKey> members(Reply reply) {
+        Set<RedisKey> members = new LinkedHashSet<>();
+        if (reply instanceof MultiBulkReply) {
+            Reply[] replies = ((MultiBulkReply) reply).getReplies();
+            if (replies != null) {
+                for (Reply member : replies) {
+                    members.add(new RedisKey(((BulkReply) member).getRaw()));
+                }
+            }
+        }
+        return members;
+    }
+}
@@ -0,0 +1,32 @@
+package com.netease.nim.camellia.redis.proxy.command.async.scatter;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * scatter-gather时按分片投递命令，由AsyncCamelliaRedisTemplate实现
+ */
+public interface ShardSender {
+
+    /**
+     * key所在的分片，落在同一个分片上的key返回同一个对象
+     */
+    Object shard(byte[] key);
+
+    /**
+     * 投递一个命令，按routeKey路由，命令中的所有key需要在同一个分片上
+     */
+    CompletableFuture<Reply> send(byte[] routeKey, Command command);
+
+    /**
+     * 发送之前投递的命令
+     */
+    void flush();
+
+    /**
+     * gather之后需要二次投递时，使用一个新的sender
+     */
+    ShardSender next();
+}
@@ -0,0 +1,35 @@
+package com.netease.nim.camellia.redis.proxy.command.async.scatter;
+
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+
+/**
+ * 结果无法在proxy侧合并的命令，如PFCOUNT/PFMERGE，只支持所有key在同一个分片上（可以使用hashtag）
+ */
+public class SingleShardCommand extends ScatterGatherCommand {
+
+    private final boolean withDestKey;
+
+    public SingleShardCommand(RedisCommand redisCommand, boolean withDestKey) {
+        super(redisCommand);
+        this.withDestKey = withDestKey;
+    }
+
+    @Override
+    protected int[] keyIndexes(byte[][] args) {
+        if (withDestKey && args.length == 2) {
+            //PFMERGE destkey，没有源key
+            return new int[0];
+        }
+        return range(withDestKey ? 2 : 1, args.length, 1);
+    }
+
+    @Override
+    protected int destKeyIndex(byte[][] args) {
+        return withDestKey ? 1 : -1;
+    }
+
+    @Override
+    protected boolean crossShard() {
+        return false;
+    }
+}
@@ -0,0 +1,218 @@
+package com.netease.nim.camellia.redis.proxy.command.async.scatter;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.command.async.AsyncUtils;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.enums.RedisKeyword;
+import com.netease.nim.camellia.redis.proxy.reply.BulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
+import com.netease.nim.camellia.redis.proxy.reply.IntegerReply;
+import com.netease.nim.camellia.redis.proxy.reply.MultiBulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.util.RedisKey;
+import com.netease.nim.camellia.redis.proxy.util.Utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * ZUNIONSTORE/ZINTERSTORE，支持WEIGHTS和AGGREGATE
+ * 每个key单独一组取ZRANGE 0 -1 WITHSCORES，proxy侧计算后在目标key所在分片上DEL+ZADD，跨分片时不是原子的
+ * 源key只支持zset（不支持把set当作分数为1的zset）
+ */
+public class ZSetOperationCommand extends ScatterGatherCommand {
+
+    private static final byte[] ZERO = Utils.numToBytes(0, false);
+    private static final byte[] NEG_ONE = Utils.numToBytes(-1, false);
+    private static final byte[] WITHSCORES = RedisKeyword.WITHSCORES.name().getBytes(Utils.utf8Charset);
+
+    private static enum Aggregate {
+        SUM,
+        MIN,
+        MAX,
+        ;
+    }
+
+    private final boolean inter;
+
+    public ZSetOperationCommand(RedisCommand redisCommand, boolean inter) {
+        super(redisCommand);
+        this.inter = inter;
+    }
+
+    @Override
+    protected int[] keyIndexes(byte[][] args) {
+        if (args.length < 4) {
+            return null;
+        }
+        long numKeys = Utils.bytesToNum(args[2]);
+        if (numKeys <= 0 || 3 + numKeys > args.length) {
+            throw new IllegalArgumentException(Utils.syntaxError);
+        }
+        //校验一下WEIGHTS和AGGREGATE
+        weights(args, (int) numKeys);
+        aggregate(args, (int) numKeys);
+        return range(3, 3 + (int) numKeys, 1);
+    }
+
+    @Override
+    protected int destKeyIndex(byte[][] args) {
+        return 1;
+    }
+
+    @Override
+    protected Object group(byte[][] args, int keyIndex, Object shard) {
+        return keyIndex;
+    }
+
+    @Override
+    protected Command scatter(byte[][] args, List<Integer> keyIndexes) {
+        return new Command(new byte[][]{RedisCommand.ZRANGE.raw(), args[keyIndexes.get(0)], ZERO, NEG_ONE, WITHSCORES});
+    }
+
+    @Override
+    protected CompletableFuture<Reply> gather(byte[][] args, List<List<Integer>> groups, List<Reply> replies, ShardSender sender) {
+        int numKeys = groups.size();
+        double[] weights = weights(args, numKeys);
+        Aggregate aggregate = aggregate(args, numKeys);
+        Map<RedisKey, Double> result = new LinkedHashMap<>();
+        Map<RedisKey, Integer> counts = new HashMap<>();
+        for (int i=0; i<numKeys; i++) {
+            Reply[] elements = ((MultiBulkReply) replies.get(i)).getReplies();
+            if (elements == null) continue;
+            for (int j=0; j+1<elements.length; j+=2) {
+                RedisKey member = new RedisKey(((BulkReply) elements[j]).getRaw());
+                double score = parseScore(((BulkReply) elements[j + 1]).getRaw()) * weights[i];
+                if (Double.isNaN(score)) {
+                    score = 0;
+                }
+                Double old = result.get(member);
+                if (old == null) {
+                    result.put(member, score);
+                    counts.put(member, 1);
+                } else {
+                    result.put(member, aggregate(aggregate, old, score));
+                    counts.put(member, counts.get(member) + 1);
+                }
+            }
+        }
+        if (inter) {
+            List<RedisKey> missing = new ArrayList<>();
+            for (Map.Entry<RedisKey, Integer> entry : counts.entrySet()) {
+                if (entry.getValue() < numKeys) {
+                    missing.add(entry.getKey());
+                }
+            }
+            for (RedisKey member : missing) {
+                result.remove(member);
+            }
+        }
+        byte[] destKey = args[1];
+        ShardSender next = sender.next();
+        List<CompletableFuture<Reply>> futures = new ArrayList<>(2);
+        futures.add(next.send(destKey, new Command(new byte[][]{RedisCommand.DEL.raw(), destKey})));
+        if (!result.isEmpty()) {
+            byte[][] zaddArgs = new byte[result.size() * 2 + 2][];
+            zaddArgs[0] = RedisCommand.ZADD.raw();
+            zaddArgs[1] = destKey;
+            int i = 2;
+            for (Map.Entry<RedisKey, Double> entry : result.entrySet()) {
+                zaddArgs[i++] = formatScore(entry.getValue());
+                zaddArgs[i++] = entry.getKey().getKey();
+            }
+            futures.add(next.send(destKey, new Command(zaddArgs)));
+        }
+        next.flush();
+        final long size = result.size();
+        return AsyncUtils.allOf(futures).thenApply(storeReplies -> {
+            for (Reply reply : storeReplies) {
+                if (reply instanceof ErrorReply) {
+                    return reply;
+                }
+            }
+            return new IntegerReply(size);
+        });
+    }
+
+    private static double aggregate(Aggregate aggregate, double old, double score) {
+        switch (aggregate) {
+            case MIN:
+                return Math.min(old, score);
+            case MAX:
+                return Math.max(old, score);
+            default:
+                double sum = old + score;
+                //inf + -inf
+                return Double.isNaN(sum) ? 0 : sum;
+        }
+    }
+
+    private static double[] weights(byte[][] args, int numKeys) {
+        double[] weights = new double[numKeys];
+        for (int i=0; i<numKeys; i++) {
+            weights[i] = 1;
+        }
+        for (int i = 3 + numKeys; i < args.length; i++) {
+            if (Utils.checkStringIgnoreCase(args[i], RedisKeyword.WEIGHTS.name())) {
+                if (i + numKeys >= args.length) {
+                    throw new IllegalArgumentException(Utils.syntaxError);
+                }
+                for (int j=0; j<numKeys; j++) {
+                    weights[j] = parseScore(args[i + 1 + j]);
+                }
+                i += numKeys;
+            } else if (Utils.checkStringIgnoreCase(args[i], RedisKeyword.AGGREGATE.name())) {
+                i++;
+            } else {
+                throw new IllegalArgumentException(Utils.syntaxError);
+            }
+        }
+        return weights;
+    }
+
+    private static Aggregate aggregate(byte[][] args, int numKeys) {
+        Aggregate aggregate = Aggregate.SUM;
+        for (int i = 3 + numKeys; i < args.length; i++) {
+            if (Utils.checkStringIgnoreCase(args[i], RedisKeyword.WEIGHTS.name())) {
+                i += numKeys;
+            } else if (Utils.checkStringIgnoreCase(args[i], RedisKeyword.AGGREGATE.name())) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException(Utils.syntaxError);
+                }
+                try {
+                    aggregate = Aggregate.valueOf(Utils.bytesToString(args[i + 1]).toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(Utils.syntaxError);
+                }
+                i++;
+            }
+        }
+        return aggregate;
+    }
+
+    private static double parseScore(byte[] bytes) {
+        String score = Utils.bytesToString(bytes);
+        if (score == null) {
+            throw new IllegalArgumentException(Utils.syntaxError);
+        }
+        if (score.equalsIgnoreCase("inf") || score.equalsIgnoreCase("+inf")) {
+            return Double.POSITIVE_INFINITY;
+        } else if (score.equalsIgnoreCase("-inf")) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return Utils.bytesToDouble(bytes);
+    }
+
+    private static byte[] formatScore(double score) {
+        if (score == Double.POSITIVE_INFINITY) {
+            return "inf".getBytes(Utils.utf8Charset);
+        } else if (score == Double.NEGATIVE_INFINITY) {
+            return "-inf".getBytes(Utils.utf8Charset);
+        }
+        return Utils.doubleToBytes(score);
+    }
+}
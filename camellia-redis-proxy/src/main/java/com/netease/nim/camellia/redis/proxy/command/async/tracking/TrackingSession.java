@@ -0,0 +1,171 @@
+package com.netease.nim.camellia.redis.proxy.command.async.tracking;
+
+import com.netease.nim.camellia.redis.proxy.command.async.AsyncTask;
+import com.netease.nim.camellia.redis.proxy.command.async.AsyncTaskQueue;
+import com.netease.nim.camellia.redis.proxy.netty.ChannelInfo;
+import com.netease.nim.camellia.redis.proxy.reply.BulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
+import com.netease.nim.camellia.redis.proxy.reply.MultiBulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.PushReply;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.reply.StatusReply;
+import com.netease.nim.camellia.redis.proxy.util.Utils;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一个客户端连接的CLIENT TRACKING状态，只支持RESP3连接（失效通知以push的方式在同一个连接上发送）
+ * 失效通知走AsyncTaskQueue，排在该连接已经发出的命令的回包之后，从而不会出现先收到失效通知、后收到旧值的情况
+ */
+public class TrackingSession {
+
+    private static final byte[] INVALIDATE = SafeEncoder.encode("invalidate");
+
+    private final ChannelInfo channelInfo;
+    private final boolean bcast;
+    private final List<byte[]> prefixes;
+    private final boolean noloop;
+    private volatile boolean closed = false;
+
+    private TrackingSession(ChannelInfo channelInfo, boolean bcast, List<byte[]> prefixes, boolean noloop) {
+        this.channelInfo = channelInfo;
+        this.bcast = bcast;
+        this.prefixes = prefixes;
+        this.noloop = noloop;
+    }
+
+    /**
+     * CLIENT TRACKING ON|OFF [BCAST] [PREFIX prefix ...] [NOLOOP]
+     */
+    public static Reply tracking(ChannelInfo channelInfo, byte[][] objects) {
+        if (!TrackingTable.isSupport()) {
+            return ErrorReply.NOT_SUPPORT;
+        }
+        if (objects.length < 3) {
+            return ErrorReply.SYNTAX_ERROR;
+        }
+        boolean on;
+        if (Utils.checkStringIgnoreCase(objects[2], "on")) {
+            on = true;
+        } else if (Utils.checkStringIgnoreCase(objects[2], "off")) {
+            on = false;
+        } else {
+            return ErrorReply.SYNTAX_ERROR;
+        }
+        boolean bcast = false;
+        boolean noloop = false;
+        List<byte[]> prefixes = new ArrayList<>();
+        for (int i=3; i<objects.length; i++) {
+            if (Utils.checkStringIgnoreCase(objects[i], "bcast")) {
+                bcast = true;
+            } else if (Utils.checkStringIgnoreCase(objects[i], "noloop")) {
+                noloop = true;
+            } else if (Utils.checkStringIgnoreCase(objects[i], "prefix") && i + 1 < objects.length) {
+                prefixes.add(objects[++i]);
+            } else if (Utils.checkStringIgnoreCase(objects[i], "redirect")
+                    || Utils.checkStringIgnoreCase(objects[i], "optin") || Utils.checkStringIgnoreCase(objects[i], "optout")) {
+                //proxy上的连接id和后端无关，不支持转发到另一个连接，也不支持按命令选择是否跟踪
+                return new ErrorReply("ERR proxy not support client tracking option '" + Utils.bytesToString(objects[i]) + "'");
+            } else {
+                return ErrorReply.SYNTAX_ERROR;
+            }
+        }
+        if (!prefixes.isEmpty() && !bcast) {
+            return new ErrorReply("ERR PREFIX option requires BCAST mode to be enabled");
+        }
+        if (!on) {
+            disable(channelInfo);
+            return StatusReply.OK;
+        }
+        synchronized (channelInfo) {
+            TrackingSession old = channelInfo.getTrackingSession();
+            if (channelInfo.getProtocol() != ChannelInfo.RESP3) {
+                return new ErrorReply("ERR proxy client tracking requires RESP3, send HELLO 3 first");
+            }
+            if (old != null) {
+                old.close();
+            }
+            TrackingSession session = new TrackingSession(channelInfo, bcast,
+                    prefixes.isEmpty() ? Collections.emptyList() : prefixes, noloop);
+            TrackingTable.register(session);
+            channelInfo.setTrackingSession(session);
+            return StatusReply.OK;
+        }
+    }
+
+    /**
+     * 关闭连接的跟踪，如CLIENT TRACKING OFF或者通过HELLO 2切回RESP2
+     */
+    public static void disable(ChannelInfo channelInfo) {
+        synchronized (channelInfo) {
+            TrackingSession session = channelInfo.getTrackingSession();
+            if (session != null) {
+                session.close();
+                channelInfo.setTrackingSession(null);
+            }
+        }
+    }
+
+    public ChannelInfo getChannelInfo() {
+        return channelInfo;
+    }
+
+    public boolean isBcast() {
+        return bcast;
+    }
+
+    public boolean isNoloop() {
+        return noloop;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * BCAST模式下key是否匹配订阅的前缀，没有指定前缀则匹配所有key
+     */
+    boolean matchPrefix(byte[] key) {
+        if (prefixes.isEmpty()) return true;
+        for (byte[] prefix : prefixes) {
+            if (startsWith(key, prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void invalidate(List<byte[]> keys) {
+        if (closed) return;
+        Reply[] replies = new Reply[keys.size()];
+        for (int i=0; i<keys.size(); i++) {
+            replies[i] = new BulkReply(keys.get(i));
+        }
+        PushReply push = new PushReply(new Reply[]{new BulkReply(INVALIDATE), new MultiBulkReply(replies)});
+        AsyncTaskQueue taskQueue = channelInfo.getAsyncTaskQueue();
+        AsyncTask task = AsyncTask.newInstance(taskQueue);
+        if (taskQueue.add(task)) {
+            task.replyCompleted(push);
+        }
+    }
+
+    /**
+     * 关闭跟踪，跟踪表中残留的key在失效或者被淘汰时再清理
+     */
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        TrackingTable.unregister(this);
+    }
+
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        if (key.length < prefix.length) return false;
+        for (int i=0; i<prefix.length; i++) {
+            if (key[i] != prefix[i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,229 @@
+package com.netease.nim.camellia.redis.proxy.command.async.tracking;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.conf.Constants;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.netty.ChannelInfo;
+import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.util.RedisKey;
+import com.netease.nim.camellia.redis.proxy.util.Utils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * proxy侧的CLIENT TRACKING跟踪表，记录每个key被哪些连接读过，经过proxy的写命令返回后向这些连接推送失效通知
+ * 和redis一样，一个key失效通知过一次之后就从表中移除，直到再次被读；表的key数超过上限时淘汰任意key并推送失效通知
+ * 只有经过本proxy的写命令会触发失效，其他proxy或者直连redis的写入无法感知
+ */
+public class TrackingTable {
+
+    public static int maxKeys = Constants.Async.trackingTableMaxKeys;
+
+    private static volatile boolean support = false;
+
+    private static final ConcurrentHashMap<RedisKey, Set<TrackingSession>> table = new ConcurrentHashMap<>();
+    private static final Set<TrackingSession> bcastSessions = new CopyOnWriteArraySet<>();
+    private static final AtomicInteger sessionCount = new AtomicInteger();
+
+    /**
+     * 只有async模式下读写命令都经过AsyncCommandInvoker，由其开启
+     */
+    public static void setSupport(boolean support) {
+        TrackingTable.support = support;
+    }
+
+    public static boolean isSupport() {
+        return support;
+    }
+
+    /**
+     * 没有开启跟踪的连接时，读写命令不需要做任何处理
+     */
+    public static boolean isActive() {
+        return sessionCount.get() > 0;
+    }
+
+    public static int size() {
+        return table.size();
+    }
+
+    static void register(TrackingSession session) {
+        sessionCount.incrementAndGet();
+        if (session.isBcast()) {
+            bcastSessions.add(session);
+        }
+    }
+
+    static void unregister(TrackingSession session) {
+        sessionCount.decrementAndGet();
+        if (session.isBcast()) {
+            bcastSessions.remove(session);
+        }
+    }
+
+    /**
+     * 读命令转发给后端之前记录key，保证读到旧值之后的写入一定会触发失效通知
+     */
+    public static void track(ChannelInfo channelInfo, RedisCommand redisCommand, Command command) {
+        TrackingSession session = channelInfo.getTrackingSession();
+        if (session == null || session.isBcast() || session.isClosed()) return;
+        if (!isRead(redisCommand)) return;
+        List<byte[]> keys = keys(redisCommand, command.getObjects());
+        for (byte[] key : keys) {
+            table.compute(new RedisKey(key), (k, sessions) -> {
+                if (sessions == null) {
+                    sessions = new HashSet<>();
+                }
+                sessions.add(session);
+                return sessions;
+            });
+        }
+        if (!keys.isEmpty() && table.size() > maxKeys) {
+            evict();
+        }
+    }
+
+    /**
+     * 写命令返回之后，向读过这些key的连接以及匹配前缀的BCAST连接推送失效通知
+     */
+    public static void invalidate(ChannelInfo channelInfo, RedisCommand redisCommand, Command command, Reply reply) {
+        if (reply instanceof ErrorReply) return;
+        if (!isWrite(redisCommand)) return;
+        List<byte[]> keys = keys(redisCommand, command.getObjects());
+        if (keys.isEmpty()) return;
+        Map<TrackingSession, List<byte[]>> targets = new HashMap<>();
+        for (byte[] key : keys) {
+            Set<TrackingSession> sessions = table.remove(new RedisKey(key));
+            if (sessions != null) {
+                for (TrackingSession session : sessions) {
+                    addTarget(targets, session, channelInfo, key);
+                }
+            }
+            for (TrackingSession session : bcastSessions) {
+                if (session.matchPrefix(key)) {
+                    addTarget(targets, session, channelInfo, key);
+                }
+            }
+        }
+        for (Map.Entry<TrackingSession, List<byte[]>> entry : targets.entrySet()) {
+            entry.getKey().invalidate(entry.getValue());
+        }
+    }
+
+    public static boolean isWrite(RedisCommand redisCommand) {
+        if (redisCommand == null) return false;
+        //LTRIM/BITFIELD/SORT会修改数据，但在RedisCommand中被标记为READ
+        return redisCommand.getType() == RedisCommand.Type.WRITE || redisCommand == RedisCommand.LTRIM
+                || redisCommand == RedisCommand.BITFIELD || redisCommand == RedisCommand.SORT;
+    }
+
+    private static boolean isRead(RedisCommand redisCommand) {
+        return redisCommand != null && redisCommand.getType() == RedisCommand.Type.READ && !isWrite(redisCommand);
+    }
+
+    private static void addTarget(Map<TrackingSession, List<byte[]>> targets, TrackingSession session, ChannelInfo writer, byte[] key) {
+        if (session.isClosed()) return;
+        if (session.isNoloop() && session.getChannelInfo() == writer) return;
+        List<byte[]> list = targets.get(session);
+        if (list == null) {
+            list = new ArrayList<>();
+            targets.put(session, list);
+        }
+        list.add(key);
+    }
+
+    private static void evict() {
+        Iterator<RedisKey> iterator = table.keySet().iterator();
+        while (table.size() > maxKeys && iterator.hasNext()) {
+            RedisKey redisKey = iterator.next();
+            Set<TrackingSession> sessions = table.remove(redisKey);
+            if (sessions == null) continue;
+            List<byte[]> keys = Collections.singletonList(redisKey.getKey());
+            for (TrackingSession session : sessions) {
+                if (!session.isClosed()) {
+                    session.invalidate(keys);
+                }
+            }
+        }
+    }
+
+    /**
+     * 命令涉及的key，不涉及key的命令（如PING、SCAN、PUBLISH）返回空
+     */
+    static List<byte[]> keys(RedisCommand redisCommand, byte[][] args) {
+        if (args.length < 2) return Collections.emptyList();
+        switch (redisCommand) {
+            case PING:
+            case AUTH:
+            case QUIT:
+            case ECHO:
+            case CLIENT:
+            case SCAN:
+            case SCRIPT:
+            case PUBLISH:
+            case SUBSCRIBE:
+            case UNSUBSCRIBE:
+            case PSUBSCRIBE:
+            case PUNSUBSCRIBE:
+                return Collections.emptyList();
+            case MSET:
+            case MSETNX:
+                return range(args, 1, args.length, 2);
+            case MGET:
+            case DEL:
+            case EXISTS:
+            case UNLINK:
+            case TOUCH:
+            case SUNION:
+            case SINTER:
+            case SDIFF:
+            case SUNIONSTORE:
+            case SINTERSTORE:
+            case SDIFFSTORE:
+            case PFCOUNT:
+            case PFMERGE:
+                return range(args, 1, args.length, 1);
+            case BLPOP:
+            case BRPOP:
+            case BRPOPLPUSH:
+                //最后一个参数是超时时间
+                return range(args, 1, args.length - 1, 1);
+            case BITOP:
+                return range(args, 2, args.length, 1);
+            case ZUNIONSTORE:
+            case ZINTERSTORE:
+                //目标key + numkeys个key
+                List<byte[]> keys = new ArrayList<>(range(args, 3, Math.min(args.length, 3 + numKeys(args, 2)), 1));
+                keys.add(args[1]);
+                return keys;
+            case EVAL:
+            case EVALSHA:
+                return range(args, 3, Math.min(args.length, 3 + numKeys(args, 2)), 1);
+            default:
+                return Collections.singletonList(args[1]);
+        }
+    }
+
+    private static int numKeys(byte[][] args, int index) {
+        if (args.length <= index) return 0;
+        try {
+            long numKeys = Utils.bytesToNum(args[index]);
+            return (int) Math.max(0, Math.min(numKeys, args.length));
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    private static List<byte[]> range(byte[][] args, int start, int end, int step) {
+        if (end <= start) return Collections.emptyList();
+        List<byte[]> keys = new ArrayList<>((end - start + step - 1) / step);
+        for (int i=start; i<end; i+=step) {
+            keys.add(args[i]);
+        }
+        return keys;
+    }
+}
@@ -1,24 +1,30 @@
 package com.netease.nim.camellia.redis.proxy.command.sync;
 
+import com.netease.nim.camellia.core.util.CamelliaThreadFactory;
 import com.netease.nim.camellia.redis.proxy.command.Command;
 import com.netease.nim.camellia.redis.proxy.command.CommandInvoker;
-import com.netease.nim.camellia.redis.proxy.util.CommandInvokerUtil;
-import com.netease.nim.camellia.redis.proxy.util.CommandMethodUtil;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.util.CommandHandler;
+import com.netease.nim.camellia.redis.proxy.util.CommandHandlerUtil;
 import com.netease.nim.camellia.redis.proxy.util.ErrorHandlerUtil;
 import com.netease.nim.camellia.redis.proxy.util.ErrorLogCollector;
 import com.netease.nim.camellia.redis.proxy.conf.CamelliaTranspondProperties;
 import com.netease.nim.camellia.redis.proxy.netty.ChannelInfo;
+import com.netease.nim.camellia.redis.proxy.netty.MemoryBudget;
 import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
 import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
 
 /**
  *
@@ -28,25 +34,93 @@ public class SyncCommandInvoker implements CommandInvoker {
 
     private static final Logger logger = LoggerFactory.getLogger(SyncCommandInvoker.class);
 
-    private Map<String, Method> methodMap = new HashMap<>();
-    private Map<String, Method> pipelineMethodMap = new HashMap<>();
+    private Map<RedisCommand, CommandHandler> handlerMap = new EnumMap<>(RedisCommand.class);
+    private Map<RedisCommand, CommandHandler> pipelineHandlerMap = new EnumMap<>(RedisCommand.class);
     private SyncCommandProcessorChooser chooser;
+    private ExecutorService executor;
 
     public SyncCommandInvoker(CamelliaTranspondProperties transpondProperties) {
         this.chooser = new SyncCommandProcessorChooser(transpondProperties);
         init();
+        CamelliaTranspondProperties.RedisConfProperties redisConf = transpondProperties.getRedisConf();
+        this.executor = newExecutor(redisConf, redisConf.getSyncExecMode());
+    }
+
+    /**
+     * 命令是否会在netty的work线程中阻塞执行
+     */
+    public boolean isExecInWorkThread() {
+        return executor == null;
     }
 
     private void init() {
         Class<? extends ISyncCommandProcessor> clazz = ISyncCommandProcessor.class;
-        CommandMethodUtil.initCommandFinderMethods(clazz, methodMap);
+        CommandHandlerUtil.initCommandHandlers(clazz, handlerMap);
         Class<? extends ISyncCommandProcessorPipeline> pipelineClazz = ISyncCommandProcessorPipeline.class;
-        CommandMethodUtil.initCommandFinderMethods(pipelineClazz, pipelineMethodMap);
+        CommandHandlerUtil.initCommandHandlers(pipelineClazz, pipelineHandlerMap);
+    }
+
+    /**
+     * 根据执行方式创建执行命令的线程池，WORK_THREAD模式返回null
+     */
+    private static ExecutorService newExecutor(CamelliaTranspondProperties.RedisConfProperties redisConf,
+                                               CamelliaTranspondProperties.RedisConfProperties.SyncExecMode execMode) {
+        if (execMode == null || execMode == CamelliaTranspondProperties.RedisConfProperties.SyncExecMode.WORK_THREAD) {
+            logger.info("sync executor init, execMode = {}", CamelliaTranspondProperties.RedisConfProperties.SyncExecMode.WORK_THREAD);
+            return null;
+        }
+        if (execMode == CamelliaTranspondProperties.RedisConfProperties.SyncExecMode.VIRTUAL_THREAD) {
+            ExecutorService executor = newVirtualThreadExecutor();
+            if (executor != null) {
+                logger.info("sync executor init, execMode = {}", execMode);
+                return executor;
+            }
+            logger.warn("virtual thread not support in current runtime, fallback to {}", CamelliaTranspondProperties.RedisConfProperties.SyncExecMode.THREAD_POOL);
+        }
+        int poolSize = redisConf.getSyncExecPoolSize();
+        int queueSize = redisConf.getSyncExecQueueSize();
+        logger.info("sync executor init, execMode = {}, poolSize = {}, queueSize = {}",
+                CamelliaTranspondProperties.RedisConfProperties.SyncExecMode.THREAD_POOL, poolSize, queueSize);
+        return new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueSize), new CamelliaThreadFactory(SyncCommandInvoker.class), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    //编译目标是jdk8，因此通过反射使用虚拟线程，不支持时返回null
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClazz = Class.forName("java.lang.Thread$Builder");
+            builder = builderClazz.getMethod("name", String.class, long.class).invoke(builder, "camellia-sync-exec-", 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClazz.getMethod("factory").invoke(builder);
+            Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, threadFactory);
+        } catch (Throwable e) {
+            return null;
+        }
     }
 
     @Override
     public void invoke(ChannelHandlerContext ctx, ChannelInfo channelInfo, List<Command> commands) {
         if (commands.isEmpty()) return;
+        if (executor == null) {
+            execute(ctx, channelInfo, commands);
+            return;
+        }
+        long batchBytes = 0;
+        for (Command command : commands) {
+            batchBytes += MemoryBudget.estimate(command);
+        }
+        boolean success = channelInfo.getSyncTaskQueue().submit(executor, () -> {
+            if (!ctx.channel().isActive()) return;
+            execute(ctx, channelInfo, commands);
+        }, batchBytes);
+        if (!success) {
+            logger.warn("SyncCommandInvoker task queue or executor full, client connect will be disconnect, consid = {}", channelInfo.getConsid());
+            ctx.writeAndFlush(ErrorReply.TOO_BUSY).addListener((ChannelFutureListener) future -> ctx.close());
+        }
+    }
+
+    private void execute(ChannelHandlerContext ctx, ChannelInfo channelInfo, List<Command> commands) {
         if (logger.isDebugEnabled()) {
             List<String> commandNameList = new ArrayList<>(commands.size());
             for (Command command : commands) {
@@ -67,48 +141,44 @@ public class SyncCommandInvoker implements CommandInvoker {
         }
         if (commands.size() == 1) {
             Command command = commands.get(0);
-            try {
-                Method method = methodMap.get(command.getName());
-                if (method == null) {
-                    logger.warn("command not support, command = {}, consid = {}", command.getName(), channelInfo.getConsid());
-                    ctx.writeAndFlush(ErrorReply.NOT_SUPPORT);
-                    debugLog(ErrorReply.NOT_SUPPORT, channelInfo);
-                    return;
-                }
-                Class<?>[] parameterTypes = method.getParameterTypes();
-                Object[] parameters = new Object[parameterTypes.length];
-                command.fillParameters(parameterTypes, parameters);
-
-                Reply reply = (Reply) method.invoke(processor, parameters);
-                ctx.writeAndFlush(reply);
-                debugLog(reply, channelInfo);
-            } catch (Throwable e) {
-                Reply reply = handlerError(e, command.getName());
-                ctx.writeAndFlush(reply);
-                debugLog(reply, channelInfo);
+            long commandBytes = MemoryBudget.estimate(command);
+            if (!MemoryBudget.tryAcquire(commandBytes)) {
+                ctx.writeAndFlush(ErrorReply.MEMORY_LIMIT);
+                debugLog(ErrorReply.MEMORY_LIMIT, channelInfo);
+                return;
             }
+            Reply reply = invokeCommand(processor, channelInfo, command);
+            MemoryBudget.releaseOnWrite(ctx.writeAndFlush(reply), commandBytes);
+            debugLog(reply, channelInfo);
         } else {
             SyncCommandProcessorPipeline pipelined = processor.pipelined();
+            long acquiredBytes = 0;
             try {
                 List<PipelineResponse> list = new ArrayList<>(commands.size());
                 for (Command command : commands) {
+                    long commandBytes = MemoryBudget.estimate(command);
+                    if (!MemoryBudget.tryAcquire(commandBytes)) {
+                        list.add(new PipelineResponse(ErrorReply.MEMORY_LIMIT));
+                        continue;
+                    }
+                    acquiredBytes += commandBytes;
                     try {
-                        Method pipelineMethod = pipelineMethodMap.get(command.getName());
-                        if (pipelineMethod == null) {
+                        CommandHandler pipelineHandler = CommandHandlerUtil.getCommandHandler(pipelineHandlerMap, command);
+                        if (pipelineHandler == null) {
                             handlerPipelineResponse(ctx, list, pipelined, channelInfo);
-                            Method syncMethod = methodMap.get(command.getName());
-                            if (syncMethod == null) {
+                            CommandHandler syncHandler = CommandHandlerUtil.getCommandHandler(handlerMap, command);
+                            if (syncHandler == null) {
                                 logger.warn("CommandProcessor not available, consid = {}", channelInfo.getConsid());
                                 ctx.writeAndFlush(ErrorReply.NOT_SUPPORT);
                                 debugLog(ErrorReply.NOT_SUPPORT, channelInfo);
                             } else {
-                                Reply reply = (Reply) CommandInvokerUtil.invoke(syncMethod, command, processor);
+                                Reply reply = (Reply) syncHandler.invoke(processor, command);
                                 ctx.writeAndFlush(reply);
                                 debugLog(reply, channelInfo);
                             }
                         } else {
                             try {
-                                PipelineResponse response = (PipelineResponse) CommandInvokerUtil.invoke(pipelineMethod, command, pipelined);
+                                PipelineResponse response = (PipelineResponse) pipelineHandler.invoke(pipelined, command);
                                 list.add(response);
                             } catch (Exception e) {
                                 Reply reply = handlerError(e, command.getName());
@@ -125,7 +195,24 @@ public class SyncCommandInvoker implements CommandInvoker {
                 handlerPipelineResponse(ctx, list, pipelined, channelInfo);
             } finally {
                 pipelined.close();
+                if (acquiredBytes > 0) {
+                    //空的buffer排在本批所有回包之后写出，写完时本批的回包都已经写到socket
+                    MemoryBudget.releaseOnWrite(ctx.writeAndFlush(Unpooled.EMPTY_BUFFER), acquiredBytes);
+                }
+            }
+        }
+    }
+
+    private Reply invokeCommand(SyncCommandProcessor processor, ChannelInfo channelInfo, Command command) {
+        try {
+            CommandHandler handler = CommandHandlerUtil.getCommandHandler(handlerMap, command);
+            if (handler == null) {
+                logger.warn("command not support, command = {}, consid = {}", command.getName(), channelInfo.getConsid());
+                return ErrorReply.NOT_SUPPORT;
             }
+            return (Reply) handler.invoke(processor, command);
+        } catch (Throwable e) {
+            return handlerError(e, command.getName());
         }
     }
 
@@ -0,0 +1,130 @@
+package com.netease.nim.camellia.redis.proxy.command.sync;
+
+import com.netease.nim.camellia.redis.proxy.netty.ChannelInfo;
+import com.netease.nim.camellia.redis.proxy.netty.MemoryBudget;
+import com.netease.nim.camellia.redis.proxy.netty.TenantEventLoopGroups;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * sync模式下，命令不在work线程中执行时，保证同一个连接的命令批次串行执行，从而保证回包的顺序
+ * 排队的批次有上限：超过pauseReadSize时停止读取该连接，排空后恢复；超过maxSize时拒绝，由调用方断开连接
+ */
+public class SyncTaskQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyncTaskQueue.class);
+
+    private static final int pauseReadSize = 32;
+    private static final int maxSize = 1024;
+
+    private final ChannelInfo channelInfo;
+    private final ConcurrentLinkedQueue<Batch> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicBoolean readPaused = new AtomicBoolean(false);
+
+    public SyncTaskQueue(ChannelInfo channelInfo) {
+        this.channelInfo = channelInfo;
+    }
+
+    /**
+     * 提交一个命令批次
+     * @param bytes 批次排队期间计入内存预算的字节数，出队时归还
+     * @return 若该连接排队的批次超过上限或者执行器已满则返回false
+     */
+    public boolean submit(ExecutorService executor, Runnable task, long bytes) {
+        int current = size.incrementAndGet();
+        if (current > maxSize) {
+            size.decrementAndGet();
+            logger.warn("SyncTaskQueue full, consid = {}", channelInfo.getConsid());
+            return false;
+        }
+        MemoryBudget.forceAcquire(bytes);
+        queue.offer(new Batch(task, bytes));
+        if (current >= pauseReadSize && readPaused.compareAndSet(false, true)) {
+            //执行跟不上时不再读取新的命令，由tcp的流控把压力传回客户端
+            channelInfo.getCtx().channel().config().setAutoRead(false);
+        }
+        return schedule(executor);
+    }
+
+    public void clear() {
+        Batch batch;
+        while ((batch = poll()) != null) {
+            MemoryBudget.release(batch.bytes);
+        }
+    }
+
+    /**
+     * 没有排队和正在执行的批次
+     */
+    public boolean isIdle() {
+        return !running.get() && queue.isEmpty();
+    }
+
+    private boolean schedule(ExecutorService executor) {
+        if (running.compareAndSet(false, true)) {
+            try {
+                executor.submit(() -> drain(executor));
+            } catch (RejectedExecutionException e) {
+                running.set(false);
+                clear();
+                logger.warn("SyncTaskQueue submit rejected, consid = {}", channelInfo.getConsid());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void drain(ExecutorService executor) {
+        try {
+            Batch batch;
+            while ((batch = poll()) != null) {
+                //开始执行时归还排队占用的预算，执行时按命令重新申请
+                MemoryBudget.release(batch.bytes);
+                try {
+                    batch.task.run();
+                } catch (Throwable e) {
+                    logger.error("SyncTaskQueue task run error, consid = {}", channelInfo.getConsid(), e);
+                }
+            }
+            if (readPaused.compareAndSet(true, false)) {
+                channelInfo.getCtx().channel().config().setAutoRead(true);
+            }
+        } finally {
+            running.set(false);
+        }
+        //释放running标记之后可能有新的任务进来，若无法再提交则这些命令已经无法回包，只能断开连接
+        if (!queue.isEmpty()) {
+            if (!schedule(executor)) {
+                channelInfo.getCtx().close();
+            }
+            return;
+        }
+        TenantEventLoopGroups.onIdle(channelInfo);
+    }
+
+    private Batch poll() {
+        Batch batch = queue.poll();
+        if (batch != null) {
+            size.decrementAndGet();
+        }
+        return batch;
+    }
+
+    private static class Batch {
+        private final Runnable task;
+        private final long bytes;
+
+        Batch(Runnable task, long bytes) {
+            this.task = task;
+            this.bytes = bytes;
+        }
+    }
+}
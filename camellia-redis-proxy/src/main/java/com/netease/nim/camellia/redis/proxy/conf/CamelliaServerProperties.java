@@ -2,6 +2,10 @@ package com.netease.nim.camellia.redis.proxy.conf;
 
 
 import com.netease.nim.camellia.core.util.SysUtils;
+import com.netease.nim.camellia.redis.proxy.IProxyDiscovery;
+
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  *
@@ -20,6 +24,17 @@ public class CamelliaServerProperties {
     private int writeBufferWaterMarkLow = 128 * 1024;
     private int writeBufferWaterMarkHigh = 512 * 1024;
     private int commandDecodeMaxBatchSize = Constants.Server.commandDecodeMaxBatchSize;
+    private boolean memoryBudgetEnable = Constants.Server.memoryBudgetEnable;
+    private long memoryBudgetSoftLimitBytes = -1;//小于等于0则取堆内存上限的30%
+    private long memoryBudgetHardLimitBytes = -1;//小于等于0则取堆内存上限的50%
+    private long memoryBudgetSmallCommandBytes = Constants.Server.memoryBudgetSmallCommandBytes;
+    private boolean clusterModeEnable = Constants.Server.clusterModeEnable;
+    private String clusterModeHost;//对外暴露的地址，为空则取本机ip
+    private String clusterModeNodes;//静态配置的proxy节点，格式为host:port,host:port
+    private IProxyDiscovery clusterModeDiscovery;
+    private String udsPath;//unix domain socket的路径，为空则不开启，仅支持linux（epoll）
+    private Map<String, Integer> tenantWorkThreads = new HashMap<>();//租户独占的work线程数，key为bid|bgroup或者bid，未配置的租户共用默认的work线程
+    private Map<String, String> tenantPasswords = new HashMap<>();//租户的密码，key为密码，value为bid|bgroup，AUTH使用租户的密码时连接归属于该租户
 
     public int getPort() {
         return port;
@@ -116,4 +131,92 @@ public class CamelliaServerProperties {
     public void setCommandDecodeMaxBatchSize(int commandDecodeMaxBatchSize) {
         this.commandDecodeMaxBatchSize = commandDecodeMaxBatchSize;
     }
+
+    public boolean isMemoryBudgetEnable() {
+        return memoryBudgetEnable;
+    }
+
+    public void setMemoryBudgetEnable(boolean memoryBudgetEnable) {
+        this.memoryBudgetEnable = memoryBudgetEnable;
+    }
+
+    public long getMemoryBudgetSoftLimitBytes() {
+        return memoryBudgetSoftLimitBytes;
+    }
+
+    public void setMemoryBudgetSoftLimitBytes(long memoryBudgetSoftLimitBytes) {
+        this.memoryBudgetSoftLimitBytes = memoryBudgetSoftLimitBytes;
+    }
+
+    public long getMemoryBudgetHardLimitBytes() {
+        return memoryBudgetHardLimitBytes;
+    }
+
+    public void setMemoryBudgetHardLimitBytes(long memoryBudgetHardLimitBytes) {
+        this.memoryBudgetHardLimitBytes = memoryBudgetHardLimitBytes;
+    }
+
+    public long getMemoryBudgetSmallCommandBytes() {
+        return memoryBudgetSmallCommandBytes;
+    }
+
+    public void setMemoryBudgetSmallCommandBytes(long memoryBudgetSmallCommandBytes) {
+        this.memoryBudgetSmallCommandBytes = memoryBudgetSmallCommandBytes;
+    }
+
+    public boolean isClusterModeEnable() {
+        return clusterModeEnable;
+    }
+
+    public void setClusterModeEnable(boolean clusterModeEnable) {
+        this.clusterModeEnable = clusterModeEnable;
+    }
+
+    public String getClusterModeHost() {
+        return clusterModeHost;
+    }
+
+    public void setClusterModeHost(String clusterModeHost) {
+        this.clusterModeHost = clusterModeHost;
+    }
+
+    public String getClusterModeNodes() {
+        return clusterModeNodes;
+    }
+
+    public void setClusterModeNodes(String clusterModeNodes) {
+        this.clusterModeNodes = clusterModeNodes;
+    }
+
+    public IProxyDiscovery getClusterModeDiscovery() {
+        return clusterModeDiscovery;
+    }
+
+    public void setClusterModeDiscovery(IProxyDiscovery clusterModeDiscovery) {
+        this.clusterModeDiscovery = clusterModeDiscovery;
+    }
+
+    public String getUdsPath() {
+        return udsPath;
+    }
+
+    public void setUdsPath(String udsPath) {
+        this.udsPath = udsPath;
+    }
+
+    public Map<String, Integer> getTenantWorkThreads() {
+        return tenantWorkThreads;
+    }
+
+    public void setTenantWorkThreads(Map<String, Integer> tenantWorkThreads) {
+        this.tenantWorkThreads = tenantWorkThreads;
+    }
+
+    public Map<String, String> getTenantPasswords() {
+        return tenantPasswords;
+    }
+
+    public void setTenantPasswords(Map<String, String> tenantPasswords) {
+        this.tenantPasswords = tenantPasswords;
+    }
 }
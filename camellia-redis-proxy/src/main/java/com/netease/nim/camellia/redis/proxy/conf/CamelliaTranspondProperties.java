@@ -3,6 +3,10 @@ package com.netease.nim.camellia.redis.proxy.conf;
 import com.netease.nim.camellia.core.model.ResourceTable;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -56,6 +60,7 @@ public class CamelliaTranspondProperties {
 
     public static class LocalProperties {
         private ResourceTable resourceTable;
+        private List<RoutingRule> routingRules = new ArrayList<>();
 
         public ResourceTable getResourceTable() {
             return resourceTable;
@@ -64,6 +69,57 @@ public class CamelliaTranspondProperties {
         public void setResourceTable(ResourceTable resourceTable) {
             this.resourceTable = resourceTable;
         }
+
+        public List<RoutingRule> getRoutingRules() {
+            return routingRules;
+        }
+
+        public void setRoutingRules(List<RoutingRule> routingRules) {
+            this.routingRules = routingRules;
+        }
+
+        /**
+         * 路由规则，在分片之前按顺序匹配，第一个匹配的规则把请求转发到规则自己的resourceTable
+         * keyPatterns为key的前缀或者通配符（支持*和?），commands为命令名或者@read/@write，两者都配置时需要同时满足
+         */
+        public static class RoutingRule {
+            private List<String> keyPatterns = new ArrayList<>();
+            private List<String> commands = new ArrayList<>();
+            private ResourceTable resourceTable;
+
+            public RoutingRule() {
+            }
+
+            public RoutingRule(List<String> keyPatterns, List<String> commands, ResourceTable resourceTable) {
+                this.keyPatterns = keyPatterns;
+                this.commands = commands;
+                this.resourceTable = resourceTable;
+            }
+
+            public List<String> getKeyPatterns() {
+                return keyPatterns;
+            }
+
+            public void setKeyPatterns(List<String> keyPatterns) {
+                this.keyPatterns = keyPatterns;
+            }
+
+            public List<String> getCommands() {
+                return commands;
+            }
+
+            public void setCommands(List<String> commands) {
+                this.commands = commands;
+            }
+
+            public ResourceTable getResourceTable() {
+                return resourceTable;
+            }
+
+            public void setResourceTable(ResourceTable resourceTable) {
+                this.resourceTable = resourceTable;
+            }
+        }
     }
 
     public static class RemoteProperties {
@@ -76,6 +132,8 @@ public class CamelliaTranspondProperties {
         private long checkIntervalMillis = Constants.Remote.checkIntervalMillis;
         private int connectTimeoutMillis = Constants.Remote.connectTimeoutMillis;
         private int readTimeoutMillis = Constants.Remote.readTimeoutMillis;
+        //启动时预热的bid/bgroup，格式为bid|bgroup,bid|bgroup
+        private String preloadBidBgroups;
 
         public String getUrl() {
             return url;
@@ -140,6 +198,14 @@ public class CamelliaTranspondProperties {
         public void setReadTimeoutMillis(int readTimeoutMillis) {
             this.readTimeoutMillis = readTimeoutMillis;
         }
+
+        public String getPreloadBidBgroups() {
+            return preloadBidBgroups;
+        }
+
+        public void setPreloadBidBgroups(String preloadBidBgroups) {
+            this.preloadBidBgroups = preloadBidBgroups;
+        }
     }
 
     public static class RedisConfProperties {
@@ -155,10 +221,32 @@ public class CamelliaTranspondProperties {
         private int shadingConcurrentExecPoolSize = Constants.Sync.shadingConcurrentExecPoolSize;
         private boolean multiWriteConcurrentEnable = Constants.Sync.multiWriteConcurrentEnable;
         private int multiWriteConcurrentExecPoolSize = Constants.Sync.multiWriteConcurrentExecPoolSize;
+        //sync转发时命令的执行方式
+        private SyncExecMode syncExecMode = Constants.Sync.syncExecMode;
+        private int syncExecPoolSize = Constants.Sync.syncExecPoolSize;
+        private int syncExecQueueSize = Constants.Sync.syncExecQueueSize;
 
         //async转发时的配置
         private Netty netty = new Netty();
 
+        public static enum SyncExecMode {
+            //直接在netty的work线程中执行，会阻塞work线程
+            WORK_THREAD,
+            //每个连接的命令串行的提交到虚拟线程中执行，运行时不支持虚拟线程时退化为有界线程池
+            VIRTUAL_THREAD,
+            //每个连接的命令串行的提交到有界线程池中执行
+            THREAD_POOL,
+            ;
+        }
+
+        public static enum CounterConsistency {
+            //等合并后的命令返回之后再回包，回包的值和串行执行一致
+            FLUSHED,
+            //立即用本地估算的值回包，key的当前值未知时退化为FLUSHED
+            LOCAL_ESTIMATE,
+            ;
+        }
+
         public static class Netty {
             private int redisClusterMaxAttempts = Constants.Async.redisClusterMaxAttempts;
             private int heartbeatIntervalSeconds = Constants.Async.heartbeatIntervalSeconds;
@@ -167,13 +255,31 @@ public class CamelliaTranspondProperties {
             private int connectTimeoutMillis = Constants.Async.connectTimeoutMillis;
             private int failCountThreshold = Constants.Async.failCountThreshold;
             private long failBanMillis = Constants.Async.failBanMillis;
+            private int blockingMaxConnectionsPerBackend = Constants.Async.blockingMaxConnectionsPerBackend;
+            private int blockingMaxIdlePerBackend = Constants.Async.blockingMaxIdlePerBackend;
+            private long commandPipelineFlushDelayMicros = Constants.Async.commandPipelineFlushDelayMicros;
+            private Map<String, Integer> tenantWeights = new HashMap<>();
+            private int tenantQueueMaxCommands = Constants.Async.tenantQueueMaxCommands;
+            private int backendMaxInflight = Constants.Async.backendMaxInflight;
+            private long backendMaxQueueMillis = Constants.Async.backendMaxQueueMillis;
+            private long outlierSlowThresholdMillis = Constants.Async.outlierSlowThresholdMillis;
+            private long outlierEjectMillis = Constants.Async.outlierEjectMillis;
+            private long warmUpTimeoutMillis = Constants.Async.warmUpTimeoutMillis;
+            private Map<String, String> counterCoalescePrefixes = new HashMap<>();
+            private long counterCoalesceWindowMillis = Constants.Async.counterCoalesceWindowMillis;
+            private CounterConsistency counterCoalesceConsistency = Constants.Async.counterCoalesceConsistency;
 
             public Netty() {
             }
 
             public Netty(int redisClusterMaxAttempts, int heartbeatIntervalSeconds,
                          long heartbeatTimeoutMillis, int commandPipelineFlushThreshold,
-                         int connectTimeoutMillis, int failCountThreshold, long failBanMillis) {
+                         int connectTimeoutMillis, int failCountThreshold, long failBanMillis,
+                         int blockingMaxConnectionsPerBackend, int blockingMaxIdlePerBackend,
+                         long commandPipelineFlushDelayMicros, Map<String, Integer> tenantWeights, int tenantQueueMaxCommands,
+                         int backendMaxInflight, long backendMaxQueueMillis, long outlierSlowThresholdMillis, long outlierEjectMillis,
+                         long warmUpTimeoutMillis, Map<String, String> counterCoalescePrefixes, long counterCoalesceWindowMillis,
+                         CounterConsistency counterCoalesceConsistency) {
                 this.redisClusterMaxAttempts = redisClusterMaxAttempts;
                 this.heartbeatIntervalSeconds = heartbeatIntervalSeconds;
                 this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
@@ -181,6 +287,19 @@ public class CamelliaTranspondProperties {
                 this.connectTimeoutMillis = connectTimeoutMillis;
                 this.failCountThreshold = failCountThreshold;
                 this.failBanMillis = failBanMillis;
+                this.blockingMaxConnectionsPerBackend = blockingMaxConnectionsPerBackend;
+                this.blockingMaxIdlePerBackend = blockingMaxIdlePerBackend;
+                this.commandPipelineFlushDelayMicros = commandPipelineFlushDelayMicros;
+                this.tenantWeights = tenantWeights;
+                this.tenantQueueMaxCommands = tenantQueueMaxCommands;
+                this.backendMaxInflight = backendMaxInflight;
+                this.backendMaxQueueMillis = backendMaxQueueMillis;
+                this.outlierSlowThresholdMillis = outlierSlowThresholdMillis;
+                this.outlierEjectMillis = outlierEjectMillis;
+                this.warmUpTimeoutMillis = warmUpTimeoutMillis;
+                this.counterCoalescePrefixes = counterCoalescePrefixes;
+                this.counterCoalesceWindowMillis = counterCoalesceWindowMillis;
+                this.counterCoalesceConsistency = counterCoalesceConsistency;
             }
 
             public int getCommandPipelineFlushThreshold() {
@@ -238,6 +357,110 @@ public class CamelliaTranspondProperties {
             public void setFailBanMillis(long failBanMillis) {
                 this.failBanMillis = failBanMillis;
             }
+
+            public int getBlockingMaxConnectionsPerBackend() {
+                return blockingMaxConnectionsPerBackend;
+            }
+
+            public void setBlockingMaxConnectionsPerBackend(int blockingMaxConnectionsPerBackend) {
+                this.blockingMaxConnectionsPerBackend = blockingMaxConnectionsPerBackend;
+            }
+
+            public int getBlockingMaxIdlePerBackend() {
+                return blockingMaxIdlePerBackend;
+            }
+
+            public void setBlockingMaxIdlePerBackend(int blockingMaxIdlePerBackend) {
+                this.blockingMaxIdlePerBackend = blockingMaxIdlePerBackend;
+            }
+
+            public long getCommandPipelineFlushDelayMicros() {
+                return commandPipelineFlushDelayMicros;
+            }
+
+            public void setCommandPipelineFlushDelayMicros(long commandPipelineFlushDelayMicros) {
+                this.commandPipelineFlushDelayMicros = commandPipelineFlushDelayMicros;
+            }
+
+            public Map<String, Integer> getTenantWeights() {
+                return tenantWeights;
+            }
+
+            public void setTenantWeights(Map<String, Integer> tenantWeights) {
+                this.tenantWeights = tenantWeights;
+            }
+
+            public int getTenantQueueMaxCommands() {
+                return tenantQueueMaxCommands;
+            }
+
+            public void setTenantQueueMaxCommands(int tenantQueueMaxCommands) {
+                this.tenantQueueMaxCommands = tenantQueueMaxCommands;
+            }
+
+            public int getBackendMaxInflight() {
+                return backendMaxInflight;
+            }
+
+            public void setBackendMaxInflight(int backendMaxInflight) {
+                this.backendMaxInflight = backendMaxInflight;
+            }
+
+            public long getBackendMaxQueueMillis() {
+                return backendMaxQueueMillis;
+            }
+
+            public void setBackendMaxQueueMillis(long backendMaxQueueMillis) {
+                this.backendMaxQueueMillis = backendMaxQueueMillis;
+            }
+
+            public long getOutlierSlowThresholdMillis() {
+                return outlierSlowThresholdMillis;
+            }
+
+            public void setOutlierSlowThresholdMillis(long outlierSlowThresholdMillis) {
+                this.outlierSlowThresholdMillis = outlierSlowThresholdMillis;
+            }
+
+            public long getOutlierEjectMillis() {
+                return outlierEjectMillis;
+            }
+
+            public void setOutlierEjectMillis(long outlierEjectMillis) {
+                this.outlierEjectMillis = outlierEjectMillis;
+            }
+
+            public long getWarmUpTimeoutMillis() {
+                return warmUpTimeoutMillis;
+            }
+
+            public void setWarmUpTimeoutMillis(long warmUpTimeoutMillis) {
+                this.warmUpTimeoutMillis = warmUpTimeoutMillis;
+            }
+
+            public Map<String, String> getCounterCoalescePrefixes() {
+                return counterCoalescePrefixes;
+            }
+
+            public void setCounterCoalescePrefixes(Map<String, String> counterCoalescePrefixes) {
+                this.counterCoalescePrefixes = counterCoalescePrefixes;
+            }
+
+            public long getCounterCoalesceWindowMillis() {
+                return counterCoalesceWindowMillis;
+            }
+
+            public void setCounterCoalesceWindowMillis(long counterCoalesceWindowMillis) {
+                this.counterCoalesceWindowMillis = counterCoalesceWindowMillis;
+            }
+
+            public CounterConsistency getCounterCoalesceConsistency() {
+                return counterCoalesceConsistency;
+            }
+
+            public void setCounterCoalesceConsistency(CounterConsistency counterCoalesceConsistency) {
+                this.counterCoalesceConsistency = counterCoalesceConsistency;
+            }
         }
 
         public static class Jedis {
@@ -432,6 +655,30 @@ public class CamelliaTranspondProperties {
             this.multiWriteConcurrentExecPoolSize = multiWriteConcurrentExecPoolSize;
         }
 
+        public SyncExecMode getSyncExecMode() {
+            return syncExecMode;
+        }
+
+        public void setSyncExecMode(SyncExecMode syncExecMode) {
+            this.syncExecMode = syncExecMode;
+        }
+
+        public int getSyncExecPoolSize() {
+            return syncExecPoolSize;
+        }
+
+        public void setSyncExecPoolSize(int syncExecPoolSize) {
+            this.syncExecPoolSize = syncExecPoolSize;
+        }
+
+        public int getSyncExecQueueSize() {
+            return syncExecQueueSize;
+        }
+
+        public void setSyncExecQueueSize(int syncExecQueueSize) {
+            this.syncExecQueueSize = syncExecQueueSize;
+        }
+
         public boolean isShadingConcurrentEnable() {
             return shadingConcurrentEnable;
         }
@@ -17,6 +17,9 @@ public class Constants {
         public static final int asyncWorkThread = SysUtils.getCpuNum();
         public static final int syncWorkThread = SysUtils.getCpuNum() * 32;
         public static final int commandDecodeMaxBatchSize = 256;
+        public static final boolean memoryBudgetEnable = false;
+        public static final long memoryBudgetSmallCommandBytes = 1024;
+        public static final boolean clusterModeEnable = false;
     }
 
     public static class Sync {
@@ -37,6 +40,9 @@ public class Constants {
         public static final int shadingConcurrentExecPoolSize = Server.syncWorkThread * 2;
         public static final boolean multiWriteConcurrentEnable = true;
         public static final int multiWriteConcurrentExecPoolSize = Server.syncWorkThread * 2;
+        public static final CamelliaTranspondProperties.RedisConfProperties.SyncExecMode syncExecMode = CamelliaTranspondProperties.RedisConfProperties.SyncExecMode.WORK_THREAD;
+        public static final int syncExecPoolSize = Server.syncWorkThread;
+        public static final int syncExecQueueSize = 100000;
     }
 
     public static class Async {
@@ -44,9 +50,33 @@ public class Constants {
         public static final int heartbeatIntervalSeconds = 60;//若小于等于0则不发心跳
         public static final long heartbeatTimeoutMillis = 10000L;
         public static final int commandPipelineFlushThreshold = 1024;
+        public static final int commandPipelineFlushBytesThreshold = 64 * 1024;
+        public static final long commandPipelineFlushDelayMicros = 0;//小于等于0则在EventLoop的本轮任务结束时立即flush
+        public static final int tenantQueueMaxCommands = 100000;
+        public static final int tenantQuantum = 64;
+        public static final int backendMaxInflight = 50000;
+        public static final long backendMaxQueueMillis = 1000;
+        public static final long outlierSlowThresholdMillis = 1000;
+        public static final long outlierEjectMillis = 5000;//小于等于0则不开启异常节点剔除
+        public static final long warmUpTimeoutMillis = 10000L;
+        public static final int warmUpParallelism = 16;
+        public static final long preloadRetryIntervalMillis = 5000L;
         public static final int connectTimeoutMillis = 500;
         public static final int failCountThreshold = 10;
         public static final long failBanMillis = 5000L;
+        public static final int blockingMaxConnectionsPerBackend = 256;
+        public static final int blockingMaxIdlePerBackend = 16;
+        public static final int trackingTableMaxKeys = 1000000;
+        public static final long counterCoalesceWindowMillis = 10;
+        public static final CamelliaTranspondProperties.RedisConfProperties.CounterConsistency counterCoalesceConsistency = CamelliaTranspondProperties.RedisConfProperties.CounterConsistency.FLUSHED;
+        public static final int counterCoalesceMaxKeys = 100000;
+        public static final long pubSubMaxPendingBytes = 32 * 1024 * 1024;//单个订阅者还未写出的推送的上限，超过后断开该订阅者，小于等于0则不限制
+    }
+
+    public static class Migrate {
+        public static final int keysPerSecond = 5000;
+        public static final int scanCount = 100;
+        public static final long dualReadMillis = 10000L;
     }
 
     public static class Remote {
@@ -41,6 +41,10 @@ public class ConsoleServerHandler extends SimpleChannelInboundHandler<Object> {
             return consoleService.status();
         } else if (uri.equalsIgnoreCase("/custom")) {
             return consoleService.custom(requestObject.getParams());
+        } else if (uri.equalsIgnoreCase("/migrate")) {
+            return consoleService.migrate(requestObject.getParams());
+        } else if (uri.equalsIgnoreCase("/migrateStatus")) {
+            return consoleService.migrateStatus();
         }
         return ConsoleResult.error();
     }
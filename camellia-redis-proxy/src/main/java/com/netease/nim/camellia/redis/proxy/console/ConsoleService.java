@@ -18,4 +18,8 @@ public interface ConsoleService {
     ConsoleResult check();
 
     ConsoleResult custom(Map<String, List<String>> params);
+
+    ConsoleResult migrate(Map<String, List<String>> params);
+
+    ConsoleResult migrateStatus();
 }
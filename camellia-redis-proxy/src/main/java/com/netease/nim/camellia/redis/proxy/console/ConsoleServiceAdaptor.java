@@ -1,5 +1,10 @@
 package com.netease.nim.camellia.redis.proxy.console;
 
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.netease.nim.camellia.redis.proxy.command.async.migrate.BucketMigration;
+import com.netease.nim.camellia.redis.proxy.command.async.migrate.BucketMigrationManager;
+import com.netease.nim.camellia.redis.proxy.conf.Constants;
 import com.netease.nim.camellia.redis.proxy.netty.ServerStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,6 +65,9 @@ public class ConsoleServiceAdaptor implements ConsoleService {
 
     @Override
     public ConsoleResult check() {
+        if (!ServerStatus.isReady()) {
+            return ConsoleResult.error("warm up not finish");
+        }
         if (serverPort <= 0) {
             return ConsoleResult.success();
         }
@@ -90,6 +98,70 @@ public class ConsoleServiceAdaptor implements ConsoleService {
         return ConsoleResult.success();
     }
 
+    /**
+     * 迁移分片表中的一个bucket（只支持本地配置），参数：bid、bgroup（本地配置不需要）、bucket、to（目标资源url）、keysPerSecond、scanCount、dualReadMillis
+     */
+    @Override
+    public ConsoleResult migrate(Map<String, List<String>> params) {
+        try {
+            long bid = Long.parseLong(getParam(params, "bid", "-1"));
+            String bgroup = getParam(params, "bgroup", "local");
+            int bucket = Integer.parseInt(getParam(params, "bucket", null));
+            String to = getParam(params, "to", null);
+            if (to == null) {
+                return ConsoleResult.error("missing param to");
+            }
+            int keysPerSecond = Integer.parseInt(getParam(params, "keysPerSecond", String.valueOf(Constants.Migrate.keysPerSecond)));
+            int scanCount = Integer.parseInt(getParam(params, "scanCount", String.valueOf(Constants.Migrate.scanCount)));
+            long dualReadMillis = Long.parseLong(getParam(params, "dualReadMillis", String.valueOf(Constants.Migrate.dualReadMillis)));
+            BucketMigration migration = BucketMigrationManager.start(bid, bgroup, bucket, to, keysPerSecond, scanCount, dualReadMillis);
+            return ConsoleResult.success(toJson(migration).toJSONString());
+        } catch (Exception e) {
+            logger.error("migrate error, params = {}", params, e);
+            return ConsoleResult.error(e.getMessage());
+        }
+    }
+
+    @Override
+    public ConsoleResult migrateStatus() {
+        JSONArray array = new JSONArray();
+        for (BucketMigration migration : BucketMigrationManager.getMigrations()) {
+            array.add(toJson(migration));
+        }
+        return ConsoleResult.success(array.toJSONString());
+    }
+
+    private static String getParam(Map<String, List<String>> params, String name, String defaultValue) {
+        List<String> list = params.get(name);
+        if (list == null || list.isEmpty()) {
+            return defaultValue;
+        }
+        return list.get(0);
+    }
+
+    private static JSONObject toJson(BucketMigration migration) {
+        JSONObject json = new JSONObject();
+        json.put("bid", migration.getBid());
+        json.put("bgroup", migration.getBgroup());
+        json.put("bucket", migration.getBucket());
+        json.put("from", migration.getFromUrl());
+        json.put("to", migration.getToUrl());
+        json.put("status", migration.getStatus().name());
+        json.put("errorMsg", migration.getErrorMsg());
+        json.put("startTime", migration.getStartTime());
+        json.put("copyEndTime", migration.getCopyEndTime());
+        json.put("endTime", migration.getEndTime());
+        json.put("scanKeys", migration.getScanKeys());
+        json.put("copyKeys", migration.getCopyKeys());
+        json.put("copyBytes", migration.getCopyBytes());
+        json.put("skipKeys", migration.getSkipKeys());
+        json.put("failKeys", migration.getFailKeys());
+        json.put("touchedKeys", migration.getTouchedKeys());
+        json.put("fallbackReads", migration.getFallbackReads());
+        json.put("copyKeysPerSecond", migration.getCopyKeysPerSecond());
+        return json;
+    }
+
     public void setServerPort(int serverPort) {
         this.serverPort = serverPort;
     }
@@ -114,12 +114,37 @@ public enum RedisCommand {
     GEORADIUSBYMEMBER(true, Type.READ),
     BITFIELD(true, Type.READ),
     ECHO(true, Type.READ),
+    UNLINK(true, Type.WRITE),
+    TOUCH(true, Type.READ),
+    MSETNX(true, Type.WRITE),
+    SUNION(true, Type.READ),
+    SINTER(true, Type.READ),
+    SDIFF(true, Type.READ),
+    SUNIONSTORE(true, Type.WRITE),
+    SINTERSTORE(true, Type.WRITE),
+    SDIFFSTORE(true, Type.WRITE),
+    ZUNIONSTORE(true, Type.WRITE),
+    ZINTERSTORE(true, Type.WRITE),
+    BITOP(true, Type.WRITE),
+    PFADD(true, Type.WRITE),
+    PFCOUNT(true, Type.READ),
+    PFMERGE(true, Type.WRITE),
+    SCAN(true, Type.READ),
+    EVAL(true, Type.WRITE),
+    EVALSHA(true, Type.WRITE),
+    SCRIPT(true, Type.WRITE),
+    PUBLISH(true, Type.WRITE),
+    SUBSCRIBE(true, Type.READ),
+    UNSUBSCRIBE(true, Type.READ),
+    PSUBSCRIBE(true, Type.READ),
+    PUNSUBSCRIBE(true, Type.READ),
+    BLPOP(true, Type.WRITE),
+    BRPOP(true, Type.WRITE),
+    BRPOPLPUSH(true, Type.WRITE),
 
     /**
      * 这些命令没有实现
      */
-    PFADD(false, null),
-    PFCOUNT(false, null),
     SMOVE(false, null),
     FLUSHDB(false, null),
     KEYS(false, null),
@@ -131,29 +156,13 @@ public enum RedisCommand {
     SELECT(false, null),
     MOVE(false, null),
     FLUSHALL(false, null),
-    MSETNX(false, null),
     RPOPLPUSH(false, null),
-    SINTER(false, null),
-    SINTERSTORE(false, null),
-    SUNION(false, null),
-    SUNIONSTORE(false, null),
-    SDIFF(false, null),
-    SDIFFSTORE(false, null),
     MULTI(false, null),
     DISCARD(false, null),
     EXEC(false, null),
     WATCH(false, null),
     UNWATCH(false, null),
-    BLPOP(false, null),
-    BRPOP(false, null),
-    SUBSCRIBE(false, null),
-    PUBLISH(false, null),
-    UNSUBSCRIBE(false, null),
-    PSUBSCRIBE(false, null),
-    PUNSUBSCRIBE(false, null),
     PUBSUB(false, null),
-    ZUNIONSTORE(false, null),
-    ZINTERSTORE(false, null),
     SAVE(false, null),
     BGSAVE(false, null),
     BGREWRITEAOF(false, null),
@@ -165,24 +174,18 @@ public enum RedisCommand {
     CONFIG(false, null),
     SYNC(false, null),
     DEBUG(false, null),
-    BRPOPLPUSH(false, null),
-    EVAL(false, null),
-    EVALSHA(false, null),
-    SCRIPT(false, null),
     SLOWLOG(false, null),
     OBJECT(false, null),
-    BITOP(false, null),
     SENTINEL(false, null),
     DUMP(false, null),
     RESTORE(false, null),
     TIME(false, null),
     MIGRATE(false, null),
-    SCAN(false, null),
     WAIT(false, null),
     CLUSTER(false, null),
     ASKING(false, null),
-    PFMERGE(false, null),
     READONLY(false, null),
+    HELLO(false, null),
     ;
 
     private boolean support;
@@ -214,9 +217,11 @@ public enum RedisCommand {
     }
 
     private static final Map<String, RedisCommand> supportCommandMap = new HashMap<>();
+    private static final Map<String, RedisCommand> commandMap = new HashMap<>();
 
     static {
         for (RedisCommand command : RedisCommand.values()) {
+            commandMap.put(command.name().toLowerCase(), command);
             if (command.isSupport() && command.getType() != null) {
                 supportCommandMap.put(command.name().toLowerCase(), command);
             }
@@ -226,4 +231,9 @@ public enum RedisCommand {
     public static RedisCommand getSupportRedisCommand(Command command) {
         return supportCommandMap.get(command.getName());
     }
+
+    public static RedisCommand getRedisCommand(String name) {
+        if (name == null) return null;
+        return commandMap.get(name);
+    }
 }
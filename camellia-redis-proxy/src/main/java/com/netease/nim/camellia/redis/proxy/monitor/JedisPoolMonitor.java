@@ -0,0 +1,92 @@
+package com.netease.nim.camellia.redis.proxy.monitor;
+
+import com.netease.nim.camellia.redis.jedis.JedisPoolFactory;
+import com.netease.nim.camellia.redis.jediscluster.JedisClusterFactory;
+import com.netease.nim.camellia.redis.jediscluster.JedisClusterWrapper;
+import com.netease.nim.camellia.redis.resource.CamelliaRedisProxyResource;
+import com.netease.nim.camellia.redis.resource.RedisClusterResource;
+import com.netease.nim.camellia.redis.resource.RedisResource;
+import com.netease.nim.camellia.redis.resource.RedisSentinelResource;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisSentinelPool;
+import redis.clients.util.Pool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * sync模式下jedis连接池的监控，主要关注从连接池获取连接的等待时间
+ */
+public class JedisPoolMonitor {
+
+    private static final ConcurrentHashMap<String, Pool<Jedis>> poolMap = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, JedisClusterWrapper> clusterMap = new ConcurrentHashMap<>();
+
+    public static JedisPoolFactory wrap(JedisPoolFactory factory) {
+        return new JedisPoolFactory() {
+            @Override
+            public JedisPool getJedisPool(RedisResource redisResource) {
+                JedisPool jedisPool = factory.getJedisPool(redisResource);
+                poolMap.putIfAbsent(redisResource.getUrl(), jedisPool);
+                return jedisPool;
+            }
+
+            @Override
+            public JedisSentinelPool getJedisSentinelPool(RedisSentinelResource redisSentinelResource) {
+                JedisSentinelPool jedisSentinelPool = factory.getJedisSentinelPool(redisSentinelResource);
+                poolMap.putIfAbsent(redisSentinelResource.getUrl(), jedisSentinelPool);
+                return jedisSentinelPool;
+            }
+
+            @Override
+            public JedisPool getCamelliaJedisPool(CamelliaRedisProxyResource camelliaRedisProxyResource) {
+                JedisPool jedisPool = factory.getCamelliaJedisPool(camelliaRedisProxyResource);
+                poolMap.putIfAbsent(camelliaRedisProxyResource.getUrl(), jedisPool);
+                return jedisPool;
+            }
+        };
+    }
+
+    public static JedisClusterFactory wrap(JedisClusterFactory factory) {
+        return redisClusterResource -> {
+            JedisClusterWrapper jedisCluster = factory.getJedisCluster(redisClusterResource);
+            clusterMap.putIfAbsent(redisClusterResource.getUrl(), jedisCluster);
+            return jedisCluster;
+        };
+    }
+
+    public static List<Stats.JedisPoolStats> getJedisPoolStatsList() {
+        List<Stats.JedisPoolStats> list = new ArrayList<>();
+        for (Map.Entry<String, Pool<Jedis>> entry : poolMap.entrySet()) {
+            list.add(toStats(entry.getKey(), entry.getValue()));
+        }
+        for (Map.Entry<String, JedisClusterWrapper> entry : clusterMap.entrySet()) {
+            for (Map.Entry<String, JedisPool> nodeEntry : entry.getValue().getClusterNodes().entrySet()) {
+                list.add(toStats(entry.getKey() + "|" + nodeEntry.getKey(), nodeEntry.getValue()));
+            }
+        }
+        return list;
+    }
+
+    private static Stats.JedisPoolStats toStats(String url, Pool<Jedis> pool) {
+        Stats.JedisPoolStats stats = new Stats.JedisPoolStats();
+        stats.setUrl(maskPassword(url));
+        stats.setNumActive(pool.getNumActive());
+        stats.setNumIdle(pool.getNumIdle());
+        stats.setNumWaiters(pool.getNumWaiters());
+        stats.setMeanBorrowWaitTimeMillis(pool.getMeanBorrowWaitTimeMillis());
+        stats.setMaxBorrowWaitTimeMillis(pool.getMaxBorrowWaitTimeMillis());
+        return stats;
+    }
+
+    //监控数据会打印到日志中，去掉url中的密码
+    private static String maskPassword(String url) {
+        int start = url.indexOf("://");
+        int end = url.lastIndexOf('@');
+        if (start < 0 || end < start) return url;
+        return url.substring(0, start + 3) + url.substring(end);
+    }
+}
@@ -1,6 +1,11 @@
 package com.netease.nim.camellia.redis.proxy.monitor;
 
 import com.netease.nim.camellia.core.util.CamelliaThreadFactory;
+import com.netease.nim.camellia.redis.proxy.command.async.counter.CounterCoalescer;
+import com.netease.nim.camellia.redis.proxy.command.async.migrate.BucketMigration;
+import com.netease.nim.camellia.redis.proxy.command.async.migrate.BucketMigrationManager;
+import com.netease.nim.camellia.redis.proxy.netty.MemoryBudget;
+import com.netease.nim.camellia.redis.proxy.netty.TenantEventLoopGroups;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,7 +30,14 @@ public class RedisMonitor {
     private static Stats stats = new Stats();
     private static final ConcurrentHashMap<String, AtomicLong> failCountMap = new ConcurrentHashMap<>();
 
+    private static ConcurrentHashMap<String, ScriptSpend> scriptSpendMap = new ConcurrentHashMap<>();
+
+    private static int seconds;
+    private static volatile boolean enable = false;
+
     public static void init(int seconds) {
+        RedisMonitor.seconds = seconds;
+        RedisMonitor.enable = true;
         Executors.newSingleThreadScheduledExecutor(new CamelliaThreadFactory("monitor"))
                 .scheduleAtFixedRate(RedisMonitor::calc, seconds, seconds, TimeUnit.SECONDS);
     }
@@ -41,6 +53,17 @@ public class RedisMonitor {
         failCount.incrementAndGet();
     }
 
+    /**
+     * lua脚本的耗时，按sha统计
+     */
+    public static void incrScriptSpend(String sha, long spendNanos) {
+        if (!enable) return;
+        ScriptSpend scriptSpend = scriptSpendMap.computeIfAbsent(sha, k -> new ScriptSpend());
+        scriptSpend.count.incrementAndGet();
+        scriptSpend.totalNanos.addAndGet(spendNanos);
+        scriptSpend.maxNanos.accumulateAndGet(spendNanos, Math::max);
+    }
+
     public static Stats getStats() {
         return stats;
     }
@@ -93,12 +116,26 @@ public class RedisMonitor {
             }
         }
         stats.setFailMap(failMap);
+        stats.setJedisPoolStatsList(JedisPoolMonitor.getJedisPoolStatsList());
+        ConcurrentHashMap<String, ScriptSpend> scriptSpendMap = RedisMonitor.scriptSpendMap;
+        RedisMonitor.scriptSpendMap = new ConcurrentHashMap<>();
+        List<Stats.ScriptStats> scriptStatsList = new ArrayList<>();
+        for (Map.Entry<String, ScriptSpend> entry : scriptSpendMap.entrySet()) {
+            ScriptSpend scriptSpend = entry.getValue();
+            long count = scriptSpend.count.get();
+            if (count <= 0) continue;
+            double avgSpendMs = scriptSpend.totalNanos.get() / 1000000.0 / count;
+            double maxSpendMs = scriptSpend.maxNanos.get() / 1000000.0;
+            scriptStatsList.add(new Stats.ScriptStats(entry.getKey(), count, avgSpendMs, maxSpendMs));
+        }
+        stats.setScriptStatsList(scriptStatsList);
 
         RedisMonitor.stats = stats;
 
         logger.info(">>>>>>>START>>>>>>>");
         logger.info("connect.count={}", ChannelMonitor.getChannelMap().size());
         logger.info("total.count={}", stats.getCount());
+        logger.info("memory.inflight.bytes={}, memory.shed.count={}", MemoryBudget.getInflightBytes(), MemoryBudget.getAndResetShedCount());
         logger.info("====total====");
         for (Stats.TotalStats totalStats : stats.getTotalStatsList()) {
             logger.info("total.command.{}, count={}", totalStats.getCommand(), totalStats.getCount());
@@ -117,6 +154,54 @@ public class RedisMonitor {
         for (Map.Entry<String, Long> entry : stats.getFailMap().entrySet()) {
             logger.info("fail[{}], count = {}", entry.getKey(), entry.getValue());
         }
+        if (!stats.getJedisPoolStatsList().isEmpty()) {
+            logger.info("====jedis.pool====");
+            for (Stats.JedisPoolStats poolStats : stats.getJedisPoolStatsList()) {
+                logger.info("jedis.pool[{}], active = {}, idle = {}, waiters = {}, meanBorrowWaitMillis = {}, maxBorrowWaitMillis = {}",
+                        poolStats.getUrl(), poolStats.getNumActive(), poolStats.getNumIdle(), poolStats.getNumWaiters(),
+                        poolStats.getMeanBorrowWaitTimeMillis(), poolStats.getMaxBorrowWaitTimeMillis());
+            }
+        }
+        if (!stats.getScriptStatsList().isEmpty()) {
+            logger.info("====script====");
+            for (Stats.ScriptStats scriptStats : stats.getScriptStatsList()) {
+                logger.info("script.{}, count = {}, avgSpendMs = {}, maxSpendMs = {}", scriptStats.getSha(), scriptStats.getCount(),
+                        String.format("%.2f", scriptStats.getAvgSpendMs()), String.format("%.2f", scriptStats.getMaxSpendMs()));
+            }
+        }
+        if (TenantEventLoopGroups.isEnable()) {
+            logger.info("====event.loop.group====");
+            for (TenantEventLoopGroups.Group group : TenantEventLoopGroups.getGroups()) {
+                logger.info("event.loop.group.{}, threads = {}, connections = {}, commands = {}, pendingTasks = {}", group.getName(),
+                        group.getThreads(), group.getConnections(), group.getAndResetCommands(), group.getPendingTasks());
+            }
+        }
+        List<CounterCoalescer> counterCoalescers = CounterCoalescer.getInstances();
+        if (!counterCoalescers.isEmpty()) {
+            logger.info("====counter.coalesce====");
+            for (CounterCoalescer counterCoalescer : counterCoalescers) {
+                logger.info("counter.coalesce.{}, keys = {}, coalesced = {}, flushed = {}", counterCoalescer.getName(),
+                        counterCoalescer.getKeys(), counterCoalescer.getAndResetCoalesced(), counterCoalescer.getAndResetFlushed());
+            }
+        }
+        List<BucketMigration> migrations = BucketMigrationManager.getMigrations();
+        if (!migrations.isEmpty()) {
+            logger.info("====bucket.migration====");
+            for (BucketMigration migration : migrations) {
+                if (migration.isActive() || migration.getEndTime() > System.currentTimeMillis() - seconds * 1000L) {
+                    logger.info("bucket.migration.{}.{}.{}, status = {}, scanKeys = {}, copyKeys = {}, copyBytes = {}, skipKeys = {}, failKeys = {}, touchedKeys = {}, fallbackReads = {}, copyKeysPerSecond = {}",
+                            migration.getBid(), migration.getBgroup(), migration.getBucket(), migration.getStatus(), migration.getScanKeys(),
+                            migration.getCopyKeys(), migration.getCopyBytes(), migration.getSkipKeys(), migration.getFailKeys(),
+                            migration.getTouchedKeys(), migration.getFallbackReads(), String.format("%.1f", migration.getCopyKeysPerSecond()));
+                }
+            }
+        }
         logger.info("<<<<<<<END<<<<<<<");
     }
+
+    private static class ScriptSpend {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+    }
 }
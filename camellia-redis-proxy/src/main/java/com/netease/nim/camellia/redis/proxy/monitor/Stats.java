@@ -16,6 +16,8 @@ public class Stats {
     private List<BidBgroupStats> bidBgroupStatsList = new ArrayList<>();
     private List<DetailStats> detailStatsList = new ArrayList<>();
     private Map<String, Long> failMap = new HashMap<>();
+    private List<JedisPoolStats> jedisPoolStatsList = new ArrayList<>();
+    private List<ScriptStats> scriptStatsList = new ArrayList<>();
 
     public long getCount() {
         return count;
@@ -57,6 +59,68 @@ public class Stats {
         this.failMap = failMap;
     }
 
+    public List<JedisPoolStats> getJedisPoolStatsList() {
+        return jedisPoolStatsList;
+    }
+
+    public void setJedisPoolStatsList(List<JedisPoolStats> jedisPoolStatsList) {
+        this.jedisPoolStatsList = jedisPoolStatsList;
+    }
+
+    public List<ScriptStats> getScriptStatsList() {
+        return scriptStatsList;
+    }
+
+    public void setScriptStatsList(List<ScriptStats> scriptStatsList) {
+        this.scriptStatsList = scriptStatsList;
+    }
+
+    public static class ScriptStats {
+        private String sha;
+        private long count;
+        private double avgSpendMs;
+        private double maxSpendMs;
+
+        public ScriptStats(String sha, long count, double avgSpendMs, double maxSpendMs) {
+            this.sha = sha;
+            this.count = count;
+            this.avgSpendMs = avgSpendMs;
+            this.maxSpendMs = maxSpendMs;
+        }
+
+        public String getSha() {
+            return sha;
+        }
+
+        public void setSha(String sha) {
+            this.sha = sha;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public void setCount(long count) {
+            this.count = count;
+        }
+
+        public double getAvgSpendMs() {
+            return avgSpendMs;
+        }
+
+        public void setAvgSpendMs(double avgSpendMs) {
+            this.avgSpendMs = avgSpendMs;
+        }
+
+        public double getMaxSpendMs() {
+            return maxSpendMs;
+        }
+
+        public void setMaxSpendMs(double maxSpendMs) {
+            this.maxSpendMs = maxSpendMs;
+        }
+    }
+
     public static class BidBgroupStats {
         private Long bid;
         private String bgroup;
@@ -157,4 +221,61 @@ public class Stats {
             this.count = count;
         }
     }
+
+    public static class JedisPoolStats {
+        private String url;
+        private int numActive;
+        private int numIdle;
+        private int numWaiters;
+        private long meanBorrowWaitTimeMillis;
+        private long maxBorrowWaitTimeMillis;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public int getNumActive() {
+            return numActive;
+        }
+
+        public void setNumActive(int numActive) {
+            this.numActive = numActive;
+        }
+
+        public int getNumIdle() {
+            return numIdle;
+        }
+
+        public void setNumIdle(int numIdle) {
+            this.numIdle = numIdle;
+        }
+
+        public int getNumWaiters() {
+            return numWaiters;
+        }
+
+        public void setNumWaiters(int numWaiters) {
+            this.numWaiters = numWaiters;
+        }
+
+        public long getMeanBorrowWaitTimeMillis() {
+            return meanBorrowWaitTimeMillis;
+        }
+
+        public void setMeanBorrowWaitTimeMillis(long meanBorrowWaitTimeMillis) {
+            this.meanBorrowWaitTimeMillis = meanBorrowWaitTimeMillis;
+        }
+
+        public long getMaxBorrowWaitTimeMillis() {
+            return maxBorrowWaitTimeMillis;
+        }
+
+        public void setMaxBorrowWaitTimeMillis(long maxBorrowWaitTimeMillis) {
+            this.maxBorrowWaitTimeMillis = maxBorrowWaitTimeMillis;
+        }
+    }
 }
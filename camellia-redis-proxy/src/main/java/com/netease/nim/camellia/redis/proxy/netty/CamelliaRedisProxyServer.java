@@ -4,13 +4,20 @@ import com.netease.nim.camellia.redis.proxy.command.CommandInvoker;
 import com.netease.nim.camellia.redis.proxy.conf.CamelliaServerProperties;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.netty.channel.unix.DomainSocketChannel;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+
 /**
  *
  * Created by caojiajun on 2019/11/5.
@@ -32,8 +39,10 @@ public class CamelliaRedisProxyServer {
         int bossThread = serverProperties.getBossThread();
         int workThread = serverProperties.getWorkThread();
         logger.info("CamelliaRedisProxyServer init, bossThread = {}, workThread = {}", bossThread, workThread);
+        MemoryBudget.init(serverProperties);
         EventLoopGroup bossGroup = new NioEventLoopGroup(bossThread, new DefaultThreadFactory("boss-group"));
         EventLoopGroup workGroup = new NioEventLoopGroup(workThread, new DefaultThreadFactory("work-group"));
+        TenantEventLoopGroups.init(serverProperties, workGroup);
         ServerBootstrap serverBootstrap = new ServerBootstrap();
         serverBootstrap.group(bossGroup, workGroup)
                 .channel(NioServerSocketChannel.class)
@@ -46,14 +55,55 @@ public class CamelliaRedisProxyServer {
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     public void initChannel(SocketChannel ch) throws Exception {
-                        ChannelPipeline p = ch.pipeline();
-                        p.addLast(new CommandDecoder(serverProperties.getCommandDecodeMaxBatchSize()));
-                        p.addLast(new ReplyEncoder(serverProperties));
-                        p.addLast(initHandler);
-                        p.addLast(serverHandler);
+                        initPipeline(ch.pipeline());
                     }
                 });
         serverBootstrap.bind(serverProperties.getPort()).sync();
         logger.info("CamelliaRedisProxyServer start at port: {}", serverProperties.getPort());
+        if (serverProperties.getUdsPath() != null) {
+            startUds(serverProperties.getUdsPath(), workThread);
+        }
+    }
+
+    /**
+     * 在tcp端口之外额外监听unix domain socket，pipeline和tcp完全一致，供同机部署的客户端使用，省去本地回环的tcp协议栈开销
+     * 依赖epoll，非linux环境下只打印日志，不影响tcp端口
+     */
+    private void startUds(String udsPath, int workThread) throws Exception {
+        if (!Epoll.isAvailable()) {
+            logger.error("CamelliaRedisProxyServer unix domain socket not start, epoll not available, udsPath = {}", udsPath, Epoll.unavailabilityCause());
+            return;
+        }
+        File file = new File(udsPath);
+        if (file.exists() && !file.delete()) {
+            //上次进程退出时残留的socket文件，不删除会导致bind失败
+            throw new IllegalStateException("unix domain socket file delete fail, udsPath = " + udsPath);
+        }
+        EventLoopGroup bossGroup = new EpollEventLoopGroup(1, new DefaultThreadFactory("uds-boss-group"));
+        EventLoopGroup workGroup = new EpollEventLoopGroup(workThread, new DefaultThreadFactory("uds-work-group"));
+        ServerBootstrap serverBootstrap = new ServerBootstrap();
+        serverBootstrap.group(bossGroup, workGroup)
+                .channel(EpollServerDomainSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, serverProperties.getSoBacklog())
+                .childOption(ChannelOption.SO_SNDBUF, serverProperties.getSoSndbuf())
+                .childOption(ChannelOption.SO_RCVBUF, serverProperties.getSoRcvbuf())
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                        new WriteBufferWaterMark(serverProperties.getWriteBufferWaterMarkLow(), serverProperties.getWriteBufferWaterMarkHigh()))
+                .childHandler(new ChannelInitializer<DomainSocketChannel>() {
+                    @Override
+                    public void initChannel(DomainSocketChannel ch) throws Exception {
+                        initPipeline(ch.pipeline());
+                    }
+                });
+        serverBootstrap.bind(new DomainSocketAddress(udsPath)).sync();
+        file.deleteOnExit();
+        logger.info("CamelliaRedisProxyServer start at unix domain socket: {}", udsPath);
+    }
+
+    private void initPipeline(ChannelPipeline p) {
+        p.addLast(new CommandDecoder(serverProperties.getCommandDecodeMaxBatchSize()));
+        p.addLast(new ReplyEncoder(serverProperties));
+        p.addLast(initHandler);
+        p.addLast(serverHandler);
     }
 }
@@ -2,12 +2,17 @@ package com.netease.nim.camellia.redis.proxy.netty;
 
 
 import com.netease.nim.camellia.redis.proxy.command.async.AsyncTaskQueue;
+import com.netease.nim.camellia.redis.proxy.command.async.PendingBatchQueue;
+import com.netease.nim.camellia.redis.proxy.command.async.pubsub.PubSubSession;
+import com.netease.nim.camellia.redis.proxy.command.async.tracking.TrackingSession;
+import com.netease.nim.camellia.redis.proxy.command.sync.SyncTaskQueue;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.util.AttributeKey;
 
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *
@@ -16,18 +21,32 @@ import java.util.UUID;
 public class ChannelInfo {
 
     private static final AttributeKey<ChannelInfo> ATTRIBUTE_KEY = AttributeKey.valueOf("CI");
+    private static final AtomicLong idGenerator = new AtomicLong();
+
+    public static final int RESP2 = 2;
+    public static final int RESP3 = 3;
 
     private final String consid;
+    private final long id;
     private final Map<String, Object> map = new HashMap<>();
     private ChannelStats channelStats = ChannelStats.NO_AUTH;
     private final ChannelHandlerContext ctx;
     private final AsyncTaskQueue asyncTaskQueue;
+    private final SyncTaskQueue syncTaskQueue;
+    private volatile PubSubSession pubSubSession;
+    private volatile TrackingSession trackingSession;
+    private volatile PendingBatchQueue pendingBatchQueue;
+    private volatile TenantEventLoopGroups.Group eventLoopGroup;
+    private volatile TenantEventLoopGroups.Group migrateTarget;
+    private volatile int protocol = RESP2;
 
     private ChannelInfo(ChannelHandlerContext ctx) {
         this.ctx = ctx;
         this.consid = UUID.randomUUID().toString();
+        this.id = idGenerator.incrementAndGet();
 
         this.asyncTaskQueue = new AsyncTaskQueue(this);
+        this.syncTaskQueue = new SyncTaskQueue(this);
     }
 
     /**
@@ -51,8 +70,78 @@ public class ChannelInfo {
         return asyncTaskQueue;
     }
 
+    public SyncTaskQueue getSyncTaskQueue() {
+        return syncTaskQueue;
+    }
+
     public void clear() {
         asyncTaskQueue.clear();
+        syncTaskQueue.clear();
+        PubSubSession pubSubSession = this.pubSubSession;
+        if (pubSubSession != null) {
+            pubSubSession.close();
+        }
+        TrackingSession trackingSession = this.trackingSession;
+        if (trackingSession != null) {
+            trackingSession.close();
+        }
+    }
+
+    public PubSubSession getPubSubSession() {
+        return pubSubSession;
+    }
+
+    public void setPubSubSession(PubSubSession pubSubSession) {
+        this.pubSubSession = pubSubSession;
+    }
+
+    public TrackingSession getTrackingSession() {
+        return trackingSession;
+    }
+
+    public void setTrackingSession(TrackingSession trackingSession) {
+        this.trackingSession = trackingSession;
+    }
+
+    public PendingBatchQueue getPendingBatchQueue() {
+        return pendingBatchQueue;
+    }
+
+    public void setPendingBatchQueue(PendingBatchQueue pendingBatchQueue) {
+        this.pendingBatchQueue = pendingBatchQueue;
+    }
+
+    /**
+     * 连接所属的租户EventLoopGroup，未开启租户隔离时为null
+     */
+    public TenantEventLoopGroups.Group getEventLoopGroup() {
+        return eventLoopGroup;
+    }
+
+    public void setEventLoopGroup(TenantEventLoopGroups.Group eventLoopGroup) {
+        this.eventLoopGroup = eventLoopGroup;
+    }
+
+    /**
+     * 等待在途命令回包之后要迁移到的EventLoopGroup，没有等待中的迁移时为null
+     */
+    public TenantEventLoopGroups.Group getMigrateTarget() {
+        return migrateTarget;
+    }
+
+    public void setMigrateTarget(TenantEventLoopGroups.Group migrateTarget) {
+        this.migrateTarget = migrateTarget;
+    }
+
+    /**
+     * 客户端协商的协议版本，默认RESP2，通过HELLO 3切换为RESP3
+     */
+    public int getProtocol() {
+        return protocol;
+    }
+
+    public void setProtocol(int protocol) {
+        this.protocol = protocol;
     }
 
     public ChannelHandlerContext getCtx() {
@@ -63,6 +152,13 @@ public class ChannelInfo {
         return consid;
     }
 
+    /**
+     * 连接的数字id，HELLO返回给客户端
+     */
+    public long getId() {
+        return id;
+    }
+
     public ChannelStats getChannelStats() {
         return channelStats;
     }
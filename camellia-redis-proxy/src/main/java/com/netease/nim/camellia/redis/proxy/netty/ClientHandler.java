@@ -15,10 +15,21 @@ public class ClientHandler extends SimpleChannelInboundHandler<Reply> {
     private static final Logger logger = LoggerFactory.getLogger(ClientHandler.class);
     private final LinkedBlockingQueue<CompletableFuture<Reply>> queue;
     private final String clientName;
+    private final Runnable writableCallback;
 
-    public ClientHandler(LinkedBlockingQueue<CompletableFuture<Reply>> queue, String clientName) {
+    public ClientHandler(LinkedBlockingQueue<CompletableFuture<Reply>> queue, String clientName, Runnable writableCallback) {
         this.queue = queue;
         this.clientName = clientName;
+        this.writableCallback = writableCallback;
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        //写缓冲区降到低水位以下，继续flush积压的命令
+        if (writableCallback != null && ctx.channel().isWritable()) {
+            writableCallback.run();
+        }
+        super.channelWritabilityChanged(ctx);
     }
 
     @Override
@@ -14,6 +14,9 @@ public class CommandDecoder extends ReplayingDecoder<Void> {
     private List<Command> commands = new ArrayList<>();
     private byte[][] bytes;
     private int index = 0;
+    //正在解码的命令已经计入内存预算的参数字节数，命令解码完成后由invoker重新申请
+    private long decodingBytes = 0;
+    private int chargedIndex = -1;
 
     private int commandMaxBatchSize = 256;
 
@@ -36,6 +39,12 @@ public class CommandDecoder extends ReplayingDecoder<Void> {
                             throw new IllegalArgumentException("Java only supports arrays up to " + Integer.MAX_VALUE + " in size");
                         }
                         int size = (int) l;
+                        if (i > chargedIndex) {
+                            //大的multi-bulk在接收完之前就已经占用了内存，分配之前先计入预算，replay时不重复计入
+                            chargedIndex = i;
+                            decodingBytes += size;
+                            MemoryBudget.forceAcquire(size);
+                        }
                         bytes[i] = new byte[size];
                         in.readBytes(bytes[i]);
                         if (in.bytesBefore((byte) Utils.CR) != 0) {
@@ -58,6 +67,7 @@ public class CommandDecoder extends ReplayingDecoder<Void> {
                 } finally {
                     bytes = null;
                     index = 0;
+                    releaseDecodingBytes();
                 }
                 decode(ctx, in, out);
             } else if (in.readByte() == '*') {
@@ -84,4 +94,17 @@ public class CommandDecoder extends ReplayingDecoder<Void> {
         }
     }
 
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        //连接关闭时可能还有解码到一半的命令
+        releaseDecodingBytes();
+        super.handlerRemoved0(ctx);
+    }
+
+    private void releaseDecodingBytes() {
+        MemoryBudget.release(decodingBytes);
+        decodingBytes = 0;
+        chargedIndex = -1;
+    }
+
 }
@@ -21,6 +21,7 @@ public class InitHandler extends ChannelInboundHandlerAdapter {
         super.channelActive(ctx);
         ChannelInfo channelInfo = ChannelInfo.init(ctx);
         ChannelMonitor.init(channelInfo);
+        TenantEventLoopGroups.onActive(channelInfo);
         if (logger.isDebugEnabled()) {
             logger.debug("channel init, consid = {}", channelInfo.getConsid());
         }
@@ -33,6 +34,7 @@ public class InitHandler extends ChannelInboundHandlerAdapter {
         if (channelInfo != null) {
             channelInfo.clear();
             ChannelMonitor.remove(channelInfo);
+            TenantEventLoopGroups.onInactive(channelInfo);
         }
         if (logger.isDebugEnabled()) {
             logger.debug("channel close, consid = {}", channelInfo == null ? "null" : channelInfo.getConsid());
@@ -0,0 +1,139 @@
+package com.netease.nim.camellia.redis.proxy.netty;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.conf.CamelliaServerProperties;
+import com.netease.nim.camellia.redis.proxy.reply.*;
+import io.netty.channel.ChannelFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * proxy全局的在途内存预算
+ * 统计正在解码的参数、已解码但还未回包的命令，以及还没有写到socket的回包所占用的字节数
+ * 超过软限制时只放行小命令，超过硬限制时所有新命令都直接返回错误，从而避免大包把proxy拖入频繁的full gc
+ */
+public class MemoryBudget {
+
+    private static final Logger logger = LoggerFactory.getLogger(MemoryBudget.class);
+
+    private static final AtomicLong inflightBytes = new AtomicLong(0L);
+    private static final AtomicLong shedCount = new AtomicLong(0L);
+
+    private static boolean enable = false;
+    private static long softLimitBytes = Long.MAX_VALUE;
+    private static long hardLimitBytes = Long.MAX_VALUE;
+    private static long smallCommandBytes = 0L;
+
+    public static void init(CamelliaServerProperties serverProperties) {
+        enable = serverProperties.isMemoryBudgetEnable();
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        softLimitBytes = serverProperties.getMemoryBudgetSoftLimitBytes() > 0
+                ? serverProperties.getMemoryBudgetSoftLimitBytes() : (long) (maxMemory * 0.3);
+        hardLimitBytes = serverProperties.getMemoryBudgetHardLimitBytes() > 0
+                ? serverProperties.getMemoryBudgetHardLimitBytes() : (long) (maxMemory * 0.5);
+        if (hardLimitBytes < softLimitBytes) {
+            hardLimitBytes = softLimitBytes;
+        }
+        smallCommandBytes = serverProperties.getMemoryBudgetSmallCommandBytes();
+        logger.info("MemoryBudget init, enable = {}, softLimitBytes = {}, hardLimitBytes = {}, smallCommandBytes = {}",
+                enable, softLimitBytes, hardLimitBytes, smallCommandBytes);
+    }
+
+    public static boolean isEnable() {
+        return enable;
+    }
+
+    /**
+     * 申请命令的内存预算，失败的命令需要直接回复错误
+     * @param bytes 命令的大小
+     * @return 是否申请成功
+     */
+    public static boolean tryAcquire(long bytes) {
+        if (!enable) return true;
+        while (true) {
+            long current = inflightBytes.get();
+            if (current + bytes > hardLimitBytes) {
+                shedCount.incrementAndGet();
+                return false;
+            }
+            //超过软限制之后，优先保证小命令的通过
+            if (current > softLimitBytes && bytes > smallCommandBytes) {
+                shedCount.incrementAndGet();
+                return false;
+            }
+            //多个EventLoop并发申请时，检查和扣减需要是原子的，否则会一起越过硬限制
+            if (inflightBytes.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 回包已经产生，不能拒绝，只做统计，从而影响后续命令的准入
+     */
+    public static void forceAcquire(long bytes) {
+        if (!enable || bytes <= 0) return;
+        inflightBytes.addAndGet(bytes);
+    }
+
+    public static void release(long bytes) {
+        if (!enable || bytes <= 0) return;
+        inflightBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * 回包真正写到socket之后再归还，写出之前回包还在netty的发送缓冲区中占用内存
+     */
+    public static void releaseOnWrite(ChannelFuture future, long bytes) {
+        if (!enable || bytes <= 0) return;
+        future.addListener(f -> inflightBytes.addAndGet(-bytes));
+    }
+
+    public static long getInflightBytes() {
+        return inflightBytes.get();
+    }
+
+    public static long getAndResetShedCount() {
+        return shedCount.getAndSet(0L);
+    }
+
+    public static long estimate(Command command) {
+        if (!enable) return 0L;
+        byte[][] objects = command.getObjects();
+        if (objects == null) return 0L;
+        long size = 16L * objects.length;
+        for (byte[] object : objects) {
+            if (object != null) {
+                size += object.length;
+            }
+        }
+        return size;
+    }
+
+    public static long estimate(Reply reply) {
+        if (!enable) return 0L;
+        return sizeOf(reply);
+    }
+
+    /**
+     * 回包的估算大小，不受enable开关影响，用于其他需要按字节统计积压的地方（如pub/sub的推送）
+     */
+    public static long sizeOf(Reply reply) {
+        if (reply == null) return 0L;
+        if (reply instanceof BulkReply) {
+            byte[] raw = ((BulkReply) reply).getRaw();
+            return raw == null ? 16L : 16L + raw.length;
+        } else if (reply instanceof MultiBulkReply) {
+            Reply[] replies = ((MultiBulkReply) reply).getReplies();
+            if (replies == null) return 16L;
+            long size = 16L;
+            for (Reply subReply : replies) {
+                size += sizeOf(subReply);
+            }
+            return size;
+        }
+        return 16L;
+    }
+}
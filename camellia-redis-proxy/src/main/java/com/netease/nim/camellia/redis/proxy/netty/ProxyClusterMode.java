@@ -0,0 +1,211 @@
+package com.netease.nim.camellia.redis.proxy.netty;
+
+import com.netease.nim.camellia.core.util.CamelliaThreadFactory;
+import com.netease.nim.camellia.redis.proxy.IProxyDiscovery;
+import com.netease.nim.camellia.redis.proxy.Proxy;
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.command.async.ScriptRegistry;
+import com.netease.nim.camellia.redis.proxy.conf.CamelliaServerProperties;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.reply.*;
+import com.netease.nim.camellia.redis.proxy.util.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.util.JedisClusterCRC16;
+import redis.clients.util.SafeEncoder;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * proxy集群模式，一组proxy对外伪装成一个redis cluster，响应CLUSTER SLOTS/NODES/INFO等命令
+ * 16384个slot按host:port排序后均分给所有存活的proxy，客户端按slot把请求分散到各个proxy上，proxy内部仍按原有的方式路由，不会返回MOVED
+ * proxy列表来自静态配置的节点和IProxyDiscovery，定时通过tcp连接探测存活
+ */
+public class ProxyClusterMode {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProxyClusterMode.class);
+
+    private static final int SLOTS = 16384;
+    private static final int checkIntervalSeconds = 5;
+    private static final int checkTimeoutMillis = 500;
+
+    private final Proxy current;
+    private final List<Proxy> staticNodes = new ArrayList<>();
+    private final IProxyDiscovery discovery;
+    private final ScheduledExecutorService scheduled = Executors.newSingleThreadScheduledExecutor(new CamelliaThreadFactory(ProxyClusterMode.class));
+
+    private volatile List<Proxy> onlineNodes;
+    private volatile long epoch = 1;
+
+    public ProxyClusterMode(CamelliaServerProperties serverProperties) {
+        String host = serverProperties.getClusterModeHost();
+        if (host == null) {
+            try {
+                host = InetAddress.getLocalHost().getHostAddress();
+            } catch (Exception e) {
+                throw new IllegalArgumentException("clusterModeHost not set and local host resolve fail", e);
+            }
+        }
+        this.current = new Proxy(host, serverProperties.getPort());
+        String nodes = serverProperties.getClusterModeNodes();
+        if (nodes != null) {
+            for (String node : nodes.split(",")) {
+                node = node.trim();
+                if (node.isEmpty()) continue;
+                int index = node.lastIndexOf(':');
+                if (index <= 0) {
+                    throw new IllegalArgumentException("illegal clusterModeNodes, node = " + node);
+                }
+                staticNodes.add(new Proxy(node.substring(0, index), Integer.parseInt(node.substring(index + 1))));
+            }
+        }
+        this.discovery = serverProperties.getClusterModeDiscovery();
+        this.onlineNodes = Collections.singletonList(current);
+        refresh();
+        if (discovery != null) {
+            discovery.setCallback(new IProxyDiscovery.Callback() {
+                @Override
+                public void add(Proxy proxy) {
+                    scheduled.submit(ProxyClusterMode.this::refresh);
+                }
+
+                @Override
+                public void remove(Proxy proxy) {
+                    scheduled.submit(ProxyClusterMode.this::refresh);
+                }
+            });
+        }
+        scheduled.scheduleAtFixedRate(this::refresh, checkIntervalSeconds, checkIntervalSeconds, TimeUnit.SECONDS);
+        logger.info("ProxyClusterMode init, current = {}, staticNodes = {}, discovery = {}", current, staticNodes,
+                discovery == null ? null : discovery.getClass().getName());
+    }
+
+    public static boolean isClusterCommand(Command command) {
+        String name = command.getName();
+        return name.equalsIgnoreCase(RedisCommand.CLUSTER.name()) || name.equalsIgnoreCase(RedisCommand.ASKING.name())
+                || name.equalsIgnoreCase(RedisCommand.READONLY.name()) || name.equalsIgnoreCase("readwrite");
+    }
+
+    public Reply invoke(Command command) {
+        if (!command.getName().equalsIgnoreCase(RedisCommand.CLUSTER.name())) {
+            //ASKING/READONLY/READWRITE，proxy内部路由，直接回复OK
+            return StatusReply.OK;
+        }
+        byte[][] args = command.getObjects();
+        if (args.length < 2) {
+            return new ErrorReply("ERR wrong number of arguments for 'cluster' command");
+        }
+        String subCommand = Utils.bytesToString(args[1]).toLowerCase();
+        List<Proxy> nodes = this.onlineNodes;
+        switch (subCommand) {
+            case "slots":
+                return slots(nodes);
+            case "nodes":
+                return new BulkReply(SafeEncoder.encode(nodes(nodes)));
+            case "info":
+                return new BulkReply(SafeEncoder.encode(info(nodes)));
+            case "myid":
+                return new BulkReply(SafeEncoder.encode(nodeId(current)));
+            case "keyslot":
+                if (args.length != 3) {
+                    return new ErrorReply("ERR wrong number of arguments for 'cluster|keyslot' command");
+                }
+                return new IntegerReply((long) JedisClusterCRC16.getSlot(args[2]));
+            default:
+                return ErrorReply.NOT_SUPPORT;
+        }
+    }
+
+    private Reply slots(List<Proxy> nodes) {
+        Reply[] replies = new Reply[nodes.size()];
+        for (int i=0; i<nodes.size(); i++) {
+            Proxy proxy = nodes.get(i);
+            Reply node = new MultiBulkReply(new Reply[]{new BulkReply(SafeEncoder.encode(proxy.getHost())),
+                    new IntegerReply((long) proxy.getPort()), new BulkReply(SafeEncoder.encode(nodeId(proxy)))});
+            replies[i] = new MultiBulkReply(new Reply[]{new IntegerReply((long) slotStart(i, nodes.size())),
+                    new IntegerReply((long) slotEnd(i, nodes.size())), node});
+        }
+        return new MultiBulkReply(replies);
+    }
+
+    private String nodes(List<Proxy> nodes) {
+        StringBuilder builder = new StringBuilder();
+        for (int i=0; i<nodes.size(); i++) {
+            Proxy proxy = nodes.get(i);
+            builder.append(nodeId(proxy)).append(" ")
+                    .append(proxy.getHost()).append(":").append(proxy.getPort()).append("@").append(proxy.getPort() + 10000).append(" ")
+                    .append(proxy.equals(current) ? "myself,master" : "master").append(" - 0 0 ")
+                    .append(epoch).append(" connected ")
+                    .append(slotStart(i, nodes.size())).append("-").append(slotEnd(i, nodes.size()))
+                    .append("\n");
+        }
+        return builder.toString();
+    }
+
+    private String info(List<Proxy> nodes) {
+        return "cluster_state:ok\r\n" +
+                "cluster_slots_assigned:" + SLOTS + "\r\n" +
+                "cluster_slots_ok:" + SLOTS + "\r\n" +
+                "cluster_slots_pfail:0\r\n" +
+                "cluster_slots_fail:0\r\n" +
+                "cluster_known_nodes:" + nodes.size() + "\r\n" +
+                "cluster_size:" + nodes.size() + "\r\n" +
+                "cluster_current_epoch:" + epoch + "\r\n" +
+                "cluster_my_epoch:" + epoch + "\r\n";
+    }
+
+    private static int slotStart(int index, int size) {
+        return (int) ((long) SLOTS * index / size);
+    }
+
+    private static int slotEnd(int index, int size) {
+        return (int) ((long) SLOTS * (index + 1) / size) - 1;
+    }
+
+    private static String nodeId(Proxy proxy) {
+        return ScriptRegistry.sha1(SafeEncoder.encode(proxy.getHost() + ":" + proxy.getPort()));
+    }
+
+    private synchronized void refresh() {
+        try {
+            Set<Proxy> candidates = new HashSet<>(staticNodes);
+            if (discovery != null) {
+                List<Proxy> list = discovery.findAll();
+                if (list != null) {
+                    candidates.addAll(list);
+                }
+            }
+            candidates.remove(current);
+            List<Proxy> nodes = new ArrayList<>();
+            nodes.add(current);
+            for (Proxy proxy : candidates) {
+                if (isAlive(proxy)) {
+                    nodes.add(proxy);
+                }
+            }
+            nodes.sort(Comparator.comparing(Proxy::getHost).thenComparingInt(Proxy::getPort));
+            if (!nodes.equals(onlineNodes)) {
+                epoch ++;
+                onlineNodes = Collections.unmodifiableList(nodes);
+                logger.info("ProxyClusterMode online nodes update, epoch = {}, nodes = {}", epoch, nodes);
+            }
+        } catch (Exception e) {
+            logger.error("ProxyClusterMode refresh error", e);
+        }
+    }
+
+    private static boolean isAlive(Proxy proxy) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(proxy.getHost(), proxy.getPort()), checkTimeoutMillis);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -29,7 +29,12 @@ public class ReplyEncoder extends MessageToByteEncoder<Reply> {
                     RedisMonitor.incrFail(((ErrorReply) msg).getError());
                 }
             }
-            msg.write(out);
+            ChannelInfo channelInfo = ChannelInfo.get(ctx);
+            if (channelInfo != null && channelInfo.getProtocol() == ChannelInfo.RESP3) {
+                msg.writeResp3(out);
+            } else {
+                msg.write(out);
+            }
         } else {
             if (serverProperties.isMonitorEnable()) {
                 RedisMonitor.incrFail("ChannelNotWriteable");
@@ -3,21 +3,24 @@ package com.netease.nim.camellia.redis.proxy.netty;
 import com.netease.nim.camellia.redis.proxy.command.ClientCommandUtil;
 import com.netease.nim.camellia.redis.proxy.command.Command;
 import com.netease.nim.camellia.redis.proxy.command.CommandInvoker;
+import com.netease.nim.camellia.redis.proxy.command.async.tracking.TrackingSession;
 import com.netease.nim.camellia.redis.proxy.conf.CamelliaServerProperties;
 import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.enums.RedisKeyword;
 import com.netease.nim.camellia.redis.proxy.monitor.RedisMonitor;
-import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
-import com.netease.nim.camellia.redis.proxy.reply.Reply;
-import com.netease.nim.camellia.redis.proxy.reply.StatusReply;
+import com.netease.nim.camellia.redis.proxy.reply.*;
 import com.netease.nim.camellia.redis.proxy.util.Utils;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import redis.clients.util.SafeEncoder;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 @ChannelHandler.Sharable
@@ -27,14 +30,30 @@ public class ServerHandler extends SimpleChannelInboundHandler<List<Command>> {
 
     private final CommandInvoker invoker;
     private final CamelliaServerProperties env;
+    private final ProxyClusterMode clusterMode;
+    //key为租户的密码
+    private final Map<String, Tenant> tenantPasswords = new HashMap<>();
+    private final boolean authRequired;
 
     public ServerHandler(CamelliaServerProperties env, CommandInvoker invoker) {
         super();
         this.invoker = invoker;
         this.env = env;
+        if (env.getTenantPasswords() != null) {
+            for (Map.Entry<String, String> entry : env.getTenantPasswords().entrySet()) {
+                String tenant = entry.getValue() == null ? "" : entry.getValue().trim();
+                int index = tenant.indexOf('|');
+                if (index <= 0 || index == tenant.length() - 1) {
+                    throw new IllegalArgumentException("illegal tenantPasswords, tenant = " + tenant);
+                }
+                tenantPasswords.put(entry.getKey(), new Tenant(Long.parseLong(tenant.substring(0, index)), tenant.substring(index + 1)));
+            }
+        }
+        this.authRequired = env.getPassword() != null || !tenantPasswords.isEmpty();
         if (env.isMonitorEnable()) {
             RedisMonitor.init(env.getMonitorIntervalSeconds());
         }
+        this.clusterMode = env.isClusterModeEnable() ? new ProxyClusterMode(env) : null;
     }
 
     @Override
@@ -42,6 +61,9 @@ public class ServerHandler extends SimpleChannelInboundHandler<List<Command>> {
         try {
             ServerStatus.updateLastUseTime();
             ChannelInfo channelInfo = ChannelInfo.get(ctx);
+            if (TenantEventLoopGroups.isEnable()) {
+                TenantEventLoopGroups.incrCommands(channelInfo, commandList.size());
+            }
 
             List<Command> commands = new ArrayList<>();
             for (Command command : commandList) {
@@ -52,32 +74,31 @@ public class ServerHandler extends SimpleChannelInboundHandler<List<Command>> {
                     RedisMonitor.incr(bid, bgroup, command.getName());
                 }
 
+                //协议协商，HELLO可以携带AUTH，因此在鉴权之前处理
+                if (command.getName().equalsIgnoreCase(RedisCommand.HELLO.name())) {
+                    ctx.writeAndFlush(hello(channelInfo, command));
+                    //HELLO可以携带SETNAME，确定了bid/bgroup之后迁移到租户的EventLoopGroup
+                    TenantEventLoopGroups.migrate(ctx, channelInfo);
+                    continue;
+                }
+
                 //鉴权
                 if (command.getName().equalsIgnoreCase(RedisCommand.AUTH.name())) {
-                    if (env.getPassword() == null) {
+                    byte[][] objects = command.getObjects();
+                    if (!authRequired) {
                         ctx.writeAndFlush(new ErrorReply("ERR Client sent AUTH, but no password is set"));
-                        continue;
+                    } else if (objects.length != 2) {
+                        ctx.writeAndFlush(ErrorReply.INVALID_PASSWORD);
                     } else {
-                        byte[][] objects = command.getObjects();
-                        if (objects.length != 2) {
-                            ctx.writeAndFlush(ErrorReply.INVALID_PASSWORD);
-                            continue;
-                        }
-                        String password = Utils.bytesToString(objects[1]);
-                        if (password.equals(env.getPassword())) {
-                            channelInfo.setChannelStats(ChannelInfo.ChannelStats.AUTH_OK);
-                            ctx.writeAndFlush(StatusReply.OK);
-                            continue;
-                        } else {
-                            channelInfo.setChannelStats(ChannelInfo.ChannelStats.NO_AUTH);
-                            ctx.writeAndFlush(ErrorReply.INVALID_PASSWORD);
-                            continue;
-                        }
+                        ctx.writeAndFlush(auth(channelInfo, Utils.bytesToString(objects[1])));
+                        //租户的密码确定了bid/bgroup，迁移到租户的EventLoopGroup
+                        TenantEventLoopGroups.migrate(ctx, channelInfo);
                     }
+                    continue;
                 }
 
                 //如果需要密码，则后续的操作都需要连接处于密码已经校验的状态
-                if (env.getPassword() != null) {
+                if (authRequired) {
                     if (channelInfo.getChannelStats() != ChannelInfo.ChannelStats.AUTH_OK) {
                         ctx.writeAndFlush(ErrorReply.NO_AUTH);
                         continue;
@@ -90,10 +111,17 @@ public class ServerHandler extends SimpleChannelInboundHandler<List<Command>> {
                     return;
                 }
 
+                //集群模式下，proxy自己响应cluster相关的命令
+                if (clusterMode != null && ProxyClusterMode.isClusterCommand(command)) {
+                    ctx.writeAndFlush(clusterMode.invoke(command));
+                    continue;
+                }
+
                 //特殊处理client命令
                 if (command.getName().equalsIgnoreCase(RedisCommand.CLIENT.name())) {
                     Reply reply = ClientCommandUtil.invokeClientCommand(channelInfo, command);
                     ctx.writeAndFlush(reply);
+                    TenantEventLoopGroups.migrate(ctx, channelInfo);
                     continue;
                 }
 
@@ -107,4 +135,103 @@ public class ServerHandler extends SimpleChannelInboundHandler<List<Command>> {
             logger.error("error", e);
         }
     }
+
+    /**
+     * HELLO [protover [AUTH username password] [SETNAME clientname]]
+     * proxy只有密码没有用户名，username会被忽略
+     */
+    private Reply hello(ChannelInfo channelInfo, Command command) {
+        byte[][] objects = command.getObjects();
+        int protocol = channelInfo.getProtocol();
+        if (objects.length >= 2) {
+            long version;
+            try {
+                version = Utils.bytesToNum(objects[1]);
+            } catch (IllegalArgumentException e) {
+                return new ErrorReply("ERR Protocol version is not an integer or out of range");
+            }
+            if (version != ChannelInfo.RESP2 && version != ChannelInfo.RESP3) {
+                return new ErrorReply("NOPROTO unsupported protocol version");
+            }
+            protocol = (int) version;
+        }
+        String password = null;
+        byte[] clientName = null;
+        for (int i=2; i<objects.length; i++) {
+            if (Utils.checkStringIgnoreCase(objects[i], RedisCommand.AUTH.name()) && i + 2 < objects.length) {
+                password = Utils.bytesToString(objects[i + 2]);
+                i += 2;
+            } else if (Utils.checkStringIgnoreCase(objects[i], RedisKeyword.SETNAME.name()) && i + 1 < objects.length) {
+                clientName = objects[i + 1];
+                i += 1;
+            } else {
+                return new ErrorReply("ERR Syntax error in HELLO option '" + Utils.bytesToString(objects[i]) + "'");
+            }
+        }
+        if (password != null) {
+            if (!authRequired) {
+                return new ErrorReply("ERR Client sent AUTH, but no password is set");
+            }
+            Reply reply = auth(channelInfo, password);
+            if (reply instanceof ErrorReply) {
+                return reply;
+            }
+        }
+        if (authRequired && channelInfo.getChannelStats() != ChannelInfo.ChannelStats.AUTH_OK) {
+            return ErrorReply.NO_AUTH;
+        }
+        if (clientName != null) {
+            Command setName = new Command(new byte[][]{RedisCommand.CLIENT.raw(), SafeEncoder.encode(RedisKeyword.SETNAME.name()), clientName});
+            Reply reply = ClientCommandUtil.invokeClientCommand(channelInfo, setName);
+            if (reply instanceof ErrorReply) {
+                return reply;
+            }
+        }
+        if (protocol == ChannelInfo.RESP2) {
+            //失效通知依赖RESP3的push类型
+            TrackingSession.disable(channelInfo);
+        }
+        channelInfo.setProtocol(protocol);
+        //客户端会根据server/version判断支持的特性，这里按redis 6.0返回
+        return new MapReply(new Reply[]{
+                bulk("server"), bulk("redis"),
+                bulk("version"), bulk("6.0.0"),
+                bulk("proto"), new IntegerReply((long) protocol),
+                bulk("id"), new IntegerReply(channelInfo.getId()),
+                bulk("mode"), bulk(clusterMode != null ? "cluster" : "standalone"),
+                bulk("role"), bulk("master"),
+                bulk("modules"), MultiBulkReply.EMPTY});
+    }
+
+    /**
+     * 校验proxy的密码或者租户的密码，租户的密码同时设置连接的bid/bgroup
+     */
+    private Reply auth(ChannelInfo channelInfo, String password) {
+        if (password.equals(env.getPassword())) {
+            channelInfo.setChannelStats(ChannelInfo.ChannelStats.AUTH_OK);
+            return StatusReply.OK;
+        }
+        Tenant tenant = tenantPasswords.get(password);
+        if (tenant != null) {
+            channelInfo.setChannelStats(ChannelInfo.ChannelStats.AUTH_OK);
+            ClientCommandUtil.setTenant(channelInfo, tenant.bid, tenant.bgroup);
+            return StatusReply.OK;
+        }
+        channelInfo.setChannelStats(ChannelInfo.ChannelStats.NO_AUTH);
+        return ErrorReply.INVALID_PASSWORD;
+    }
+
+    private static BulkReply bulk(String value) {
+        return new BulkReply(SafeEncoder.encode(value));
+    }
+
+    private static class Tenant {
+        private final long bid;
+        private final String bgroup;
+
+        Tenant(long bid, String bgroup) {
+            this.bid = bid;
+            this.bgroup = bgroup;
+        }
+    }
 }
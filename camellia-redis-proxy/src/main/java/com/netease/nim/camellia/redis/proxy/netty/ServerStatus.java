@@ -14,6 +14,8 @@ public class ServerStatus {
     private static final Logger logger = LoggerFactory.getLogger(ServerStatus.class);
 
     private static Status status = Status.ONLINE;
+    //后端预热完成之前，console的/check返回失败
+    private static volatile boolean ready = true;
     private static long lastUseTime = System.currentTimeMillis();
     private static long currentTime = System.currentTimeMillis();
 
@@ -51,6 +53,14 @@ public class ServerStatus {
         ServerStatus.status = status;
     }
 
+    public static boolean isReady() {
+        return ready;
+    }
+
+    public static void setReady(boolean ready) {
+        ServerStatus.ready = ready;
+    }
+
     public static void updateLastUseTime() {
         lastUseTime = currentTime;
     }
@@ -0,0 +1,245 @@
+package com.netease.nim.camellia.redis.proxy.netty;
+
+import com.netease.nim.camellia.redis.proxy.command.ClientCommandUtil;
+import com.netease.nim.camellia.redis.proxy.conf.CamelliaServerProperties;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.MultithreadEventExecutorGroup;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 租户独占的EventLoopGroup，未配置的租户共用默认的work-group
+ * 连接在CLIENT SETNAME（或HELLO SETNAME）、或者AUTH使用租户密码确定bid/bgroup之后，从当前的EventLoop迁移到租户的EventLoopGroup上
+ * 迁移前先停止读，连接上最后一个在途的命令回包之后（see onIdle）再deregister/register，保证回包不会因为切换线程而乱序
+ * 有订阅或者客户端缓存失效通知的连接不迁移（消息是直接写的，无法保证和迁移的先后顺序），unix domain socket的连接也不迁移
+ * 配置了独占线程的租户，到后端的连接也是独占的，see dedicatedGroup
+ */
+public class TenantEventLoopGroups {
+
+    private static final Logger logger = LoggerFactory.getLogger(TenantEventLoopGroups.class);
+
+    //等待在途命令回包的最长时间，超过则放弃迁移
+    private static final long migrateTimeoutMillis = 1000;
+
+    private static final Map<String, Group> groupMap = new HashMap<>();
+    private static final List<Group> groups = new ArrayList<>();
+    private static Group defaultGroup;
+    private static boolean enable = false;
+
+    public static void init(CamelliaServerProperties serverProperties, EventLoopGroup workGroup) {
+        defaultGroup = new Group("default", workGroup);
+        groups.add(defaultGroup);
+        Map<String, Integer> tenantWorkThreads = serverProperties.getTenantWorkThreads();
+        if (tenantWorkThreads != null) {
+            for (Map.Entry<String, Integer> entry : tenantWorkThreads.entrySet()) {
+                String tenant = entry.getKey().trim();
+                if (entry.getValue() == null || entry.getValue() <= 0) {
+                    throw new IllegalArgumentException("illegal tenantWorkThreads, tenant = " + tenant);
+                }
+                EventLoopGroup eventLoopGroup = new NioEventLoopGroup(entry.getValue(), new DefaultThreadFactory("work-group-" + tenant.replace('|', '-')));
+                Group group = new Group(tenant, eventLoopGroup);
+                groupMap.put(tenant, group);
+                groups.add(group);
+            }
+        }
+        enable = !groupMap.isEmpty();
+        logger.info("TenantEventLoopGroups init, enable = {}, tenantWorkThreads = {}", enable, tenantWorkThreads);
+    }
+
+    public static boolean isEnable() {
+        return enable;
+    }
+
+    public static List<Group> getGroups() {
+        return Collections.unmodifiableList(groups);
+    }
+
+    public static void onActive(ChannelInfo channelInfo) {
+        if (!enable) return;
+        channelInfo.setEventLoopGroup(defaultGroup);
+        defaultGroup.connections.incrementAndGet();
+    }
+
+    public static void onInactive(ChannelInfo channelInfo) {
+        Group group = channelInfo.getEventLoopGroup();
+        if (group != null) {
+            group.connections.decrementAndGet();
+        }
+    }
+
+    public static void incrCommands(ChannelInfo channelInfo, int count) {
+        Group group = channelInfo.getEventLoopGroup();
+        if (group != null) {
+            group.commands.add(count);
+        }
+    }
+
+    /**
+     * 先匹配bid|bgroup，再匹配bid，都没有则为默认的group
+     */
+    public static Group select(Long bid, String bgroup) {
+        if (bid == null) return defaultGroup;
+        Group group = groupMap.get(bid + "|" + bgroup);
+        if (group == null) {
+            group = groupMap.get(String.valueOf(bid));
+        }
+        return group == null ? defaultGroup : group;
+    }
+
+    /**
+     * 租户独占的group的名字，用于建立独占的后端连接，没有独占的group则返回null
+     * @param tenant bid|bgroup，see FairCommandQueue
+     */
+    public static String dedicatedGroup(String tenant) {
+        if (!enable || tenant == null) return null;
+        Group group = groupMap.get(tenant);
+        if (group == null) {
+            int index = tenant.indexOf('|');
+            if (index > 0) {
+                group = groupMap.get(tenant.substring(0, index));
+            }
+        }
+        return group == null ? null : group.name;
+    }
+
+    /**
+     * 连接的bid/bgroup可能发生了变化，如果所属的group不是当前的group，则迁移过去
+     */
+    public static void migrate(ChannelHandlerContext ctx, ChannelInfo channelInfo) {
+        if (!enable) return;
+        Channel channel = ctx.channel();
+        if (!(channel instanceof NioSocketChannel)) return;
+        Group current = channelInfo.getEventLoopGroup();
+        Group target = select(ClientCommandUtil.getBid(channelInfo), ClientCommandUtil.getBgroup(channelInfo));
+        if (current == null || target == current) return;
+        channel.config().setAutoRead(false);
+        channelInfo.setMigrateTarget(target);
+        channel.eventLoop().execute(() -> tryMigrate(channel, channelInfo, target));
+        channel.eventLoop().schedule(() -> {
+            if (channelInfo.getMigrateTarget() == target) {
+                channelInfo.setMigrateTarget(null);
+                logger.warn("event loop group migrate give up, channel not idle, consid = {}, target = {}", channelInfo.getConsid(), target.name);
+                channel.config().setAutoRead(true);
+            }
+        }, migrateTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 连接上在途的命令都已经回包（或者sync模式下排队的批次都已经执行完），有等待中的迁移则开始迁移
+     */
+    public static void onIdle(ChannelInfo channelInfo) {
+        Group target = channelInfo.getMigrateTarget();
+        if (target == null) return;
+        Channel channel = channelInfo.getCtx().channel();
+        //回包是提交到EventLoop上写的，迁移排在这些写之后执行
+        channel.eventLoop().execute(() -> tryMigrate(channel, channelInfo, target));
+    }
+
+    //只在连接当前的EventLoop上执行，检查和清除migrateTarget不会并发
+    private static void tryMigrate(Channel channel, ChannelInfo channelInfo, Group target) {
+        if (channelInfo.getMigrateTarget() != target) return;
+        if (!channel.isActive()) {
+            channelInfo.setMigrateTarget(null);
+            return;
+        }
+        if (channelInfo.getPubSubSession() != null || channelInfo.getTrackingSession() != null) {
+            channelInfo.setMigrateTarget(null);
+            channel.config().setAutoRead(true);
+            return;
+        }
+        if (!isIdle(channelInfo)) {
+            //等待最后一个在途的命令回包之后由onIdle再次触发
+            return;
+        }
+        channelInfo.setMigrateTarget(null);
+        Group current = channelInfo.getEventLoopGroup();
+        //此时已经没有在途的回包，deregister之后再register到新的EventLoop，期间不会有读写
+        channel.deregister().addListener(deregisterFuture -> {
+            if (!deregisterFuture.isSuccess()) {
+                logger.error("event loop group migrate deregister fail, consid = {}", channelInfo.getConsid(), deregisterFuture.cause());
+                channel.close();
+                return;
+            }
+            target.eventLoopGroup.register(channel).addListener(registerFuture -> {
+                if (!registerFuture.isSuccess()) {
+                    logger.error("event loop group migrate register fail, consid = {}", channelInfo.getConsid(), registerFuture.cause());
+                    channel.close();
+                    return;
+                }
+                current.connections.decrementAndGet();
+                target.connections.incrementAndGet();
+                channelInfo.setEventLoopGroup(target);
+                //写缓冲区中可能还有未写完的回包
+                channel.flush();
+                channel.config().setAutoRead(true);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("event loop group migrate success, consid = {}, {} -> {}", channelInfo.getConsid(), current.name, target.name);
+                }
+            });
+        });
+    }
+
+    //等待template的批次的命令已经在AsyncTaskQueue中，不需要单独检查PendingBatchQueue
+    private static boolean isIdle(ChannelInfo channelInfo) {
+        return channelInfo.getAsyncTaskQueue().size() == 0 && channelInfo.getSyncTaskQueue().isIdle();
+    }
+
+    public static class Group {
+        private final String name;
+        private final EventLoopGroup eventLoopGroup;
+        private final AtomicLong connections = new AtomicLong();
+        private final LongAdder commands = new LongAdder();
+
+        Group(String name, EventLoopGroup eventLoopGroup) {
+            this.name = name;
+            this.eventLoopGroup = eventLoopGroup;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getConnections() {
+            return connections.get();
+        }
+
+        /**
+         * 上次调用之后收到的命令数
+         */
+        public long getAndResetCommands() {
+            return commands.sumThenReset();
+        }
+
+        public int getThreads() {
+            if (eventLoopGroup instanceof MultithreadEventExecutorGroup) {
+                return ((MultithreadEventExecutorGroup) eventLoopGroup).executorCount();
+            }
+            return -1;
+        }
+
+        /**
+         * 所有EventLoop上排队的任务数
+         */
+        public long getPendingTasks() {
+            long pendingTasks = 0;
+            for (EventExecutor executor : eventLoopGroup) {
+                if (executor instanceof SingleThreadEventExecutor) {
+                    pendingTasks += ((SingleThreadEventExecutor) executor).pendingTasks();
+                }
+            }
+            return pendingTasks;
+        }
+    }
+}
@@ -42,6 +42,15 @@ public class BulkReply implements Reply {
         }
     }
 
+    @Override
+    public void writeResp3(ByteBuf byteBuf) throws IOException {
+        if (capacity < 0) {
+            NullReply.NULL_REPLY.writeResp3(byteBuf);
+        } else {
+            write(byteBuf);
+        }
+    }
+
     public String toString() {
         return new String(raw, Utils.utf8Charset);
     }
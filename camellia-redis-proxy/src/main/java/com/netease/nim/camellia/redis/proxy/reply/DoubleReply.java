@@ -0,0 +1,24 @@
+package com.netease.nim.camellia.redis.proxy.reply;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+/**
+ * RESP3的double类型，直接使用后端返回的字符串（如1.5、inf），RESP2下按bulk string编码
+ */
+public class DoubleReply extends BulkReply {
+
+    private static final char MARKER = Marker.DoubleReply.getMarker();
+
+    public DoubleReply(byte[] raw) {
+        super(raw);
+    }
+
+    @Override
+    public void writeResp3(ByteBuf byteBuf) throws IOException {
+        byteBuf.writeByte(MARKER);
+        byteBuf.writeBytes(getRaw());
+        byteBuf.writeBytes(CRLF);
+    }
+}
@@ -13,6 +13,7 @@ public class ErrorReply implements Reply {
     public static final ErrorReply NO_AUTH = new ErrorReply("NOAUTH Authentication required");
     public static final ErrorReply INVALID_PASSWORD = new ErrorReply("ERR invalid password");
     public static final ErrorReply SYNTAX_ERROR = new ErrorReply(Utils.syntaxError);
+    public static final ErrorReply MEMORY_LIMIT = new ErrorReply("OOM proxy memory limit exceeded");
 
     private static final char MARKER = Marker.ErrorReply.getMarker();
     private final String error;
@@ -32,6 +32,15 @@ public class IntegerReply implements Reply {
         }
     }
 
+    @Override
+    public void writeResp3(ByteBuf byteBuf) throws IOException {
+        if (integer == null) {
+            NullReply.NULL_REPLY.writeResp3(byteBuf);
+        } else {
+            write(byteBuf);
+        }
+    }
+
     public String toString() {
         return String.valueOf(integer);
     }
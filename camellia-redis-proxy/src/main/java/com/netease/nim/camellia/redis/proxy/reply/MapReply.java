@@ -0,0 +1,23 @@
+package com.netease.nim.camellia.redis.proxy.reply;
+
+/**
+ * RESP3的map类型，replies按key、value交替排列，RESP2下退化为普通数组
+ */
+public class MapReply extends MultiBulkReply {
+
+    private static final char MARKER = Marker.MapReply.getMarker();
+
+    public MapReply(Reply[] replies) {
+        super(replies);
+    }
+
+    @Override
+    protected char resp3Marker() {
+        return MARKER;
+    }
+
+    @Override
+    protected int resp3Size() {
+        return getReplies().length / 2;
+    }
+}
@@ -11,6 +11,12 @@ public enum Marker {
     StatusReply('+'),
     MultiBulkReply('*'),
     IntegerReply(':'),
+    //以下为RESP3新增的类型
+    MapReply('%'),
+    SetReply('~'),
+    DoubleReply(','),
+    PushReply('>'),
+    NullReply('_'),
     ;
 
     private final char ch;
@@ -37,4 +37,28 @@ public class MultiBulkReply implements Reply {
             }
         }
     }
+
+    @Override
+    public void writeResp3(ByteBuf byteBuf) throws IOException {
+        if (replies == null) {
+            NullReply.NULL_REPLY.writeResp3(byteBuf);
+            return;
+        }
+        byteBuf.writeByte(resp3Marker());
+        byteBuf.writeBytes(Utils.numToBytes(resp3Size(), true));
+        for (Reply reply : replies) {
+            reply.writeResp3(byteBuf);
+        }
+    }
+
+    /**
+     * RESP3下的聚合类型，map/set/push等子类覆盖，RESP2下统一按数组编码
+     */
+    protected char resp3Marker() {
+        return MARKER;
+    }
+
+    protected int resp3Size() {
+        return replies.length;
+    }
 }
@@ -0,0 +1,29 @@
+package com.netease.nim.camellia.redis.proxy.reply;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+/**
+ * RESP3的null类型，RESP2下按nil bulk string编码
+ */
+public class NullReply implements Reply {
+
+    public static final NullReply NULL_REPLY = new NullReply();
+
+    private static final char MARKER = Marker.NullReply.getMarker();
+
+    private NullReply() {
+    }
+
+    @Override
+    public void write(ByteBuf byteBuf) throws IOException {
+        BulkReply.NIL_REPLY.write(byteBuf);
+    }
+
+    @Override
+    public void writeResp3(ByteBuf byteBuf) throws IOException {
+        byteBuf.writeByte(MARKER);
+        byteBuf.writeBytes(CRLF);
+    }
+}
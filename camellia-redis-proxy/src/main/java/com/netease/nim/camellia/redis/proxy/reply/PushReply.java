@@ -0,0 +1,18 @@
+package com.netease.nim.camellia.redis.proxy.reply;
+
+/**
+ * RESP3的push类型，用于pub/sub消息和client tracking的失效通知，RESP2下退化为普通数组
+ */
+public class PushReply extends MultiBulkReply {
+
+    private static final char MARKER = Marker.PushReply.getMarker();
+
+    public PushReply(Reply[] replies) {
+        super(replies);
+    }
+
+    @Override
+    protected char resp3Marker() {
+        return MARKER;
+    }
+}
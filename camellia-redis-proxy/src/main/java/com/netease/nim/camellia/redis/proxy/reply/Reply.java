@@ -10,4 +10,11 @@ public interface Reply {
   byte[] CRLF = new byte[] {Utils.CR, Utils.LF};
 
   void write(ByteBuf byteBuf) throws IOException;
+
+  /**
+   * 通过HELLO 3协商为RESP3的连接使用，默认和RESP2一致，nil等编码有差异的类型需要覆盖
+   */
+  default void writeResp3(ByteBuf byteBuf) throws IOException {
+    write(byteBuf);
+  }
 }
@@ -0,0 +1,18 @@
+package com.netease.nim.camellia.redis.proxy.reply;
+
+/**
+ * RESP3的set类型，RESP2下退化为普通数组
+ */
+public class SetReply extends MultiBulkReply {
+
+    private static final char MARKER = Marker.SetReply.getMarker();
+
+    public SetReply(Reply[] replies) {
+        super(replies);
+    }
+
+    @Override
+    protected char resp3Marker() {
+        return MARKER;
+    }
+}
@@ -0,0 +1,11 @@
+package com.netease.nim.camellia.redis.proxy.util;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+
+/**
+ * 命令的执行器，直接从Command中解析参数并调用processor的方法，see @CommandHandlerUtil
+ */
+public interface CommandHandler {
+
+    Object invoke(Object processor, Command command) throws Exception;
+}
@@ -0,0 +1,194 @@
+package com.netease.nim.camellia.redis.proxy.util;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.enums.CommandFinder;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * 根据@CommandFinder注解，使用LambdaMetafactory为每个命令生成直接调用processor方法的CommandHandler
+ * 参数直接从Command中按位置取出，避免了Method.invoke的反射开销以及每次调用的Object[]参数数组
+ * 方法签名只支持若干个byte[]参数，以及可选的最后一个byte[][]参数，其他签名会退化为反射调用
+ */
+public class CommandHandlerUtil {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommandHandlerUtil.class);
+
+    private static final byte[][] EMPTY_ARGS = new byte[0][];
+    private static final int MAX_FIXED_ARGS = 5;
+
+    interface H0 { Object handle(Object p); }
+    interface H1 { Object handle(Object p, byte[] a1); }
+    interface H2 { Object handle(Object p, byte[] a1, byte[] a2); }
+    interface H3 { Object handle(Object p, byte[] a1, byte[] a2, byte[] a3); }
+    interface H4 { Object handle(Object p, byte[] a1, byte[] a2, byte[] a3, byte[] a4); }
+    interface H5 { Object handle(Object p, byte[] a1, byte[] a2, byte[] a3, byte[] a4, byte[] a5); }
+
+    interface V0 { Object handle(Object p, byte[][] args); }
+    interface V1 { Object handle(Object p, byte[] a1, byte[][] args); }
+    interface V2 { Object handle(Object p, byte[] a1, byte[] a2, byte[][] args); }
+    interface V3 { Object handle(Object p, byte[] a1, byte[] a2, byte[] a3, byte[][] args); }
+    interface V4 { Object handle(Object p, byte[] a1, byte[] a2, byte[] a3, byte[] a4, byte[][] args); }
+    interface V5 { Object handle(Object p, byte[] a1, byte[] a2, byte[] a3, byte[] a4, byte[] a5, byte[][] args); }
+
+    private static final Class<?>[] fixedInterfaces = {H0.class, H1.class, H2.class, H3.class, H4.class, H5.class};
+    private static final Class<?>[] varargsInterfaces = {V0.class, V1.class, V2.class, V3.class, V4.class, V5.class};
+
+    public static void initCommandHandlers(Class<?> clazz, Map<RedisCommand, CommandHandler> map) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (final Method method : clazz.getMethods()) {
+            CommandFinder annotation = method.getAnnotation(CommandFinder.class);
+            if (annotation != null) {
+                map.put(annotation.value(), build(lookup, method));
+            }
+        }
+    }
+
+    private static CommandHandler build(MethodHandles.Lookup lookup, Method method) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        boolean varargs = parameterTypes.length > 0 && parameterTypes[parameterTypes.length - 1] == byte[][].class;
+        int fixed = varargs ? parameterTypes.length - 1 : parameterTypes.length;
+        boolean match = fixed <= MAX_FIXED_ARGS;
+        for (int i = 0; i < fixed && match; i++) {
+            if (parameterTypes[i] != byte[].class) {
+                match = false;
+            }
+        }
+        if (match) {
+            try {
+                Class<?> samInterface = varargs ? varargsInterfaces[fixed] : fixedInterfaces[fixed];
+                Object target = bind(lookup, method, samInterface);
+                return varargs ? varargsHandler(target, fixed) : fixedHandler(target, fixed);
+            } catch (Throwable e) {
+                logger.warn("bind command handler error, fallback to reflect, method = {}", method, e);
+            }
+        }
+        return (processor, command) -> CommandInvokerUtil.invoke(method, command, processor);
+    }
+
+    private static Object bind(MethodHandles.Lookup lookup, Method method, Class<?> samInterface) throws Throwable {
+        MethodHandle implMethod = lookup.unreflect(method);
+        MethodType samMethodType = MethodType.methodType(Object.class, Object.class, method.getParameterTypes());
+        CallSite callSite = LambdaMetafactory.metafactory(lookup, "handle", MethodType.methodType(samInterface),
+                samMethodType, implMethod, implMethod.type());
+        return callSite.getTarget().invoke();
+    }
+
+    private static CommandHandler fixedHandler(Object target, int fixed) {
+        switch (fixed) {
+            case 0: {
+                H0 h = (H0) target;
+                return (p, c) -> h.handle(p);
+            }
+            case 1: {
+                H1 h = (H1) target;
+                return (p, c) -> {
+                    byte[][] o = c.getObjects();
+                    return h.handle(p, arg(o, 1));
+                };
+            }
+            case 2: {
+                H2 h = (H2) target;
+                return (p, c) -> {
+                    byte[][] o = c.getObjects();
+                    return h.handle(p, arg(o, 1), arg(o, 2));
+                };
+            }
+            case 3: {
+                H3 h = (H3) target;
+                return (p, c) -> {
+                    byte[][] o = c.getObjects();
+                    return h.handle(p, arg(o, 1), arg(o, 2), arg(o, 3));
+                };
+            }
+            case 4: {
+                H4 h = (H4) target;
+                return (p, c) -> {
+                    byte[][] o = c.getObjects();
+                    return h.handle(p, arg(o, 1), arg(o, 2), arg(o, 3), arg(o, 4));
+                };
+            }
+            case 5: {
+                H5 h = (H5) target;
+                return (p, c) -> {
+                    byte[][] o = c.getObjects();
+                    return h.handle(p, arg(o, 1), arg(o, 2), arg(o, 3), arg(o, 4), arg(o, 5));
+                };
+            }
+            default:
+                throw new IllegalArgumentException("not support args count " + fixed);
+        }
+    }
+
+    private static CommandHandler varargsHandler(Object target, int fixed) {
+        switch (fixed) {
+            case 0: {
+                V0 h = (V0) target;
+                return (p, c) -> h.handle(p, rest(c.getObjects(), 1));
+            }
+            case 1: {
+                V1 h = (V1) target;
+                return (p, c) -> {
+                    byte[][] o = c.getObjects();
+                    return h.handle(p, arg(o, 1), rest(o, 2));
+                };
+            }
+            case 2: {
+                V2 h = (V2) target;
+                return (p, c) -> {
+                    byte[][] o = c.getObjects();
+                    return h.handle(p, arg(o, 1), arg(o, 2), rest(o, 3));
+                };
+            }
+            case 3: {
+                V3 h = (V3) target;
+                return (p, c) -> {
+                    byte[][] o = c.getObjects();
+                    return h.handle(p, arg(o, 1), arg(o, 2), arg(o, 3), rest(o, 4));
+                };
+            }
+            case 4: {
+                V4 h = (V4) target;
+                return (p, c) -> {
+                    byte[][] o = c.getObjects();
+                    return h.handle(p, arg(o, 1), arg(o, 2), arg(o, 3), arg(o, 4), rest(o, 5));
+                };
+            }
+            case 5: {
+                V5 h = (V5) target;
+                return (p, c) -> {
+                    byte[][] o = c.getObjects();
+                    return h.handle(p, arg(o, 1), arg(o, 2), arg(o, 3), arg(o, 4), arg(o, 5), rest(o, 6));
+                };
+            }
+            default:
+                throw new IllegalArgumentException("not support args count " + fixed);
+        }
+    }
+
+    //和Command.fillParameters保持一致，缺失的参数为null
+    private static byte[] arg(byte[][] objects, int index) {
+        return index < objects.length ? objects[index] : null;
+    }
+
+    private static byte[][] rest(byte[][] objects, int from) {
+        if (from >= objects.length) return EMPTY_ARGS;
+        return Arrays.copyOfRange(objects, from, objects.length);
+    }
+
+    public static CommandHandler getCommandHandler(Map<RedisCommand, CommandHandler> map, Command command) {
+        RedisCommand redisCommand = command.getRedisCommand();
+        if (redisCommand == null) return null;
+        return map.get(redisCommand);
+    }
+}
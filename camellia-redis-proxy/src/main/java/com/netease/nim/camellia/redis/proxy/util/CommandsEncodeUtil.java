@@ -50,7 +50,7 @@ public class CommandsEncodeUtil {
 
     public static ByteBuf encode(ByteBufAllocator alloc, byte[]... args) {
         int serializedSize = serializedSize(args);
-        ByteBuf buf = alloc.buffer(serializedSize, serializedSize);
+        ByteBuf buf = alloc.directBuffer(serializedSize, serializedSize);
         writeParamCount(buf, args.length);
         for (byte[] arg : args) {
             writeParam(buf, arg);
@@ -63,23 +63,37 @@ public class CommandsEncodeUtil {
         for (Command command : commands) {
             serializedSize += serializedSize(command.getObjects());
         }
-        ByteBuf buf = alloc.buffer(serializedSize, serializedSize);
+        ByteBuf buf = alloc.directBuffer(serializedSize, serializedSize);
         for (Command command : commands) {
-            byte[][] args = command.getObjects();
-            writeParamCount(buf, args.length);
-            for (byte[] arg : args) {
-                writeParam(buf, arg);
-            }
+            writeCommand(buf, command.getObjects());
         }
         return buf;
     }
 
+    /**
+     * 直接编码到已有的buf上，返回写入的字节数
+     */
+    public static int encode(ByteBuf buf, Command command) {
+        byte[][] args = command.getObjects();
+        int serializedSize = serializedSize(args);
+        buf.ensureWritable(serializedSize);
+        writeCommand(buf, args);
+        return serializedSize;
+    }
+
+    private static void writeCommand(ByteBuf buf, byte[][] args) {
+        writeParamCount(buf, args.length);
+        for (byte[] arg : args) {
+            writeParam(buf, arg);
+        }
+    }
+
     private static void writeParamCount(ByteBuf buf, int paramCount) {
-        buf.writeByte('*').writeBytes(toBytes(paramCount)).writeBytes(CRLF);
+        buf.writeByte('*').writeBytes(Utils.numToBytes(paramCount, true));
     }
 
     private static void writeParam(ByteBuf buf, byte[] param) {
-        buf.writeByte('$').writeBytes(toBytes(param.length)).writeBytes(CRLF).writeBytes(param)
+        buf.writeByte('$').writeBytes(Utils.numToBytes(param.length, true)).writeBytes(param)
                 .writeBytes(CRLF);
     }
 
@@ -7,6 +7,7 @@ import com.netease.nim.camellia.redis.CamelliaRedisEnv;
 import com.netease.nim.camellia.redis.jedis.JedisPoolFactory;
 import com.netease.nim.camellia.redis.jediscluster.JedisClusterFactory;
 import com.netease.nim.camellia.redis.proxy.conf.CamelliaTranspondProperties;
+import com.netease.nim.camellia.redis.proxy.monitor.JedisPoolMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.JedisPoolConfig;
@@ -52,9 +53,10 @@ public class JedisRedisEnvUtil {
             logger.info("ShadingFunc, className = {}", className);
         }
 
+        //连接池的大小独立配置，不和执行命令的线程数绑定，see @JedisPoolMonitor
         return new CamelliaRedisEnv.Builder()
-                .jedisPoolFactory(jedisPoolFactory)
-                .jedisClusterFactory(jedisClusterFactory)
+                .jedisPoolFactory(JedisPoolMonitor.wrap(jedisPoolFactory))
+                .jedisClusterFactory(JedisPoolMonitor.wrap(jedisClusterFactory))
                 .proxyEnv(builder.build())
                 .pipelinePoolSize(redisConf.getPipelinePoolSize())
                 .concurrentExecPoolSize(redisConf.getConcurrentExecPoolSize())
@@ -30,6 +30,7 @@ public class Utils {
     private static final byte[][] numMapWithCRLF = new byte[NUM_MAP_LENGTH][];
     static {
         for (int i = 0; i < NUM_MAP_LENGTH; i++) {
+            numMap[i] = convert(i, false);
             numMapWithCRLF[i] = convert(i, true);
         }
     }
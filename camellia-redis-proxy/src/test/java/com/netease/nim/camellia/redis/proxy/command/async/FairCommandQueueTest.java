@@ -0,0 +1,124 @@
+package com.netease.nim.camellia.redis.proxy.command.async;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 按租户deficit-round-robin出队的顺序
+ */
+public class FairCommandQueueTest {
+
+    private int quantum;
+    private int maxCommandsPerTenant;
+    private Map<String, Integer> tenantWeights;
+
+    @Before
+    public void before() {
+        quantum = FairCommandQueue.quantum;
+        maxCommandsPerTenant = FairCommandQueue.maxCommandsPerTenant;
+        tenantWeights = FairCommandQueue.tenantWeights;
+        FairCommandQueue.quantum = 2;
+    }
+
+    @After
+    public void after() {
+        FairCommandQueue.quantum = quantum;
+        FairCommandQueue.maxCommandsPerTenant = maxCommandsPerTenant;
+        FairCommandQueue.tenantWeights = tenantWeights;
+    }
+
+    @Test
+    public void singleTenantIsFifo() {
+        FairCommandQueue queue = new FairCommandQueue();
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(queue.offer("a", wrapper("a" + i, 1)));
+        }
+        Assert.assertEquals(5, queue.size());
+        Assert.assertEquals("a0,a1,a2,a3,a4", drain(queue));
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void tenantsShareByQuantum() {
+        FairCommandQueue queue = new FairCommandQueue();
+        for (int i = 0; i < 6; i++) {
+            queue.offer("a", wrapper("a" + i, 1));
+        }
+        queue.offer("b", wrapper("b0", 1));
+        queue.offer("b", wrapper("b1", 1));
+        queue.offer(null, wrapper("d0", 1));
+        //租户a先入队，但每轮只能发送quantum条，b和默认租户不会被压在队尾
+        Assert.assertEquals("a0,a1,b0,b1,d0,a2,a3,a4,a5", drain(queue));
+    }
+
+    @Test
+    public void weightScalesQuantum() {
+        Map<String, Integer> weights = new HashMap<>();
+        weights.put("a", 2);
+        FairCommandQueue.tenantWeights = weights;
+        FairCommandQueue queue = new FairCommandQueue();
+        for (int i = 0; i < 6; i++) {
+            queue.offer("a", wrapper("a" + i, 1));
+            queue.offer("b", wrapper("b" + i, 1));
+        }
+        Assert.assertEquals("a0,a1,a2,a3,b0,b1,a4,a5,b2,b3,b4,b5", drain(queue));
+    }
+
+    @Test
+    public void pipelineCostsItsCommandCount() {
+        FairCommandQueue queue = new FairCommandQueue();
+        queue.offer("a", wrapper("a0", 5));
+        queue.offer("a", wrapper("a1", 1));
+        queue.offer("b", wrapper("b0", 1));
+        queue.offer("b", wrapper("b1", 1));
+        Assert.assertEquals(8, queue.size());
+        //a0需要5条命令的额度，攒够额度之前b先发送
+        Assert.assertEquals("b0,b1,a0,a1", drain(queue));
+    }
+
+    @Test
+    public void rejectOverTenantLimit() {
+        FairCommandQueue.maxCommandsPerTenant = 3;
+        FairCommandQueue queue = new FairCommandQueue();
+        Assert.assertTrue(queue.offer("a", wrapper("a0", 2)));
+        Assert.assertFalse(queue.offer("a", wrapper("a1", 2)));
+        //其他租户不受影响
+        Assert.assertTrue(queue.offer("b", wrapper("b0", 3)));
+        Assert.assertTrue(queue.offer("a", wrapper("a2", 1)));
+        Assert.assertEquals(6, queue.size());
+    }
+
+    private static String drain(FairCommandQueue queue) {
+        StringBuilder builder = new StringBuilder();
+        RedisClient.CommandWrapper wrapper;
+        while ((wrapper = queue.poll()) != null) {
+            if (builder.length() > 0) {
+                builder.append(",");
+            }
+            builder.append(new String(wrapper.commands.get(0).getObjects()[1]));
+        }
+        return builder.toString();
+    }
+
+    private static RedisClient.CommandWrapper wrapper(String name, int commands) {
+        RedisClient.CommandWrapper wrapper = new RedisClient.CommandWrapper();
+        List<Command> list = new ArrayList<>(commands);
+        for (int i = 0; i < commands; i++) {
+            list.add(new Command(new byte[][]{"get".getBytes(), name.getBytes()}));
+        }
+        wrapper.commands = list;
+        wrapper.completableFutureList = Collections.<CompletableFuture<Reply>>emptyList();
+        return wrapper;
+    }
+}
@@ -0,0 +1,56 @@
+package com.netease.nim.camellia.redis.proxy.command.async;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 跨后端SCAN游标的编解码
+ */
+public class ScanCursorTest {
+
+    @Test
+    public void roundTrip() {
+        long[] backendCursors = {1, 17, 1L << 40, (1L << 54) - 1};
+        int[] indexes = {0, 1, 511, ScanCursor.maxBackends - 1};
+        for (long backendCursor : backendCursors) {
+            for (int index : indexes) {
+                Assert.assertFalse(ScanCursor.overflow(backendCursor));
+                long cursor = ScanCursor.next(index, backendCursor, ScanCursor.maxBackends);
+                Assert.assertEquals(index, ScanCursor.index(cursor));
+                Assert.assertEquals(backendCursor, ScanCursor.backendCursor(cursor));
+            }
+        }
+    }
+
+    @Test
+    public void moveToNextBackend() {
+        Assert.assertEquals(1, ScanCursor.next(0, 0, 3));
+        Assert.assertEquals(2, ScanCursor.next(1, 0, 3));
+        //最后一个后端遍历完，整个SCAN结束
+        Assert.assertEquals(0, ScanCursor.next(2, 0, 3));
+        Assert.assertEquals(0, ScanCursor.next(0, 0, 1));
+    }
+
+    @Test
+    public void startCursor() {
+        Assert.assertEquals(0, ScanCursor.index(0));
+        Assert.assertEquals(0, ScanCursor.backendCursor(0));
+    }
+
+    @Test
+    public void overflow() {
+        Assert.assertTrue(ScanCursor.overflow(1L << 54));
+        Assert.assertTrue(ScanCursor.overflow(-1L));
+        Assert.assertFalse(ScanCursor.overflow((1L << 54) - 1));
+    }
+
+    @Test
+    public void unsignedCursor() {
+        //最大的后端游标和下标编码后是无符号的2^64-1
+        long cursor = ScanCursor.next(ScanCursor.maxBackends - 1, (1L << 54) - 1, ScanCursor.maxBackends);
+        Assert.assertEquals("18446744073709551615", Long.toUnsignedString(cursor));
+        long parsed = Long.parseUnsignedLong(Long.toUnsignedString(cursor));
+        Assert.assertEquals(ScanCursor.maxBackends - 1, ScanCursor.index(parsed));
+        Assert.assertEquals((1L << 54) - 1, ScanCursor.backendCursor(parsed));
+    }
+}
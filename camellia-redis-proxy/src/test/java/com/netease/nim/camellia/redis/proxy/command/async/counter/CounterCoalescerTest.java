@@ -0,0 +1,211 @@
+package com.netease.nim.camellia.redis.proxy.command.async.counter;
+
+import com.netease.nim.camellia.core.model.Resource;
+import com.netease.nim.camellia.core.util.ResourceTableUtil;
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.command.async.AsyncCamelliaRedisEnv;
+import com.netease.nim.camellia.redis.proxy.command.async.AsyncCamelliaRedisTemplate;
+import com.netease.nim.camellia.redis.proxy.command.async.AsyncClient;
+import com.netease.nim.camellia.redis.proxy.conf.CamelliaTranspondProperties;
+import com.netease.nim.camellia.redis.proxy.enums.RedisCommand;
+import com.netease.nim.camellia.redis.proxy.reply.BulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
+import com.netease.nim.camellia.redis.proxy.reply.IntegerReply;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.reply.StatusReply;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并后的计数命令返回之后，每条命令的回包
+ */
+public class CounterCoalescerTest {
+
+    private Map<String, String> tenantPrefixes;
+    private long windowMillis;
+    private CamelliaTranspondProperties.RedisConfProperties.CounterConsistency consistency;
+
+    private final BlockingQueue<Sent> sent = new LinkedBlockingQueue<>();
+    private CounterCoalescer coalescer;
+
+    @Before
+    public void before() {
+        tenantPrefixes = CounterCoalescer.tenantPrefixes;
+        windowMillis = CounterCoalescer.windowMillis;
+        consistency = CounterCoalescer.consistency;
+        CounterCoalescer.tenantPrefixes = Collections.singletonMap("default", "cnt:");
+        CounterCoalescer.windowMillis = 5;
+        CounterCoalescer.consistency = CamelliaTranspondProperties.RedisConfProperties.CounterConsistency.FLUSHED;
+    }
+
+    @After
+    public void after() {
+        CounterCoalescer.tenantPrefixes = tenantPrefixes;
+        CounterCoalescer.windowMillis = windowMillis;
+        CounterCoalescer.consistency = consistency;
+    }
+
+    @Test
+    public void notCoalesced() {
+        CounterCoalescer coalescer = coalescer();
+        Assert.assertNull(coalescer.offer(RedisCommand.INCR, command("incr", "other")));
+        Assert.assertNull(coalescer.offer(RedisCommand.INCRBY, command("incrby", "cnt:a", "abc")));
+        Assert.assertNull(coalescer.offer(RedisCommand.GET, command("get", "cnt:a")));
+    }
+
+    @Test
+    public void flushedRepliesFollowArrivalOrder() throws Exception {
+        CounterCoalescer coalescer = coalescer();
+        CompletableFuture<Reply> f1 = coalescer.offer(RedisCommand.INCRBY, command("incrby", "cnt:a", "1"));
+        CompletableFuture<Reply> f2 = coalescer.offer(RedisCommand.INCRBY, command("incrby", "cnt:a", "2"));
+        CompletableFuture<Reply> f3 = coalescer.offer(RedisCommand.DECR, command("decr", "cnt:a"));
+        Sent flush = nextSent();
+        Assert.assertEquals("INCRBY cnt:a 2", flush.toString());
+        flush.future.complete(new IntegerReply(12L));
+        Assert.assertEquals(Long.valueOf(11), integer(f1));
+        Assert.assertEquals(Long.valueOf(13), integer(f2));
+        Assert.assertEquals(Long.valueOf(12), integer(f3));
+    }
+
+    @Test
+    public void floatingReply() throws Exception {
+        CounterCoalescer coalescer = coalescer();
+        CompletableFuture<Reply> f1 = coalescer.offer(RedisCommand.INCRBYFLOAT, command("incrbyfloat", "cnt:f", "0.5"));
+        CompletableFuture<Reply> f2 = coalescer.offer(RedisCommand.INCRBYFLOAT, command("incrbyfloat", "cnt:f", "1.25"));
+        Sent flush = nextSent();
+        Assert.assertEquals("INCRBYFLOAT cnt:f 1.75", flush.toString());
+        flush.future.complete(new BulkReply("3.75".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals("2.5", bulk(f1));
+        Assert.assertEquals("3.75", bulk(f2));
+    }
+
+    @Test
+    public void errorReplyForAllWaiters() throws Exception {
+        CounterCoalescer coalescer = coalescer();
+        CompletableFuture<Reply> f1 = coalescer.offer(RedisCommand.INCR, command("incr", "cnt:a"));
+        CompletableFuture<Reply> f2 = coalescer.offer(RedisCommand.INCR, command("incr", "cnt:a"));
+        ErrorReply error = new ErrorReply("WRONGTYPE Operation against a key holding the wrong kind of value");
+        nextSent().future.complete(error);
+        Assert.assertSame(error, f1.get(1, TimeUnit.SECONDS));
+        Assert.assertSame(error, f2.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void exceptionCompletesWaitersWithError() throws Exception {
+        CounterCoalescer coalescer = coalescer();
+        CompletableFuture<Reply> f1 = coalescer.offer(RedisCommand.INCR, command("incr", "cnt:a"));
+        nextSent().future.completeExceptionally(new IllegalStateException("closed"));
+        Assert.assertTrue(f1.get(1, TimeUnit.SECONDS) instanceof ErrorReply);
+    }
+
+    @Test
+    public void localEstimateAfterFirstFlush() throws Exception {
+        CounterCoalescer.consistency = CamelliaTranspondProperties.RedisConfProperties.CounterConsistency.LOCAL_ESTIMATE;
+        CounterCoalescer coalescer = coalescer();
+        //还不知道当前值，等合并命令返回
+        CompletableFuture<Reply> f1 = coalescer.offer(RedisCommand.INCRBY, command("incrby", "cnt:a", "5"));
+        Assert.assertFalse(f1.isDone());
+        nextSent().future.complete(new IntegerReply(100L));
+        Assert.assertEquals(Long.valueOf(100), integer(f1));
+        CompletableFuture<Reply> f2 = coalescer.offer(RedisCommand.INCRBY, command("incrby", "cnt:a", "3"));
+        Assert.assertTrue(f2.isDone());
+        Assert.assertEquals(Long.valueOf(103), integer(f2));
+    }
+
+    @Test
+    public void mayOverflowNotCoalesced() throws Exception {
+        CounterCoalescer coalescer = coalescer();
+        CompletableFuture<Reply> f1 = coalescer.offer(RedisCommand.INCRBY, command("incrby", "cnt:a", String.valueOf(Long.MAX_VALUE)));
+        Assert.assertNotNull(f1);
+        //合并命令的增量会超出long
+        Assert.assertNull(coalescer.offer(RedisCommand.INCR, command("incr", "cnt:a")));
+        nextSent().future.complete(new IntegerReply(Long.MAX_VALUE - 1));
+        Assert.assertEquals(Long.valueOf(Long.MAX_VALUE - 1), integer(f1));
+        //已知的值加上增量会超出long
+        Assert.assertNull(coalescer.offer(RedisCommand.INCRBY, command("incrby", "cnt:a", "2")));
+        Assert.assertNotNull(coalescer.offer(RedisCommand.INCRBY, command("incrby", "cnt:a", "1")));
+        Assert.assertNull(coalescer.offer(RedisCommand.INCR, command("incr", "cnt:a")));
+    }
+
+    private CounterCoalescer coalescer() {
+        if (coalescer != null) return coalescer;
+        AsyncClient client = new AsyncClient() {
+            @Override
+            public void sendCommand(List<Command> commands, List<CompletableFuture<Reply>> futureList) {
+                for (int i = 0; i < commands.size(); i++) {
+                    Command command = commands.get(i);
+                    if (command.getName().equalsIgnoreCase(RedisCommand.PING.name())) {
+                        futureList.get(i).complete(StatusReply.PONG);
+                    } else {
+                        sent.add(new Sent(command, futureList.get(i)));
+                    }
+                }
+            }
+        };
+        AsyncCamelliaRedisEnv env = new AsyncCamelliaRedisEnv.Builder().clientFactory(url -> client).build();
+        AsyncCamelliaRedisTemplate template = new AsyncCamelliaRedisTemplate(env, ResourceTableUtil.simpleTable(new Resource("redis://@127.0.0.1:6379")));
+        coalescer = template.getCounterCoalescer();
+        Assert.assertNotNull(coalescer);
+        return coalescer;
+    }
+
+    private Sent nextSent() throws InterruptedException {
+        Sent next = sent.poll(1, TimeUnit.SECONDS);
+        Assert.assertNotNull("no flush command", next);
+        return next;
+    }
+
+    private static Long integer(CompletableFuture<Reply> future) throws Exception {
+        Reply reply = future.get(1, TimeUnit.SECONDS);
+        Assert.assertTrue(String.valueOf(reply), reply instanceof IntegerReply);
+        return ((IntegerReply) reply).getInteger();
+    }
+
+    private static String bulk(CompletableFuture<Reply> future) throws Exception {
+        Reply reply = future.get(1, TimeUnit.SECONDS);
+        Assert.assertTrue(String.valueOf(reply), reply instanceof BulkReply);
+        return new String(((BulkReply) reply).getRaw(), StandardCharsets.UTF_8);
+    }
+
+    private static Command command(String... args) {
+        byte[][] objects = new byte[args.length][];
+        for (int i = 0; i < args.length; i++) {
+            objects[i] = args[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return new Command(objects);
+    }
+
+    private static class Sent {
+        private final Command command;
+        private final CompletableFuture<Reply> future;
+
+        Sent(Command command, CompletableFuture<Reply> future) {
+            this.command = command;
+            this.future = future;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (byte[] arg : command.getObjects()) {
+                if (builder.length() > 0) {
+                    builder.append(" ");
+                }
+                builder.append(new String(arg, StandardCharsets.UTF_8));
+            }
+            return builder.toString();
+        }
+    }
+}
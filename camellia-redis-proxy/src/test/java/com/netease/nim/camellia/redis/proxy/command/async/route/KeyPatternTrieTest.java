@@ -0,0 +1,76 @@
+package com.netease.nim.camellia.redis.proxy.command.async.route;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 前缀树上精确、前缀和通配符的匹配，以及多个规则命中时的优先级
+ */
+public class KeyPatternTrieTest {
+
+    @Test
+    public void exactMatch() {
+        KeyPatternTrie trie = new KeyPatternTrie();
+        trie.add("user:1", 0);
+        Assert.assertEquals(0, trie.match(key("user:1"), null));
+        Assert.assertEquals(-1, trie.match(key("user:10"), null));
+        Assert.assertEquals(-1, trie.match(key("user:"), null));
+    }
+
+    @Test
+    public void prefixMatch() {
+        KeyPatternTrie trie = new KeyPatternTrie();
+        trie.add("user:*", 0);
+        Assert.assertEquals(0, trie.match(key("user:"), null));
+        Assert.assertEquals(0, trie.match(key("user:123"), null));
+        Assert.assertEquals(-1, trie.match(key("use"), null));
+        Assert.assertEquals(-1, trie.match(key("order:1"), null));
+    }
+
+    @Test
+    public void globMatch() {
+        KeyPatternTrie trie = new KeyPatternTrie();
+        trie.add("order:*:item?", 0);
+        Assert.assertEquals(0, trie.match(key("order:1:item2"), null));
+        Assert.assertEquals(0, trie.match(key("order::itemx"), null));
+        //*失配后回退重试
+        Assert.assertEquals(0, trie.match(key("order:a:item:item3"), null));
+        Assert.assertEquals(-1, trie.match(key("order:1:item"), null));
+        Assert.assertEquals(-1, trie.match(key("order:1:item23"), null));
+    }
+
+    @Test
+    public void matchAll() {
+        KeyPatternTrie trie = new KeyPatternTrie();
+        trie.add("*", 0);
+        Assert.assertEquals(0, trie.match(key(""), null));
+        Assert.assertEquals(0, trie.match(key("anything"), null));
+    }
+
+    @Test
+    public void firstRuleWins() {
+        KeyPatternTrie trie = new KeyPatternTrie();
+        trie.add("*", 2);
+        trie.add("user:*", 1);
+        trie.add("user:vip:*", 0);
+        Assert.assertEquals(0, trie.match(key("user:vip:1"), null));
+        Assert.assertEquals(1, trie.match(key("user:1"), null));
+        Assert.assertEquals(2, trie.match(key("order:1"), null));
+    }
+
+    @Test
+    public void filterSkipsRules() {
+        KeyPatternTrie trie = new KeyPatternTrie();
+        trie.add("user:vip:*", 0);
+        trie.add("user:*", 1);
+        boolean[] filter = new boolean[]{false, true};
+        Assert.assertEquals(1, trie.match(key("user:vip:1"), filter));
+        Assert.assertEquals(-1, trie.match(key("user:vip:1"), new boolean[]{false, false}));
+    }
+
+    private static byte[] key(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,382 @@
+package com.netease.nim.camellia.redis.proxy.command.async.scatter;
+
+import com.netease.nim.camellia.redis.proxy.command.Command;
+import com.netease.nim.camellia.redis.proxy.reply.BulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.ErrorReply;
+import com.netease.nim.camellia.redis.proxy.reply.IntegerReply;
+import com.netease.nim.camellia.redis.proxy.reply.MultiBulkReply;
+import com.netease.nim.camellia.redis.proxy.reply.Reply;
+import com.netease.nim.camellia.redis.proxy.reply.StatusReply;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按分片分组投递的子命令，以及各个分片返回之后的合并
+ * 测试中key的分片为冒号前的部分，如a:1和a:2在同一个分片上
+ */
+public class ScatterGatherCommandTest {
+
+    @Test
+    public void keysCountSumsShards() throws Exception {
+        //子命令沿用原命令名
+        FakeSender sender = new FakeSender();
+        sender.reply("unlink a:1 a:2", new IntegerReply(2L));
+        sender.reply("unlink b:1", new IntegerReply(0L));
+        Reply reply = execute(sender, "unlink", "a:1", "b:1", "a:2");
+        Assert.assertEquals(Arrays.asList("unlink a:1 a:2", "unlink b:1"), sender.sent);
+        Assert.assertEquals(Long.valueOf(2), ((IntegerReply) reply).getInteger());
+    }
+
+    @Test
+    public void singleShardForwarded() throws Exception {
+        FakeSender sender = new FakeSender();
+        sender.reply("touch a:1 a:2", new IntegerReply(1L));
+        Reply reply = execute(sender, "touch", "a:1", "a:2");
+        Assert.assertEquals(Arrays.asList("touch a:1 a:2"), sender.sent);
+        Assert.assertEquals(Long.valueOf(1), ((IntegerReply) reply).getInteger());
+    }
+
+    @Test
+    public void shardErrorReturned() throws Exception {
+        FakeSender sender = new FakeSender();
+        ErrorReply error = new ErrorReply("ERR shard down");
+        sender.reply("unlink b:1", error);
+        Assert.assertSame(error, execute(sender, "unlink", "a:1", "b:1"));
+    }
+
+    @Test
+    public void msetnx() throws Exception {
+        FakeSender sender = new FakeSender();
+        Reply reply = execute(sender, "msetnx", "a:1", "v1", "b:1", "v2", "a:2", "v3");
+        Assert.assertEquals(Arrays.asList("EXISTS a:1 a:2", "EXISTS b:1", "MSET a:1 v1 a:2 v3", "MSET b:1 v2"), sender.sent);
+        Assert.assertEquals(Long.valueOf(1), ((IntegerReply) reply).getInteger());
+    }
+
+    @Test
+    public void msetnxKeyExists() throws Exception {
+        FakeSender sender = new FakeSender();
+        sender.reply("EXISTS b:1", new IntegerReply(1L));
+        Reply reply = execute(sender, "msetnx", "a:1", "v1", "b:1", "v2");
+        Assert.assertEquals(Arrays.asList("EXISTS a:1", "EXISTS b:1"), sender.sent);
+        Assert.assertEquals(Long.valueOf(0), ((IntegerReply) reply).getInteger());
+    }
+
+    @Test
+    public void wrongNumberOfArguments() throws Exception {
+        FakeSender sender = new FakeSender();
+        Assert.assertTrue(execute(sender, "msetnx", "a:1") instanceof ErrorReply);
+        Assert.assertTrue(execute(sender, "unlink") instanceof ErrorReply);
+        Assert.assertTrue(execute(sender, "pfcount") instanceof ErrorReply);
+        Assert.assertTrue(sender.sent.isEmpty());
+    }
+
+    @Test
+    public void setOperations() throws Exception {
+        FakeSender sender = new FakeSender();
+        sender.reply("SUNION a:1", multi("x", "y"));
+        sender.reply("SUNION b:1", multi("y", "z"));
+        Assert.assertEquals(set("x", "y", "z"), members(execute(sender, "sunion", "a:1", "b:1")));
+
+        sender = new FakeSender();
+        sender.reply("SINTER a:1", multi("x", "y"));
+        sender.reply("SINTER b:1", multi("y", "z"));
+        Assert.assertEquals(set("y"), members(execute(sender, "sinter", "a:1", "b:1")));
+
+        //第一个key单独一组，即使和其他key在同一个分片上
+        sender = new FakeSender();
+        sender.reply("SMEMBERS a:1", multi("x", "y", "z"));
+        sender.reply("SUNION a:2", multi("x"));
+        sender.reply("SUNION b:1", multi("z", "w"));
+        Assert.assertEquals(set("y"), members(execute(sender, "sdiff", "a:1", "a:2", "b:1")));
+        Assert.assertEquals(Arrays.asList("SMEMBERS a:1", "SUNION a:2", "SUNION b:1"), sender.sent);
+    }
+
+    @Test
+    public void setOperationStore() throws Exception {
+        FakeSender sender = new FakeSender();
+        sender.reply("SINTER a:1", multi("x", "y"));
+        sender.reply("SINTER b:1", multi("y", "x", "z"));
+        Reply reply = execute(sender, "sinterstore", "c:1", "a:1", "b:1");
+        Assert.assertEquals(Long.valueOf(2), ((IntegerReply) reply).getInteger());
+        Assert.assertEquals(Arrays.asList("SINTER a:1", "SINTER b:1", "DEL c:1", "SADD c:1 x y"), sender.sent);
+        Assert.assertEquals(Arrays.asList("a:1", "b:1", "c:1", "c:1"), sender.routeKeys);
+
+        //结果为空时只DEL
+        sender = new FakeSender();
+        sender.reply("SINTER a:1", multi("x"));
+        sender.reply("SINTER b:1", multi("y"));
+        reply = execute(sender, "sinterstore", "c:1", "a:1", "b:1");
+        Assert.assertEquals(Long.valueOf(0), ((IntegerReply) reply).getInteger());
+        Assert.assertEquals(Arrays.asList("SINTER a:1", "SINTER b:1", "DEL c:1"), sender.sent);
+    }
+
+    @Test
+    public void zunionstoreWithWeights() throws Exception {
+        //所有key在同一个分片上时直接转发原命令
+        FakeSender sender = new FakeSender();
+        execute(sender, "zunionstore", "a:3", "2", "a:1", "a:2", "weights", "1", "2");
+        Assert.assertEquals(Arrays.asList("zunionstore a:3 2 a:1 a:2 weights 1 2"), sender.sent);
+
+        sender = new FakeSender();
+        sender.reply("ZRANGE a:1 0 -1 WITHSCORES", multi("x", "1", "y", "2"));
+        sender.reply("ZRANGE b:1 0 -1 WITHSCORES", multi("y", "3", "z", "4"));
+        Reply reply = execute(sender, "zunionstore", "c:1", "2", "a:1", "b:1", "weights", "1", "2");
+        Assert.assertEquals(Long.valueOf(3), ((IntegerReply) reply).getInteger());
+        Map<String, Double> scores = zadd(sender.sent.get(sender.sent.size() - 1));
+        Assert.assertEquals(3, scores.size());
+        Assert.assertEquals(1.0, scores.get("x"), 0);
+        Assert.assertEquals(8.0, scores.get("y"), 0);
+        Assert.assertEquals(8.0, scores.get("z"), 0);
+    }
+
+    @Test
+    public void zinterstoreAggregate() throws Exception {
+        FakeSender sender = new FakeSender();
+        sender.reply("ZRANGE a:1 0 -1 WITHSCORES", multi("x", "1", "y", "5"));
+        sender.reply("ZRANGE b:1 0 -1 WITHSCORES", multi("y", "3", "z", "4"));
+        Reply reply = execute(sender, "zinterstore", "c:1", "2", "a:1", "b:1", "aggregate", "min");
+        Assert.assertEquals(Long.valueOf(1), ((IntegerReply) reply).getInteger());
+        Assert.assertEquals("DEL c:1", sender.sent.get(2));
+        Map<String, Double> scores = zadd(sender.sent.get(3));
+        Assert.assertEquals(1, scores.size());
+        Assert.assertEquals(3.0, scores.get("y"), 0);
+    }
+
+    @Test
+    public void zsetSyntaxError() throws Exception {
+        FakeSender sender = new FakeSender();
+        Assert.assertSame(ErrorReply.SYNTAX_ERROR, execute(sender, "zunionstore", "c:1", "3", "a:1", "b:1"));
+        Assert.assertSame(ErrorReply.SYNTAX_ERROR, execute(sender, "zunionstore", "c:1", "2", "a:1", "b:1", "aggregate", "avg"));
+        Assert.assertTrue(sender.sent.isEmpty());
+    }
+
+    @Test
+    public void bitop() throws Exception {
+        FakeSender sender = new FakeSender();
+        sender.reply("MGET a:1", new MultiBulkReply(new Reply[]{new BulkReply(new byte[]{(byte) 0xff, 0x0f})}));
+        sender.reply("MGET b:1 b:2", new MultiBulkReply(new Reply[]{new BulkReply(new byte[]{0x3c}), new BulkReply((byte[]) null)}));
+        FakeSender.Sent set = sender.capture("SET");
+        Reply reply = execute(sender, "bitop", "or", "c:1", "a:1", "b:1", "b:2");
+        Assert.assertEquals(Long.valueOf(2), ((IntegerReply) reply).getInteger());
+        Assert.assertEquals("c:1", sender.routeKeys.get(2));
+        Assert.assertArrayEquals(new byte[]{(byte) 0xff, 0x0f}, set.command.getObjects()[2]);
+
+        sender = new FakeSender();
+        sender.reply("MGET a:1", new MultiBulkReply(new Reply[]{new BulkReply(new byte[]{(byte) 0xff, 0x0f})}));
+        sender.reply("MGET b:1", new MultiBulkReply(new Reply[]{new BulkReply(new byte[]{0x3c})}));
+        set = sender.capture("SET");
+        execute(sender, "bitop", "and", "c:1", "a:1", "b:1");
+        //短的值按0补齐
+        Assert.assertArrayEquals(new byte[]{0x3c, 0x00}, set.command.getObjects()[2]);
+
+        sender = new FakeSender();
+        sender.reply("MGET a:1", new MultiBulkReply(new Reply[]{new BulkReply(new byte[]{0x0f})}));
+        set = sender.capture("SET");
+        execute(sender, "bitop", "not", "c:1", "a:1");
+        Assert.assertArrayEquals(new byte[]{(byte) 0xf0}, set.command.getObjects()[2]);
+    }
+
+    @Test
+    public void bitopEmptyResult() throws Exception {
+        FakeSender sender = new FakeSender();
+        sender.reply("MGET a:1", new MultiBulkReply(new Reply[]{new BulkReply((byte[]) null)}));
+        Reply reply = execute(sender, "bitop", "xor", "c:1", "a:1");
+        Assert.assertEquals(Long.valueOf(0), ((IntegerReply) reply).getInteger());
+        Assert.assertEquals(Arrays.asList("MGET a:1", "DEL c:1"), sender.sent);
+    }
+
+    @Test
+    public void bitopSyntaxError() throws Exception {
+        FakeSender sender = new FakeSender();
+        Assert.assertSame(ErrorReply.SYNTAX_ERROR, execute(sender, "bitop", "nand", "c:1", "a:1"));
+        Assert.assertSame(ErrorReply.SYNTAX_ERROR, execute(sender, "bitop", "not", "c:1", "a:1", "b:1"));
+        Assert.assertTrue(sender.sent.isEmpty());
+    }
+
+    @Test
+    public void singleShardOnly() throws Exception {
+        FakeSender sender = new FakeSender();
+        Assert.assertSame(ScatterGatherCommand.CROSS_SHARD, execute(sender, "pfcount", "a:1", "b:1"));
+        Assert.assertSame(ScatterGatherCommand.CROSS_SHARD, execute(sender, "pfmerge", "c:1", "a:1"));
+        Assert.assertTrue(sender.sent.isEmpty());
+
+        sender.reply("pfmerge a:3 a:1 a:2", StatusReply.OK);
+        Assert.assertSame(StatusReply.OK, execute(sender, "pfmerge", "a:3", "a:1", "a:2"));
+        Assert.assertEquals(Arrays.asList("a:3"), sender.routeKeys);
+    }
+
+    @Test
+    public void pfmergeWithoutSourceKeys() throws Exception {
+        FakeSender sender = new FakeSender();
+        sender.reply("pfmerge c:1", StatusReply.OK);
+        Assert.assertSame(StatusReply.OK, execute(sender, "pfmerge", "c:1"));
+        Assert.assertEquals(Arrays.asList("c:1"), sender.routeKeys);
+        Assert.assertTrue(execute(new FakeSender(), "pfmerge") instanceof ErrorReply);
+    }
+
+    @Test
+    public void allKeyIndexes() {
+        Assert.assertArrayEquals(new int[]{1}, allKeyIndexes("pfmerge", "c:1"));
+        Assert.assertArrayEquals(new int[]{1, 2, 3}, allKeyIndexes("pfmerge", "c:1", "a:1", "b:1"));
+        Assert.assertArrayEquals(new int[]{1, 3, 5}, allKeyIndexes("msetnx", "a:1", "v1", "b:1", "v2", "c:1", "v3"));
+        Assert.assertArrayEquals(new int[]{1, 3, 4}, allKeyIndexes("zunionstore", "c:1", "2", "a:1", "b:1", "weights", "1", "2"));
+        Assert.assertArrayEquals(new int[]{2, 3, 4}, allKeyIndexes("bitop", "and", "c:1", "a:1", "b:1"));
+        Assert.assertArrayEquals(new int[]{1, 2}, allKeyIndexes("sdiffstore", "c:1", "a:1"));
+        Assert.assertNull(allKeyIndexes("zunionstore", "c:1", "2", "a:1"));
+        Assert.assertNull(allKeyIndexes("bitop", "nand", "c:1", "a:1"));
+        Assert.assertNull(allKeyIndexes("msetnx", "a:1", "v1", "b:1"));
+    }
+
+    private static int[] allKeyIndexes(String... args) {
+        Command command = command(args);
+        return ScatterGatherCommand.get(command).allKeyIndexes(command.getObjects());
+    }
+
+    private static Reply execute(FakeSender sender, String... args) throws Exception {
+        Command command = command(args);
+        ScatterGatherCommand scatterGatherCommand = ScatterGatherCommand.get(command);
+        Assert.assertNotNull(scatterGatherCommand);
+        return scatterGatherCommand.execute(command, sender).get(1, TimeUnit.SECONDS);
+    }
+
+    private static Command command(String... args) {
+        byte[][] objects = new byte[args.length][];
+        for (int i = 0; i < args.length; i++) {
+            objects[i] = bytes(args[i]);
+        }
+        return new Command(objects);
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static MultiBulkReply multi(String... members) {
+        Reply[] replies = new Reply[members.length];
+        for (int i = 0; i < members.length; i++) {
+            replies[i] = new BulkReply(bytes(members[i]));
+        }
+        return new MultiBulkReply(replies);
+    }
+
+    private static Set<String> set(String... members) {
+        return new HashSet<>(Arrays.asList(members));
+    }
+
+    private static Set<String> members(Reply reply) {
+        Assert.assertTrue(String.valueOf(reply), reply instanceof MultiBulkReply);
+        Set<String> members = new HashSet<>();
+        for (Reply member : ((MultiBulkReply) reply).getReplies()) {
+            members.add(string(((BulkReply) member).getRaw()));
+        }
+        return members;
+    }
+
+    private static Map<String, Double> zadd(String command) {
+        String[] args = command.split(" ");
+        Assert.assertEquals("ZADD", args[0]);
+        Map<String, Double> scores = new HashMap<>();
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            scores.put(args[i + 1], Double.parseDouble(args[i]));
+        }
+        return scores;
+    }
+
+    /**
+     * 冒号前的部分作为分片，按命令字符串返回预设的回包，未预设的按命令类型返回默认值
+     */
+    private static class FakeSender implements ShardSender {
+
+        private final Map<String, Reply> replies;
+        private final List<String> sent;
+        private final List<String> routeKeys;
+        private final Map<String, Sent> captured;
+
+        FakeSender() {
+            this(new HashMap<>(), new ArrayList<>(), new ArrayList<>(), new HashMap<>());
+        }
+
+        private FakeSender(Map<String, Reply> replies, List<String> sent, List<String> routeKeys, Map<String, Sent> captured) {
+            this.replies = replies;
+            this.sent = sent;
+            this.routeKeys = routeKeys;
+            this.captured = captured;
+        }
+
+        void reply(String command, Reply reply) {
+            replies.put(command, reply);
+        }
+
+        Sent capture(String name) {
+            Sent sent = new Sent();
+            captured.put(name, sent);
+            return sent;
+        }
+
+        @Override
+        public Object shard(byte[] key) {
+            String str = string(key);
+            return str.substring(0, str.indexOf(':'));
+        }
+
+        @Override
+        public CompletableFuture<Reply> send(byte[] routeKey, Command command) {
+            StringBuilder builder = new StringBuilder();
+            for (byte[] arg : command.getObjects()) {
+                if (builder.length() > 0) {
+                    builder.append(" ");
+                }
+                builder.append(string(arg));
+            }
+            String str = builder.toString();
+            sent.add(str);
+            routeKeys.add(string(routeKey));
+            Sent capture = captured.get(command.getName().toUpperCase());
+            if (capture != null) {
+                capture.command = command;
+            }
+            Reply reply = replies.get(str);
+            if (reply == null) {
+                String name = command.getName().toUpperCase();
+                if (name.equals("MSET") || name.equals("SET")) {
+                    reply = StatusReply.OK;
+                } else if (name.equals("EXISTS")) {
+                    reply = new IntegerReply(0L);
+                } else {
+                    reply = new IntegerReply(1L);
+                }
+            }
+            CompletableFuture<Reply> future = new CompletableFuture<>();
+            future.complete(reply);
+            return future;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public ShardSender next() {
+            return new FakeSender(replies, sent, routeKeys, captured);
+        }
+
+        private static class Sent {
+            private Command command;
+        }
+    }
+}
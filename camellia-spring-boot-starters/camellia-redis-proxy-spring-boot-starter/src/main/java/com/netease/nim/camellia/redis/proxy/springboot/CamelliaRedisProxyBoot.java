@@ -1,8 +1,10 @@
 package com.netease.nim.camellia.redis.proxy.springboot;
 
 import com.netease.nim.camellia.core.api.CamelliaApiEnv;
+import com.netease.nim.camellia.redis.proxy.IProxyDiscovery;
 import com.netease.nim.camellia.redis.proxy.command.CommandInvoker;
 import com.netease.nim.camellia.redis.proxy.command.async.AsyncCommandInvoker;
+import com.netease.nim.camellia.redis.proxy.command.sync.SyncCommandInvoker;
 import com.netease.nim.camellia.redis.proxy.conf.CamelliaServerProperties;
 import com.netease.nim.camellia.redis.proxy.conf.Constants;
 import com.netease.nim.camellia.redis.proxy.springboot.conf.CamelliaRedisProxyProperties;
@@ -16,14 +18,24 @@ import com.netease.nim.camellia.redis.proxy.netty.CamelliaRedisProxyServer;
 public class CamelliaRedisProxyBoot {
 
     public CamelliaRedisProxyBoot(CamelliaRedisProxyProperties properties, CommandInvoker commandInvoker,
-                                  String applicationName, int port) throws Exception {
+                                  String applicationName, int port, IProxyDiscovery proxyDiscovery) throws Exception {
         CamelliaApiEnv.source = applicationName;
 
         CamelliaServerProperties serverProperties = new CamelliaServerProperties();
         serverProperties.setPort(port);
         serverProperties.setPassword(properties.getPassword());
+        serverProperties.setTenantPasswords(properties.getTenantPasswords());
         serverProperties.setMonitorEnable(properties.isMonitorEnable());
         serverProperties.setMonitorIntervalSeconds(properties.getMonitorIntervalSeconds());
+        serverProperties.setMemoryBudgetEnable(properties.isMemoryBudgetEnable());
+        serverProperties.setMemoryBudgetSoftLimitBytes(properties.getMemoryBudgetSoftLimitBytes());
+        serverProperties.setMemoryBudgetHardLimitBytes(properties.getMemoryBudgetHardLimitBytes());
+        serverProperties.setMemoryBudgetSmallCommandBytes(properties.getMemoryBudgetSmallCommandBytes());
+        serverProperties.setClusterModeEnable(properties.isClusterModeEnable());
+        serverProperties.setClusterModeHost(properties.getClusterModeHost());
+        serverProperties.setClusterModeNodes(properties.getClusterModeNodes());
+        serverProperties.setClusterModeDiscovery(proxyDiscovery);
+        serverProperties.setUdsPath(properties.getUdsPath());
         NettyProperties netty = properties.getNetty();
         serverProperties.setBossThread(netty.getBossThread());
         if (netty.getWorkThread() > 0) {
@@ -31,6 +43,9 @@ public class CamelliaRedisProxyBoot {
         } else {
             if (commandInvoker instanceof AsyncCommandInvoker) {
                 serverProperties.setWorkThread(Constants.Server.asyncWorkThread);
+            } else if (commandInvoker instanceof SyncCommandInvoker && !((SyncCommandInvoker) commandInvoker).isExecInWorkThread()) {
+                //命令不在work线程中阻塞执行，work线程数不需要很多
+                serverProperties.setWorkThread(Constants.Server.asyncWorkThread);
             } else {
                 serverProperties.setWorkThread(Constants.Server.syncWorkThread);
             }
@@ -41,6 +56,7 @@ public class CamelliaRedisProxyBoot {
         serverProperties.setSoSndbuf(netty.getSoSndbuf());
         serverProperties.setWriteBufferWaterMarkLow(netty.getWriteBufferWaterMarkLow());
         serverProperties.setWriteBufferWaterMarkHigh(netty.getWriteBufferWaterMarkHigh());
+        serverProperties.setTenantWorkThreads(netty.getTenantWorkThreads());
 
         CamelliaRedisProxyServer server = new CamelliaRedisProxyServer(serverProperties, commandInvoker);
         server.start();
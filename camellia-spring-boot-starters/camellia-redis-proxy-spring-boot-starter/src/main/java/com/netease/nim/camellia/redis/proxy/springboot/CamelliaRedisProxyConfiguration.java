@@ -1,5 +1,6 @@
 package com.netease.nim.camellia.redis.proxy.springboot;
 
+import com.netease.nim.camellia.redis.proxy.IProxyDiscovery;
 import com.netease.nim.camellia.redis.proxy.command.CommandInvoker;
 import com.netease.nim.camellia.redis.proxy.command.async.AsyncCommandInvoker;
 import com.netease.nim.camellia.redis.proxy.command.sync.SyncCommandInvoker;
@@ -9,6 +10,7 @@ import com.netease.nim.camellia.redis.proxy.console.ConsoleServiceAdaptor;
 import com.netease.nim.camellia.redis.proxy.springboot.conf.CamelliaRedisProxyProperties;
 import com.netease.nim.camellia.redis.proxy.springboot.conf.NettyProperties;
 import com.netease.nim.camellia.redis.proxy.springboot.conf.TranspondProperties;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
@@ -32,6 +34,10 @@ public class CamelliaRedisProxyConfiguration {
     @Value("${spring.application.name:camellia-redis-proxy}")
     private String applicationName;
 
+    //集群模式下用于发现其他proxy节点
+    @Autowired(required = false)
+    private IProxyDiscovery proxyDiscovery;
+
     @Bean
     @ConditionalOnMissingBean(value = {CommandInvoker.class})
     public CommandInvoker commandInvoker(CamelliaRedisProxyProperties properties) throws Exception {
@@ -68,7 +74,7 @@ public class CamelliaRedisProxyConfiguration {
     @Bean
     public CamelliaRedisProxyBoot redisProxyBoot(CamelliaRedisProxyProperties properties) throws Exception {
         CommandInvoker commandInvoker = commandInvoker(properties);
-        return new CamelliaRedisProxyBoot(properties, commandInvoker, applicationName, port);
+        return new CamelliaRedisProxyBoot(properties, commandInvoker, applicationName, port, proxyDiscovery);
     }
 
     @Bean
@@ -35,22 +35,36 @@ public class CamelliaRedisProxyUtil {
     public static CamelliaTranspondProperties.LocalProperties parse(TranspondProperties.LocalProperties properties) {
         if (properties == null) return null;
         CamelliaTranspondProperties.LocalProperties localProperties = new CamelliaTranspondProperties.LocalProperties();
-        ResourceTable resourceTable;
+        if (properties.getType() == TranspondProperties.LocalProperties.Type.SIMPLE && properties.getResource() == null) {
+            return localProperties;
+        }
+        localProperties.setResourceTable(parseResourceTable(properties.getType(), properties.getResource(), properties.getJsonFile()));
+        if (properties.getRoutingRules() != null) {
+            for (TranspondProperties.LocalProperties.RoutingRule rule : properties.getRoutingRules()) {
+                if (rule.getType() == TranspondProperties.LocalProperties.Type.SIMPLE && rule.getResource() == null) {
+                    throw new IllegalArgumentException("missing routing rule resource");
+                }
+                ResourceTable resourceTable = parseResourceTable(rule.getType(), rule.getResource(), rule.getJsonFile());
+                localProperties.getRoutingRules().add(new CamelliaTranspondProperties.LocalProperties.RoutingRule(
+                        rule.getKeyPatterns(), rule.getCommands(), resourceTable));
+            }
+        }
+        return localProperties;
+    }
 
-        if (properties.getType() == TranspondProperties.LocalProperties.Type.SIMPLE) {
-            String resource = properties.getResource();
-            if (resource == null) return localProperties;
+    private static ResourceTable parseResourceTable(TranspondProperties.LocalProperties.Type type, String resource, String jsonFile) {
+        ResourceTable resourceTable;
+        if (type == TranspondProperties.LocalProperties.Type.SIMPLE) {
             resourceTable = ResourceTableUtil.simpleTable(new Resource(resource));
-        } else if (properties.getType() == TranspondProperties.LocalProperties.Type.COMPLEX) {
-            String jsonFile = properties.getJsonFile();
+        } else if (type == TranspondProperties.LocalProperties.Type.COMPLEX) {
             if (jsonFile == null) {
                 throw new IllegalArgumentException("missing jsonFile");
             }
-            URL resource = Thread.currentThread().getContextClassLoader().getResource(jsonFile);
-            if (resource == null) {
+            URL url = Thread.currentThread().getContextClassLoader().getResource(jsonFile);
+            if (url == null) {
                 throw new IllegalArgumentException("not found " + jsonFile);
             }
-            String path = resource.getPath();
+            String path = url.getPath();
             String fileContent = FileUtil.readFile(path);
             if (fileContent == null) {
                 throw new IllegalArgumentException(jsonFile + " read fail");
@@ -64,11 +78,10 @@ public class CamelliaRedisProxyUtil {
             throw new IllegalArgumentException("resourceTable check fail");
         }
         Set<Resource> allResources = ResourceUtil.getAllResources(resourceTable);
-        for (Resource resource : allResources) {
-            RedisResourceUtil.parseResourceByUrl(resource);
+        for (Resource r : allResources) {
+            RedisResourceUtil.parseResourceByUrl(r);
         }
-        localProperties.setResourceTable(resourceTable);
-        return localProperties;
+        return resourceTable;
     }
 
     public static CamelliaTranspondProperties.RemoteProperties parse(TranspondProperties.RemoteProperties properties) {
@@ -82,6 +95,7 @@ public class CamelliaRedisProxyUtil {
         remoteProperties.setCheckIntervalMillis(properties.getCheckIntervalMillis());
         remoteProperties.setConnectTimeoutMillis(properties.getConnectTimeoutMillis());
         remoteProperties.setReadTimeoutMillis(properties.getReadTimeoutMillis());
+        remoteProperties.setPreloadBidBgroups(properties.getPreloadBidBgroups());
         return remoteProperties;
     }
 
@@ -104,7 +118,12 @@ public class CamelliaRedisProxyUtil {
         if (netty != null) {
             redisConfProperties.setNetty(new CamelliaTranspondProperties.RedisConfProperties.Netty(netty.getRedisClusterMaxAttempts(),
                     netty.getHeartbeatIntervalSeconds(), netty.getHeartbeatTimeoutMillis(), netty.getCommandPipelineFlushThreshold(),
-                    netty.getConnectTimeoutMillis(), netty.getFailCountThreshold(), netty.getFailBanMillis()));
+                    netty.getConnectTimeoutMillis(), netty.getFailCountThreshold(), netty.getFailBanMillis(),
+                    netty.getBlockingMaxConnectionsPerBackend(), netty.getBlockingMaxIdlePerBackend(),
+                    netty.getCommandPipelineFlushDelayMicros(), netty.getTenantWeights(), netty.getTenantQueueMaxCommands(),
+                    netty.getBackendMaxInflight(), netty.getBackendMaxQueueMillis(), netty.getOutlierSlowThresholdMillis(), netty.getOutlierEjectMillis(),
+                    netty.getWarmUpTimeoutMillis(), netty.getCounterCoalescePrefixes(), netty.getCounterCoalesceWindowMillis(),
+                    netty.getCounterCoalesceConsistency()));
         }
 
         redisConfProperties.setShadingFunc(properties.getShadingFunc());
@@ -114,6 +133,9 @@ public class CamelliaRedisProxyUtil {
         redisConfProperties.setMultiWriteConcurrentExecPoolSize(properties.getMultiWriteConcurrentExecPoolSize());
         redisConfProperties.setShadingConcurrentEnable(properties.isShadingConcurrentEnable());
         redisConfProperties.setMultiWriteConcurrentEnable(properties.isMultiWriteConcurrentEnable());
+        redisConfProperties.setSyncExecMode(properties.getSyncExecMode());
+        redisConfProperties.setSyncExecPoolSize(properties.getSyncExecPoolSize());
+        redisConfProperties.setSyncExecQueueSize(properties.getSyncExecQueueSize());
         return redisConfProperties;
     }
 }
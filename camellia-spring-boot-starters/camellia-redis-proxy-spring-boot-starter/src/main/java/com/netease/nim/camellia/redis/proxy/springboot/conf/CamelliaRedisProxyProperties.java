@@ -3,6 +3,9 @@ package com.netease.nim.camellia.redis.proxy.springboot.conf;
 import com.netease.nim.camellia.redis.proxy.conf.Constants;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  *
  * Created by caojiajun on 2019/11/13.
@@ -15,6 +18,11 @@ public class CamelliaRedisProxyProperties {
      */
     private String password;
 
+    /**
+     * 租户的密码，key为密码，value为bid|bgroup，AUTH使用租户的密码时连接归属于该租户，相当于CLIENT SETNAME
+     */
+    private Map<String, String> tenantPasswords = new HashMap<>();
+
     /**
      * proxy的console port，会起一个console http server，可以自己实现一些自定义指令
      */
@@ -43,6 +51,46 @@ public class CamelliaRedisProxyProperties {
      */
     private int monitorIntervalSeconds = Constants.Server.monitorIntervalSeconds;
 
+    /**
+     * 是否开启在途内存预算，开启后会统计已解码未回包的命令以及未写回客户端的回包所占的字节数，see @MemoryBudget
+     */
+    private boolean memoryBudgetEnable = Constants.Server.memoryBudgetEnable;
+
+    /**
+     * 在途内存的软限制，超过后只放行小命令，小于等于0则取堆内存上限的30%
+     */
+    private long memoryBudgetSoftLimitBytes = -1;
+
+    /**
+     * 在途内存的硬限制，超过后所有新命令直接返回错误，小于等于0则取堆内存上限的50%
+     */
+    private long memoryBudgetHardLimitBytes = -1;
+
+    /**
+     * 小命令的字节数阈值，超过软限制后小于等于该阈值的命令仍然放行
+     */
+    private long memoryBudgetSmallCommandBytes = Constants.Server.memoryBudgetSmallCommandBytes;
+
+    /**
+     * 是否开启集群模式，开启后proxy会响应CLUSTER SLOTS/NODES/INFO，一组proxy对外伪装成一个redis cluster，see @ProxyClusterMode
+     */
+    private boolean clusterModeEnable = Constants.Server.clusterModeEnable;
+
+    /**
+     * 集群模式下对外暴露的地址，为空则取本机ip
+     */
+    private String clusterModeHost;
+
+    /**
+     * 集群模式下静态配置的proxy节点，格式为host:port,host:port，也可以提供IProxyDiscovery的bean来发现其他proxy
+     */
+    private String clusterModeNodes;
+
+    /**
+     * unix domain socket的路径，配置后在tcp端口之外额外监听该路径，供同机部署（如sidecar）的客户端使用，仅支持linux
+     */
+    private String udsPath;
+
     /**
      * netty相关参数
      */
@@ -61,6 +109,14 @@ public class CamelliaRedisProxyProperties {
         this.password = password;
     }
 
+    public Map<String, String> getTenantPasswords() {
+        return tenantPasswords;
+    }
+
+    public void setTenantPasswords(Map<String, String> tenantPasswords) {
+        this.tenantPasswords = tenantPasswords;
+    }
+
     public int getConsolePort() {
         return consolePort;
     }
@@ -101,6 +157,70 @@ public class CamelliaRedisProxyProperties {
         this.monitorIntervalSeconds = monitorIntervalSeconds;
     }
 
+    public boolean isMemoryBudgetEnable() {
+        return memoryBudgetEnable;
+    }
+
+    public void setMemoryBudgetEnable(boolean memoryBudgetEnable) {
+        this.memoryBudgetEnable = memoryBudgetEnable;
+    }
+
+    public long getMemoryBudgetSoftLimitBytes() {
+        return memoryBudgetSoftLimitBytes;
+    }
+
+    public void setMemoryBudgetSoftLimitBytes(long memoryBudgetSoftLimitBytes) {
+        this.memoryBudgetSoftLimitBytes = memoryBudgetSoftLimitBytes;
+    }
+
+    public long getMemoryBudgetHardLimitBytes() {
+        return memoryBudgetHardLimitBytes;
+    }
+
+    public void setMemoryBudgetHardLimitBytes(long memoryBudgetHardLimitBytes) {
+        this.memoryBudgetHardLimitBytes = memoryBudgetHardLimitBytes;
+    }
+
+    public long getMemoryBudgetSmallCommandBytes() {
+        return memoryBudgetSmallCommandBytes;
+    }
+
+    public void setMemoryBudgetSmallCommandBytes(long memoryBudgetSmallCommandBytes) {
+        this.memoryBudgetSmallCommandBytes = memoryBudgetSmallCommandBytes;
+    }
+
+    public boolean isClusterModeEnable() {
+        return clusterModeEnable;
+    }
+
+    public void setClusterModeEnable(boolean clusterModeEnable) {
+        this.clusterModeEnable = clusterModeEnable;
+    }
+
+    public String getClusterModeHost() {
+        return clusterModeHost;
+    }
+
+    public void setClusterModeHost(String clusterModeHost) {
+        this.clusterModeHost = clusterModeHost;
+    }
+
+    public String getClusterModeNodes() {
+        return clusterModeNodes;
+    }
+
+    public void setClusterModeNodes(String clusterModeNodes) {
+        this.clusterModeNodes = clusterModeNodes;
+    }
+
+    public String getUdsPath() {
+        return udsPath;
+    }
+
+    public void setUdsPath(String udsPath) {
+        this.udsPath = udsPath;
+    }
+
     public NettyProperties getNetty() {
         return netty;
     }
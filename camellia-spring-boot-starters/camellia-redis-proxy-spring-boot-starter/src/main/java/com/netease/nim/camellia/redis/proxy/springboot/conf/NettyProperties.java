@@ -3,6 +3,9 @@ package com.netease.nim.camellia.redis.proxy.springboot.conf;
 import com.netease.nim.camellia.redis.proxy.conf.Constants;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  *
  * Created by caojiajun on 2019/11/13.
@@ -17,6 +20,7 @@ public class NettyProperties {
     private int soRcvbuf = 1048576;
     private int writeBufferWaterMarkLow = 128 * 1024;
     private int writeBufferWaterMarkHigh = 512 * 1024;
+    private Map<String, Integer> tenantWorkThreads = new HashMap<>();//租户独占的work线程数，key为bid|bgroup或者bid
 
     public int getBossThread() {
         return bossThread;
@@ -81,4 +85,12 @@ public class NettyProperties {
     public void setWriteBufferWaterMarkHigh(int writeBufferWaterMarkHigh) {
         this.writeBufferWaterMarkHigh = writeBufferWaterMarkHigh;
     }
+
+    public Map<String, Integer> getTenantWorkThreads() {
+        return tenantWorkThreads;
+    }
+
+    public void setTenantWorkThreads(Map<String, Integer> tenantWorkThreads) {
+        this.tenantWorkThreads = tenantWorkThreads;
+    }
 }
@@ -1,9 +1,14 @@
 package com.netease.nim.camellia.redis.proxy.springboot.conf;
 
+import com.netease.nim.camellia.redis.proxy.conf.CamelliaTranspondProperties;
 import com.netease.nim.camellia.redis.proxy.conf.Constants;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -88,6 +93,11 @@ public class TranspondProperties {
          */
         private String jsonFile;
 
+        /**
+         * 路由规则，在分片之前按顺序匹配，命中的请求转发到规则自己的后端
+         */
+        private List<RoutingRule> routingRules = new ArrayList<>();
+
         public Type getType() {
             return type;
         }
@@ -112,6 +122,62 @@ public class TranspondProperties {
             this.jsonFile = jsonFile;
         }
 
+        public List<RoutingRule> getRoutingRules() {
+            return routingRules;
+        }
+
+        public void setRoutingRules(List<RoutingRule> routingRules) {
+            this.routingRules = routingRules;
+        }
+
+        public static class RoutingRule {
+            private List<String> keyPatterns = new ArrayList<>();//key的前缀或者通配符，如user:*、order:*:detail
+            private List<String> commands = new ArrayList<>();//命令名，或者@read/@write
+            private Type type = Type.SIMPLE;
+            private String resource;
+            private String jsonFile;
+
+            public List<String> getKeyPatterns() {
+                return keyPatterns;
+            }
+
+            public void setKeyPatterns(List<String> keyPatterns) {
+                this.keyPatterns = keyPatterns;
+            }
+
+            public List<String> getCommands() {
+                return commands;
+            }
+
+            public void setCommands(List<String> commands) {
+                this.commands = commands;
+            }
+
+            public Type getType() {
+                return type;
+            }
+
+            public void setType(Type type) {
+                this.type = type;
+            }
+
+            public String getResource() {
+                return resource;
+            }
+
+            public void setResource(String resource) {
+                this.resource = resource;
+            }
+
+            public String getJsonFile() {
+                return jsonFile;
+            }
+
+            public void setJsonFile(String jsonFile) {
+                this.jsonFile = jsonFile;
+            }
+        }
+
         public static enum Type {
 
             /**
@@ -171,6 +237,11 @@ public class TranspondProperties {
          */
         private int readTimeoutMillis = Constants.Remote.readTimeoutMillis;
 
+        /**
+         * 启动时异步预热的bid/bgroup，格式为bid|bgroup,bid|bgroup
+         */
+        private String preloadBidBgroups;
+
         public String getUrl() {
             return url;
         }
@@ -234,6 +305,14 @@ public class TranspondProperties {
         public void setReadTimeoutMillis(int readTimeoutMillis) {
             this.readTimeoutMillis = readTimeoutMillis;
         }
+
+        public String getPreloadBidBgroups() {
+            return preloadBidBgroups;
+        }
+
+        public void setPreloadBidBgroups(String preloadBidBgroups) {
+            this.preloadBidBgroups = preloadBidBgroups;
+        }
     }
 
     public static class RedisConfProperties {
@@ -250,6 +329,10 @@ public class TranspondProperties {
         private int shadingConcurrentExecPoolSize = Constants.Sync.shadingConcurrentExecPoolSize;
         private boolean multiWriteConcurrentEnable = Constants.Sync.multiWriteConcurrentEnable;
         private int multiWriteConcurrentExecPoolSize = Constants.Sync.multiWriteConcurrentExecPoolSize;
+        //sync转发时命令的执行方式，WORK_THREAD/VIRTUAL_THREAD/THREAD_POOL
+        private CamelliaTranspondProperties.RedisConfProperties.SyncExecMode syncExecMode = Constants.Sync.syncExecMode;
+        private int syncExecPoolSize = Constants.Sync.syncExecPoolSize;
+        private int syncExecQueueSize = Constants.Sync.syncExecQueueSize;
 
         //async转发时的配置
         private Netty netty = new Netty();
@@ -262,6 +345,19 @@ public class TranspondProperties {
             private int connectTimeoutMillis = Constants.Async.connectTimeoutMillis;
             private int failCountThreshold = Constants.Async.failCountThreshold;
             private long failBanMillis = Constants.Async.failBanMillis;
+            private int blockingMaxConnectionsPerBackend = Constants.Async.blockingMaxConnectionsPerBackend;//BLPOP等阻塞命令每个后端节点最多的专用连接数
+            private int blockingMaxIdlePerBackend = Constants.Async.blockingMaxIdlePerBackend;
+            private long commandPipelineFlushDelayMicros = Constants.Async.commandPipelineFlushDelayMicros;//后端写合并的最大等待时间，小于等于0则不等待
+            private Map<String, Integer> tenantWeights = new HashMap<>();//共享后端连接时各租户的调度权重，key为bid|bgroup，默认为1
+            private int tenantQueueMaxCommands = Constants.Async.tenantQueueMaxCommands;//每个后端连接上每个租户排队的最大命令数
+            private int backendMaxInflight = Constants.Async.backendMaxInflight;//每个后端节点的在途命令数上限，超过则直接回复错误
+            private long backendMaxQueueMillis = Constants.Async.backendMaxQueueMillis;//命令在后端发送队列中的最大等待时间
+            private long outlierSlowThresholdMillis = Constants.Async.outlierSlowThresholdMillis;//异常检测的慢请求阈值
+            private long outlierEjectMillis = Constants.Async.outlierEjectMillis;//慢节点的剔除时间，小于等于0则不开启
+            private long warmUpTimeoutMillis = Constants.Async.warmUpTimeoutMillis;//启动和重新加载配置时后端预热的超时时间
+            private Map<String, String> counterCoalescePrefixes = new HashMap<>();//开启计数器写合并的租户，key为bid|bgroup或bid（本地配置为default），value为逗号分隔的key前缀
+            private long counterCoalesceWindowMillis = Constants.Async.counterCoalesceWindowMillis;//计数器写合并的窗口
+            private CamelliaTranspondProperties.RedisConfProperties.CounterConsistency counterCoalesceConsistency = Constants.Async.counterCoalesceConsistency;//写合并的回包方式，FLUSHED/LOCAL_ESTIMATE
 
             public int getRedisClusterMaxAttempts() {
                 return redisClusterMaxAttempts;
@@ -318,6 +414,110 @@ public class TranspondProperties {
             public void setFailBanMillis(long failBanMillis) {
                 this.failBanMillis = failBanMillis;
             }
+
+            public int getBlockingMaxConnectionsPerBackend() {
+                return blockingMaxConnectionsPerBackend;
+            }
+
+            public void setBlockingMaxConnectionsPerBackend(int blockingMaxConnectionsPerBackend) {
+                this.blockingMaxConnectionsPerBackend = blockingMaxConnectionsPerBackend;
+            }
+
+            public int getBlockingMaxIdlePerBackend() {
+                return blockingMaxIdlePerBackend;
+            }
+
+            public void setBlockingMaxIdlePerBackend(int blockingMaxIdlePerBackend) {
+                this.blockingMaxIdlePerBackend = blockingMaxIdlePerBackend;
+            }
+
+            public long getCommandPipelineFlushDelayMicros() {
+                return commandPipelineFlushDelayMicros;
+            }
+
+            public void setCommandPipelineFlushDelayMicros(long commandPipelineFlushDelayMicros) {
+                this.commandPipelineFlushDelayMicros = commandPipelineFlushDelayMicros;
+            }
+
+            public Map<String, Integer> getTenantWeights() {
+                return tenantWeights;
+            }
+
+            public void setTenantWeights(Map<String, Integer> tenantWeights) {
+                this.tenantWeights = tenantWeights;
+            }
+
+            public int getTenantQueueMaxCommands() {
+                return tenantQueueMaxCommands;
+            }
+
+            public void setTenantQueueMaxCommands(int tenantQueueMaxCommands) {
+                this.tenantQueueMaxCommands = tenantQueueMaxCommands;
+            }
+
+            public int getBackendMaxInflight() {
+                return backendMaxInflight;
+            }
+
+            public void setBackendMaxInflight(int backendMaxInflight) {
+                this.backendMaxInflight = backendMaxInflight;
+            }
+
+            public long getBackendMaxQueueMillis() {
+                return backendMaxQueueMillis;
+            }
+
+            public void setBackendMaxQueueMillis(long backendMaxQueueMillis) {
+                this.backendMaxQueueMillis = backendMaxQueueMillis;
+            }
+
+            public long getOutlierSlowThresholdMillis() {
+                return outlierSlowThresholdMillis;
+            }
+
+            public void setOutlierSlowThresholdMillis(long outlierSlowThresholdMillis) {
+                this.outlierSlowThresholdMillis = outlierSlowThresholdMillis;
+            }
+
+            public long getOutlierEjectMillis() {
+                return outlierEjectMillis;
+            }
+
+            public void setOutlierEjectMillis(long outlierEjectMillis) {
+                this.outlierEjectMillis = outlierEjectMillis;
+            }
+
+            public long getWarmUpTimeoutMillis() {
+                return warmUpTimeoutMillis;
+            }
+
+            public void setWarmUpTimeoutMillis(long warmUpTimeoutMillis) {
+                this.warmUpTimeoutMillis = warmUpTimeoutMillis;
+            }
+
+            public Map<String, String> getCounterCoalescePrefixes() {
+                return counterCoalescePrefixes;
+            }
+
+            public void setCounterCoalescePrefixes(Map<String, String> counterCoalescePrefixes) {
+                this.counterCoalescePrefixes = counterCoalescePrefixes;
+            }
+
+            public long getCounterCoalesceWindowMillis() {
+                return counterCoalesceWindowMillis;
+            }
+
+            public void setCounterCoalesceWindowMillis(long counterCoalesceWindowMillis) {
+                this.counterCoalesceWindowMillis = counterCoalesceWindowMillis;
+            }
+
+            public CamelliaTranspondProperties.RedisConfProperties.CounterConsistency getCounterCoalesceConsistency() {
+                return counterCoalesceConsistency;
+            }
+
+            public void setCounterCoalesceConsistency(CamelliaTranspondProperties.RedisConfProperties.CounterConsistency counterCoalesceConsistency) {
+                this.counterCoalesceConsistency = counterCoalesceConsistency;
+            }
         }
 
         public static class Jedis {
@@ -489,6 +689,30 @@ public class TranspondProperties {
             this.multiWriteConcurrentExecPoolSize = multiWriteConcurrentExecPoolSize;
         }
 
+        public CamelliaTranspondProperties.RedisConfProperties.SyncExecMode getSyncExecMode() {
+            return syncExecMode;
+        }
+
+        public void setSyncExecMode(CamelliaTranspondProperties.RedisConfProperties.SyncExecMode syncExecMode) {
+            this.syncExecMode = syncExecMode;
+        }
+
+        public int getSyncExecPoolSize() {
+            return syncExecPoolSize;
+        }
+
+        public void setSyncExecPoolSize(int syncExecPoolSize) {
+            this.syncExecPoolSize = syncExecPoolSize;
+        }
+
+        public int getSyncExecQueueSize() {
+            return syncExecQueueSize;
+        }
+
+        public void setSyncExecQueueSize(int syncExecQueueSize) {
+            this.syncExecQueueSize = syncExecQueueSize;
+        }
+
         public boolean isShadingConcurrentEnable() {
             return shadingConcurrentEnable;
         }